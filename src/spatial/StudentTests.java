@@ -3,11 +3,36 @@ package spatial;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import spatial.kdpoint.DoubleKDPoint;
+import spatial.kdpoint.FloatKDPoint;
+import spatial.kdpoint.ImmutableKDPoint;
 import spatial.kdpoint.InvalidDimensionalityException;
 import spatial.kdpoint.KDPoint;
+import spatial.kdpoint.Point2i;
 import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNQueryContext;
+import spatial.knnutils.QueryCost;
+import spatial.knnutils.SpatialEntry;
+import spatial.metrics.DistanceMetric;
+import spatial.metrics.WeightedEuclideanMetric;
+import spatial.nodes.KDTreeNode;
+import spatial.nodes.PRQuadBlackNode;
+import spatial.nodes.PRQuadGrayNode;
+import spatial.nodes.PRQuadNode;
+import spatial.trees.BucketKDTree;
+import spatial.trees.CentroidAccuracyException;
+import spatial.trees.DoubleKDTree;
+import spatial.trees.DoublePRQuadTree;
+import spatial.trees.FlatKDTree;
+import spatial.trees.FloatKDTree;
+import spatial.trees.FloatPRQuadTree;
 import spatial.trees.KDTree;
+import spatial.trees.KDTreeMap;
+import spatial.trees.LinearQuadTree;
+import spatial.trees.LogarithmicKDTree;
 import spatial.trees.PRQuadTree;
+import spatial.trees.PRQuadTreeMap;
+import spatial.trees.SpatialMap;
 import visualization.CompactVizTree;
 
 import java.util.*;
@@ -187,12 +212,1168 @@ public class StudentTests {
         }
     }
 
+    @Test
+    public void testKDTreeBulkLoadIsBalanced(){
+        for(int dim = 1; dim <= 4; dim++){
+            Set<KDPoint> distinct = new LinkedHashSet<>();
+            for(int i = 0; i < MAX_ITER; i++)
+                distinct.add(getRandomPoint(dim));
+            kdTree = KDTree.bulkLoad(dim, new ArrayList<>(distinct));
+            int expectedHeight = 31 - Integer.numberOfLeadingZeros(distinct.size());
+            assertEquals("A bulk-loaded " + dim + "-D tree over " + distinct.size() + " distinct points should have a height of floor(log2(n)).",
+                    expectedHeight, kdTree.height());
+            assertEquals("A bulk-loaded tree should count all of its points.", distinct.size(), kdTree.count());
+
+            List<KDPoint> withDuplicates = new ArrayList<>(distinct);
+            withDuplicates.addAll(distinct);
+            kdTree = KDTree.bulkLoad(dim, withDuplicates);
+            for(KDPoint p : withDuplicates)
+                assertTrue("A bulk-loaded " + dim + "-D tree with duplicates should contain " + p + ".", kdTree.search(p));
+        }
+    }
+
+    @Test
+    public void testKDTreeParallelBulkLoadMatchesSequential(){
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < 5000; i++)
+            points.add(getRandomPoint(3));
+        KDTree sequential = KDTree.bulkLoad(3, points);
+        KDTree parallel = KDTree.parallelBulkLoad(3, points, java.util.concurrent.ForkJoinPool.commonPool(), 16);
+        assertEquals("A parallel bulk load should produce exactly the same tree as a sequential one.",
+                sequential.treeDescription(false), parallel.treeDescription(false));
+    }
+
+    @Test
+    public void testKDTreeNNMatchesBruteForceAndPrunes(){
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < 10000; i++)
+            points.add(getRandomPoint(2));
+        kdTree = KDTree.bulkLoad(points);
+        QueryCost cost = new QueryCost();
+        for(int i = 0; i < MAX_ITER; i++){
+            KDPoint anchor = getRandomPoint(2);
+            double expected = Double.MAX_VALUE;
+            for(KDPoint p : points)
+                if(!p.equals(anchor))
+                    expected = Math.min(expected, p.euclideanDistance(anchor));
+            KDPoint nn = kdTree.nearestNeighbor(anchor, cost);
+            assertEquals("The nearest neighbor of " + anchor + " was not at the brute-force distance.",
+                    expected, nn.euclideanDistance(anchor), 1e-9);
+        }
+        assertTrue("Nearest neighbor queries over a balanced tree should visit far fewer nodes than the tree contains.",
+                cost.getNodesVisited() / MAX_ITER < points.size() / 10);
+    }
+
+    @Test
+    public void testKDTreeKNNMatchesBruteForceAndPrunes(){
+        int kNN = 10;
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < 10000; i++)
+            points.add(getRandomPoint(3));
+        kdTree = KDTree.bulkLoad(3, points);
+        QueryCost cost = new QueryCost();
+        for(int i = 0; i < MAX_ITER; i++){
+            KDPoint anchor = getRandomPoint(3);
+            List<Double> expected = new ArrayList<>();
+            for(KDPoint p : points)
+                if(!p.equals(anchor))
+                    expected.add(p.euclideanDistance(anchor));
+            Collections.sort(expected);
+            BoundedPriorityQueue<KDPoint> knn = kdTree.kNearestNeighbors(kNN, anchor, cost);
+            assertEquals("A kNN query should fill its queue when the tree has enough points.", kNN, knn.size());
+            for(int j = 0; j < kNN; j++)
+                assertEquals("Neighbor #" + j + " of " + anchor + " was not at the brute-force distance.",
+                        expected.get(j), knn.dequeue().euclideanDistance(anchor), 1e-9);
+        }
+        assertTrue("kNN queries over a balanced tree should visit far fewer nodes than the tree contains.",
+                cost.getNodesVisited() / MAX_ITER < points.size() / 10);
+    }
+
+    @Test
+    public void testKDTreeRangeMatchesBruteForce(){
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < 2000; i++)
+            points.add(getRandomPoint(2));
+        kdTree = new KDTree(2);
+        for(KDPoint p : points)
+            kdTree.insert(p);
+        for(double range : new double[]{0, 1, 5, 20, 300}){
+            KDPoint anchor = getRandomPoint(2);
+            int expected = 0;
+            for(KDPoint p : points)
+                if(!p.equals(anchor) && p.euclideanDistance(anchor) <= range)
+                    expected++;
+            assertEquals("A range query of radius " + range + " around " + anchor + " returned the wrong number of points.",
+                    expected, kdTree.range(anchor, range).size());
+        }
+    }
+
+    @Test
+    public void testKDTreeBulkLoadSortedInput(){
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < 1023; i++)
+            points.add(new KDPoint(i, i));
+        kdTree = KDTree.bulkLoad(points);
+        assertEquals("Bulk-loading 1023 sorted points should yield a perfect tree of height 9.", 9, kdTree.height());
+    }
+
+    @Test
+    public void testKDTreeBulkLoadClusteredInputIsBalanced(){
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < 16384; i++)
+            points.add(new KDPoint(r.nextInt(4), r.nextInt(64))); // Long runs of equal coordinates, and many copies.
+        kdTree = KDTree.bulkLoad(new ArrayList<>(points));
+        assertEquals("Bulk-loading 16384 clustered points should yield a tree of height 14.", 14, kdTree.height());
+        assertEquals("Counting a box should see every copy of a point.", Collections.frequency(points, new KDPoint(2, 7)),
+                kdTree.countInBox(new KDPoint(2, 7), new KDPoint(2, 7)));
+
+        Collections.shuffle(points, r);
+        for(int i = 0; i < points.size(); i++){
+            KDPoint p = points.get(i);
+            assertTrue("A clustered tree should contain " + p + ".", kdTree.search(p));
+            if(i % 2 == 0){
+                kdTree.delete(p);
+                assertEquals("Deleting " + p + " should remove exactly one copy.", points.size() - i / 2 - 1, kdTree.count());
+            }
+        }
+        List<KDPoint> left = new ArrayList<>();
+        for(int i = 1; i < points.size(); i += 2)
+            left.add(points.get(i));
+        for(KDPoint p : left)
+            assertTrue("Deletions should keep " + p + " in a clustered tree.", kdTree.search(p));
+        for(int i = 0; i < MAX_ITER; i++){
+            KDPoint anchor = new KDPoint(r.nextInt(6) - 1, r.nextInt(66) - 1);
+            int expected = 0;
+            for(KDPoint p : left)
+                if(!p.equals(anchor) && p.euclideanDistance(anchor) <= 2)
+                    expected++;
+            assertEquals("A range query around " + anchor + " should see equal coordinates on both sides.", expected,
+                    kdTree.range(anchor, 2).size());
+        }
+    }
+
+
+    @Test
+    public void testKDTreeDeleteKeepsTreeConsistent(){
+        kdTree = new KDTree(2);
+        List<KDPoint> inserted = new ArrayList<>();
+        for(int i = 0; i < 2000; i++){
+            KDPoint p = getRandomPoint(2);
+            kdTree.insert(p);
+            inserted.add(p);
+        }
+        Collections.shuffle(inserted, r);
+        for(int i = 0; i < inserted.size(); i++){
+            KDPoint p = inserted.get(i);
+            kdTree.delete(p);
+            assertEquals("After " + (i + 1) + " deletions, the KD-Tree has the wrong count.", inserted.size() - i - 1, kdTree.count());
+            if(i % 100 == 0)
+                for(KDPoint q : inserted.subList(i + 1, inserted.size()))
+                    assertTrue("Deleting " + p + " lost " + q + " from the KD-Tree.", kdTree.search(q));
+        }
+        assertTrue("After deleting every point, the KD-Tree should be empty.", kdTree.isEmpty());
+    }
+
+    @Test
+    public void testSelfBalancingKDTreeStaysShallow(){
+        double alpha = 0.7;
+        kdTree = new KDTree(2, alpha);
+        int n = 10000;
+        for(int i = 0; i < n; i++)
+            kdTree.insert(new KDPoint(i, i)); // Sorted input turns an unbalanced tree into a linked list.
+        int maxHeight = (int) Math.ceil(Math.log(n) / Math.log(1 / alpha));
+        assertTrue("A self-balancing KD-Tree over " + n + " sorted points should have a height of at most " + maxHeight +
+                ", but it had a height of " + kdTree.height() + ".", kdTree.height() <= maxHeight);
+        for(int i = 0; i < n; i += 7)
+            assertTrue("A self-balancing KD-Tree should still contain (" + i + ", " + i + ").", kdTree.search(new KDPoint(i, i)));
+        for(int i = 0; i < n; i += 2)
+            kdTree.delete(new KDPoint(i, i));
+        assertEquals("Deleting half of the points should halve the count.", n / 2, kdTree.count());
+        assertTrue("A self-balancing KD-Tree should stay shallow after deletions too.", kdTree.height() <= maxHeight);
+        for(int i = 1; i < n; i += 2)
+            assertTrue("A self-balancing KD-Tree should still contain (" + i + ", " + i + ") after deletions.", kdTree.search(new KDPoint(i, i)));
+    }
+
+    @Test
+    public void testSelfBalancingKDTreeWithSharedCoordinates(){
+        double alpha = 0.7;
+        int n = 10000;
+        int maxHeight = (int) Math.ceil(Math.log(n) / Math.log(1 / alpha));
+        long maxRebuilt = 2L * n * (32 - Integer.numberOfLeadingZeros(n)); // O(log n) amortized nodes rebuilt per insertion.
+        KDTreeMap<Integer> map = new KDTreeMap<>(2, alpha);
+        for(int copies = 1; copies <= 2; copies++){
+            kdTree = new KDTree(2, alpha);
+            QueryCost cost = new QueryCost();
+            for(int i = 0; i < n; i++){
+                kdTree.insert(new KDPoint(0, i / copies), cost); // Every point shares its x, which goes right on insertion.
+                if(copies == 1)
+                    map.put(new KDPoint(0, i), i);
+            }
+            assertTrue("Shared coordinates should not keep triggering rebuilds, but " + cost.getNodesVisited() +
+                    " nodes were rebuilt.", cost.getNodesVisited() <= maxRebuilt);
+            assertTrue("A self-balancing KD-Tree over shared coordinates should have a height of at most " + maxHeight +
+                    ", but it had a height of " + kdTree.height() + ".", kdTree.height() <= maxHeight);
+            for(int i = 0; i < n; i += 2)
+                kdTree.delete(new KDPoint(0, i / copies));
+            assertEquals("Deleting half of the points should halve the count.", n / 2, kdTree.count());
+            for(int i = 1; i < n; i += 2)
+                assertTrue("Deletions should keep (0, " + i / copies + ").", kdTree.search(new KDPoint(0, i / copies)));
+        }
+        assertTrue("A self-balancing KDTreeMap over shared coordinates should stay shallow.", map.height() <= maxHeight);
+        for(int i = 0; i < n; i += 3)
+            assertEquals("A self-balancing KDTreeMap should keep every value.", Integer.valueOf(i), map.get(new KDPoint(0, i)));
+    }
+
+    @Test
+    public void testKDTreeNodeMaintainsHeightAndSize(){
+        List<KDPoint> inserted = new ArrayList<>();
+        KDTreeNode root = new KDTreeNode(getRandomPoint(2));
+        inserted.add(root.getPoint());
+        for(int i = 0; i < 3000; i++){
+            if(i % 4 == 3){
+                KDPoint victim = inserted.remove(r.nextInt(inserted.size()));
+                root = root.delete(victim, 0, 2);
+            } else {
+                KDPoint p = getRandomPoint(2);
+                root.insert(p, 0, 2);
+                inserted.add(p);
+            }
+            assertEquals("A node should know the size of its subtree.", inserted.size(), root.size());
+            if(i % 100 == 0)
+                assertEquals("A node should know the height of its subtree.", root.heightHelp(root), root.height());
+        }
+    }
+
+    @Test
+    public void testKDTreeCountInBoxAndRank(){
+        for(double alpha : new double[]{0, 0.7}){
+            kdTree = alpha == 0 ? new KDTree(2) : new KDTree(2, alpha);
+            List<KDPoint> inserted = new ArrayList<>();
+            for(int i = 0; i < 2000; i++){
+                KDPoint p = getRandomPoint(2);
+                kdTree.insert(p);
+                inserted.add(p);
+                if(i % 5 == 0){
+                    KDPoint victim = inserted.remove(r.nextInt(inserted.size()));
+                    kdTree.delete(victim);
+                }
+            }
+            for(int i = 0; i < MAX_ITER; i++){
+                KDPoint a = getRandomPoint(2), b = getRandomPoint(2);
+                KDPoint lo = new KDPoint(Math.min(a.coords[0], b.coords[0]), Math.min(a.coords[1], b.coords[1]));
+                KDPoint hi = new KDPoint(Math.max(a.coords[0], b.coords[0]), Math.max(a.coords[1], b.coords[1]));
+                int inBox = 0, below = 0;
+                for(KDPoint p : inserted){
+                    if(lo.coords[0] <= p.coords[0] && p.coords[0] <= hi.coords[0] && lo.coords[1] <= p.coords[1] && p.coords[1] <= hi.coords[1])
+                        inBox++;
+                    if(p.coords[1] < a.coords[1])
+                        below++;
+                }
+                assertEquals("Box count between " + lo + " and " + hi + " did not match a linear scan.", inBox, kdTree.countInBox(lo, hi));
+                assertEquals("The rank of " + a.coords[1] + " on dimension 1 did not match a linear scan.", below, kdTree.rank(1, a.coords[1]));
+            }
+            assertEquals("Every point should rank below Integer.MAX_VALUE.", inserted.size(), kdTree.rank(0, Integer.MAX_VALUE));
+            assertEquals("No point should rank below Integer.MIN_VALUE.", 0, kdTree.rank(0, Integer.MIN_VALUE));
+        }
+    }
+
+    @Test
+    public void testFlatKDTreeMatchesKDTree(){
+        for(int dim = 1; dim <= 3; dim++){
+            List<KDPoint> points = new ArrayList<>();
+            for(int i = 0; i < 3000; i++)
+                points.add(getRandomPoint(dim));
+            kdTree = KDTree.bulkLoad(dim, points);
+            FlatKDTree flat = new FlatKDTree(dim, points);
+            assertEquals("A flat tree should count all of its points.", points.size(), flat.count());
+            for(KDPoint p : points)
+                assertTrue("A flat " + dim + "-D tree should contain " + p + ".", flat.search(p));
+            for(int i = 0; i < MAX_ITER; i++){
+                KDPoint anchor = getRandomPoint(dim);
+                assertEquals("Flat and pointer-based trees disagree on the nearest neighbor distance of " + anchor + ".",
+                        kdTree.nearestNeighbor(anchor).euclideanDistance(anchor),
+                        flat.nearestNeighbor(anchor).euclideanDistance(anchor), 1e-9);
+                BoundedPriorityQueue<KDPoint> expected = kdTree.kNearestNeighbors(5, anchor), actual = flat.kNearestNeighbors(5, anchor);
+                while(!expected.isEmpty())
+                    assertEquals("Flat and pointer-based trees disagree on the kNN distances of " + anchor + ".",
+                            expected.dequeue().euclideanDistance(anchor), actual.dequeue().euclideanDistance(anchor), 1e-9);
+                assertEquals("Flat and pointer-based trees disagree on a range query around " + anchor + ".",
+                        kdTree.range(anchor, 15).size(), flat.range(anchor, 15).size());
+            }
+        }
+    }
+
 
     /* ******************************************************************************************************** */
     /* ******************************************************************************************************** */
     /* ***************************************** PR-QUADTREE TESTS ******************************************** */
     /* ******************************************************************************************************** */
     /* ******************************************************************************************************** */
+    @Test
+    public void testLogarithmicKDTreeMatchesKDTree(){
+        for(int dim = 1; dim <= 3; dim++){
+            kdTree = new KDTree(dim);
+            LogarithmicKDTree logTree = new LogarithmicKDTree(dim);
+            List<KDPoint> inserted = new ArrayList<>();
+            for(int i = 0; i < 2000; i++){
+                KDPoint p = getRandomPoint(dim);
+                kdTree.insert(p);
+                logTree.insert(p);
+                inserted.add(p);
+                if(i % 3 == 0){ // Interleave some deletions.
+                    KDPoint victim = inserted.remove(r.nextInt(inserted.size()));
+                    kdTree.delete(victim);
+                    logTree.delete(victim);
+                }
+            }
+            assertEquals("The logarithmic tree should count all of its points.", kdTree.count(), logTree.count());
+            assertTrue("A logarithmic tree cannot use more blocks than it has bits.",
+                    logTree.blockCount() <= 32 - Integer.numberOfLeadingZeros(2000));
+            for(KDPoint p : inserted)
+                assertTrue("A logarithmic " + dim + "-D tree should contain " + p + ".", logTree.search(p));
+            for(int i = 0; i < MAX_ITER; i++){
+                KDPoint anchor = getRandomPoint(dim);
+                assertEquals("Logarithmic and pointer-based trees disagree on the nearest neighbor distance of " + anchor + ".",
+                        kdTree.nearestNeighbor(anchor).euclideanDistance(anchor),
+                        logTree.nearestNeighbor(anchor).euclideanDistance(anchor), 1e-9);
+                BoundedPriorityQueue<KDPoint> expected = kdTree.kNearestNeighbors(5, anchor), actual = logTree.kNearestNeighbors(5, anchor);
+                while(!expected.isEmpty())
+                    assertEquals("Logarithmic and pointer-based trees disagree on the kNN distances of " + anchor + ".",
+                            expected.dequeue().euclideanDistance(anchor), actual.dequeue().euclideanDistance(anchor), 1e-9);
+                assertEquals("Logarithmic and pointer-based trees disagree on a range query around " + anchor + ".",
+                        kdTree.range(anchor, 15).size(), logTree.range(anchor, 15).size());
+            }
+        }
+    }
+
+    @Test
+    public void testLogarithmicKDTreeDeletesWithTombstones(){
+        kdTree = new KDTree();
+        LogarithmicKDTree logTree = new LogarithmicKDTree();
+        List<KDPoint> inserted = new ArrayList<>();
+        for(int i = 0; i < 1000; i++){
+            KDPoint p = getRandomPoint(2);
+            for(int copy = 0; copy < 1 + i % 2; copy++){ // Every other point twice.
+                kdTree.insert(p);
+                logTree.insert(p);
+                inserted.add(p);
+            }
+        }
+        Collections.shuffle(inserted, r);
+        while(inserted.size() > 10){ // Enough deletions to rebuild the index several times over.
+            KDPoint victim = inserted.remove(inserted.size() - 1);
+            kdTree.delete(victim);
+            logTree.delete(victim);
+            assertEquals("Deleting from a logarithmic tree should remove a single copy.", inserted.contains(victim), logTree.search(victim));
+            assertEquals("The logarithmic tree should count all of its points.", inserted.size(), logTree.count());
+            assertTrue("Deleted points should not make a logarithmic tree much taller.",
+                    logTree.height() <= 32 - Integer.numberOfLeadingZeros(inserted.size()));
+            KDPoint anchor = getRandomPoint(2);
+            assertEquals("Logarithmic trees should not report deleted points as nearest neighbors.",
+                    kdTree.nearestNeighbor(anchor).euclideanDistance(anchor),
+                    logTree.nearestNeighbor(anchor).euclideanDistance(anchor), 1e-9);
+            BoundedPriorityQueue<KDPoint> expected = kdTree.kNearestNeighbors(5, anchor), actual = logTree.kNearestNeighbors(5, anchor);
+            assertEquals("Logarithmic trees should not report deleted points as k nearest neighbors.", expected.size(), actual.size());
+            while(!expected.isEmpty())
+                assertEquals("Logarithmic trees should not report deleted points as k nearest neighbors.",
+                        expected.dequeue().euclideanDistance(anchor), actual.dequeue().euclideanDistance(anchor), 1e-9);
+            assertEquals("Logarithmic trees should not report deleted points within range.",
+                    kdTree.range(anchor, 30).size(), logTree.range(anchor, 30).size());
+        }
+        for(KDPoint p : new ArrayList<>(inserted))
+            logTree.delete(p);
+        assertTrue("Deleting every point should empty a logarithmic tree.", logTree.isEmpty());
+        assertEquals("An empty logarithmic tree has no blocks.", 0, logTree.blockCount());
+        assertNull("An empty logarithmic tree has no nearest neighbor.", logTree.nearestNeighbor(new KDPoint(0, 0)));
+    }
+
+    @Test
+    public void testBucketKDTreeMatchesKDTree(){
+        for(int bucketSize : new int[]{1, 3, 16}){
+            for(int dim = 1; dim <= 3; dim++){
+                kdTree = new KDTree(dim);
+                BucketKDTree bucketTree = new BucketKDTree(dim, bucketSize);
+                List<KDPoint> inserted = new ArrayList<>();
+                for(int i = 0; i < 1500; i++){
+                    KDPoint p = getRandomPoint(dim);
+                    kdTree.insert(p);
+                    bucketTree.insert(p);
+                    inserted.add(p);
+                    if(i % 3 == 0){
+                        KDPoint victim = inserted.remove(r.nextInt(inserted.size()));
+                        kdTree.delete(victim);
+                        bucketTree.delete(victim);
+                    }
+                }
+                assertEquals("The bucket tree should count all of its points.", kdTree.count(), bucketTree.count());
+                assertTrue("A bucket tree should need fewer leaves than points.", bucketTree.leafCount() <= inserted.size());
+                for(KDPoint p : inserted)
+                    assertTrue("A " + dim + "-D bucket tree with B=" + bucketSize + " should contain " + p + ".", bucketTree.search(p));
+                for(int i = 0; i < MAX_ITER; i++){
+                    KDPoint anchor = getRandomPoint(dim);
+                    assertEquals("Bucket and pointer-based trees disagree on the nearest neighbor distance of " + anchor + ".",
+                            kdTree.nearestNeighbor(anchor).euclideanDistance(anchor),
+                            bucketTree.nearestNeighbor(anchor).euclideanDistance(anchor), 1e-9);
+                    BoundedPriorityQueue<KDPoint> expected = kdTree.kNearestNeighbors(5, anchor), actual = bucketTree.kNearestNeighbors(5, anchor);
+                    while(!expected.isEmpty())
+                        assertEquals("Bucket and pointer-based trees disagree on the kNN distances of " + anchor + ".",
+                                expected.dequeue().euclideanDistance(anchor), actual.dequeue().euclideanDistance(anchor), 1e-9);
+                    assertEquals("Bucket and pointer-based trees disagree on a range query around " + anchor + ".",
+                            kdTree.range(anchor, 15).size(), bucketTree.range(anchor, 15).size());
+                }
+                for(KDPoint p : inserted)
+                    bucketTree.delete(p);
+                assertTrue("A bucket tree should be empty after deleting all of its points.", bucketTree.isEmpty());
+                assertEquals("An empty bucket tree should have a height of -1.", -1, bucketTree.height());
+            }
+        }
+    }
+
+    @Test
+    public void testBucketKDTreeLeafOfDuplicatesSplitsOnceItDiffers(){
+        BucketKDTree bucketTree = new BucketKDTree(2, 4);
+        KDPoint p = new KDPoint(3, 3);
+        for(int i = 0; i < 5000; i++) // A leaf of equal points cannot split, and must not keep trying to.
+            bucketTree.insert(p);
+        assertEquals("A leaf of equal points should stay a single leaf.", 1, bucketTree.leafCount());
+        KDPoint q = new KDPoint(3, 4);
+        bucketTree.insert(q);
+        assertTrue("A different point should let the leaf split again.", bucketTree.leafCount() > 1);
+        assertTrue("The different point should be found.", bucketTree.search(q));
+        assertEquals("No copy should be lost by the split.", 5001, bucketTree.count());
+        for(int i = 0; i < 5000; i++)
+            bucketTree.delete(p);
+        assertFalse("Every copy should have been deleted.", bucketTree.search(p));
+        assertEquals("Only the different point should remain.", 1, bucketTree.count());
+    }
+
+    @Test
+    public void testBoundedPriorityQueueOrderAndTies(){
+        BoundedPriorityQueue<KDPoint> queue = new BoundedPriorityQueue<>(4);
+        KDPoint a = new KDPoint(1, 1), b = new KDPoint(2, 2), c = new KDPoint(3, 3), d = new KDPoint(4, 4), e = new KDPoint(5, 5);
+        queue.enqueue(c, 3);
+        queue.enqueue(a, 1);
+        queue.enqueue(b, 3); // Ties with c, but was inserted after it.
+        queue.enqueue(d, 5);
+        assertEquals("The worst element should be at the end of the queue.", d, queue.last());
+        queue.enqueue(e, 3); // Evicts d, and is worse than both c and b.
+        assertEquals("The worst element should be the latest of the tied ones.", e, queue.last());
+        assertEquals("The worst priority should be that of the tied ones.", 3, queue.lastPriority(), 0);
+        queue.enqueue(d, 3); // Ties with the worst, so it cannot make it in.
+        assertFalse("A tied element that arrives at a full queue should be rejected.", queue.contains(d));
+        assertTrue("contains() should compare elements with equals().", queue.contains(new KDPoint(3, 3)));
+        KDPoint[] expected = {a, c, b, e};
+        for(KDPoint p : expected)
+            assertEquals("Elements should be dequeued by priority, and ties in FIFO order.", p, queue.dequeue());
+        assertTrue("The queue should be empty after dequeueing everything.", queue.isEmpty());
+        assertEquals("An empty queue should report an infinite last priority.", BoundedPriorityQueue.INFTY, queue.lastPriority(), 0);
+    }
+
+    @Test
+    public void testBoundedPriorityQueueIteratorsArePerQueue(){
+        BoundedPriorityQueue<KDPoint> first = new BoundedPriorityQueue<>(3), second = new BoundedPriorityQueue<>(3);
+        for(int i = 0; i < 3; i++){
+            first.enqueue(new KDPoint(i, i), 3 - i);
+            second.enqueue(new KDPoint(i, i), i);
+        }
+        Iterator<KDPoint> it = first.iterator();
+        second.enqueue(new KDPoint(9, 9), 0); // Another queue: must not affect it.
+        int seen = 0;
+        while(it.hasNext()){
+            assertEquals("Iteration should follow dequeue order.", new KDPoint(2 - seen, 2 - seen), it.next());
+            seen++;
+        }
+        assertEquals("Iterating should not drain the queue.", 3, first.size());
+
+        it = first.iterator();
+        it.next();
+        first.enqueue(new KDPoint(7, 7), 0);
+        try {
+            it.next();
+            fail("Modifying a queue while iterating over it should make the iterator fail fast.");
+        } catch(ConcurrentModificationException ignored){
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testKDTreeConcurrentKNNQueries() throws InterruptedException {
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < 5000; i++)
+            points.add(getRandomPoint(2));
+        kdTree = KDTree.bulkLoad(points);
+        List<KDPoint> anchors = new ArrayList<>();
+        for(int i = 0; i < MAX_ITER; i++)
+            anchors.add(getRandomPoint(2));
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        Thread[] threads = new Thread[4];
+        for(int t = 0; t < threads.length; t++){
+            threads[t] = new Thread(() -> {
+                try {
+                    for(KDPoint anchor : anchors){
+                        double previous = 0;
+                        for(KDPoint p : kdTree.kNearestNeighbors(8, anchor)){ // Iterating while other threads enqueue.
+                            double d = p.euclideanDistance(anchor);
+                            if(d < previous)
+                                throw new AssertionError("kNN results should be iterated in order of distance.");
+                            previous = d;
+                        }
+                    }
+                } catch(Throwable e){
+                    failures.add(e);
+                }
+            });
+            threads[t].start();
+        }
+        for(Thread thread : threads)
+            thread.join();
+        assertTrue("Concurrent kNN queries should not interfere with each other: " + failures, failures.isEmpty());
+    }
+
+    @Test
+    public void testKNNQueryContextMatchesQueues(){
+        kdTree = new KDTree();
+        prQuadTree = new PRQuadTree(8, 3); // Space from (-128, -128) to (128, 128).
+        for(int i = 0; i < 1000; i++){
+            KDPoint p = getRandomPoint(2);
+            kdTree.insert(p);
+            prQuadTree.insert(p);
+        }
+        KNNQueryContext context = new KNNQueryContext();
+        for(int i = 0; i < MAX_ITER; i++){
+            KDPoint anchor = getRandomPoint(2);
+            int k = 1 + r.nextInt(20);
+            for(boolean quad : new boolean[]{false, true}){
+                BoundedPriorityQueue<KDPoint> expected = quad ? prQuadTree.kNearestNeighbors(k, anchor) : kdTree.kNearestNeighbors(k, anchor);
+                if(quad)
+                    prQuadTree.kNearestNeighbors(k, anchor, context);
+                else
+                    kdTree.kNearestNeighbors(k, anchor, context);
+                assertEquals("A query context should find as many neighbors as a queue.", expected.size(), context.size());
+                for(int j = 0; j < context.size(); j++){
+                    double d = expected.dequeue().euclideanDistance(anchor);
+                    assertEquals("The neighbors of a query context should be sorted by distance.",
+                            d, context.getPoint(j).euclideanDistance(anchor), 1e-9);
+                    assertEquals("A query context should report the distances of its neighbors.",
+                            d, context.getDistance(j), 1e-9);
+                    assertSame("A query context should unpack each neighbor once.", context.getPoint(j), context.getPoint(j));
+                }
+            }
+            assertEquals("Nearest neighbor queries through a context should find the nearest neighbor.",
+                    kdTree.nearestNeighbor(anchor).euclideanDistance(anchor),
+                    kdTree.nearestNeighbor(anchor, context).euclideanDistance(anchor), 1e-9);
+        }
+        assertNull("An empty tree has no nearest neighbor.", new KDTree().nearestNeighbor(new KDPoint(0, 0), context));
+        assertEquals("An empty tree has no nearest neighbors.", 0, context.size());
+    }
+
+    @Test
+    public void testDistanceMetricsMatchBruteForce(){
+        kdTree = new KDTree(2);
+        prQuadTree = new PRQuadTree(8, 2); // Space from (-128, -128) to (128, 128).
+        Set<KDPoint> points = new LinkedHashSet<>();
+        for(int i = 0; i < 500; i++)
+            points.add(getRandomPoint(2));
+        for(KDPoint p : points){
+            kdTree.insert(p);
+            prQuadTree.insert(p);
+        }
+        DistanceMetric[] metrics = {DistanceMetric.EUCLIDEAN, DistanceMetric.MANHATTAN, DistanceMetric.CHEBYSHEV,
+                new WeightedEuclideanMetric(0.25, 4)};
+        for(DistanceMetric metric : metrics){
+            for(int i = 0; i < MAX_ITER; i++){
+                KDPoint anchor = getRandomPoint(2);
+                double range = r.nextDouble() * 50;
+                List<Double> distances = new ArrayList<>();
+                int inRange = 0;
+                for(KDPoint p : points){
+                    if(p.equals(anchor))
+                        continue;
+                    double d = metric.distance(p, anchor);
+                    distances.add(d);
+                    if(d <= range)
+                        inRange++;
+                }
+                Collections.sort(distances);
+                assertEquals(metric + " range queries should find every point within range.", inRange, kdTree.range(anchor, range, metric).size());
+                assertEquals(metric + " range queries should find every point within range, and the anchor.",
+                        inRange + (points.contains(anchor) ? 1 : 0), prQuadTree.range(anchor, range, metric).size());
+                assertEquals(metric + " nearest neighbor queries should find the nearest neighbor.",
+                        distances.get(0), metric.distance(kdTree.nearestNeighbor(anchor, metric), anchor), 0);
+                assertEquals(metric + " nearest neighbor queries should find the nearest neighbor.",
+                        distances.get(0), metric.distance(prQuadTree.nearestNeighbor(anchor, metric), anchor), 0);
+                int k = 1 + r.nextInt(10);
+                for(BoundedPriorityQueue<KDPoint> queue : Arrays.asList(kdTree.kNearestNeighbors(k, anchor, metric),
+                        prQuadTree.kNearestNeighbors(k, anchor, metric))){
+                    int j = 0;
+                    for(KDPoint p : queue)
+                        assertEquals(metric + " k-NN queries should find the k nearest neighbors, sorted.",
+                                distances.get(j++), metric.distance(p, anchor), 0);
+                    assertEquals(metric + " k-NN queries should find k neighbors.", k, j);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPRQuadTreeMetricRangeMatchesEuclideanRange(){
+        prQuadTree = new PRQuadTree(4, 1);
+        prQuadTree.insert(new KDPoint(1, 1));
+        prQuadTree.insert(new KDPoint(2, 2));
+        KDPoint anchor = new KDPoint(1, 1);
+        assertEquals("The Euclidean metric should not change the points that a range query reports.",
+                new HashSet<>(prQuadTree.range(anchor, 2)), new HashSet<>(prQuadTree.range(anchor, 2, DistanceMetric.EUCLIDEAN)));
+        assertTrue("PR-QuadTree range queries report the anchor under any metric.",
+                prQuadTree.range(anchor, 0, DistanceMetric.CHEBYSHEV).contains(anchor));
+    }
+
+    @Test
+    public void testPRQuadTreeQueriesReachTheTopAndRightSides(){
+        prQuadTree = new PRQuadTree(2, 2); // Space from (-2, -2) to (2, 2), both sides included.
+        for(KDPoint p : new KDPoint[]{new KDPoint(-1, 2), new KDPoint(0, 2), new KDPoint(2, 2), new KDPoint(-2, 2), new KDPoint(2, 1)})
+            prQuadTree.insert(p);
+        assertEquals("Metric nearest neighbor queries should see points on the top side of the square.",
+                new KDPoint(0, 2), prQuadTree.nearestNeighbor(new KDPoint(0, 5), DistanceMetric.EUCLIDEAN));
+
+        DistanceMetric[] metrics = {DistanceMetric.EUCLIDEAN, DistanceMetric.MANHATTAN, DistanceMetric.CHEBYSHEV};
+        KNNQueryContext context = new KNNQueryContext();
+        for(int k = 1; k <= 4; k++){
+            int half = 1 << (k - 1);
+            prQuadTree = new PRQuadTree(k, 4); // The top right cell of side 1 holds up to four points.
+            Set<KDPoint> points = new LinkedHashSet<>();
+            for(int c = -half; c <= half; c++){ // Every point on the top and right sides.
+                points.add(new KDPoint(c, half));
+                points.add(new KDPoint(half, c));
+            }
+            for(int i = 0; i < 2 * half; i++)
+                points.add(new KDPoint(r.nextInt(2 * half + 1) - half, r.nextInt(2 * half + 1) - half));
+            for(KDPoint p : points)
+                prQuadTree.insert(p);
+
+            for(int i = 0; i < MAX_ITER; i++){
+                KDPoint anchor = new KDPoint(r.nextInt(8 * half + 1) - 4 * half, r.nextInt(8 * half + 1) - 4 * half); // Mostly outside the square.
+                for(DistanceMetric metric : metrics){
+                    List<Double> distances = new ArrayList<>();
+                    for(KDPoint p : points)
+                        if(!p.equals(anchor))
+                            distances.add(metric.distance(p, anchor));
+                    Collections.sort(distances);
+                    double range = distances.get(r.nextInt(distances.size()));
+                    int inRange = 0;
+                    while(inRange < distances.size() && distances.get(inRange) <= range)
+                        inRange++;
+                    int withAnchor = inRange + (points.contains(anchor) ? 1 : 0); // PR-QuadTree range queries report the anchor too.
+                    assertEquals(metric + " range queries should find every point within range.", withAnchor,
+                            prQuadTree.range(anchor, range, metric).size());
+                    assertEquals(metric + " nearest neighbor queries should find the nearest neighbor.",
+                            distances.get(0), metric.distance(prQuadTree.nearestNeighbor(anchor, metric), anchor), 0);
+                    int j = 0;
+                    for(KDPoint p : prQuadTree.kNearestNeighbors(3, anchor, metric))
+                        assertEquals(metric + " k-NN queries should find the k nearest neighbors, sorted.",
+                                distances.get(j++), metric.distance(p, anchor), 0);
+                    if(metric == DistanceMetric.EUCLIDEAN){
+                        assertEquals("Range queries should find every point within range.", withAnchor,
+                                prQuadTree.range(anchor, range).size());
+                        prQuadTree.kNearestNeighbors(3, anchor, context);
+                        for(j = 0; j < context.size(); j++)
+                            assertEquals("A query context should find the k nearest neighbors, sorted.",
+                                    distances.get(j), context.getDistance(j), 1e-9);
+                        assertEquals("Pruned nearest neighbor queries should see points on the top and right sides.",
+                                distances.get(0), prQuadTree.nearestNeighbor(anchor).euclideanDistance(anchor), 1e-9);
+                        j = 0;
+                        for(KDPoint p : prQuadTree.kNearestNeighbors(3, anchor))
+                            assertEquals("Pruned k-NN queries should see points on the top and right sides.",
+                                    distances.get(j++), p.euclideanDistance(anchor), 1e-9);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSquaredDistanceKernel(){
+        for(int i = 0; i < MAX_ITER; i++){
+            KDPoint p1 = getRandomPoint(3), p2 = getRandomPoint(3);
+            long sq = squaredDistance(p1, p2);
+            assertEquals("The square root of the squared distance should be the Euclidean distance.",
+                    Math.sqrt(sq), euclideanDistance(p1, p2), 0);
+            double range = r.nextDouble() * 4 * BOUND;
+            long bound = squaredRangeBound(range);
+            assertTrue("A squared distance should be within the bound exactly when the distance is within range.",
+                    (sq <= bound) == (Math.sqrt(sq) <= range));
+        }
+        KDPoint min = new KDPoint(Integer.MIN_VALUE, Integer.MIN_VALUE), max = new KDPoint(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        assertEquals("Squared distances that overflow should saturate.", Long.MAX_VALUE, min.squaredDistance(max));
+        assertEquals("Saturated distances should still be computed accurately.",
+                Math.hypot(0xFFFFFFFFL, 0xFFFFFFFFL), min.euclideanDistance(max), 1);
+        assertEquals("Negative ranges contain nothing.", -1, squaredRangeBound(-1));
+
+        prQuadTree = new PRQuadTree(20, 1); // All quadrant centroids are far more than 500 away from the anchor.
+        prQuadTree.insert(new KDPoint(400_000, 400_000));
+        prQuadTree.insert(new KDPoint(-300_000, 350_000));
+        prQuadTree.insert(new KDPoint(-400_000, -400_000));
+        KDPoint anchor = new KDPoint(-310_000, 340_000);
+        assertEquals("Nearest neighbor queries should work in quadrants far from the anchor.",
+                new KDPoint(-300_000, 350_000), prQuadTree.nearestNeighbor(anchor));
+        assertEquals("k-NN queries should work in quadrants far from the anchor.",
+                3, prQuadTree.kNearestNeighbors(3, anchor).size());
+    }
+
+    @Test
+    public void testHashCodesAndHashIndexedBuckets(){
+        assertNotEquals("(2, 0) and (0, 1) should no longer collide.", new KDPoint(2, 0).hashCode(), new KDPoint(0, 1).hashCode());
+        Set<Integer> hashes = new HashSet<>();
+        for(int x = -32; x < 32; x++)
+            for(int y = -32; y < 32; y++)
+                hashes.add(new KDPoint(x, y).hashCode());
+        assertEquals("The points of a small grid should all hash apart.", 64 * 64, hashes.size());
+        KDPoint p = getRandomPoint(3);
+        ImmutableKDPoint frozen = new ImmutableKDPoint(p);
+        p.coords[0]++;
+        assertEquals("An immutable point should not follow changes to the point it was built from.",
+                new ImmutableKDPoint(p.coords[0] - 1, p.coords[1], p.coords[2]), frozen);
+        p.coords[0]--;
+        assertEquals("An immutable point should hash like the point it was built from.", p.hashCode(), frozen.hashCode());
+
+        // Large buckets never split here, so every operation goes through the hash index of a single black node.
+        prQuadTree = new PRQuadTree(6, 64 * 64);
+        Set<KDPoint> model = new HashSet<>();
+        for(int i = 0; i < 10 * MAX_ITER; i++){
+            KDPoint q = new KDPoint(r.nextInt(64) - 32, r.nextInt(64) - 32);
+            if(r.nextInt(3) == 0){
+                prQuadTree.delete(q);
+                model.remove(q);
+            } else {
+                prQuadTree.insert(q);
+                model.add(q);
+            }
+            assertEquals("Search should agree with the set of inserted points.", model.contains(q), prQuadTree.search(q));
+            assertEquals("The count should agree with the set of inserted points.", model.size(), prQuadTree.count());
+        }
+        for(KDPoint q : model)
+            assertTrue("Every remaining point should still be found.", prQuadTree.search(q));
+        for(KDPoint q : new ArrayList<>(model))
+            prQuadTree.delete(q);
+        assertTrue("Deleting every point should empty the tree.", prQuadTree.isEmpty());
+    }
+
+    @Test
+    public void testPackedPRQuadTreePoints(){
+        int[] values = {0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, 12345, -54321};
+        for(int x : values)
+            for(int y : values){
+                long packed = Point2i.pack(x, y);
+                assertEquals("Packing should preserve the x coordinate.", x, Point2i.x(packed));
+                assertEquals("Packing should preserve the y coordinate.", y, Point2i.y(packed));
+                assertEquals("Unpacking should give back an equal KDPoint.", new KDPoint(x, y), Point2i.toKDPoint(packed));
+                assertEquals("Packed squared distances should agree with KDPoint's.", new KDPoint(x, y).squaredDistance(new KDPoint(y, x)),
+                        Point2i.squaredDistance(packed, y, x));
+            }
+
+        prQuadTree = new PRQuadTree(10, 3);
+        KDPoint p = new KDPoint(-7, 100);
+        prQuadTree.insert(p);
+        p.coords[0] = 7; // The tree keeps its own packed copy.
+        assertTrue("The tree should not follow changes to an inserted KDPoint.", prQuadTree.search(new KDPoint(-7, 100)));
+        assertFalse("The tree should not follow changes to an inserted KDPoint.", prQuadTree.search(p));
+        try {
+            prQuadTree.insert(new KDPoint(1, 2, 3));
+            fail("A PR-QuadTree should reject KDPoints that are not 2-dimensional.");
+        } catch(RuntimeException ignored){
+        }
+    }
+
+    @Test
+    public void testPRQuadTreeInsertIfAbsent(){
+        prQuadTree = new PRQuadTree(8, 2);
+        Set<KDPoint> points = new HashSet<>();
+        for(int i = 0; i < 5 * MAX_ITER; i++){
+            KDPoint p = new KDPoint(r.nextInt(32) - 16, r.nextInt(32) - 16);
+            assertEquals("insertIfAbsent should report whether the KDPoint was new.", points.add(p), prQuadTree.insertIfAbsent(p));
+            assertEquals("insertIfAbsent should only count new KDPoints.", points.size(), prQuadTree.count());
+        }
+        for(KDPoint p : points){
+            assertTrue("Every inserted KDPoint should be found.", prQuadTree.search(p));
+            assertFalse("A KDPoint already in the tree should not be inserted again.", prQuadTree.insertIfAbsent(p));
+        }
+        assertEquals("Repeated insertions should not change the count.", points.size(), prQuadTree.count());
+    }
+
+    private static List<KDPoint> sorted(Collection<KDPoint> points){
+        List<KDPoint> list = new ArrayList<>(points);
+        list.sort(Comparator.comparingInt((KDPoint p) -> p.coords[0]).thenComparingInt(p -> p.coords[1]));
+        return list;
+    }
+
+    @Test
+    public void testLinearQuadTreeMatchesPRQuadTree(){
+        for(int bucket : new int[]{1, 3, 8}){
+            PRQuadTree pr = new PRQuadTree(8, bucket);
+            LinearQuadTree linear = new LinearQuadTree(8, bucket);
+            List<KDPoint> points = new ArrayList<>();
+            for(int i = 0; i < 3 * MAX_ITER; i++){
+                KDPoint p = new KDPoint(r.nextInt(256) - 128, r.nextInt(256) - 128);
+                pr.insert(p);
+                linear.insert(p);
+                points.add(p);
+            }
+            for(int round = 0; round < 2; round++){
+                assertEquals("The linear quadtree should hold as many KDPoints as the PR-QuadTree.", pr.count(), linear.count());
+                assertEquals("The linear quadtree should decompose the square like the PR-QuadTree.", pr.height(), linear.height());
+                for(int i = 0; i < MAX_ITER; i++){
+                    KDPoint anchor = r.nextBoolean() ? points.get(r.nextInt(points.size()))
+                            : new KDPoint(r.nextInt(256) - 128, r.nextInt(256) - 128);
+                    assertEquals("Searches should agree.", pr.search(anchor), linear.search(anchor));
+                    double range = r.nextInt(40);
+                    assertEquals("Range queries should agree.", sorted(pr.range(anchor, range)), sorted(linear.range(anchor, range)));
+                    KDPoint prNN = pr.nearestNeighbor(anchor), linearNN = linear.nearestNeighbor(anchor);
+                    assertEquals("Nearest neighbors should be equally far.", prNN == null ? -1 : prNN.euclideanDistance(anchor),
+                            linearNN == null ? -1 : linearNN.euclideanDistance(anchor), 0);
+                    BoundedPriorityQueue<KDPoint> prKNN = pr.kNearestNeighbors(5, anchor), linearKNN = linear.kNearestNeighbors(5, anchor);
+                    assertEquals("k-NN queries should find as many neighbors.", prKNN.size(), linearKNN.size());
+                    Iterator<KDPoint> it = linearKNN.iterator();
+                    for(KDPoint q : prKNN)
+                        assertEquals("k-NN neighbors should be equally far.", q.euclideanDistance(anchor), it.next().euclideanDistance(anchor), 0);
+                }
+                for(int i = 0; i < points.size() / 2; i++){ // Deletions must keep the decomposition equal.
+                    KDPoint p = points.remove(r.nextInt(points.size()));
+                    pr.delete(p);
+                    linear.delete(p);
+                }
+            }
+            points.removeIf(p -> !linear.search(p)); // Duplicates of deleted KDPoints may remain in the list.
+            LinearQuadTree bulk = new LinearQuadTree(8, bucket, points);
+            assertEquals("A bulk-built linear quadtree should hold every distinct KDPoint.", linear.count(), bulk.count());
+            assertEquals("A bulk-built linear quadtree should decompose the square the same way.", linear.height(), bulk.height());
+        }
+        LinearQuadTree full = new LinearQuadTree(32, 1);
+        full.insert(new KDPoint(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        full.insert(new KDPoint(Integer.MIN_VALUE, Integer.MIN_VALUE));
+        assertTrue("With k=32, every int coordinate should be accepted.", full.search(new KDPoint(Integer.MAX_VALUE, Integer.MAX_VALUE)));
+        assertEquals("The extreme corners should be split at the root.", 1, full.height());
+        try {
+            new LinearQuadTree(4, 1).insert(new KDPoint(9, 0));
+            fail("A linear quadtree should reject KDPoints outside of its square.");
+        } catch(RuntimeException ignored){
+        }
+    }
+
+    @Test
+    public void testLinearQuadTreeHoldsTopAndRightSides(){
+        LinearQuadTree corner = new LinearQuadTree(4, 1);
+        corner.insert(new KDPoint(8, 8));
+        assertTrue("A linear quadtree should hold the top right corner of its square.", corner.search(new KDPoint(8, 8)));
+        assertEquals("The top right corner should be reported by queries.", new KDPoint(8, 8), corner.nearestNeighbor(new KDPoint(7, 7)));
+        for(int bucket : new int[]{1, 2, 4}){
+            for(int trial = 0; trial < MAX_ITER; trial++){
+                PRQuadTree pr = new PRQuadTree(3, bucket); // Space from (-4, -4) to (4, 4), sides included.
+                LinearQuadTree linear = new LinearQuadTree(3, bucket);
+                Set<KDPoint> points = new LinkedHashSet<>();
+                for(int i = 0; i < 12; i++){ // Mostly on, or next to, the top and right sides.
+                    KDPoint p = new KDPoint(r.nextBoolean() ? 3 + r.nextInt(2) : r.nextInt(9) - 4,
+                            r.nextBoolean() ? 3 + r.nextInt(2) : r.nextInt(9) - 4);
+                    boolean prFailed = false, linearFailed = false;
+                    try {
+                        pr.insert(p);
+                    } catch(CentroidAccuracyException e){
+                        prFailed = true;
+                    }
+                    try {
+                        linear.insert(p);
+                    } catch(CentroidAccuracyException e){
+                        linearFailed = true;
+                    }
+                    assertEquals("A linear quadtree should overflow a cell of side 1 exactly when a PR-QuadTree does.", prFailed, linearFailed);
+                    if(prFailed)
+                        break; // The PR-QuadTree may have been left half-split.
+                    points.add(p);
+                    assertEquals("The linear quadtree should hold as many KDPoints as the PR-QuadTree.", pr.count(), linear.count());
+                    assertEquals("The linear quadtree should decompose the square like the PR-QuadTree.", pr.height(), linear.height());
+                }
+                for(int i = 0; i < 10; i++){
+                    KDPoint anchor = new KDPoint(r.nextInt(11) - 5, r.nextInt(11) - 5);
+                    assertEquals("Searches should agree.", pr.search(anchor), linear.search(anchor));
+                    double range = r.nextInt(4);
+                    assertEquals("Range queries should agree.", sorted(pr.range(anchor, range)), sorted(linear.range(anchor, range)));
+                    BoundedPriorityQueue<KDPoint> prKNN = pr.kNearestNeighbors(3, anchor), linearKNN = linear.kNearestNeighbors(3, anchor);
+                    assertEquals("k-NN queries should find as many neighbors.", prKNN.size(), linearKNN.size());
+                    Iterator<KDPoint> it = linearKNN.iterator();
+                    for(KDPoint q : prKNN)
+                        assertEquals("k-NN neighbors should be equally far.", q.euclideanDistance(anchor), it.next().euclideanDistance(anchor), 0);
+                }
+                for(KDPoint p : points){
+                    assertTrue("Every KDPoint inserted should be found.", linear.search(p));
+                    linear.delete(p);
+                }
+                assertTrue("Deleting every KDPoint should empty the linear quadtree.", linear.isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void testFloatingPointTreesMatchBruteForce(){
+        DoubleKDTree doubleKD = new DoubleKDTree();
+        DoublePRQuadTree doublePR = new DoublePRQuadTree(-180, -90, 180, 90, 4);
+        FloatKDTree floatKD = new FloatKDTree();
+        FloatPRQuadTree floatPR = new FloatPRQuadTree(-180, -90, 180, 90, 4);
+        List<DoubleKDPoint> doubles = new ArrayList<>();
+        List<FloatKDPoint> floats = new ArrayList<>();
+        for(int i = 0; i < 5 * MAX_ITER; i++){
+            double x = r.nextDouble() * 360 - 180, y = r.nextDouble() * 180 - 90;
+            DoubleKDPoint d = new DoubleKDPoint(x, y);
+            FloatKDPoint f = new FloatKDPoint((float) x, (float) y);
+            doubleKD.insert(d);
+            doublePR.insert(d);
+            floatKD.insert(f);
+            floatPR.insert(f);
+            doubles.add(d);
+            floats.add(f);
+        }
+        for(int i = 0; i < MAX_ITER; i++){ // Deletions must keep every tree consistent, including quadrant collapses.
+            DoubleKDPoint d = doubles.remove(r.nextInt(doubles.size()));
+            doubleKD.delete(d);
+            doublePR.delete(d);
+            FloatKDPoint f = floats.remove(r.nextInt(floats.size()));
+            floatKD.delete(f);
+            floatPR.delete(f);
+            assertFalse("A deleted point should no longer be found.", doublePR.search(d) || floatPR.search(f));
+        }
+        assertEquals("Every tree should count its points.", doubles.size(), doubleKD.count());
+        assertEquals("Every tree should count its points.", doubles.size(), doublePR.count());
+        assertEquals("Every tree should count its points.", floats.size(), floatKD.count());
+        assertEquals("Every tree should count its points.", floats.size(), floatPR.count());
+
+        for(int i = 0; i < MAX_ITER; i++){
+            DoubleKDPoint anchor = doubles.get(r.nextInt(doubles.size()));
+            double range = r.nextDouble() * 30;
+            int k = 1 + r.nextInt(10);
+            List<Double> expected = new ArrayList<>();
+            int inRange = 0;
+            for(DoubleKDPoint d : doubles){
+                if(!d.equals(anchor)){
+                    expected.add(d.euclideanDistance(anchor));
+                    if(d.euclideanDistance(anchor) <= range)
+                        inRange++;
+                }
+            }
+            Collections.sort(expected);
+            assertEquals("Double K-D range queries should match brute force.", inRange, doubleKD.range(anchor, range).size());
+            assertEquals("Double PR range queries should match brute force.", inRange, doublePR.range(anchor, range).size());
+            assertEquals("Double K-D NN queries should match brute force.", expected.get(0), doubleKD.nearestNeighbor(anchor).euclideanDistance(anchor), 0);
+            assertEquals("Double PR NN queries should match brute force.", expected.get(0), doublePR.nearestNeighbor(anchor).euclideanDistance(anchor), 0);
+            assertEquals("Double K-D kNN queries should match brute force.", expected.get(k - 1), doubleKD.kNearestNeighbors(k, anchor).lastPriority(), 0);
+            assertEquals("Double PR kNN queries should match brute force.", expected.get(k - 1), doublePR.kNearestNeighbors(k, anchor).lastPriority(), 0);
+
+            FloatKDPoint fAnchor = floats.get(r.nextInt(floats.size()));
+            expected.clear();
+            for(FloatKDPoint f : floats)
+                if(!f.equals(fAnchor))
+                    expected.add(f.euclideanDistance(fAnchor));
+            Collections.sort(expected);
+            assertEquals("Float K-D NN queries should match brute force.", expected.get(0), floatKD.nearestNeighbor(fAnchor).euclideanDistance(fAnchor), 0);
+            assertEquals("Float PR NN queries should match brute force.", expected.get(0), floatPR.nearestNeighbor(fAnchor).euclideanDistance(fAnchor), 0);
+            assertEquals("Float K-D kNN queries should match brute force.", expected.get(k - 1), floatKD.kNearestNeighbors(k, fAnchor).lastPriority(), 0);
+            assertEquals("Float PR kNN queries should match brute force.", expected.get(k - 1), floatPR.kNearestNeighbors(k, fAnchor).lastPriority(), 0);
+        }
+        try {
+            doublePR.insert(new DoubleKDPoint(200, 0));
+            fail("A floating-point PR-QuadTree should reject points outside of its rectangle.");
+        } catch(RuntimeException ignored){
+        }
+    }
+
+    @Test
+    public void testSpatialMapsMatchBruteForce(){
+        List<SpatialMap<String>> maps = Arrays.asList(new KDTreeMap<>(), new PRQuadTreeMap<>(10, 3));
+        Map<KDPoint, String> model = new HashMap<>();
+        for(int i = 0; i < 5 * MAX_ITER; i++){
+            KDPoint p = new KDPoint(r.nextInt(1024) - 512, r.nextInt(1024) - 512);
+            String value = "station " + i;
+            if(r.nextInt(4) == 0){
+                String expected = model.remove(p);
+                for(SpatialMap<String> map : maps)
+                    assertEquals("Removing a point should return its value.", expected, map.remove(p));
+            } else {
+                String expected = model.put(p, value);
+                for(SpatialMap<String> map : maps)
+                    assertEquals("Putting a point should return its previous value.", expected, map.put(p, value));
+            }
+        }
+        for(SpatialMap<String> map : maps){
+            assertEquals("A map should count its entries.", model.size(), map.count());
+            for(Map.Entry<KDPoint, String> e : model.entrySet())
+                assertEquals("A map should return the value of every point.", e.getValue(), map.get(e.getKey()));
+        }
+
+        for(int i = 0; i < MAX_ITER; i++){
+            KDPoint anchor = new KDPoint(r.nextInt(1024) - 512, r.nextInt(1024) - 512);
+            double range = r.nextDouble() * 100;
+            List<Double> distances = new ArrayList<>();
+            int inRange = 0;
+            for(KDPoint p : model.keySet()){
+                if(!p.equals(anchor)){
+                    distances.add(p.euclideanDistance(anchor));
+                    if(p.euclideanDistance(anchor) <= range)
+                        inRange++;
+                }
+            }
+            Collections.sort(distances);
+            for(SpatialMap<String> map : maps){
+                Collection<SpatialEntry<String>> entries = map.range(anchor, range);
+                assertEquals("Range queries should match brute force.", inRange, entries.size());
+                for(SpatialEntry<String> e : entries)
+                    assertEquals("Every entry should carry the value of its point.", model.get(e.getPoint()), e.getValue());
+                SpatialEntry<String> nn = map.nearestNeighbor(anchor);
+                assertEquals("NN queries should match brute force.", distances.get(0), nn.getDistance(), 0);
+                assertEquals("The NN entry should carry its value.", model.get(nn.getPoint()), nn.getValue());
+                assertEquals("kNN queries should match brute force.", distances.get(4), map.kNearestNeighbors(5, anchor).last().getDistance(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testSpatialMapsShareTheTreesStructure(){
+        KDTreeMap<Integer> balanced = new KDTreeMap<>(2, 0.75);
+        Map<KDPoint, Integer> model = new HashMap<>();
+        for(int i = 0; i < 10 * MAX_ITER; i++){ // Sorted input, which degenerates an unbalanced tree into a list.
+            balanced.put(new KDPoint(i, i), i);
+            model.put(new KDPoint(i, i), i);
+        }
+        for(int i = 0; i < 10 * MAX_ITER; i += 3) // Deep enough to trigger full rebuilds.
+            assertEquals("Removing a point should return its value.", model.remove(new KDPoint(i, i)), balanced.remove(new KDPoint(i, i)));
+        KDTreeMap<Integer> bulk = KDTreeMap.bulkLoad(2, model);
+        for(KDTreeMap<Integer> map : Arrays.asList(balanced, bulk)){
+            assertEquals("A map should count its entries.", model.size(), map.count());
+            assertTrue("A self-balancing or bulk-loaded map should stay shallow on sorted input.",
+                    map.height() <= 3 * (int) Math.ceil(Math.log(model.size() + 1) / Math.log(2)));
+            for(Map.Entry<KDPoint, Integer> e : model.entrySet())
+                assertEquals("Rebuilds should keep the value of every point.", e.getValue(), map.get(e.getKey()));
+        }
+
+        PRQuadTree tree = new PRQuadTree(2, 4); // A cell of side 1 holds up to four points.
+        PRQuadTreeMap<Integer> map = new PRQuadTreeMap<>(2, 4);
+        for(int x = -2; x <= 2; x++){ // Splits every quadrant down to side 1, like the tree.
+            for(int y = -2; y <= 2; y++){
+                tree.insert(new KDPoint(x, y));
+                assertNull("A new point should have no previous value.", map.put(new KDPoint(x, y), 5 * x + y));
+            }
+        }
+        assertEquals("The map should hold what the tree holds.", tree.count(), map.count());
+        assertEquals("The map should split exactly like the tree.", tree.height(), map.height());
+        for(int x = -2; x <= 2; x++)
+            for(int y = -2; y <= 2; y++)
+                assertEquals("Splitting should keep the value of every point.", Integer.valueOf(5 * x + y), map.get(new KDPoint(x, y)));
+    }
+
+    private static int recount(PRQuadNode node){
+        if(node == null)
+            return 0;
+        if(node instanceof PRQuadBlackNode)
+            return ((PRQuadBlackNode) node).getPoints().size();
+        int total = 0;
+        for(PRQuadNode child : ((PRQuadGrayNode) node).getChildren())
+            total += recount(child);
+        return total;
+    }
+
+    @Test
+    public void testCachedPRQuadGrayNodeCounts(){
+        PRQuadNode root = null;
+        Set<KDPoint> points = new HashSet<>();
+        for(int i = 0; i < 5 * MAX_ITER; i++){
+            KDPoint p = new KDPoint(r.nextInt(64) - 32, r.nextInt(64) - 32);
+            root = root == null ? new PRQuadBlackNode(new KDPoint(0, 0), 7, 2, p) : root.insert(p, 7); // Duplicates included.
+            points.add(p);
+            assertEquals("The cached count should match the points inserted.", points.size(), root.count());
+        }
+        assertEquals("The cached counts should match the subtree contents.", points.size(), recount(root));
+        for(int i = 0; i < 10 * MAX_ITER && root != null; i++){
+            KDPoint p = new KDPoint(r.nextInt(64) - 32, r.nextInt(64) - 32); // Often absent, which must leave counts alone.
+            root = root.delete(p);
+            points.remove(p);
+            assertEquals("The cached count should match the points left after deletion.", points.size(),
+                    root == null ? 0 : root.count());
+            assertEquals("The cached counts should match the subtree contents.", points.size(), recount(root));
+        }
+    }
+
+    @Test
+    public void testPRQuadTreeCellsOfSideOneAroundNegativeCoordinates(){
+        for(int bucket : new int[]{1, 2}){
+            prQuadTree = new PRQuadTree(4, bucket); // Space from (-8, -8) to (8, 8), split down to cells of side 1.
+            Set<KDPoint> points = new LinkedHashSet<>();
+            for(int x = -8; x <= 0; x += 2)
+                for(int y = -8; y <= 0; y += 2)
+                    points.add(new KDPoint(x, y));
+            for(int i = 0; i < 20; i++) // Neighbors in the same cells of side 2, west and south of the centroids.
+                points.add(new KDPoint(-1 - r.nextInt(8), -1 - r.nextInt(8)));
+            List<KDPoint> shuffled = new ArrayList<>(points);
+            Collections.shuffle(shuffled, r);
+            for(KDPoint p : shuffled)
+                prQuadTree.insert(p);
+            assertEquals("Every distinct KDPoint should be stored once.", points.size(), prQuadTree.count());
+            for(int x = -9; x <= 1; x++)
+                for(int y = -9; y <= 1; y++)
+                    assertEquals("Searching for " + new KDPoint(x, y) + " should only succeed if it was inserted.",
+                            points.contains(new KDPoint(x, y)), prQuadTree.search(new KDPoint(x, y)));
+            KDPoint anchor = new KDPoint(-4, -4);
+            List<KDPoint> expected = new ArrayList<>();
+            for(KDPoint p : points)
+                if(p.euclideanDistance(anchor) <= 2)
+                    expected.add(p);
+            assertEquals("Range queries should find the KDPoints of cells west and south of a centroid.",
+                    sorted(expected), sorted(prQuadTree.range(anchor, 2)));
+            for(KDPoint p : shuffled){
+                prQuadTree.delete(p);
+                points.remove(p);
+                assertFalse("A deleted KDPoint should not be found.", prQuadTree.search(p));
+                assertEquals("Deleting should only remove the KDPoint deleted.", points.size(), prQuadTree.count());
+                for(KDPoint q : points)
+                    assertTrue("The remaining KDPoints should still be found after deleting " + p + ".", prQuadTree.search(q));
+            }
+            assertTrue("Deleting every KDPoint should empty the tree.", prQuadTree.isEmpty());
+        }
+        prQuadTree = new PRQuadTree(32, 1); // The cells of side 1 at the very bottom left, where the centroids saturate.
+        KDPoint[] corner = {new KDPoint(Integer.MIN_VALUE, Integer.MIN_VALUE), new KDPoint(Integer.MIN_VALUE + 1, Integer.MIN_VALUE),
+                new KDPoint(Integer.MIN_VALUE, Integer.MIN_VALUE + 1), new KDPoint(Integer.MIN_VALUE + 1, Integer.MIN_VALUE + 1)};
+        for(KDPoint p : corner)
+            prQuadTree.insert(p);
+        assertEquals("The corner cells should be split down to side 1.", 32, prQuadTree.height());
+        for(KDPoint p : corner){
+            assertTrue("Every corner KDPoint should be found.", prQuadTree.search(p));
+            prQuadTree.delete(p);
+            assertFalse("A deleted corner KDPoint should not be found.", prQuadTree.search(p));
+        }
+        assertTrue("Deleting every corner KDPoint should empty the tree.", prQuadTree.isEmpty());
+    }
+
+    @Test
+    public void testPRQuadTreeSearchDescendsASinglePath(){
+        prQuadTree = new PRQuadTree(20, 1); // Space from (-2^19, -2^19) to (2^19, 2^19).
+        prQuadTree.insert(new KDPoint(-5, -5));
+        prQuadTree.insert(new KDPoint(-5, -6)); // Splits down to cells of side 1.
+        for(int i = 0; i < 200; i++)
+            prQuadTree.insert(new KDPoint(r.nextInt(1 << 20) - (1 << 19), r.nextInt(1 << 20) - (1 << 19)));
+        int height = prQuadTree.height();
+        assertTrue("The tree should be deep.", height >= 18);
+        QueryCost cost = new QueryCost();
+        long deepest = 0;
+        for(int x = -8; x <= -2; x++){
+            for(int y = -8; y <= -2; y++){
+                KDPoint p = new KDPoint(x, y);
+                if(prQuadTree.search(p))
+                    continue;
+                cost.reset();
+                assertFalse("An absent KDPoint should not be found.", prQuadTree.search(p, cost));
+                assertTrue("Searching for " + p + " should visit a single path of at most " + (height + 1) + " nodes, " +
+                        "but visited " + cost.getNodesVisited() + ".", cost.getNodesVisited() <= height + 1);
+                deepest = Math.max(deepest, cost.getNodesVisited());
+            }
+        }
+        // The cells of side 1 next to the deepest KDPoints are empty, so the longest search ends on their gray parent.
+        assertEquals("Searching next to the deepest KDPoints should descend the whole deepest path, and only it.", height, deepest);
+    }
+
     @Test
     public void testPRQEmptyPRQuadTree(){
         assertNotNull("Tree reference should be non-null by setUp() method.", prQuadTree);
@@ -0,0 +1,72 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.trees.BucketKDTree;
+import spatial.trees.KDTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>Compares {@link BucketKDTree}s of increasing bucket sizes against a one-{@link KDPoint}-per-node {@link KDTree}
+ * built by insertion. For every tree, it reports the insertion time, the height, the number of leaves and the average
+ * time of a 10-nearest neighbors query. Use it to pick the bucket size that suits the caches of a given machine.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.BucketKDTreeBenchmark [numPoints] [numQueries] [dims]}</p>
+ *
+ * @author Isaac Solomon
+ */
+public class BucketKDTreeBenchmark {
+
+    private static final int SIDE = 1 << 20;
+    private static final int[] BUCKET_SIZES = {1, 4, 8, 16, 32, 64, 128, 256};
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int dims = args.length > 2 ? Integer.parseInt(args[2]) : KDTree.DEFAULT_DIMS;
+
+        Random r = new Random(47);
+        List<KDPoint> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            points.add(randomPoint(r, dims));
+        List<KDPoint> anchors = new ArrayList<>(queries);
+        for (int i = 0; i < queries; i++)
+            anchors.add(randomPoint(r, dims));
+
+        System.out.printf("n=%d queries=%d dims=%d%n", n, queries, dims);
+        System.out.printf("%-10s %12s %8s %10s %14s%n", "tree", "insert ms", "height", "leaves", "us/10-NN");
+
+        long start = System.nanoTime();
+        KDTree plain = new KDTree(dims);
+        for (KDPoint p : points)
+            plain.insert(p);
+        double insertMillis = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        for (KDPoint a : anchors)
+            plain.kNearestNeighbors(10, a);
+        System.out.printf("%-10s %12.1f %8d %10s %14.2f%n", "KDTree", insertMillis, plain.height(), "-",
+                (System.nanoTime() - start) / 1e3 / queries);
+
+        for (int b : BUCKET_SIZES) {
+            start = System.nanoTime();
+            BucketKDTree tree = new BucketKDTree(dims, b);
+            for (KDPoint p : points)
+                tree.insert(p);
+            insertMillis = (System.nanoTime() - start) / 1e6;
+            start = System.nanoTime();
+            for (KDPoint a : anchors)
+                tree.kNearestNeighbors(10, a);
+            System.out.printf("%-10s %12.1f %8d %10d %14.2f%n", "B=" + b, insertMillis, tree.height(),
+                    tree.leafCount(), (System.nanoTime() - start) / 1e3 / queries);
+        }
+    }
+
+    private static KDPoint randomPoint(Random r, int dims) {
+        int[] coords = new int[dims];
+        for (int d = 0; d < dims; d++)
+            coords[d] = r.nextInt(SIDE);
+        return new KDPoint(coords);
+    }
+}
@@ -0,0 +1,130 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.kdpoint.SquaredDistanceKernel;
+
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+/**
+ * <p>Compares the former {@code Math.pow}-based Euclidean distance with {@link KDPoint#squaredDistance(KDPoint)}, whose
+ * integer loop checks every term for overflow, and with {@link KDPoint#euclideanDistance(KDPoint)}, which is built on
+ * top of it. It also compares the {@link SquaredDistanceKernel#SCALAR scalar} and
+ * {@link SquaredDistanceKernel#VECTOR vector} kernels that scan the leaves of the flat trees, over the same pairs laid
+ * out in two flat {@code int[]}s. Every kernel is run over the same pairs, and its checksum is printed so that the JIT
+ * cannot discard the work. Without a dims argument, the comparison is repeated for 2, 8, 32 and 128 dimensions.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.DistanceKernelBenchmark [numPairs] [dims] [rounds]}. The vector kernel is
+ * only measured if it was compiled and the JVM runs with {@code --add-modules jdk.incubator.vector}; see
+ * {@link SquaredDistanceKernel}.</p>
+ *
+ * @author Isaac Solomon
+ */
+public class DistanceKernelBenchmark {
+
+    private static final int SIDE = 1 << 20;
+
+    private static final int[] DIMS = {2, 8, 32, 128};
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int[] dimsList = args.length > 1 ? new int[]{Integer.parseInt(args[1])} : DIMS;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        for (int dims : dimsList) {
+            Random r = new Random(47);
+            final KDPoint[] from = new KDPoint[n], to = new KDPoint[n];
+            final int[] flatFrom = new int[n * dims], flatTo = new int[n * dims];
+            for (int i = 0; i < n; i++) {
+                from[i] = randomPoint(r, dims);
+                to[i] = randomPoint(r, dims);
+                System.arraycopy(from[i].coords, 0, flatFrom, i * dims, dims);
+                System.arraycopy(to[i].coords, 0, flatTo, i * dims, dims);
+            }
+
+            System.out.printf("pairs=%d dims=%d%n", n, dims);
+            System.out.printf("%-20s %12s %24s%n", "kernel", "ns/pair", "checksum");
+            measure("Math.pow + sqrt", rounds, n, () -> powDistances(from, to));
+            measure("squaredDistance", rounds, n, () -> squaredDistances(from, to));
+            measure("euclideanDistance", rounds, n, () -> euclideanDistances(from, to));
+            measure("scalar kernel", rounds, n, () -> scalarDistances(flatFrom, flatTo, dims));
+            if (SquaredDistanceKernel.VECTOR != null)
+                measure("vector kernel", rounds, n, () -> vectorDistances(flatFrom, flatTo, dims));
+            else
+                System.out.printf("%-20s %12s%n", "vector kernel", "unavailable");
+        }
+    }
+
+    /**
+     * Runs a kernel for the given number of rounds and reports the average time of the second half, the first half
+     * warming up the JIT. Kernels are measured one after the other, rather than interleaved, since interleaving them
+     * skews the results in favor of whichever runs first in a round.
+     */
+    private static void measure(String label, int rounds, int n, DoubleSupplier kernel) {
+        double checksum = 0;
+        long nanos = 0;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            checksum = kernel.getAsDouble();
+            if (round >= rounds / 2)
+                nanos += System.nanoTime() - start;
+        }
+        System.out.printf("%-20s %12.2f %24.1f%n", label, (double) nanos / n / (rounds - rounds / 2), checksum);
+    }
+
+    // Every kernel runs in a method of its own, so that the JIT compiles each loop separately.
+
+    private static double powDistances(KDPoint[] from, KDPoint[] to) {
+        double sum = 0;
+        for (int i = 0; i < from.length; i++)
+            sum += powDistance(from[i], to[i]);
+        return sum;
+    }
+
+    private static double squaredDistances(KDPoint[] from, KDPoint[] to) {
+        long sum = 0;
+        for (int i = 0; i < from.length; i++)
+            sum += from[i].squaredDistance(to[i]);
+        return sum;
+    }
+
+    private static double euclideanDistances(KDPoint[] from, KDPoint[] to) {
+        double sum = 0;
+        for (int i = 0; i < from.length; i++)
+            sum += from[i].euclideanDistance(to[i]);
+        return sum;
+    }
+
+    private static double scalarDistances(int[] from, int[] to, int dims) {
+        SquaredDistanceKernel kernel = SquaredDistanceKernel.SCALAR;
+        long sum = 0;
+        for (int i = 0; i < from.length; i += dims)
+            sum += kernel.squaredDistance(from, i, to, i, dims);
+        return sum;
+    }
+
+    private static double vectorDistances(int[] from, int[] to, int dims) {
+        SquaredDistanceKernel kernel = SquaredDistanceKernel.VECTOR;
+        long sum = 0;
+        for (int i = 0; i < from.length; i += dims)
+            sum += kernel.squaredDistance(from, i, to, i, dims);
+        return sum;
+    }
+
+    /**
+     * The Euclidean distance as {@link KDPoint#euclideanDistance(KDPoint)} used to compute it.
+     */
+    private static double powDistance(KDPoint p1, KDPoint p2) {
+        double sum = 0.0;
+        for (int i = 0; i < p1.coords.length; i++)
+            sum = sum + Math.pow((p1.coords[i] - p2.coords[i]), 2);
+        return Math.sqrt(sum);
+    }
+
+    private static KDPoint randomPoint(Random r, int dims) {
+        int[] coords = new int[dims];
+        for (int d = 0; d < dims; d++)
+            coords[d] = r.nextInt(SIDE);
+        return new KDPoint(coords);
+    }
+}
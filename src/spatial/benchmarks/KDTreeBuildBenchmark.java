@@ -0,0 +1,63 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.trees.KDTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <p>A scaling benchmark for {@link KDTree} construction. It times the sequential
+ * {@link KDTree#bulkLoad(int, java.util.Collection) bulkLoad} once, and then
+ * {@link KDTree#parallelBulkLoad(int, java.util.Collection, ForkJoinPool, int) parallelBulkLoad} with 1, 2, 4, ...
+ * up to all available threads, reporting the speedup over the sequential build.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.KDTreeBuildBenchmark [numPoints] [dims] [cutoff]}</p>
+ *
+ * @author Isaac Solomon
+ */
+public class KDTreeBuildBenchmark {
+
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int MEASURED_ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int dims = args.length > 1 ? Integer.parseInt(args[1]) : KDTree.DEFAULT_DIMS;
+        int cutoff = args.length > 2 ? Integer.parseInt(args[2]) : KDTree.DEFAULT_PARALLEL_CUTOFF;
+
+        Random r = new Random(47);
+        List<KDPoint> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int[] coords = new int[dims];
+            for (int d = 0; d < dims; d++)
+                coords[d] = r.nextInt();
+            points.add(new KDPoint(coords));
+        }
+
+        double sequential = time(() -> KDTree.bulkLoad(dims, points));
+        System.out.printf("n=%d dims=%d cutoff=%d%n", n, dims, cutoff);
+        System.out.printf("sequential          %8.1f ms%n", sequential);
+
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            double parallel = time(() -> KDTree.parallelBulkLoad(dims, points, pool, cutoff));
+            pool.shutdown();
+            System.out.printf("parallel threads=%-3d %8.1f ms  speedup %.2fx%n", threads, parallel, sequential / parallel);
+            if (threads == maxThreads)
+                break;
+        }
+    }
+
+    private static double time(Runnable build) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++)
+            build.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++)
+            build.run();
+        return (System.nanoTime() - start) / 1e6 / MEASURED_ROUNDS;
+    }
+}
@@ -0,0 +1,51 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.QueryCost;
+import spatial.trees.KDTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>Measures how well {@link KDTree#range(KDPoint, double, QueryCost) range queries} prune. For a small, a medium and
+ * a large radius, it reports the average number of nodes visited next to the average number of {@link KDPoint}s
+ * reported. With pruning, the visited count should track the result size (plus a logarithmic term) rather than the
+ * size of the tree.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.KDTreeRangeBenchmark [numPoints] [numQueries]}</p>
+ *
+ * @author Isaac Solomon
+ */
+public class KDTreeRangeBenchmark {
+
+    private static final int SIDE = 1 << 20;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        Random r = new Random(47);
+        List<KDPoint> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            points.add(new KDPoint(r.nextInt(SIDE), r.nextInt(SIDE)));
+        KDTree tree = KDTree.bulkLoad(points);
+
+        System.out.printf("n=%d queries=%d%n", n, queries);
+        System.out.printf("%-8s %10s %14s %14s %10s%n", "", "radius", "avg visited", "avg results", "visited/n");
+        double[] radii = {SIDE / 1000.0, SIDE / 100.0, SIDE / 10.0};
+        String[] labels = {"small", "medium", "large"};
+        for (int i = 0; i < radii.length; i++) {
+            QueryCost cost = new QueryCost();
+            long results = 0;
+            long start = System.nanoTime();
+            for (int q = 0; q < queries; q++)
+                results += tree.range(new KDPoint(r.nextInt(SIDE), r.nextInt(SIDE)), radii[i], cost).size();
+            double millis = (System.nanoTime() - start) / 1e6;
+            System.out.printf("%-8s %10.0f %14.1f %14.1f %10.5f   (%.3f ms/query)%n", labels[i], radii[i],
+                    (double) cost.getNodesVisited() / queries, (double) results / queries,
+                    (double) cost.getNodesVisited() / queries / n, millis / queries);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.KNNQueryContext;
+import spatial.trees.KDTree;
+import spatial.trees.PRQuadTree;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>Compares k-nearest neighbor queries that allocate a fresh {@link spatial.knnutils.BoundedPriorityQueue} with queries
+ * that reuse a single {@link KNNQueryContext}, on a {@link KDTree} and a {@link PRQuadTree}. For each, it reports the
+ * average time per query and the average number of bytes allocated per query by the querying thread, which should be
+ * zero for a warmed-up context.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.KNNQueryContextBenchmark [numPoints] [numQueries] [k]}</p>
+ *
+ * @author Isaac Solomon
+ */
+public class KNNQueryContextBenchmark {
+
+    private static final int K_EXP = 20;
+    private static final int SIDE = 1 << (K_EXP - 1);
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        Random r = new Random(47);
+        KDTree kdTree = new KDTree();
+        PRQuadTree quadTree = new PRQuadTree(K_EXP, 4);
+        List<KDPoint> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            KDPoint p = new KDPoint(r.nextInt(2 * SIDE) - SIDE, r.nextInt(2 * SIDE) - SIDE);
+            points.add(p);
+            quadTree.insert(p);
+        }
+        kdTree = KDTree.bulkLoad(points);
+        KDPoint[] anchors = new KDPoint[queries];
+        for (int i = 0; i < queries; i++)
+            anchors[i] = new KDPoint(r.nextInt(2 * SIDE) - SIDE, r.nextInt(2 * SIDE) - SIDE);
+
+        System.out.printf("n=%d queries=%d k=%d%n", n, queries, k);
+        System.out.printf("%-28s %12s %14s%n", "", "us/query", "bytes/query");
+        KNNQueryContext context = new KNNQueryContext();
+        for (int round = 0; round < 2; round++) { // The first round warms up the JIT.
+            final KDTree kd = kdTree;
+            measure("KDTree, queue", anchors, a -> kd.kNearestNeighbors(k, a), round == 1);
+            measure("KDTree, context", anchors, a -> kd.kNearestNeighbors(k, a, context), round == 1);
+            measure("PRQuadTree, queue", anchors, a -> quadTree.kNearestNeighbors(k, a), round == 1);
+            measure("PRQuadTree, context", anchors, a -> quadTree.kNearestNeighbors(k, a, context), round == 1);
+        }
+    }
+
+    private static void measure(String label, KDPoint[] anchors, java.util.function.Consumer<KDPoint> query, boolean print) {
+        long thread = Thread.currentThread().getId();
+        long bytes = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (KDPoint a : anchors)
+            query.accept(a);
+        long nanos = System.nanoTime() - start;
+        bytes = THREADS.getThreadAllocatedBytes(thread) - bytes;
+        if (print)
+            System.out.printf("%-28s %12.2f %14.1f%n", label, nanos / 1e3 / anchors.length, (double) bytes / anchors.length);
+    }
+}
@@ -0,0 +1,83 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.nodes.PRQuadBlackNode;
+import spatial.trees.LinearQuadTree;
+import spatial.trees.PRQuadTree;
+import spatial.trees.SpatialQuerySolver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>Compares the query times of a {@link PRQuadTree} and a {@link LinearQuadTree} over the same uniformly random
+ * {@link KDPoint}s, with the same k and bucketing parameter, for k-nearest neighbor and range queries around random
+ * anchors. The total number of results is printed along with the times as a sanity check.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.LinearQuadTreeBenchmark [numPoints] [numQueries] [bucketSize]}</p>
+ *
+ * @author Isaac Solomon
+ */
+public class LinearQuadTreeBenchmark {
+
+    private static final int K_EXP = 22;
+    private static final int SIDE = 1 << (K_EXP - 1);
+    private static final int NEIGHBORS = 8;
+
+    /**
+     * Range queries are cheap enough to be repeated, so that their times are stable.
+     */
+    private static final int RANGE_REPEATS = 50;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int bucketSize = args.length > 2 ? Integer.parseInt(args[2]) : PRQuadBlackNode.DEFAULT_BUCKETSIZE;
+
+        Random r = new Random(47);
+        List<KDPoint> points = new ArrayList<>(n);
+        PRQuadTree pr = new PRQuadTree(K_EXP, bucketSize);
+        for (int i = 0; i < n; i++) {
+            KDPoint p = randomPoint(r);
+            points.add(p);
+            pr.insert(p);
+        }
+        LinearQuadTree linear = new LinearQuadTree(K_EXP, bucketSize, points);
+        KDPoint[] anchors = new KDPoint[queries];
+        for (int i = 0; i < queries; i++)
+            anchors[i] = randomPoint(r);
+        double range = 4 * SIDE / Math.sqrt(n); // About 12 points per range query.
+
+        System.out.printf("n=%d queries=%d bucket=%d height=%d/%d%n", n, queries, bucketSize, pr.height(), linear.height());
+        System.out.printf("%-24s %12s %10s%n", "query", "us/query", "results");
+        for (int round = 0; round < 2; round++) { // The first round warms up the JIT.
+            measure("PR-QuadTree, k-NN", pr, anchors, -1, 1, round == 1);
+            measure("linear, k-NN", linear, anchors, -1, 1, round == 1);
+            measure("PR-QuadTree, range", pr, anchors, range, RANGE_REPEATS, round == 1);
+            measure("linear, range", linear, anchors, range, RANGE_REPEATS, round == 1);
+        }
+    }
+
+    /**
+     * Runs a k-NN query around every anchor if range is negative, and a range query otherwise, the given number of
+     * times, and reports the average time per query and the number of results of the last repetition.
+     */
+    private static void measure(String label, SpatialQuerySolver tree, KDPoint[] anchors, double range, int repeats,
+                                boolean print) {
+        long results = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < repeats; i++) {
+            results = 0;
+            for (KDPoint anchor : anchors)
+                results += range < 0 ? tree.kNearestNeighbors(NEIGHBORS, anchor).size() : tree.range(anchor, range).size();
+        }
+        long nanos = System.nanoTime() - start;
+        if (print)
+            System.out.printf("%-24s %12.2f %10d%n", label, nanos / 1e3 / anchors.length / repeats, results);
+    }
+
+    private static KDPoint randomPoint(Random r) {
+        return new KDPoint(r.nextInt(2 * SIDE) - SIDE, r.nextInt(2 * SIDE) - SIDE);
+    }
+}
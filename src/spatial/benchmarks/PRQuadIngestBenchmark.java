@@ -0,0 +1,61 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.nodes.PRQuadBlackNode;
+import spatial.trees.PRQuadTree;
+
+import java.util.Random;
+
+/**
+ * <p>Measures the ingestion throughput of {@link PRQuadTree}, by inserting the same uniformly random {@link KDPoint}s
+ * into two fresh trees: once the way {@link PRQuadTree#insert(KDPoint)} used to do it, searching for every
+ * {@link KDPoint} before descending again to insert it, and once with {@link PRQuadTree#insertIfAbsent(KDPoint)},
+ * which descends only once. The number of {@link KDPoint}s that were new is printed along with the times as a sanity
+ * check. The {@link KDPoint}s are generated on the fly from the same seed, so that only the trees take up memory; run
+ * with a large enough heap, such as {@code -Xmx4g} for the default 10M {@link KDPoint}s.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.PRQuadIngestBenchmark [numPoints] [bucketSize]}</p>
+ *
+ * @author Isaac Solomon
+ */
+public class PRQuadIngestBenchmark {
+
+    private static final int K_EXP = 24;
+    private static final int SIDE = 1 << (K_EXP - 1);
+    private static final long SEED = 47;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int bucketSize = args.length > 1 ? Integer.parseInt(args[1]) : PRQuadBlackNode.DEFAULT_BUCKETSIZE;
+
+        ingest(n / 10, bucketSize, false, false); // Warm up the JIT on both paths.
+        ingest(n / 10, bucketSize, true, false);
+
+        System.out.printf("n=%d bucket=%d%n", n, bucketSize);
+        System.out.printf("%-24s %10s %14s %10s%n", "ingest", "ms", "points/s", "new");
+        ingest(n, bucketSize, false, true);
+        ingest(n, bucketSize, true, true);
+    }
+
+    private static void ingest(int n, int bucketSize, boolean singlePass, boolean print) {
+        PRQuadTree tree = new PRQuadTree(K_EXP, bucketSize);
+        Random r = new Random(SEED);
+        System.gc(); // Do not charge the collection of the previous tree to this one.
+        int added = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            KDPoint p = new KDPoint(r.nextInt(2 * SIDE) - SIDE, r.nextInt(2 * SIDE) - SIDE);
+            if (singlePass) {
+                if (tree.insertIfAbsent(p))
+                    added++;
+            } else if (!tree.search(p)) { // The former PRQuadTree#insert: search, then descend again to insert.
+                tree.insert(p);
+                added++;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        if (print)
+            System.out.printf("%-24s %10d %14.0f %10d%n", singlePass ? "insertIfAbsent" : "search, then insert",
+                    nanos / 1_000_000, n / (nanos / 1e9), added);
+    }
+}
@@ -0,0 +1,97 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.nodes.PRQuadBlackNode;
+import spatial.nodes.PRQuadGrayNode;
+import spatial.nodes.PRQuadNode;
+
+import java.util.Random;
+
+/**
+ * <p>Compares {@link PRQuadNode#search(KDPoint)}, which descends from a {@link PRQuadGrayNode} into the single child
+ * whose quadrant contains the {@link KDPoint}, with the exhaustive search that gray nodes used to perform, which asks
+ * all four children. Both are run over the same PR-QuadTree, for {@link KDPoint}s that are in it and for
+ * {@link KDPoint}s that are not, and the number of hits is printed along with the times as a sanity check.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.PRQuadSearchBenchmark [numPoints] [numQueries] [bucketSize]}</p>
+ *
+ * @author Isaac Solomon
+ */
+public class PRQuadSearchBenchmark {
+
+    private static final int K_EXP = 22;
+    private static final int SIDE = 1 << (K_EXP - 1);
+
+    /**
+     * Direct searches are cheap enough to be repeated, so that they are measured once the JIT has compiled them.
+     */
+    private static final int DIRECT_REPEATS = 1_000;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int bucketSize = args.length > 2 ? Integer.parseInt(args[2]) : PRQuadBlackNode.DEFAULT_BUCKETSIZE;
+
+        Random r = new Random(47);
+        KDPoint[] points = new KDPoint[n];
+        PRQuadNode root = null;
+        for (int i = 0; i < n; i++) {
+            points[i] = randomPoint(r);
+            root = root == null ? new PRQuadBlackNode(new KDPoint(0, 0), K_EXP, bucketSize, points[i])
+                    : root.insert(points[i], K_EXP);
+        }
+        KDPoint[] present = new KDPoint[queries], absent = new KDPoint[queries];
+        for (int i = 0; i < queries; i++) {
+            present[i] = points[r.nextInt(n)];
+            absent[i] = randomPoint(r);
+        }
+
+        System.out.printf("n=%d queries=%d bucket=%d height=%d%n", n, queries, bucketSize, root.height());
+        System.out.printf("%-24s %14s %8s%n", "search", "us/query", "hits");
+        for (int round = 0; round < 2; round++) { // The first round warms up the JIT.
+            final PRQuadNode tree = root;
+            measure("direct, present", present, DIRECT_REPEATS, p -> tree.search(p), round == 1);
+            measure("direct, absent", absent, DIRECT_REPEATS, p -> tree.search(p), round == 1);
+            measure("exhaustive, present", present, 1, p -> exhaustiveSearch(tree, p), round == 1);
+            measure("exhaustive, absent", absent, 1, p -> exhaustiveSearch(tree, p), round == 1);
+        }
+    }
+
+    /**
+     * Runs every query the given number of times, and reports the average time per query and the number of hits of
+     * the last repetition.
+     */
+    private static void measure(String label, KDPoint[] queries, int repeats, java.util.function.Predicate<KDPoint> search,
+                                boolean print) {
+        int hits = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < repeats; i++) {
+            hits = 0;
+            for (KDPoint p : queries)
+                if (search.test(p))
+                    hits++;
+        }
+        long nanos = System.nanoTime() - start;
+        if (print)
+            System.out.printf("%-24s %14.2f %8d%n", label, nanos / 1e3 / queries.length / repeats, hits);
+    }
+
+    /**
+     * The search that {@link PRQuadGrayNode}s used to perform: every child is searched, whether its quadrant contains
+     * the {@link KDPoint} or not.
+     */
+    private static boolean exhaustiveSearch(PRQuadNode node, KDPoint p) {
+        if (node == null)
+            return false;
+        if (node instanceof PRQuadBlackNode)
+            return node.search(p);
+        boolean found = false;
+        for (PRQuadNode child : ((PRQuadGrayNode) node).getChildren())
+            found |= exhaustiveSearch(child, p);
+        return found;
+    }
+
+    private static KDPoint randomPoint(Random r) {
+        return new KDPoint(r.nextInt(2 * SIDE) - SIDE, r.nextInt(2 * SIDE) - SIDE);
+    }
+}
@@ -0,0 +1,150 @@
+package spatial.kdpoint;
+
+/**
+ * <p>{@link DoubleKDPoint} is the {@code double}-coordinate counterpart of {@link KDPoint}, for data that would lose
+ * precision if quantized to integers, such as latitudes and longitudes or sensor readings. It is a class of its own,
+ * rather than a generic point over boxed {@link Double}s, so that the distance loops of the trees that store it
+ * stay over primitive {@code double[]}s.</p>
+ *
+ * <p>Coordinates compare with {@code ==}, so {@code 0.0} and {@code -0.0} are the same coordinate and a {@code NaN}
+ * coordinate is equal to nothing. The trees reject {@code NaN} coordinates.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see KDPoint
+ * @see FloatKDPoint
+ */
+public class DoubleKDPoint {
+
+    /**
+     * The coordinates of the {@link DoubleKDPoint}. Like those of {@link KDPoint}, they are publicly accessible and
+     * therefore <b>mutable</b>, so deep copies are required wherever {@link DoubleKDPoint}s are copied.
+     */
+    public double[] coords;
+
+    /**
+     * Initialize a {@link DoubleKDPoint} with some values. The dimensionality of the point is implicitly given by the
+     * length of the argument {@code vals}, which is copied.
+     * @param vals The values with which to initialize the {@link DoubleKDPoint}.
+     */
+    public DoubleKDPoint(double... vals){
+        coords = vals.clone();
+    }
+
+    /**
+     * Initialize a {@link DoubleKDPoint} based on an already existing {@link DoubleKDPoint}.
+     * @param p The {@link DoubleKDPoint} to copy.
+     */
+    public DoubleKDPoint(DoubleKDPoint p){
+        this(p.coords);
+    }
+
+    /**
+     * Calculate the <b>squared</b> Euclidean distance between this and p. Comparing squared distances is equivalent
+     * to comparing distances, and saves a square root per comparison.
+     * @param p The {@link DoubleKDPoint} to calculate the squared distance to.
+     * @return The squared Euclidean distance between the two {@link DoubleKDPoint}s.
+     * @throws RuntimeException if the dimensionality of the two {@link DoubleKDPoint}s is different.
+     */
+    public double squaredDistance(DoubleKDPoint p){
+        if (coords.length != p.coords.length)
+            throw new RuntimeException("Cannot calculate the Euclidean Distance between DoubleKDPoints of different dimensionalities.");
+        return squaredDistance(coords, p.coords);
+    }
+
+    /**
+     * Calculate the <b>Euclidean distance</b> between this and p.
+     * @param p The {@link DoubleKDPoint} to calculate the distance to.
+     * @return The Euclidean distance between the two {@link DoubleKDPoint}s.
+     * @throws RuntimeException if the dimensionality of the two {@link DoubleKDPoint}s is different.
+     */
+    public double euclideanDistance(DoubleKDPoint p){
+        return Math.sqrt(squaredDistance(p));
+    }
+
+    /**
+     * The kernel behind {@link #squaredDistance(DoubleKDPoint)}, over two coordinate arrays of the same length.
+     * @param a The coordinates of the first point.
+     * @param b The coordinates of the second point.
+     * @return The squared Euclidean distance between the two points.
+     */
+    public static double squaredDistance(double[] a, double[] b){
+        double sum = 0;
+        for (int i = 0; i < a.length; i++){
+            double diff = a[i] - b[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Converts the radius of a range query into a bound on squared distances, like
+     * {@link KDPoint#squaredRangeBound(double)} does for integer ones: the returned value is the largest {@code double}
+     * {@code s} such that {@code Math.sqrt(s) <= range}, so that a squared distance is within the bound <b>exactly</b>
+     * when the distance is within range, despite the rounding of {@code range * range}.
+     * @param range The radius of the range query.
+     * @return The largest squared distance within range, or -1 if the range is negative (or NaN).
+     */
+    public static double squaredRangeBound(double range){
+        if (!(range >= 0))
+            return -1;
+        double s = range * range;
+        while (s < Double.POSITIVE_INFINITY && Math.sqrt(Math.nextUp(s)) <= range)
+            s = Math.nextUp(s);
+        while (s > 0 && Math.sqrt(s) > range)
+            s = Math.nextDown(s);
+        return s;
+    }
+
+    /**
+     * Checks that none of the coordinates of this is {@code NaN}, which the trees cannot order.
+     * @throws RuntimeException if a coordinate of this is {@code NaN}.
+     */
+    public void checkNotNaN(){
+        for (double c : coords)
+            if (Double.isNaN(c))
+                throw new RuntimeException("The DoubleKDPoint provided, " + this + ", is invalid: Please provide coordinates that are not NaN.");
+    }
+
+    /**
+     * Hashes the coordinates of this with the same mixing as {@link KDPoint#hash(int[])}, over the bits of every
+     * coordinate. {@code -0.0} is hashed as {@code 0.0}, to agree with {@link #equals(Object)}.
+     * @return A hash code for this {@link DoubleKDPoint}.
+     */
+    @Override
+    public int hashCode(){
+        long h = 0x9E3779B97F4A7C15L ^ coords.length;
+        for (double c : coords){
+            h = (h ^ Double.doubleToLongBits(c + 0.0)) * 0xBF58476D1CE4E5B9L; // Adding 0.0 turns -0.0 into 0.0.
+            h ^= h >>> 29;
+        }
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        h ^= h >>> 31;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if (o == null || o.getClass() != getClass())
+            return false;
+        DoubleKDPoint other = (DoubleKDPoint) o;
+        if (other.coords.length != coords.length)
+            return false;
+        for (int i = 0; i < coords.length; i++)
+            if (coords[i] != other.coords[i])
+                return false;
+        return true;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder retVal = new StringBuilder("(");
+        for (int i = 0; i < coords.length; i++){
+            retVal.append(coords[i]);
+            if (i < coords.length - 1)
+                retVal.append(", ");
+        }
+        return retVal.append(")").toString();
+    }
+}
@@ -0,0 +1,130 @@
+package spatial.kdpoint;
+
+/**
+ * <p>{@link FloatKDPoint} is the {@code float}-coordinate counterpart of {@link KDPoint}. It takes half the memory of a
+ * {@link DoubleKDPoint} per coordinate, which is enough precision for most sensor readings. Distances are computed in
+ * {@code double}s, so that squaring a difference neither overflows nor rounds it any further.</p>
+ *
+ * <p>Coordinates compare with {@code ==}, so {@code 0.0f} and {@code -0.0f} are the same coordinate and a {@code NaN}
+ * coordinate is equal to nothing. The trees reject {@code NaN} coordinates.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see KDPoint
+ * @see DoubleKDPoint
+ */
+public class FloatKDPoint {
+
+    /**
+     * The coordinates of the {@link FloatKDPoint}. Like those of {@link KDPoint}, they are publicly accessible and
+     * therefore <b>mutable</b>, so deep copies are required wherever {@link FloatKDPoint}s are copied.
+     */
+    public float[] coords;
+
+    /**
+     * Initialize a {@link FloatKDPoint} with some values. The dimensionality of the point is implicitly given by the
+     * length of the argument {@code vals}, which is copied.
+     * @param vals The values with which to initialize the {@link FloatKDPoint}.
+     */
+    public FloatKDPoint(float... vals){
+        coords = vals.clone();
+    }
+
+    /**
+     * Initialize a {@link FloatKDPoint} based on an already existing {@link FloatKDPoint}.
+     * @param p The {@link FloatKDPoint} to copy.
+     */
+    public FloatKDPoint(FloatKDPoint p){
+        this(p.coords);
+    }
+
+    /**
+     * Calculate the <b>squared</b> Euclidean distance between this and p. Comparing squared distances is equivalent
+     * to comparing distances, and saves a square root per comparison.
+     * @param p The {@link FloatKDPoint} to calculate the squared distance to.
+     * @return The squared Euclidean distance between the two {@link FloatKDPoint}s.
+     * @throws RuntimeException if the dimensionality of the two {@link FloatKDPoint}s is different.
+     */
+    public double squaredDistance(FloatKDPoint p){
+        if (coords.length != p.coords.length)
+            throw new RuntimeException("Cannot calculate the Euclidean Distance between FloatKDPoints of different dimensionalities.");
+        return squaredDistance(coords, p.coords);
+    }
+
+    /**
+     * Calculate the <b>Euclidean distance</b> between this and p.
+     * @param p The {@link FloatKDPoint} to calculate the distance to.
+     * @return The Euclidean distance between the two {@link FloatKDPoint}s.
+     * @throws RuntimeException if the dimensionality of the two {@link FloatKDPoint}s is different.
+     */
+    public double euclideanDistance(FloatKDPoint p){
+        return Math.sqrt(squaredDistance(p));
+    }
+
+    /**
+     * The kernel behind {@link #squaredDistance(FloatKDPoint)}, over two coordinate arrays of the same length.
+     * @param a The coordinates of the first point.
+     * @param b The coordinates of the second point.
+     * @return The squared Euclidean distance between the two points.
+     */
+    public static double squaredDistance(float[] a, float[] b){
+        double sum = 0;
+        for (int i = 0; i < a.length; i++){
+            double diff = (double) a[i] - b[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Checks that none of the coordinates of this is {@code NaN}, which the trees cannot order.
+     * @throws RuntimeException if a coordinate of this is {@code NaN}.
+     */
+    public void checkNotNaN(){
+        for (float c : coords)
+            if (Float.isNaN(c))
+                throw new RuntimeException("The FloatKDPoint provided, " + this + ", is invalid: Please provide coordinates that are not NaN.");
+    }
+
+    /**
+     * Hashes the coordinates of this with the same mixing as {@link KDPoint#hash(int[])}, over the bits of every
+     * coordinate. {@code -0.0f} is hashed as {@code 0.0f}, to agree with {@link #equals(Object)}.
+     * @return A hash code for this {@link FloatKDPoint}.
+     */
+    @Override
+    public int hashCode(){
+        long h = 0x9E3779B97F4A7C15L ^ coords.length;
+        for (float c : coords){
+            h = (h ^ (Float.floatToIntBits(c + 0.0f) & 0xFFFFFFFFL)) * 0xBF58476D1CE4E5B9L; // Adding 0.0f turns -0.0f into 0.0f.
+            h ^= h >>> 29;
+        }
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        h ^= h >>> 31;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if (o == null || o.getClass() != getClass())
+            return false;
+        FloatKDPoint other = (FloatKDPoint) o;
+        if (other.coords.length != coords.length)
+            return false;
+        for (int i = 0; i < coords.length; i++)
+            if (coords[i] != other.coords[i])
+                return false;
+        return true;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder retVal = new StringBuilder("(");
+        for (int i = 0; i < coords.length; i++){
+            retVal.append(coords[i]);
+            if (i < coords.length - 1)
+                retVal.append(", ");
+        }
+        return retVal.append(")").toString();
+    }
+}
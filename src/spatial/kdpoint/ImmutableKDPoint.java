@@ -0,0 +1,93 @@
+package spatial.kdpoint;
+
+import java.util.Arrays;
+
+/**
+ * <p>{@link ImmutableKDPoint} is a read-only counterpart of {@link KDPoint}. Its coordinates are copied on construction
+ * and never exposed, so its {@link #hashCode() hash code} can be computed once and cached. This makes it the better
+ * key for hash-based collections that are probed often, such as {@link java.util.HashSet}s of visited points.</p>
+ *
+ * <p>An {@link ImmutableKDPoint} hashes exactly like a {@link KDPoint} with the same coordinates, since both use
+ * {@link KDPoint#hash(int[])}. They are <b>not</b> {@link #equals(Object) equal} to each other, however, because
+ * {@link KDPoint#equals(Object)} only accepts {@link KDPoint}s. Use {@link #toKDPoint()} and
+ * {@link #ImmutableKDPoint(KDPoint)} to convert between the two.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see KDPoint
+ */
+public final class ImmutableKDPoint {
+
+    private final int[] coords;
+    private final int hash;
+
+    /**
+     * Initialize an {@link ImmutableKDPoint} with some values. The dimensionality of the point is implicitly given by
+     * the length of the argument {@code vals}, which is copied.
+     * @param vals The values with which to initialize the {@link ImmutableKDPoint}.
+     */
+    public ImmutableKDPoint(int... vals){
+        coords = vals.clone();
+        hash = KDPoint.hash(coords);
+    }
+
+    /**
+     * Initialize an {@link ImmutableKDPoint} from the current coordinates of a {@link KDPoint}. Later changes to
+     * {@code p} do not affect the {@link ImmutableKDPoint}.
+     * @param p The {@link KDPoint} whose coordinates to copy.
+     */
+    public ImmutableKDPoint(KDPoint p){
+        this(p.coords);
+    }
+
+    /**
+     * Returns the number of coordinates of this.
+     * @return The dimensionality of this {@link ImmutableKDPoint}.
+     */
+    public int dims(){
+        return coords.length;
+    }
+
+    /**
+     * Returns a single coordinate of this.
+     * @param dim The index of the coordinate, between 0 and {@link #dims()} - 1 inclusive.
+     * @return The coordinate of this along {@code dim}.
+     * @throws ArrayIndexOutOfBoundsException if {@code dim} is not a valid index.
+     */
+    public int coord(int dim){
+        return coords[dim];
+    }
+
+    /**
+     * Returns a fresh, mutable {@link KDPoint} with the coordinates of this.
+     * @return A new {@link KDPoint} equal in coordinates to this.
+     */
+    public KDPoint toKDPoint(){
+        return new KDPoint(coords);
+    }
+
+    /**
+     * Returns the hash code cached on construction, which is the one {@link KDPoint#hash(int[])} computes for the
+     * coordinates of this.
+     * @return A hash code for this {@link ImmutableKDPoint}.
+     */
+    @Override
+    public int hashCode(){
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if(o == this)
+            return true;
+        if(!(o instanceof ImmutableKDPoint))
+            return false;
+        ImmutableKDPoint other = (ImmutableKDPoint) o;
+        return hash == other.hash && Arrays.equals(coords, other.coords); // Compare the cached hashes first, since they are free.
+    }
+
+    @Override
+    public String toString(){
+        return new KDPoint(coords).toString();
+    }
+}
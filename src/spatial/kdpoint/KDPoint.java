@@ -104,12 +104,34 @@ public class KDPoint {
 		this(p.coords);
 	}
 
+	/**
+	 * Hashes the coordinates of this with {@link #hash(int[])}. Since {@link KDPoint} is mutable, the hash is
+	 * recomputed on every call; {@link ImmutableKDPoint} caches the same value once.
+	 * @return A hash code for this {@link KDPoint}.
+	 */
 	@Override
 	public int hashCode() {
-		int hash= 0;
-		for(int i = 0; i < coords.length; i++)
-			hash+= coords[i]  *  Math.pow(2,i);
-		return hash;
+		return hash(coords);
+	}
+
+	/**
+	 * <p>Hashes an array of coordinates. Every coordinate is folded into a 64-bit state through a multiplication and
+	 * a shift, and the state goes through the SplitMix64 finalizer, such that every bit of every coordinate affects
+	 * every bit of the result. Points that differ in a single coordinate, or whose coordinates are permutations of
+	 * each other, therefore hash apart; the low bits are well-mixed enough to index power-of-two tables directly.</p>
+	 * @param coords The coordinates to hash.
+	 * @return A hash code for {@code coords}.
+	 */
+	public static int hash(int[] coords){
+		long h = 0x9E3779B97F4A7C15L ^ coords.length;
+		for(int i = 0; i < coords.length; i++){
+			h = (h ^ (coords[i] & 0xFFFFFFFFL)) * 0xBF58476D1CE4E5B9L;
+			h ^= h >>> 29;
+		}
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		h ^= h >>> 31;
+		return (int)(h ^ (h >>> 32));
 	}
 
 	@Override
@@ -133,13 +155,114 @@ public class KDPoint {
 	 * @return The <b>Euclidean distance</b> between the two {@link KDPoint}s.
 	 * @throws RuntimeException if the dimensionality of the two KDPoints is different.
 	 */
-	public double euclideanDistance(KDPoint p) throws RuntimeException{ // TODO: Make faster
+	public double euclideanDistance(KDPoint p) throws RuntimeException{
+		long sq = squaredDistance(p);
+		if(sq != Long.MAX_VALUE)
+			return Math.sqrt(sq);
+		double sum = 0.0; // Saturated: fall back to floating point.
+		for(int i = 0; i < coords.length; i++){
+			double diff = (double) coords[i] - p.coords[i];
+			sum += diff * diff;
+		}
+		return Math.sqrt(sum);
+	}
+
+	/**
+	 * The largest absolute value whose square fits in a {@code long}.
+	 */
+	static final long MAX_SQUARABLE = 3037000499L;
+
+	/**
+	 * <p>Calculate the <b>squared</b> Euclidean distance between this and p, in exact integer arithmetic. Since the
+	 * square root is monotonic, comparing squared distances is equivalent to comparing distances, so the trees use this
+	 * method for all of their comparisons and only take a square root when they report a distance.</p>
+	 *
+	 * <p>Coordinate differences are computed in {@code long}s, so they never overflow. Their squares and sums can, for
+	 * {@link KDPoint}s more than about 3.04 billion apart, in which case the result <b>saturates</b> at
+	 * {@link Long#MAX_VALUE}.</p>
+	 *
+	 * @param p The {@link KDPoint} to calculate the squared distance to.
+	 * @return The squared Euclidean distance between the two {@link KDPoint}s, or {@link Long#MAX_VALUE} if it does not
+	 * fit in a {@code long}.
+	 * @throws RuntimeException if the dimensionality of the two KDPoints is different.
+	 */
+	public long squaredDistance(KDPoint p) throws RuntimeException{
 		if(coords.length != p.coords.length)
 			throw new RuntimeException("Cannot calculate the Euclidean Distance between KDPoints of different dimensionalities.");
-		double sum = 0.0;
-		for(int i = 0; i < coords.length; i++)
-			sum = sum + Math.pow((coords[i] - p.coords[i]), 2);
-		return Math.sqrt(sum);
+		return squaredDistance(coords, 0, p.coords, 0, coords.length);
+	}
+
+	/**
+	 * <p>The kernel behind {@link #squaredDistance(KDPoint)}, over slices of coordinate arrays, so that structures that
+	 * store their {@link KDPoint}s in flat {@code int[]}s can use it too. Returns the squared Euclidean distance between
+	 * {@code a[aFrom .. aFrom + length)} and {@code b[bFrom .. bFrom + length)}, saturated at {@link Long#MAX_VALUE}.</p>
+	 *
+	 * <p>Every term is checked for overflow as it is added, and the loop returns {@link Long#MAX_VALUE} as soon as a
+	 * square or the running sum does not fit in a {@code long}, that is, for {@link KDPoint}s about 3.04 billion or more
+	 * apart. For the coordinates of real data, neither check ever fires, so they cost two predictable branches per
+	 * coordinate.</p>
+	 *
+	 * @param a The array that holds the coordinates of the first {@link KDPoint}.
+	 * @param aFrom The index of the first coordinate of the first {@link KDPoint} in a.
+	 * @param b The array that holds the coordinates of the second {@link KDPoint}.
+	 * @param bFrom The index of the first coordinate of the second {@link KDPoint} in b.
+	 * @param length The dimensionality of the {@link KDPoint}s.
+	 * @return The squared Euclidean distance between the two {@link KDPoint}s, or {@link Long#MAX_VALUE} if it does not
+	 * fit in a {@code long}.
+	 */
+	public static long squaredDistance(int[] a, int aFrom, int[] b, int bFrom, int length){
+		long sum = 0;
+		for(int i = 0; i < length; i++){
+			long diff = (long) a[aFrom + i] - b[bFrom + i];
+			if(diff > MAX_SQUARABLE || diff < -MAX_SQUARABLE)
+				return Long.MAX_VALUE;
+			sum += diff * diff;
+			if(sum < 0) // Each term is below 2^63, so an overflowing sum wraps to a negative number.
+				return Long.MAX_VALUE;
+		}
+		return sum;
+	}
+
+	/**
+	 * A static version of {@link #squaredDistance(KDPoint)}.
+	 * @param p1 One of the two {@link KDPoint}s to calculate the squared distance of.
+	 * @param p2 One of the two {@link KDPoint}s to calculate the squared distance of.
+	 * @return The squared Euclidean distance between p1 and p2, saturated at {@link Long#MAX_VALUE}.
+	 */
+	public static long squaredDistance(KDPoint p1, KDPoint p2){
+		return p1.squaredDistance(p2);
+	}
+
+	/**
+	 * Squares a coordinate difference, such as the distance between a {@link KDPoint} and a splitting line, saturating
+	 * at {@link Long#MAX_VALUE} like {@link #squaredDistance(KDPoint)} does.
+	 * @param diff The difference to square.
+	 * @return {@code diff * diff}, or {@link Long#MAX_VALUE} if it does not fit in a {@code long}.
+	 */
+	public static long saturatedSquare(long diff){
+		return (diff > MAX_SQUARABLE || diff < -MAX_SQUARABLE) ? Long.MAX_VALUE : diff * diff;
+	}
+
+	/**
+	 * Converts the radius of a range query into a bound on squared distances: the returned value is the largest
+	 * {@code s} such that {@code Math.sqrt(s) <= range}. Since the square root is monotonic, a squared distance
+	 * {@code sq} then satisfies {@code sq <= s} <b>exactly</b> when {@code Math.sqrt(sq) <= range}, which lets range
+	 * queries compare squared distances without any rounding discrepancy.
+	 * @param range The radius of the range query.
+	 * @return The largest squared distance within range, or -1 if the range is negative (or NaN).
+	 */
+	public static long squaredRangeBound(double range){
+		if(!(range >= 0))
+			return -1;
+		double sq = range * range;
+		if(sq >= 0x1p63)
+			return Long.MAX_VALUE;
+		long s = (long) sq;
+		while(s < Long.MAX_VALUE && Math.sqrt(s + 1) <= range)
+			s++;
+		while(s >= 0 && Math.sqrt(s) > range)
+			s--;
+		return s;
 	}
 	
 	/**
@@ -0,0 +1,145 @@
+package spatial.kdpoint;
+
+/**
+ * <p>{@link KDPointSelection} provides in-place <em>selection</em> (&quot;quickselect&quot;) over arrays of
+ * {@link KDPoint}s, keyed on a single coordinate. It is the building block of every bulk-loading routine
+ * in the project: finding the median along the current splitting dimension in expected linear time is what
+ * allows a balanced <em>K</em>-D tree to be built in <em>O(n log n)</em> time.</p>
+ *
+ * <p>Pivots are chosen by median-of-three rather than at random, so that the resulting permutation of the
+ * array is a deterministic function of its input. Duplicate coordinates are handled by a three-way
+ * partition, which keeps the selection linear even when many {@link KDPoint}s share a coordinate.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see KDPoint
+ */
+public final class KDPointSelection {
+
+    private KDPointSelection(){
+        // Static helpers only.
+    }
+
+    /**
+     * <p>Rearranges {@code pts[lo..hi)} such that the element at index {@code nth} is the one that would be
+     * there if the range were sorted on coordinate {@code dim}, every element before it has a coordinate that is
+     * <b>smaller than or equal to</b> it and every element after it has a coordinate that is <b>larger than or
+     * equal to</b> it.</p>
+     *
+     * <p>The returned index is the <b>first</b> position of the run of elements that share the selected
+     * coordinate. All elements before that index are <b>strictly smaller</b> on {@code dim}, which is the split that
+     * a tree needs if it sends coordinates that are equal to a node's to its <b>right</b> subtree only. Trees that
+     * split at {@code nth} itself, whatever the returned index, get an exactly balanced split instead.</p>
+     *
+     * @param pts The array to rearrange. It is modified in place; the {@link KDPoint}s themselves are not copied.
+     * @param lo The first index of the range, inclusive.
+     * @param hi The last index of the range, exclusive.
+     * @param nth The rank to select, with {@code lo <= nth < hi}.
+     * @param dim The coordinate on which to compare {@link KDPoint}s.
+     * @return The smallest index {@code i <= nth} such that {@code pts[i..nth]} all share the selected coordinate.
+     */
+    public static int select(KDPoint[] pts, int lo, int hi, int nth, int dim){
+        return select(pts, null, lo, hi, nth, dim);
+    }
+
+    /**
+     * Same as {@link #select(KDPoint[], int, int, int, int)}, but also applies every swap to {@code values}, so that
+     * each {@link KDPoint} keeps the value stored at its index. This lets trees that store a value with every
+     * {@link KDPoint} be built and rebuilt like those that do not.
+     *
+     * @param pts The array to rearrange. It is modified in place; the {@link KDPoint}s themselves are not copied.
+     * @param values The values of the {@link KDPoint}s, index for index, rearranged along with them; or null.
+     * @param lo The first index of the range, inclusive.
+     * @param hi The last index of the range, exclusive.
+     * @param nth The rank to select, with {@code lo <= nth < hi}.
+     * @param dim The coordinate on which to compare {@link KDPoint}s.
+     * @return The smallest index {@code i <= nth} such that {@code pts[i..nth]} all share the selected coordinate.
+     */
+    public static int select(KDPoint[] pts, Object[] values, int lo, int hi, int nth, int dim){
+        hi--; // inclusive from here on
+        while (hi > lo) {
+            int pivot = medianOfThree(pts[lo].coords[dim], pts[(lo + hi) >>> 1].coords[dim], pts[hi].coords[dim]);
+            int lt = lo, gt = hi, i = lo;
+            while (i <= gt) { // Dutch national flag partition around pivot
+                int c = pts[i].coords[dim];
+                if (c < pivot)
+                    swap(pts, values, lt++, i++);
+                else if (c > pivot)
+                    swap(pts, values, i, gt--);
+                else
+                    i++;
+            }
+            if (nth < lt)
+                hi = lt - 1;
+            else if (nth > gt)
+                lo = gt + 1;
+            else
+                return lt;
+        }
+        return lo;
+    }
+
+    /**
+     * <p>Same as {@link #select(KDPoint[], int, int, int, int)}, but over a <b>flat</b> array of coordinates, in which
+     * row {@code i} occupies {@code rows[i * dims .. (i + 1) * dims)}. This lets array-backed trees be built without
+     * materializing a {@link KDPoint} per point.</p>
+     *
+     * @param rows The flat coordinate array to rearrange, one row of {@code dims} coordinates per point.
+     * @param dims The number of coordinates per row.
+     * @param lo The first row of the range, inclusive.
+     * @param hi The last row of the range, exclusive.
+     * @param nth The rank to select, with {@code lo <= nth < hi}.
+     * @param dim The coordinate on which to compare rows.
+     * @return The smallest row {@code i <= nth} such that rows {@code i..nth} all share the selected coordinate.
+     */
+    public static int select(int[] rows, int dims, int lo, int hi, int nth, int dim){
+        hi--; // inclusive from here on
+        while (hi > lo) {
+            int pivot = medianOfThree(rows[lo * dims + dim], rows[((lo + hi) >>> 1) * dims + dim], rows[hi * dims + dim]);
+            int lt = lo, gt = hi, i = lo;
+            while (i <= gt) {
+                int c = rows[i * dims + dim];
+                if (c < pivot)
+                    swapRows(rows, dims, lt++, i++);
+                else if (c > pivot)
+                    swapRows(rows, dims, i, gt--);
+                else
+                    i++;
+            }
+            if (nth < lt)
+                hi = lt - 1;
+            else if (nth > gt)
+                lo = gt + 1;
+            else
+                return lt;
+        }
+        return lo;
+    }
+
+    private static int medianOfThree(int a, int b, int c){
+        if (a < b)
+            return b < c ? b : Math.max(a, c);
+        else
+            return a < c ? a : Math.max(b, c);
+    }
+
+    private static void swap(KDPoint[] pts, Object[] values, int i, int j){
+        KDPoint tmp = pts[i];
+        pts[i] = pts[j];
+        pts[j] = tmp;
+        if (values != null) {
+            Object value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+
+    private static void swapRows(int[] rows, int dims, int i, int j){
+        int a = i * dims, b = j * dims;
+        for (int d = 0; d < dims; d++) {
+            int tmp = rows[a + d];
+            rows[a + d] = rows[b + d];
+            rows[b + d] = tmp;
+        }
+    }
+}
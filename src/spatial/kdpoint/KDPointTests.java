@@ -210,5 +210,28 @@ public class KDPointTests {
         // for anything other than debugging information...
     }
 
+    @Test
+    public void testSquaredDistanceKernelsAgree() {
+        for (int i = 0; i < MAX_ITER; i++) {
+            int length = r.nextInt(40), aFrom = r.nextInt(4), bFrom = r.nextInt(4);
+            int[] a = new int[aFrom + length], b = new int[bFrom + length];
+            boolean extreme = r.nextInt(4) == 0; // Saturates, or comes close to it.
+            for (int d = 0; d < length; d++) {
+                a[aFrom + d] = extreme ? r.nextInt() : r.nextInt(2 * MAX_COORD) - MAX_COORD;
+                b[bFrom + d] = extreme ? r.nextInt() : r.nextInt(2 * MAX_COORD) - MAX_COORD;
+            }
+            long expected = KDPoint.squaredDistance(a, aFrom, b, bFrom, length);
+            assertEquals("The default kernel, " + SquaredDistanceKernel.DEFAULT.getClass().getSimpleName() +
+                            ", should agree with the scalar loop over " + length + " coordinates.",
+                    expected, SquaredDistanceKernel.DEFAULT.squaredDistance(a, aFrom, b, bFrom, length));
+        }
+        int[] far = {Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE,
+                Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        int[] near = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+                Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+        assertEquals("Opposite corners of the int range should saturate.", Long.MAX_VALUE,
+                SquaredDistanceKernel.DEFAULT.squaredDistance(far, 0, near, 0, far.length));
+    }
+
 
 }
@@ -0,0 +1,97 @@
+package spatial.kdpoint;
+
+/**
+ * <p>{@link Point2i} packs a 2-dimensional {@link KDPoint} into a single {@code long}, the x coordinate in the high
+ * 32 bits and the y coordinate in the low 32 bits. Structures that only ever store points of the plane, such as the
+ * buckets of a {@link spatial.trees.PRQuadTree}, can then keep their points in a {@code long[]}: eight bytes per point,
+ * instead of a {@link KDPoint} object, its {@code int[]} of coordinates and the reference to it, and no pointer to
+ * chase per comparison. {@link KDPoint}s are only created at the boundary, when a point is handed back to the caller.</p>
+ *
+ * <p>Two packed points are equal exactly when the {@link KDPoint}s they were packed from are
+ * {@link KDPoint#equals(Object) equal}, so packed points can be compared with {@code ==}.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see KDPoint
+ */
+public final class Point2i {
+
+    private Point2i(){
+        // Static helpers only.
+    }
+
+    /**
+     * Packs a pair of coordinates.
+     * @param x The x coordinate.
+     * @param y The y coordinate.
+     * @return The packed point.
+     */
+    public static long pack(int x, int y){
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Packs a 2-dimensional {@link KDPoint}.
+     * @param p The {@link KDPoint} to pack.
+     * @return The packed point.
+     * @throws RuntimeException if {@code p} is not 2-dimensional.
+     */
+    public static long pack(KDPoint p){
+        if (p.coords.length != 2)
+            throw new RuntimeException("The KDPoint provided, " + p + ", is invalid: Please provide a 2-dimensional KDPoint.");
+        return pack(p.coords[0], p.coords[1]);
+    }
+
+    /**
+     * Returns the x coordinate of a packed point.
+     * @param packed The packed point.
+     * @return Its x coordinate.
+     */
+    public static int x(long packed){
+        return (int) (packed >> 32);
+    }
+
+    /**
+     * Returns the y coordinate of a packed point.
+     * @param packed The packed point.
+     * @return Its y coordinate.
+     */
+    public static int y(long packed){
+        return (int) packed;
+    }
+
+    /**
+     * Unpacks a point into a fresh {@link KDPoint}.
+     * @param packed The packed point.
+     * @return A new 2-dimensional {@link KDPoint} with the coordinates of {@code packed}.
+     */
+    public static KDPoint toKDPoint(long packed){
+        return new KDPoint(x(packed), y(packed));
+    }
+
+    /**
+     * Computes the squared Euclidean distance between a packed point and the point {@code (x, y)}, saturating at
+     * {@link Long#MAX_VALUE} like {@link KDPoint#squaredDistance(KDPoint)} does.
+     * @param packed The packed point.
+     * @param x The x coordinate of the other point.
+     * @param y The y coordinate of the other point.
+     * @return The squared distance between the two points, saturated at {@link Long#MAX_VALUE}.
+     */
+    public static long squaredDistance(long packed, int x, int y){
+        long sq = KDPoint.saturatedSquare((long) x(packed) - x) + KDPoint.saturatedSquare((long) y(packed) - y);
+        return sq < 0 ? Long.MAX_VALUE : sq;
+    }
+
+    /**
+     * Hashes a packed point with the SplitMix64 finalizer, whose low bits are well-mixed enough to index power-of-two
+     * tables directly.
+     * @param packed The packed point.
+     * @return A hash code for {@code packed}.
+     */
+    public static int hash(long packed){
+        long h = (packed ^ (packed >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        h ^= h >>> 31;
+        return (int) (h ^ (h >>> 32));
+    }
+}
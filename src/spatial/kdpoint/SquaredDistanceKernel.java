@@ -0,0 +1,85 @@
+package spatial.kdpoint;
+
+/**
+ * <p>{@link SquaredDistanceKernel} computes the squared Euclidean distance between slices of {@code int[]}s, with the
+ * saturating semantics of {@link KDPoint#squaredDistance(int[], int, int[], int, int)}: the exact value if it fits in
+ * a {@code long}, and {@link Long#MAX_VALUE} otherwise. The structures that keep their {@link KDPoint}s in flat
+ * {@code int[]}s, such as {@link spatial.trees.FlatKDTree} and the buckets of a {@link spatial.trees.BucketKDTree},
+ * scan their leaves with {@link #DEFAULT}.</p>
+ *
+ * <p>There are two kernels. {@link #SCALAR} is the loop of {@link KDPoint}. {@link #VECTOR} processes a full vector of
+ * coordinates per iteration with the incubating Vector API ({@code jdk.incubator.vector}), and only exists if that
+ * module is available. Since the sources in {@code src} must compile without the module, the vector kernel lives in
+ * the separate source root {@code src-vector}, and is loaded reflectively the first time this class is used; if it
+ * was not compiled, or the module was not added to the JVM, {@link #VECTOR} is null and {@link #DEFAULT} is
+ * {@link #SCALAR}. To enable it:</p>
+ *
+ * <pre>
+ * javac --add-modules jdk.incubator.vector -cp classes -d classes src-vector/spatial/kdpoint/*.java
+ * java --add-modules jdk.incubator.vector -cp classes ...
+ * </pre>
+ *
+ * <p>Both kernels return the same value for every input. Since {@link #DEFAULT} is a constant, the JIT inlines the
+ * kernel it holds at every call site.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see KDPoint#squaredDistance(int[], int, int[], int, int)
+ */
+public abstract class SquaredDistanceKernel {
+
+    /**
+     * The name of the class of the vector kernel, which is not compiled along with this one.
+     */
+    private static final String VECTOR_CLASS = "spatial.kdpoint.VectorSquaredDistanceKernel";
+
+    /**
+     * The scalar kernel, {@link KDPoint#squaredDistance(int[], int, int[], int, int)}.
+     */
+    public static final SquaredDistanceKernel SCALAR = new Scalar();
+
+    /**
+     * The Vector API kernel, or null if it is unavailable.
+     */
+    public static final SquaredDistanceKernel VECTOR = loadVector();
+
+    /**
+     * The kernel that the trees use: {@link #VECTOR} if it is available, and {@link #SCALAR} otherwise.
+     */
+    public static final SquaredDistanceKernel DEFAULT = VECTOR != null ? VECTOR : SCALAR;
+
+    /**
+     * Only the kernels of this package can be created.
+     */
+    SquaredDistanceKernel(){
+    }
+
+    /**
+     * Returns the squared Euclidean distance between {@code a[aFrom .. aFrom + length)} and
+     * {@code b[bFrom .. bFrom + length)}, saturated at {@link Long#MAX_VALUE}.
+     * @param a The array that holds the coordinates of the first {@link KDPoint}.
+     * @param aFrom The index of the first coordinate of the first {@link KDPoint} in a.
+     * @param b The array that holds the coordinates of the second {@link KDPoint}.
+     * @param bFrom The index of the first coordinate of the second {@link KDPoint} in b.
+     * @param length The dimensionality of the {@link KDPoint}s.
+     * @return The squared Euclidean distance between the two {@link KDPoint}s, or {@link Long#MAX_VALUE} if it does not
+     * fit in a {@code long}.
+     * @see KDPoint#squaredDistance(int[], int, int[], int, int)
+     */
+    public abstract long squaredDistance(int[] a, int aFrom, int[] b, int bFrom, int length);
+
+    private static final class Scalar extends SquaredDistanceKernel {
+        @Override
+        public long squaredDistance(int[] a, int aFrom, int[] b, int bFrom, int length){
+            return KDPoint.squaredDistance(a, aFrom, b, bFrom, length);
+        }
+    }
+
+    private static SquaredDistanceKernel loadVector(){
+        try {
+            return (SquaredDistanceKernel) Class.forName(VECTOR_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e){ // Not compiled, or jdk.incubator.vector not added.
+            return null;
+        }
+    }
+}
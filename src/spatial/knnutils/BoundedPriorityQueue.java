@@ -1,12 +1,9 @@
 package spatial.knnutils;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
-import java.util.TreeSet;
-
-
-import spatial.exceptions.UnimplementedMethodException;
+import java.util.NoSuchElementException;
 
 
 /**
@@ -15,6 +12,16 @@ import spatial.exceptions.UnimplementedMethodException;
  * its length is not expanded, but rather the maximum priority element is ejected
  * (which could be the element just attempted to be enqueued).</p>
  *
+ * <p>The queue is an array-based binary <b>max</b>-heap: its root is the <b>worst</b> element, which is what k-NN
+ * queries compare against and evict, so {@link #last()} and {@link #lastPriority()} take constant time and
+ * {@link #enqueue(Object, double)} takes <em>O(log k)</em> time without allocating anything once the arrays have grown
+ * to capacity. Priorities, elements and insertion orders live in three parallel arrays. Elements are ordered exactly as
+ * {@link PriorityQueueNode#compareTo(PriorityQueueNode)} orders them: by priority, and ties in FIFO order.</p>
+ *
+ * <p>The first call to {@link #dequeue()} or {@link #first()} after an insertion sorts the arrays in <b>descending</b>
+ * order, in place, in <em>O(k log k)</em> time. A descending array is still a valid max-heap, so subsequent
+ * insertions need no repair, and dequeuing from the end of it takes constant time.</p>
+ *
  * <p><b>YOU ***** MUST ***** IMPLEMENT THIS CLASS!</b></p>
  *
  * @author  <a href = "https://github.com/jasonfillipou/">Jason Filippou</a>
@@ -24,15 +31,108 @@ import spatial.exceptions.UnimplementedMethodException;
  */
 public class BoundedPriorityQueue<T> implements PriorityQueue<T>{
 
+	/**
+	 * Returned by {@link #lastPriority()} for an empty queue. Following the convention of the trees, infinity
+	 * is encoded with a negative number.
+	 */
+	public static final double INFTY = -1.0;
+
+	/**
+	 * The initial length of the arrays, unless the capacity is smaller. They double up to the capacity as needed.
+	 */
+	private static final int INITIAL_LENGTH = 16;
+
 	/* *********************************************************************** */
 	/* *************  PLACE YOUR PRIVATE FIELDS AND METHODS HERE: ************ */
 	/* *********************************************************************** */
-	int count;
-	TreeSet<PriorityQueueNode> data;
-	int insertionOrder;
-	int capacity;
-	private static Boolean modified = false;
+	private int count;
+	private double[] priorities;
+	private Object[] elements;
+	private int[] orders;
+	private int insertionOrder;
+	private final int capacity;
+
+	/**
+	 * Whether the arrays are currently sorted in descending order, with the first element to dequeue at the end.
+	 */
+	private boolean sorted;
 
+	/**
+	 * The number of structural modifications made to this queue, which lets its iterators fail fast. Kept per instance,
+	 * so that threads that each own their queue never interfere with each other.
+	 */
+	private int modCount;
+
+	/**
+	 * Reports whether the element in slot i comes <b>after</b> the element in slot j in dequeue order.
+	 */
+	private boolean worse(int i, int j){
+		return priorities[i] > priorities[j] || (priorities[i] == priorities[j] && orders[i] > orders[j]);
+	}
+
+	private void swap(int i, int j){
+		double p = priorities[i];
+		priorities[i] = priorities[j];
+		priorities[j] = p;
+		Object e = elements[i];
+		elements[i] = elements[j];
+		elements[j] = e;
+		int o = orders[i];
+		orders[i] = orders[j];
+		orders[j] = o;
+	}
+
+	private void siftUp(int i){
+		while (i > 0){
+			int parent = (i - 1) >>> 1;
+			if (!worse(i, parent)){
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i, int n){
+		while (true){
+			int child = 2 * i + 1;
+			if (child >= n){
+				break;
+			}
+			if (child + 1 < n && worse(child + 1, child)){
+				child++;
+			}
+			if (!worse(child, i)){
+				break;
+			}
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	/**
+	 * Sorts the heap in descending order, in place: heapsort leaves it ascending, which is then reversed.
+	 */
+	private void sortDescending(){
+		if (sorted){
+			return;
+		}
+		for (int end = count - 1; end > 0; end--){
+			swap(0, end);
+			siftDown(0, end);
+		}
+		for (int i = 0, j = count - 1; i < j; i++, j--){
+			swap(i, j);
+		}
+		sorted = true;
+	}
+
+	private void grow(){
+		int length = (int) Math.min(capacity, 2L * priorities.length);
+		priorities = Arrays.copyOf(priorities, length);
+		elements = Arrays.copyOf(elements, length);
+		orders = Arrays.copyOf(orders, length);
+	}
 
 
 
@@ -51,13 +151,14 @@ public class BoundedPriorityQueue<T> implements PriorityQueue<T>{
 			throw new IllegalArgumentException("llegal size");
 		}
 
-		data = new TreeSet<PriorityQueueNode>();
-
 		capacity = size;
+		int length = Math.min(size, INITIAL_LENGTH);
+		priorities = new double[length];
+		elements = new Object[length];
+		orders = new int[length];
 		count = 0;
 		insertionOrder = 0;
-
-
+		sorted = true; // Vacuously.
 	}
 
 	/**
@@ -72,56 +173,60 @@ public class BoundedPriorityQueue<T> implements PriorityQueue<T>{
 	 */
 	@Override
 	public void enqueue(T element, double priority) {
-		modified = true;
-		PriorityQueueNode node = new PriorityQueueNode(element, priority, insertionOrder);
-		if (count < capacity){//queue not at capacity
-			data.add(node);
+		modCount++;
+		if (count < capacity){//queue not at capacity: append and sift up
+			if (count == priorities.length){
+				grow();
+			}
+			priorities[count] = priority;
+			elements[count] = element;
+			orders[count] = insertionOrder;
 			count++;
-		}
-
-		else{//queue at capacity
-			if (node.getPriority() < data.last().getPriority()){//new node has lower numerical priority than last node in queue
-				data.pollLast();
-				data.add(node);
+			if (count > 1 && worse(count - 1, (count - 2) >>> 1)){
+				siftUp(count - 1);
+				sorted = false;
+			}
+			else if (sorted && count > 1 && worse(count - 1, count - 2)){
+				sorted = false; // Still a heap, but no longer descending.
 			}
-
-
 		}
-
-
+		else if (priority < priorities[0]){//queue at capacity: the new element replaces the current worst
+			priorities[0] = priority;
+			elements[0] = element;
+			orders[0] = insertionOrder;
+			siftDown(0, count);
+			sorted = false;
+		}
 		insertionOrder++;
 	}
 
 	@Override
 	public T dequeue() {
-		modified = true;
-		PriorityQueueNode first;
 		if (count == 0){
 			return null;
 		}
-
-		first = data.pollFirst();
-
-
+		sortDescending();
+		modCount++;
 		count--;
-		return (T) first.getData();
+		T first = (T) elements[count];
+		elements[count] = null; // Let it be garbage collected.
+		return first;
 	}
 
 	@Override
 	public T first() {
-
 		if (count == 0){
 			return null;
 		}
-		return (T) data.first().getData();
+		sortDescending();
+		return (T) elements[count - 1];
 	}
 	
 	/**
 	 * Returns the last element in the queue. Useful for cases where we want to 
 	 * compare the priorities of a given quantity with the maximum priority of 
-	 * our stored quantities. In a minheap-based implementation of any {@link PriorityQueue},
-	 * this operation would scan O(n) nodes and O(nlogn) links. In an array-based implementation,
-	 * it takes constant time.
+	 * our stored quantities. Since the queue is a max-heap, this is the root of the heap and the operation
+	 * takes constant time.
 	 * @return The maximum priority element in our queue, or null if the queue is empty.
 	 */
 	public T last() {
@@ -129,31 +234,43 @@ public class BoundedPriorityQueue<T> implements PriorityQueue<T>{
 			return null;
 		}
 
-		return (T) data.last().getData();
+		return (T) elements[0];
 	}
 
 	/**
-	 * Inspects whether a given element is in the queue. O(N) complexity.
-	 * @param element The element to search for.
-	 * @return {@code true} iff {@code element} is in {@code this}, {@code false} otherwise.
+	 * Returns the priority of the last element in the queue, that is, the <b>maximum</b> priority stored. Once the queue
+	 * is {@link #isFull() full}, an element is only admitted if its priority is strictly smaller than this value, which
+	 * makes it the pruning bound of k-NN queries.
+	 * @return The maximum priority stored in the queue, or {@link #INFTY} if the queue is empty.
+	 * @see #last()
 	 */
-	public boolean contains(T element) {
-		boolean found = false;
+	public double lastPriority() {
+		if (count == 0){
+			return INFTY;
+		}
 
-		BoundedPriorityQueue copy = new BoundedPriorityQueue(capacity);
+		return priorities[0];
+	}
 
-		for (int i =0; i< data.size(); i++){
-			copy.enqueue(data.pollFirst(), data.pollFirst().getPriority());
-		}
+	/**
+	 * Reports whether the queue holds as many elements as its capacity.
+	 * @return {@code true} iff {@link #size()} equals the capacity that the queue was created with.
+	 */
+	public boolean isFull() {
+		return count == capacity;
+	}
 
-		for (int i = 0; i<copy.size(); i++){
-			if (copy.data.pollFirst() == element){
+	/**
+	 * Inspects whether a given element is in the queue, in terms of {@link Object#equals(Object)}. O(N) complexity.
+	 * @param element The element to search for.
+	 * @return {@code true} iff {@code element} is in {@code this}, {@code false} otherwise.
+	 */
+	public boolean contains(T element) {
+		for (int i = 0; i < count; i++){
+			if (element == null ? elements[i] == null : element.equals(elements[i])){
 				return true;
 			}
-
 		}
-
-
 		return false;
 	}
 
@@ -164,56 +281,38 @@ public class BoundedPriorityQueue<T> implements PriorityQueue<T>{
 
 	@Override
 	public boolean isEmpty() {
-		if (count == 0){
-			return true;
-		}
-
-		return false;
+		return count == 0;
 	}
 
+	/**
+	 * Returns an {@link Iterator} over the elements of the queue, in dequeue order. The queue itself is not
+	 * modified. Enqueueing into or dequeueing from <b>this</b> queue while iterating makes the {@link Iterator} throw a
+	 * {@link ConcurrentModificationException}; other queues, possibly used by other threads, do not affect it.
+	 * @return An {@link Iterator} over the elements of the queue.
+	 */
 	@Override
 	public Iterator<T> iterator() {
-		modified = false;
-		ArrayList<PriorityQueueNode> stuff = new ArrayList<>();
-
-		for (int i = 0; i < capacity; i++){
-			stuff.add(data.pollFirst());
+		sortDescending();
 
-		}
-
-
-
-		Iterator iterator = new Iterator() {
-			private int currentIndex = 0;
+		return new Iterator<T>() {
+			private final int expectedModCount = modCount;
+			private int next = count - 1;
 
 			@Override
 			public boolean hasNext() {
-				if (currentIndex < stuff.size()){
-					return true;
-				}
-				else{
-					return false;
-				}
+				return next >= 0;
 			}
 
 			@Override
-			public Object next() {
-				if (modified == false) {
-					if (hasNext() == true) {
-						return stuff.get(currentIndex++).getData();
-					} else {
-						return null;
-					}
-				}
-				else{
+			public T next() {
+				if (modCount != expectedModCount){
 					throw new ConcurrentModificationException("concurrent");
 				}
-
-
-
+				if (!hasNext()){
+					throw new NoSuchElementException();
+				}
+				return (T) elements[next--];
 			}
 		};
-
-		return iterator;
 	}
 }
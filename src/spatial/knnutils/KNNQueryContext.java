@@ -0,0 +1,386 @@
+package spatial.knnutils;
+
+import spatial.kdpoint.KDPoint;
+import spatial.kdpoint.Point2i;
+
+import java.util.Arrays;
+
+/**
+ * <p>{@link KNNQueryContext} is a caller-owned, <b>reusable</b> container for the results of k-nearest neighbor queries,
+ * together with the traversal stack that such queries need. Passing the same context to query after query, e.g.
+ * {@link spatial.trees.KDTree#kNearestNeighbors(int, KDPoint, KNNQueryContext)}, avoids the {@link BoundedPriorityQueue}
+ * that every query would otherwise allocate: once its arrays have grown to fit the largest k and the deepest tree seen,
+ * a context makes queries allocate nothing at all.</p>
+ *
+ * <p>While a query runs, the results form a bounded max-heap over parallel {@link KDPoint} and {@code long} arrays,
+ * keyed by {@link KDPoint#squaredDistance(KDPoint) squared distance}, with ties broken in FIFO order, exactly like in
+ * {@link BoundedPriorityQueue}. When the query finishes, they are sorted by increasing distance and can be read with
+ * {@link #getPoint(int)} and {@link #getDistance(int)}, which takes the only square root of the query. The
+ * {@link KDPoint}s reported are the ones stored by the tree, <b>not</b> copies, and must not be mutated. Trees that
+ * store a value with every {@link KDPoint}, such as {@link spatial.trees.KDTreeMap}, offer it along with the
+ * {@link KDPoint}, and it can then be read with {@link #getValue(int)}. Trees that store their points
+ * {@link Point2i packed}, such as {@link spatial.trees.PRQuadTree}, {@link #offerPacked(long, Object, long) offer} them
+ * packed into a parallel {@code long} array instead, and {@link #getPoint(int)} only unpacks the ones that are read.</p>
+ *
+ * <p>A context holds the state of one query at a time, so it must not be shared between threads.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see BoundedPriorityQueue
+ */
+public class KNNQueryContext {
+
+    private static final int INITIAL_LENGTH = 16;
+
+    private int k, size, insertions;
+    private KDPoint anchor;
+    private KDPoint[] points;
+    private long[] packedPoints;
+    private Object[] values;
+    private long[] distances;
+    private int[] orders;
+
+    private int top;
+    private Object[] stackNodes;
+    private int[] stackDepths;
+    private long[] stackBounds;
+    private int poppedDepth;
+    private long poppedBound;
+
+    /**
+     * Creates an empty context. Its arrays grow as needed, so no sizing is required.
+     */
+    public KNNQueryContext(){
+        points = new KDPoint[INITIAL_LENGTH];
+        packedPoints = new long[INITIAL_LENGTH];
+        values = new Object[INITIAL_LENGTH];
+        distances = new long[INITIAL_LENGTH];
+        orders = new int[INITIAL_LENGTH];
+        stackNodes = new Object[INITIAL_LENGTH];
+        stackDepths = new int[INITIAL_LENGTH];
+        stackBounds = new long[INITIAL_LENGTH];
+    }
+
+    /**
+     * Discards the results and the traversal state of the previous query and prepares for a query of k neighbors.
+     * @param k The number of neighbors to retrieve. Has to be a positive integer.
+     * @param anchor The &quot;anchor&quot; {@link KDPoint} of the query.
+     * @throws RuntimeException if k&lt;=0.
+     */
+    public void reset(int k, KDPoint anchor){
+        if(k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        Arrays.fill(points, 0, size, null); // Do not keep the previous results alive.
+        Arrays.fill(values, 0, size, null);
+        Arrays.fill(stackNodes, 0, top, null);
+        this.k = k;
+        this.anchor = anchor;
+        size = insertions = top = 0;
+        if(points.length < k){
+            points = new KDPoint[k];
+            packedPoints = new long[k];
+            values = new Object[k];
+            distances = new long[k];
+            orders = new int[k];
+        }
+    }
+
+    /* *********************************************************************************************** */
+    /* ************************************* RESULTS ************************************************* */
+    /* *********************************************************************************************** */
+
+    /**
+     * Returns the number of neighbors found, which is at most k.
+     * @return The number of neighbors found.
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Returns the i-th nearest neighbor found, counting from 0.
+     * @param i The rank of the neighbor, between 0 and {@link #size()}-1.
+     * @return The i-th nearest neighbor found.
+     * @throws IndexOutOfBoundsException if i is not a valid rank.
+     */
+    public KDPoint getPoint(int i){
+        checkRank(i);
+        if(points[i] == null) // Offered packed; unpacked once, on the first read.
+            points[i] = Point2i.toKDPoint(packedPoints[i]);
+        return points[i];
+    }
+
+    /**
+     * Returns the value that was offered along with the i-th nearest neighbor found, counting from 0.
+     * @param i The rank of the neighbor, between 0 and {@link #size()}-1.
+     * @return The value of the i-th nearest neighbor, or null if it was offered without one.
+     * @throws IndexOutOfBoundsException if i is not a valid rank.
+     */
+    public Object getValue(int i){
+        checkRank(i);
+        return values[i];
+    }
+
+    /**
+     * Returns the distance of the i-th nearest neighbor found from the anchor, counting from 0.
+     * @param i The rank of the neighbor, between 0 and {@link #size()}-1.
+     * @return The distance of the i-th nearest neighbor from the anchor.
+     * @throws IndexOutOfBoundsException if i is not a valid rank.
+     */
+    public double getDistance(int i){
+        checkRank(i);
+        // A saturated squared distance is recomputed in floating point.
+        return distances[i] == Long.MAX_VALUE ? getPoint(i).euclideanDistance(anchor) : Math.sqrt(distances[i]);
+    }
+
+    /**
+     * Returns the squared distance of the i-th nearest neighbor found from the anchor, counting from 0.
+     * @param i The rank of the neighbor, between 0 and {@link #size()}-1.
+     * @return The squared distance of the i-th nearest neighbor from the anchor, saturated at {@link Long#MAX_VALUE}.
+     * @throws IndexOutOfBoundsException if i is not a valid rank.
+     * @see KDPoint#squaredDistance(KDPoint)
+     */
+    public long getSquaredDistance(int i){
+        checkRank(i);
+        return distances[i];
+    }
+
+    private void checkRank(int i){
+        if(i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Rank " + i + " is out of bounds for " + size + " neighbors.");
+    }
+
+    /**
+     * Reports whether k candidates have been found, at which point the worst of them bounds the search.
+     * @return true iff k candidates have been found.
+     */
+    public boolean isFull(){
+        return size == k;
+    }
+
+    /**
+     * Returns the squared distance of the worst candidate found so far.
+     * @return The squared distance of the worst candidate, or -1 if there is none.
+     */
+    public long worstSquaredDistance(){
+        return size == 0 ? -1 : distances[0];
+    }
+
+    /**
+     * Offers a candidate to the results. It is admitted if fewer than k candidates have been found, or if it is strictly
+     * closer than the worst of them, which it then replaces.
+     * @param p The candidate {@link KDPoint}.
+     * @param distance Its squared distance from the anchor.
+     */
+    public void offer(KDPoint p, long distance){
+        offer(p, null, distance);
+    }
+
+    /**
+     * Offers a candidate to the results like {@link #offer(KDPoint, long)}, along with the value stored with it.
+     * @param p The candidate {@link KDPoint}.
+     * @param value The value stored with the candidate, or null.
+     * @param distance Its squared distance from the anchor.
+     */
+    public void offer(KDPoint p, Object value, long distance){
+        int i = admit(distance);
+        if(i >= 0){
+            points[i] = p;
+            values[i] = value;
+        }
+    }
+
+    /**
+     * Offers a candidate to the results like {@link #offer(KDPoint, Object, long)}, but {@link Point2i#pack(KDPoint) packed},
+     * so that the trees that store their points packed do not have to create a {@link KDPoint} per candidate. It is only
+     * unpacked if it is read with {@link #getPoint(int)}.
+     * @param packed The candidate, packed by {@link Point2i#pack(KDPoint)}.
+     * @param value The value stored with the candidate, or null.
+     * @param distance Its squared distance from the anchor.
+     */
+    public void offerPacked(long packed, Object value, long distance){
+        int i = admit(distance);
+        if(i >= 0){
+            points[i] = null;
+            packedPoints[i] = packed;
+            values[i] = value;
+        }
+    }
+
+    /**
+     * Makes room in the heap for a candidate at the given squared distance, if it is admitted, and records its distance
+     * and order there.
+     * @return The slot of the candidate, or -1 if it is not admitted.
+     */
+    private int admit(long distance){
+        int order = insertions++;
+        int i;
+        if(size < k){
+            i = size++;
+            while(i > 0){ // Sift up.
+                int parent = (i - 1) >>> 1;
+                if(!worse(distance, order, parent))
+                    break;
+                set(i, parent);
+                i = parent;
+            }
+        } else if(distance < distances[0]){
+            i = 0;
+            while(true){ // Sift down from the root.
+                int child = 2 * i + 1;
+                if(child >= size)
+                    break;
+                if(child + 1 < size && worse(distances[child + 1], orders[child + 1], child))
+                    child++;
+                if(!worse(distances[child], orders[child], distance, order))
+                    break;
+                set(i, child);
+                i = child;
+            }
+        } else
+            return -1;
+        distances[i] = distance;
+        orders[i] = order;
+        return i;
+    }
+
+    private boolean worse(long distance, int order, int slot){
+        return worse(distance, order, distances[slot], orders[slot]);
+    }
+
+    private static boolean worse(long d1, int o1, long d2, int o2){
+        return d1 > d2 || (d1 == d2 && o1 > o2);
+    }
+
+    private void set(int dest, int src){
+        points[dest] = points[src];
+        packedPoints[dest] = packedPoints[src];
+        values[dest] = values[src];
+        distances[dest] = distances[src];
+        orders[dest] = orders[src];
+    }
+
+    private void swap(int i, int j){
+        KDPoint p = points[i];
+        long packed = packedPoints[i];
+        Object v = values[i];
+        long d = distances[i];
+        int o = orders[i];
+        set(i, j);
+        points[j] = p;
+        packedPoints[j] = packed;
+        values[j] = v;
+        distances[j] = d;
+        orders[j] = o;
+    }
+
+    /**
+     * Ends a query, sorting its results by increasing distance, in place. Called by the trees.
+     */
+    public void finish(){
+        for(int end = size - 1; end > 0; end--){ // Heapsort: the max-heap becomes ascending.
+            swap(0, end);
+            for(int i = 0; ; ){
+                int child = 2 * i + 1;
+                if(child >= end)
+                    break;
+                if(child + 1 < end && worse(distances[child + 1], orders[child + 1], child))
+                    child++;
+                if(!worse(distances[child], orders[child], i))
+                    break;
+                swap(i, child);
+                i = child;
+            }
+        }
+        Arrays.fill(stackNodes, 0, top, null);
+        top = 0;
+    }
+
+    /* *********************************************************************************************** */
+    /* ********************************** TRAVERSAL STACK ******************************************** */
+    /* *********************************************************************************************** */
+
+    /**
+     * Pushes a subtree that remains to be searched.
+     * @param node The root of the subtree.
+     * @param depth Its depth, or any other integer that the tree needs to resume the search there.
+     * @param bound A lower bound on the squared distance between the anchor and any {@link KDPoint} of the subtree.
+     */
+    public void push(Object node, int depth, long bound){
+        if(top == stackNodes.length){
+            stackNodes = Arrays.copyOf(stackNodes, 2 * top);
+            stackDepths = Arrays.copyOf(stackDepths, 2 * top);
+            stackBounds = Arrays.copyOf(stackBounds, 2 * top);
+        }
+        stackNodes[top] = node;
+        stackDepths[top] = depth;
+        stackBounds[top++] = bound;
+    }
+
+    /**
+     * Reports whether subtrees remain to be searched.
+     * @return true iff the traversal stack is not empty.
+     */
+    public boolean hasPending(){
+        return top > 0;
+    }
+
+    /**
+     * Pops the subtree most recently pushed. Its depth and bound are then available through {@link #poppedDepth()}
+     * and {@link #poppedBound()}.
+     * @return The root of the subtree.
+     */
+    public Object pop(){
+        Object node = stackNodes[--top];
+        stackNodes[top] = null;
+        poppedDepth = stackDepths[top];
+        poppedBound = stackBounds[top];
+        return node;
+    }
+
+    /**
+     * Returns the depth that the last subtree popped was pushed with.
+     * @return The depth of the last subtree popped.
+     */
+    public int poppedDepth(){
+        return poppedDepth;
+    }
+
+    /**
+     * Returns the squared bound that the last subtree popped was pushed with.
+     * @return The squared bound of the last subtree popped.
+     */
+    public long poppedBound(){
+        return poppedBound;
+    }
+
+    /**
+     * Reports whether the last subtree popped can be skipped, because k candidates have been found and none of its
+     * {@link KDPoint}s can be strictly closer than the worst of them.
+     * @return true iff the last subtree popped cannot improve the results.
+     */
+    public boolean canPrunePopped(){
+        return size == k && poppedBound >= distances[0];
+    }
+
+    /**
+     * Orders the n subtrees most recently pushed by decreasing bound, so that the closest one is popped first.
+     * @param n The number of subtrees to order; small, since this is an insertion sort.
+     */
+    public void sortPending(int n){
+        for(int i = top - n + 1; i < top; i++){
+            Object node = stackNodes[i];
+            int depth = stackDepths[i];
+            long bound = stackBounds[i];
+            int j = i - 1;
+            for(; j >= top - n && stackBounds[j] < bound; j--){
+                stackNodes[j + 1] = stackNodes[j];
+                stackDepths[j + 1] = stackDepths[j];
+                stackBounds[j + 1] = stackBounds[j];
+            }
+            stackNodes[j + 1] = node;
+            stackDepths[j + 1] = depth;
+            stackBounds[j + 1] = bound;
+        }
+    }
+}
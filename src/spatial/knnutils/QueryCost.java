@@ -0,0 +1,50 @@
+package spatial.knnutils;
+
+/**<p>{@link QueryCost} is a simple &quot;struct-like&quot; class that accumulates the cost of spatial queries,
+ * measured in the number of tree nodes that they visit. Passing one to a query lets client code confirm that
+ * pruning works as intended, e.g. that nearest neighbor queries over a balanced tree touch a logarithmic rather than
+ * linear number of nodes.</p>
+ *
+ * <p>A {@link QueryCost} is not thread-safe; every querying thread should own its own instance.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see NNData
+ */
+public class QueryCost {
+
+	/**
+	 * The number of nodes visited since creation or the last {@link #reset()}.
+	 */
+	private long nodesVisited;
+
+	/**
+	 * Records a visit to a single node.
+	 */
+	public void visit(){
+		nodesVisited++;
+	}
+
+	/**
+	 * Records visits to several nodes at once, such as those of a subtree that is rebuilt.
+	 * @param nodes The number of nodes visited.
+	 */
+	public void visit(int nodes){
+		nodesVisited += nodes;
+	}
+
+	/**
+	 * Simple accessor for the number of nodes visited.
+	 * @return The number of nodes visited since creation or the last {@link #reset()}.
+	 */
+	public long getNodesVisited(){
+		return nodesVisited;
+	}
+
+	/**
+	 * Sets the number of visited nodes back to zero, so that the same {@link QueryCost} can be reused across queries.
+	 */
+	public void reset(){
+		nodesVisited = 0;
+	}
+}
@@ -0,0 +1,62 @@
+package spatial.knnutils;
+
+import spatial.kdpoint.KDPoint;
+
+/**
+ * <p>{@link SpatialEntry} is the result of a query over a {@link spatial.trees.SpatialMap}: a {@link KDPoint}, the
+ * value stored with it, and its distance from the anchor of the query. Returning all three at once spares the caller
+ * a second lookup per result.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @param <V> The type of the values stored in the {@link spatial.trees.SpatialMap}.
+ *
+ * @see NNData
+ */
+public final class SpatialEntry<V> {
+
+    private final KDPoint point;
+    private final V value;
+    private final double distance;
+
+    /**
+     * Simple constructor that stores its arguments.
+     * @param point The {@link KDPoint} of the entry. It is stored as is, not copied.
+     * @param value The value stored with the {@link KDPoint}.
+     * @param distance The distance between the {@link KDPoint} and the anchor of the query.
+     */
+    public SpatialEntry(KDPoint point, V value, double distance){
+        this.point = point;
+        this.value = value;
+        this.distance = distance;
+    }
+
+    /**
+     * Simple accessor.
+     * @return The {@link KDPoint} of the entry.
+     */
+    public KDPoint getPoint(){
+        return point;
+    }
+
+    /**
+     * Simple accessor.
+     * @return The value stored with the {@link KDPoint}.
+     */
+    public V getValue(){
+        return value;
+    }
+
+    /**
+     * Simple accessor.
+     * @return The Euclidean distance between the {@link KDPoint} and the anchor of the query.
+     */
+    public double getDistance(){
+        return distance;
+    }
+
+    @Override
+    public String toString(){
+        return point + "=" + value + " (distance " + distance + ")";
+    }
+}
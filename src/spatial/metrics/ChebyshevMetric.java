@@ -0,0 +1,43 @@
+package spatial.metrics;
+
+import spatial.kdpoint.KDPoint;
+
+/**
+ * <p>{@link ChebyshevMetric} is the Chebyshev, or L-infinity, distance: the largest absolute coordinate difference. A
+ * hyperplane is as far away as the coordinate difference on its dimension, and a box as far away as the largest of
+ * the gaps on all dimensions.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see DistanceMetric#CHEBYSHEV
+ */
+public final class ChebyshevMetric implements DistanceMetric {
+
+    @Override
+    public double distance(KDPoint p1, KDPoint p2){
+        if(p1.coords.length != p2.coords.length)
+            throw new RuntimeException("Cannot calculate the Chebyshev Distance between KDPoints of different dimensionalities.");
+        long max = 0;
+        for(int i = 0; i < p1.coords.length; i++)
+            max = Math.max(max, Math.abs((long) p1.coords[i] - p2.coords[i]));
+        return max;
+    }
+
+    @Override
+    public double distanceToHyperplane(KDPoint p, int dim, double value){
+        return Math.abs(p.coords[dim] - value);
+    }
+
+    @Override
+    public double distanceToBox(KDPoint p, double[] lo, double[] hi){
+        double max = 0;
+        for(int d = 0; d < lo.length; d++)
+            max = Math.max(max, DistanceMetric.gap(p, d, lo[d], hi[d]));
+        return max;
+    }
+
+    @Override
+    public String toString(){
+        return "Chebyshev";
+    }
+}
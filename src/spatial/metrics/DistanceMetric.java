@@ -0,0 +1,81 @@
+package spatial.metrics;
+
+import spatial.kdpoint.KDPoint;
+
+/**
+ * <p>{@link DistanceMetric} abstracts over the distance function that spatial queries use. Besides the distance
+ * between two {@link KDPoint}s, a metric supplies <b>lower bounds</b> on the distance between a {@link KDPoint} and any
+ * point beyond a splitting hyperplane, or inside an axis-aligned box. Trees compare these bounds against the best
+ * distances found so far to prune subtrees, so a bound must never exceed the true distance (or pruning would lose
+ * results), and should be as large as possible (or pruning would visit needless subtrees).</p>
+ *
+ * <p>The metrics provided are {@code final} classes, so that a query that uses a single metric only ever calls into
+ * one implementation and the JIT can inline it.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see EuclideanMetric
+ * @see ManhattanMetric
+ * @see ChebyshevMetric
+ * @see WeightedEuclideanMetric
+ */
+public interface DistanceMetric {
+
+    /**
+     * The Euclidean (L2) distance, which the trees use by default.
+     */
+    DistanceMetric EUCLIDEAN = new EuclideanMetric();
+
+    /**
+     * The Manhattan (L1) distance.
+     */
+    DistanceMetric MANHATTAN = new ManhattanMetric();
+
+    /**
+     * The Chebyshev (L-infinity) distance.
+     */
+    DistanceMetric CHEBYSHEV = new ChebyshevMetric();
+
+    /**
+     * Calculates the distance between two {@link KDPoint}s.
+     * @param p1 One of the two {@link KDPoint}s.
+     * @param p2 One of the two {@link KDPoint}s.
+     * @return The distance between p1 and p2.
+     * @throws RuntimeException if the dimensionality of the two {@link KDPoint}s is different.
+     */
+    double distance(KDPoint p1, KDPoint p2);
+
+    /**
+     * Calculates the distance between p and the hyperplane on which coordinate {@code dim} equals {@code value}. No
+     * point on the other side of the hyperplane is closer to p.
+     * @param p The {@link KDPoint} to measure the distance from.
+     * @param dim The dimension that the hyperplane is perpendicular to.
+     * @param value The coordinate of the hyperplane on that dimension.
+     * @return The distance between p and the hyperplane.
+     */
+    double distanceToHyperplane(KDPoint p, int dim, double value);
+
+    /**
+     * Calculates the distance between p and the closest point of the axis-aligned box {@code [lo, hi]}, which is 0 if p
+     * lies inside it. No point inside the box is closer to p.
+     * @param p The {@link KDPoint} to measure the distance from.
+     * @param lo The lowest coordinate of the box on every dimension.
+     * @param hi The highest coordinate of the box on every dimension.
+     * @return The distance between p and the box.
+     */
+    double distanceToBox(KDPoint p, double[] lo, double[] hi);
+
+    /**
+     * Calculates how far p lies outside of the interval {@code [lo, hi]} on dimension {@code dim}. Metrics use it to
+     * calculate {@link #distanceToBox(KDPoint, double[], double[])}.
+     * @param p The {@link KDPoint} to measure the gap from.
+     * @param dim The dimension to consider.
+     * @param lo The lower end of the interval.
+     * @param hi The upper end of the interval.
+     * @return The gap between p and the interval on dimension dim, which is 0 if p lies within it.
+     */
+    static double gap(KDPoint p, int dim, double lo, double hi){
+        double c = p.coords[dim];
+        return c < lo ? lo - c : (c > hi ? c - hi : 0);
+    }
+}
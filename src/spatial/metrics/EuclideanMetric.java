@@ -0,0 +1,39 @@
+package spatial.metrics;
+
+import spatial.kdpoint.KDPoint;
+
+/**
+ * <p>{@link EuclideanMetric} is the Euclidean, or L2, distance, which {@link KDPoint#euclideanDistance(KDPoint)}
+ * computes. A hyperplane is as far away as the coordinate difference on its dimension.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see DistanceMetric#EUCLIDEAN
+ */
+public final class EuclideanMetric implements DistanceMetric {
+
+    @Override
+    public double distance(KDPoint p1, KDPoint p2){
+        return p1.euclideanDistance(p2);
+    }
+
+    @Override
+    public double distanceToHyperplane(KDPoint p, int dim, double value){
+        return Math.abs(p.coords[dim] - value);
+    }
+
+    @Override
+    public double distanceToBox(KDPoint p, double[] lo, double[] hi){
+        double sum = 0;
+        for(int d = 0; d < lo.length; d++){
+            double gap = DistanceMetric.gap(p, d, lo[d], hi[d]);
+            sum += gap * gap;
+        }
+        return Math.sqrt(sum);
+    }
+
+    @Override
+    public String toString(){
+        return "Euclidean";
+    }
+}
@@ -0,0 +1,43 @@
+package spatial.metrics;
+
+import spatial.kdpoint.KDPoint;
+
+/**
+ * <p>{@link ManhattanMetric} is the Manhattan, or L1, distance: the sum of the absolute coordinate differences. A
+ * hyperplane is as far away as the coordinate difference on its dimension, and a box as far away as the sum of the
+ * gaps on all dimensions.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see DistanceMetric#MANHATTAN
+ */
+public final class ManhattanMetric implements DistanceMetric {
+
+    @Override
+    public double distance(KDPoint p1, KDPoint p2){
+        if(p1.coords.length != p2.coords.length)
+            throw new RuntimeException("Cannot calculate the Manhattan Distance between KDPoints of different dimensionalities.");
+        long sum = 0; // Every difference fits in 33 bits, so the sum cannot overflow.
+        for(int i = 0; i < p1.coords.length; i++)
+            sum += Math.abs((long) p1.coords[i] - p2.coords[i]);
+        return sum;
+    }
+
+    @Override
+    public double distanceToHyperplane(KDPoint p, int dim, double value){
+        return Math.abs(p.coords[dim] - value);
+    }
+
+    @Override
+    public double distanceToBox(KDPoint p, double[] lo, double[] hi){
+        double sum = 0;
+        for(int d = 0; d < lo.length; d++)
+            sum += DistanceMetric.gap(p, d, lo[d], hi[d]);
+        return sum;
+    }
+
+    @Override
+    public String toString(){
+        return "Manhattan";
+    }
+}
@@ -0,0 +1,81 @@
+package spatial.metrics;
+
+import spatial.kdpoint.KDPoint;
+
+import java.util.Arrays;
+
+/**
+ * <p>{@link WeightedEuclideanMetric} is a Euclidean distance in which every dimension carries its own non-negative
+ * weight: the distance between p and q is the square root of the sum of {@code w[i] * (p[i] - q[i])^2}. It suits
+ * spaces whose axes are measured in different units. A hyperplane on dimension i is {@code sqrt(w[i])} times the
+ * coordinate difference away.</p>
+ *
+ * @author Isaac Solomon
+ */
+public final class WeightedEuclideanMetric implements DistanceMetric {
+
+    private final double[] weights;
+
+    /**
+     * The square roots of the weights, which scale distances to hyperplanes.
+     */
+    private final double[] scales;
+
+    /**
+     * Creates a weighted Euclidean metric.
+     * @param weights The weight of every dimension. There must be exactly one per dimension of the {@link KDPoint}s
+     *                measured, and none may be negative or NaN.
+     * @throws RuntimeException if there are no weights, or if a weight is negative or NaN.
+     */
+    public WeightedEuclideanMetric(double... weights){
+        if(weights.length == 0)
+            throw new RuntimeException("A weighted Euclidean metric needs a weight for every dimension.");
+        this.weights = weights.clone();
+        scales = new double[weights.length];
+        for(int i = 0; i < weights.length; i++){
+            if(!(weights[i] >= 0))
+                throw new RuntimeException("The weight provided, " + weights[i] + ", is invalid: Please provide a non-negative number.");
+            scales[i] = Math.sqrt(weights[i]);
+        }
+    }
+
+    /**
+     * A simple accessor for the weights of this.
+     * @return A copy of the weights of this, one per dimension.
+     */
+    public double[] getWeights(){
+        return weights.clone();
+    }
+
+    @Override
+    public double distance(KDPoint p1, KDPoint p2){
+        if(p1.coords.length != weights.length || p2.coords.length != weights.length)
+            throw new RuntimeException("Cannot calculate the weighted Euclidean Distance between KDPoints of a dimensionality other than " + weights.length + ".");
+        double sum = 0;
+        for(int i = 0; i < weights.length; i++){
+            double diff = (double) p1.coords[i] - p2.coords[i];
+            sum += weights[i] * diff * diff;
+        }
+        return Math.sqrt(sum);
+    }
+
+    @Override
+    public double distanceToHyperplane(KDPoint p, int dim, double value){
+        return scales[dim] * Math.abs(p.coords[dim] - value);
+    }
+
+    @Override
+    public double distanceToBox(KDPoint p, double[] lo, double[] hi){
+        double sum = 0;
+        for(int d = 0; d < lo.length; d++){
+            double gap = DistanceMetric.gap(p, d, lo[d], hi[d]);
+            sum += weights[d] * gap * gap;
+        }
+        return Math.sqrt(sum);
+    }
+
+    @Override
+    public String toString(){
+        return "WeightedEuclidean" + Arrays.toString(weights);
+    }
+}
@@ -0,0 +1,324 @@
+package spatial.nodes;
+
+import spatial.kdpoint.KDPoint;
+import spatial.kdpoint.KDPointSelection;
+import spatial.kdpoint.SquaredDistanceKernel;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.NNData;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * <p>{@link KDBucketNode} is a node of a {@link spatial.trees.BucketKDTree}. A node is either a <b>leaf</b>, which
+ * stores up to a <em>bucket size</em> of {@link KDPoint}s in a flat {@code int[]} of coordinates, or an
+ * <b>internal</b> node, which stores no {@link KDPoint}s at all but only a splitting dimension and value.
+ * {@link KDPoint}s whose coordinate on the splitting dimension is <b>smaller than</b> the splitting value are stored in
+ * the left subtree and all other {@link KDPoint}s are stored in the right subtree.</p>
+ *
+ * <p>A leaf that overflows is split at the median of its {@link KDPoint}s, on the first dimension, starting from the one
+ * implied by its depth, on which they are not all equal. A leaf whose {@link KDPoint}s are all equal cannot be split and
+ * simply grows, without trying to split again until it receives a different {@link KDPoint}. Conversely, deletions merge sibling leaves that fit in a single bucket.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see spatial.trees.BucketKDTree
+ * @see KDTreeNode
+ */
+public class KDBucketNode {
+
+    /**
+     * The coordinates of the {@link KDPoint}s of a leaf, point i occupying {@code coords[i * dims .. (i + 1) * dims)},
+     * or null for internal nodes.
+     */
+    private int[] coords;
+
+    /**
+     * The number of {@link KDPoint}s held by a leaf.
+     */
+    private int n;
+
+    /**
+     * Set on a leaf whose {@link KDPoint}s are all equal, so that it cannot be split, and cleared as soon as it receives
+     * a different {@link KDPoint}. While it is set, insertions skip the futile attempt to split the leaf.
+     */
+    private boolean unsplittable;
+
+    private int splitDim, splitValue;
+    private KDBucketNode left, right;
+
+    /**
+     * Creates an empty leaf.
+     * @param dims The dimensionality of the tree.
+     * @param bucketSize The maximum number of {@link KDPoint}s a leaf holds before it splits.
+     */
+    public KDBucketNode(int dims, int bucketSize){
+        coords = new int[bucketSize * dims];
+    }
+
+    private KDBucketNode(int splitDim, int splitValue, KDBucketNode left, KDBucketNode right){
+        this.splitDim = splitDim;
+        this.splitValue = splitValue;
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Reports whether this is a leaf.
+     * @return true iff this is a leaf.
+     */
+    public boolean isLeaf(){
+        return coords != null;
+    }
+
+    private void append(int[] src, int row, int dims){
+        if ((n + 1) * dims > coords.length){
+            coords = Arrays.copyOf(coords, Math.max(dims, 2 * coords.length));
+        }
+        System.arraycopy(src, row * dims, coords, n * dims, dims);
+        if (unsplittable && !Arrays.equals(coords, 0, dims, coords, n * dims, (n + 1) * dims)){
+            unsplittable = false;
+        }
+        n++;
+    }
+
+    /**
+     * Returns the squared Euclidean distance between a row and the anchor, computed by the vector kernel if it is
+     * available.
+     * @see SquaredDistanceKernel#DEFAULT
+     */
+    private long squaredDistance(int row, KDPoint anchor, int dims){
+        return SquaredDistanceKernel.DEFAULT.squaredDistance(coords, row * dims, anchor.coords, 0, dims);
+    }
+
+    /**
+     * Turns the squared distance of a row into a distance, recomputing it in floating point if it saturated.
+     */
+    private double distance(long sq, int row, KDPoint anchor, int dims){
+        return sq != Long.MAX_VALUE ? Math.sqrt(sq) : pointAt(row, dims).euclideanDistance(anchor);
+    }
+
+    private int indexOf(KDPoint p, int dims){
+        outer:
+        for (int i = 0, base = 0; i < n; i++, base += dims){
+            for (int d = 0; d < dims; d++){
+                if (coords[base + d] != p.coords[d]){
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private KDPoint pointAt(int row, int dims){
+        return new KDPoint(Arrays.copyOfRange(coords, row * dims, (row + 1) * dims));
+    }
+
+    /**
+     * Splits an overflowing leaf into an internal node with two leaves.
+     * @return The internal node, or this, marked as {@link #unsplittable}, if all of its {@link KDPoint}s are equal.
+     */
+    private KDBucketNode split(int depth, int dims, int bucketSize){
+        for (int t = 0; t < dims; t++){
+            int d = (depth + t) % dims;
+            int mid = n / 2;
+            int first = KDPointSelection.select(coords, dims, 0, n, mid, d);
+            int split = coords[mid * dims + d];
+            if (first == 0){ // No coordinate is smaller than the median: split right above it instead.
+                boolean found = false;
+                for (int i = 0; i < n; i++){
+                    int c = coords[i * dims + d];
+                    if (c > coords[mid * dims + d] && (!found || c < split)){
+                        split = c;
+                        found = true;
+                    }
+                }
+                if (!found){
+                    continue; // All equal on d.
+                }
+            }
+            KDBucketNode lo = new KDBucketNode(dims, bucketSize), hi = new KDBucketNode(dims, bucketSize);
+            for (int i = 0; i < n; i++){
+                (coords[i * dims + d] < split ? lo : hi).append(coords, i, dims);
+            }
+            return new KDBucketNode(d, split, lo, hi);
+        }
+        unsplittable = true;
+        return this;
+    }
+
+    /**
+     * Inserts p into the subtree rooted at this.
+     * @param p The {@link KDPoint} to insert. Only its coordinates are copied; it is not retained.
+     * @param depth The depth of this node.
+     * @param dims The dimensionality of the tree.
+     * @param bucketSize The maximum number of {@link KDPoint}s a leaf holds before it splits.
+     * @return The subtree rooted at this, potentially adjusted after insertion.
+     */
+    public KDBucketNode insert(KDPoint p, int depth, int dims, int bucketSize){
+        if (!isLeaf()){
+            if (p.coords[splitDim] < splitValue){
+                left = left.insert(p, depth + 1, dims, bucketSize);
+            } else {
+                right = right.insert(p, depth + 1, dims, bucketSize);
+            }
+            return this;
+        }
+        append(p.coords, 0, dims);
+        return n > bucketSize && !unsplittable ? split(depth, dims, bucketSize) : this;
+    }
+
+    /**
+     * Deletes a single copy of p from the subtree rooted at this, if it is there.
+     * @param p The {@link KDPoint} to delete.
+     * @param dims The dimensionality of the tree.
+     * @param bucketSize The maximum number of {@link KDPoint}s a leaf holds before it splits.
+     * @return The subtree rooted at this, potentially adjusted after deletion, or null if it became empty.
+     */
+    public KDBucketNode delete(KDPoint p, int dims, int bucketSize){
+        if (isLeaf()){
+            int i = indexOf(p, dims);
+            if (i >= 0){
+                n--;
+                System.arraycopy(coords, n * dims, coords, i * dims, dims); // Overwrite with the last row.
+            }
+            return n == 0 ? null : this;
+        }
+        if (p.coords[splitDim] < splitValue){
+            left = left.delete(p, dims, bucketSize);
+        } else {
+            right = right.delete(p, dims, bucketSize);
+        }
+        if (left == null){
+            return right;
+        }
+        if (right == null){
+            return left;
+        }
+        if (left.isLeaf() && right.isLeaf() && left.n + right.n <= bucketSize){ // Merge the siblings back.
+            for (int i = 0; i < right.n; i++){
+                left.append(right.coords, i, dims);
+            }
+            return left;
+        }
+        return this;
+    }
+
+    /**
+     * Searches the subtree rooted at this for p.
+     * @param p The {@link KDPoint} to search for.
+     * @param dims The dimensionality of the tree.
+     * @return true iff p is in the subtree rooted at this.
+     */
+    public boolean search(KDPoint p, int dims){
+        KDBucketNode curr = this;
+        while (!curr.isLeaf()){
+            curr = p.coords[curr.splitDim] < curr.splitValue ? curr.left : curr.right;
+        }
+        return curr.indexOf(p, dims) >= 0;
+    }
+
+    /**
+     * Accumulates all {@link KDPoint}s of the subtree rooted at this that lie within range of the anchor, other than
+     * the anchor itself, into {@code results}.
+     * @param anchor The centroid of the hypersphere that the range query implicitly creates.
+     * @param results A {@link Collection} that accumulates the {@link KDPoint}s found.
+     * @param range The maximum distance from the anchor, <b>INCLUSIVE</b>.
+     * @param dims The dimensionality of the tree.
+     */
+    public void range(KDPoint anchor, Collection<KDPoint> results, double range, int dims){
+        if (isLeaf()){
+            long rangeSq = KDPoint.squaredRangeBound(range);
+            for (int i = 0; i < n; i++){
+                long sq = squaredDistance(i, anchor, dims);
+                if (sq != 0 && sq <= rangeSq){
+                    results.add(pointAt(i, dims));
+                }
+            }
+            return;
+        }
+        double diff = (double) anchor.coords[splitDim] - splitValue;
+        (diff < 0 ? left : right).range(anchor, results, range, dims);
+        if (Math.abs(diff) <= range){
+            (diff < 0 ? right : left).range(anchor, results, range, dims);
+        }
+    }
+
+    /**
+     * Updates {@code n} with the nearest neighbor of the anchor in the subtree rooted at this, if it is closer than
+     * the one already there. A negative best distance stands for infinity.
+     * @param anchor The &quot;anchor&quot; {@link KDPoint} of the nearest neighbor query.
+     * @param best The best (distance, neighbor) pair found so far.
+     * @param dims The dimensionality of the tree.
+     */
+    public void nearestNeighbor(KDPoint anchor, NNData<KDPoint> best, int dims){
+        if (isLeaf()){
+            int bestRow = -1;
+            long bestSq = 0;
+            double bestDist = best.getBestDist();
+            double bound = bestDist < 0 ? Double.POSITIVE_INFINITY : bestDist * bestDist;
+            for (int i = 0; i < n; i++){
+                long sq = squaredDistance(i, anchor, dims);
+                if (sq != 0 && sq < bound){
+                    bound = sq;
+                    bestSq = sq;
+                    bestRow = i;
+                }
+            }
+            if (bestRow >= 0){
+                best.update(pointAt(bestRow, dims), distance(bestSq, bestRow, anchor, dims));
+            }
+            return;
+        }
+        double diff = (double) anchor.coords[splitDim] - splitValue;
+        (diff < 0 ? left : right).nearestNeighbor(anchor, best, dims);
+        if (best.getBestDist() < 0 || Math.abs(diff) < best.getBestDist()){
+            (diff < 0 ? right : left).nearestNeighbor(anchor, best, dims);
+        }
+    }
+
+    /**
+     * Offers the {@link KDPoint}s of the subtree rooted at this, other than the anchor itself, to {@code queue},
+     * skipping those that cannot make it in.
+     * @param anchor The &quot;anchor&quot; {@link KDPoint} of the query.
+     * @param queue A {@link BoundedPriorityQueue} that maintains the nearest neighbors found so far.
+     * @param dims The dimensionality of the tree.
+     */
+    public void kNearestNeighbors(KDPoint anchor, BoundedPriorityQueue<KDPoint> queue, int dims){
+        if (isLeaf()){
+            for (int i = 0; i < n; i++){
+                long sq = squaredDistance(i, anchor, dims);
+                if (sq != 0){
+                    double worst = queue.lastPriority();
+                    if (!queue.isFull() || sq < worst * worst){
+                        queue.enqueue(pointAt(i, dims), distance(sq, i, anchor, dims));
+                    }
+                }
+            }
+            return;
+        }
+        double diff = (double) anchor.coords[splitDim] - splitValue;
+        (diff < 0 ? left : right).kNearestNeighbors(anchor, queue, dims);
+        if (!queue.isFull() || Math.abs(diff) < queue.lastPriority()){
+            (diff < 0 ? right : left).kNearestNeighbors(anchor, queue, dims);
+        }
+    }
+
+    /**
+     * Returns the height of the subtree rooted at this. A single leaf has height 0, no matter how many
+     * {@link KDPoint}s it holds.
+     * @return The height of the subtree rooted at this.
+     */
+    public int height(){
+        return isLeaf() ? 0 : 1 + Math.max(left.height(), right.height());
+    }
+
+    /**
+     * Returns the number of leaves in the subtree rooted at this.
+     * @return The number of leaves in the subtree rooted at this.
+     */
+    public int leafCount(){
+        return isLeaf() ? 1 : left.leafCount() + right.leafCount();
+    }
+}
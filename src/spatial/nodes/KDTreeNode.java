@@ -2,11 +2,18 @@ package spatial.nodes;
 
 import spatial.exceptions.UnimplementedMethodException;
 import spatial.kdpoint.KDPoint;
+import spatial.kdpoint.KDPointSelection;
 import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNQueryContext;
 import spatial.knnutils.NNData;
+import spatial.knnutils.QueryCost;
+import spatial.metrics.DistanceMetric;
 
 import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * <p>{@link KDTreeNode} is an abstraction over nodes of a KD-Tree. It is used extensively by
@@ -25,14 +32,314 @@ public class KDTreeNode {
     /* ************* WE PROVIDE THESE FIELDS TO GET YOU STARTED.  **************** */
     /* ************************************************************************** */
     private KDPoint p;
+
+    /**
+     * The height of the subtree rooted at this. Maintained incrementally, along with {@link #size}.
+     */
     private int height;
     private KDTreeNode left, right;
 
+    /**
+     * The number of {@link KDPoint}s in the subtree rooted at this, including this node's own.
+     */
+    private int size;
+
+    /**
+     * The value stored with {@link #p} by a {@link spatial.trees.KDTreeMap}, which moves along with {@link #p} when
+     * deletions and rebuilds shuffle {@link KDPoint}s between nodes; null in a {@link spatial.trees.KDTree}.
+     */
+    private Object value;
+
     /* *************************************************************************************** */
     /* *************  PLACE ANY OTHER PRIVATE FIELDS AND YOUR PRIVATE METHODS HERE: ************ */
     /* ************************************************************************************* */
 
+    /**
+     * Builder constructor. Unlike {@link #KDTreeNode(KDPoint)}, it does <b>not</b> copy {@code p}: the caller hands
+     * ownership of the {@link KDPoint} over to the tree.
+     */
+    private KDTreeNode(KDPoint p, Object value, KDTreeNode left, KDTreeNode right){
+        this.p = p;
+        this.value = value;
+        this.left = left;
+        this.right = right;
+        update();
+    }
+
+    private static int sizeOf(KDTreeNode n){
+        return n == null ? 0 : n.size;
+    }
+
+    private static int heightOf(KDTreeNode n){
+        return n == null ? -1 : n.height;
+    }
+
+    /**
+     * Recomputes {@link #size} and {@link #height} from those of the children, which must be up to date.
+     */
+    private void update(){
+        size = 1 + sizeOf(left) + sizeOf(right);
+        height = 1 + Math.max(heightOf(left), heightOf(right));
+    }
+
+    /**
+     * Counts the {@link KDPoint}s of the subtree rooted at this that lie in the box {@code [lo, hi]}, given that the
+     * subtree can only contain {@link KDPoint}s of the cell {@code [cellLo, cellHi]}. Subtrees whose cell lies
+     * entirely within the box are counted in constant time. The cell arrays are restored before returning.
+     */
+    private int countInBox(int[] lo, int[] hi, int currDim, int dims, int[] cellLo, int[] cellHi){
+        boolean inside = true;
+        for (int d = 0; d < dims; d++){
+            if (cellLo[d] > hi[d] || cellHi[d] < lo[d]){
+                return 0; // Disjoint.
+            }
+            inside &= lo[d] <= cellLo[d] && cellHi[d] <= hi[d];
+        }
+        if (inside){
+            return size;
+        }
+
+        int count = 1;
+        for (int d = 0; d < dims; d++){
+            if (p.coords[d] < lo[d] || p.coords[d] > hi[d]){
+                count = 0;
+                break;
+            }
+        }
+        int d = currDim % dims, split = p.coords[d];
+        if (left != null){ // Everything on the left is smaller than or equal to split.
+            int saved = cellHi[d];
+            cellHi[d] = Math.min(saved, split);
+            count += left.countInBox(lo, hi, currDim + 1, dims, cellLo, cellHi);
+            cellHi[d] = saved;
+        }
+        if (right != null){
+            int saved = cellLo[d];
+            cellLo[d] = Math.max(saved, split);
+            count += right.countInBox(lo, hi, currDim + 1, dims, cellLo, cellHi);
+            cellLo[d] = saved;
+        }
+        return count;
+    }
+
+    /**
+     * Reports whether this is <b>not</b> weight-balanced, that is, whether one of its subtrees holds more than a fraction
+     * {@code alpha} of the {@link KDPoint}s in the subtree rooted at this.
+     */
+    private boolean isUnbalanced(double alpha){
+        return Math.max(sizeOf(left), sizeOf(right)) > alpha * size;
+    }
+
+    /**
+     * Collects the {@link KDPoint}s of the subtree rooted at this into {@code pts}, and their values into
+     * {@code values}, starting at index {@code i}.
+     * @return The index after the last {@link KDPoint} collected.
+     */
+    private int collect(KDPoint[] pts, Object[] values, int i){
+        if (left != null){
+            i = left.collect(pts, values, i);
+        }
+        values[i] = value;
+        pts[i++] = p;
+        if (right != null){
+            i = right.collect(pts, values, i);
+        }
+        return i;
+    }
+
+    /**
+     * Rebuilds the subtree rooted at this into a height-balanced one over the same {@link KDPoint}s, and their values,
+     * in <em>O(n log n)</em> time.
+     * @param currDim The dimension that this node splits on.
+     * @param dims The total number of dimensions that the space considers.
+     * @return The root of the rebuilt subtree.
+     * @see #build(KDPoint[], Object[], int, int, int, int)
+     */
+    public KDTreeNode rebuild(int currDim, int dims){
+        KDPoint[] pts = new KDPoint[size];
+        Object[] values = new Object[size];
+        collect(pts, values, 0);
+        return build(pts, values, 0, pts.length, currDim, dims);
+    }
+
+    /**
+     * <p>Restores weight balance along the search path of {@code pIn}, after {@code pIn} has been inserted into or
+     * deleted from the subtree rooted at this. The path is walked top-down and the <b>topmost</b> node in which one
+     * subtree holds more than a fraction {@code alpha} of the node's {@link KDPoint}s (the &quot;scapegoat&quot;) is
+     * rebuilt into a perfectly balanced subtree. Since every node on the path is then weight-balanced, the height of
+     * the tree stays within <em>log<sub>1/alpha</sub>(n)</em>. Rebuilds select medians in <em>O(m log m)</em> time over
+     * m {@link KDPoint}s, so their cost amortizes to <em>O(log<sup>2</sup> n)</em> per insertion.</p>
+     *
+     * <p>Rebuilds split runs of equal coordinates at their median, like {@link #build(KDPoint[], int, int, int, int)},
+     * so a scapegoat is always balanced afterwards, even when every {@link KDPoint} below it shares the splitting
+     * coordinate.</p>
+     *
+     * @param pIn The {@link KDPoint} that was just inserted or deleted.
+     * @param currDim The dimension that this node splits on.
+     * @param dims The total number of dimensions that the space considers.
+     * @param alpha The balance threshold, between 0.5 (perfect balance) and 1 (no balancing).
+     * @return The root of the subtree, which is a new node if this was the scapegoat.
+     */
+    public KDTreeNode rebalance(KDPoint pIn, int currDim, int dims, double alpha){
+        return rebalance(pIn, currDim, dims, alpha, null);
+    }
+
+    /**
+     * Restores weight balance like {@link #rebalance(KDPoint, int, int, double)}, additionally charging one visit to
+     * {@code cost} for every node that a rebuild moves.
+     * @param pIn The {@link KDPoint} that was just inserted or deleted.
+     * @param currDim The dimension that this node splits on.
+     * @param dims The total number of dimensions that the space considers.
+     * @param alpha The balance threshold, between 0.5 (perfect balance) and 1 (no balancing).
+     * @param cost A {@link QueryCost} that is charged the size of every rebuilt subtree, or {@code null}.
+     * @return The root of the subtree, which is a new node if this was the scapegoat.
+     */
+    public KDTreeNode rebalance(KDPoint pIn, int currDim, int dims, double alpha, QueryCost cost){
+        if (isUnbalanced(alpha)){
+            if (cost != null){
+                cost.visit(size);
+            }
+            return rebuild(currDim, dims);
+        }
+        if (pIn.coords[currDim%dims] < p.coords[currDim%dims]){
+            if (left != null){
+                left = left.rebalance(pIn, currDim + 1, dims, alpha, cost);
+            }
+        }
+        else if (right != null){
+            right = right.rebalance(pIn, currDim + 1, dims, alpha, cost);
+        }
+        update(); // A rebuild below may have made this subtree shorter.
+        return this;
+    }
+
+    /**
+     * Returns the number of {@link KDPoint}s stored in the subtree rooted at this. Maintained incrementally, so
+     * this is a constant-time operation.
+     * @return The number of {@link KDPoint}s stored in the subtree rooted at this.
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * <p>Counts the {@link KDPoint}s of the subtree rooted at this that lie in the axis-aligned box {@code [lo, hi]},
+     * bounds <b>inclusive</b>. Every node implicitly spans a cell of the space, bounded by the splitting planes of its
+     * ancestors. Cells that lie entirely inside the box are accounted for by their subtree size, without being
+     * visited, and cells disjoint from it are pruned, so only the nodes whose cells straddle the boundary of the box
+     * are visited.</p>
+     *
+     * @param lo The lower corner of the box.
+     * @param hi The upper corner of the box.
+     * @param currDim The dimension that this node splits on.
+     * @param dims The total number of dimensions that the space considers.
+     * @return The number of {@link KDPoint}s in the subtree rooted at this that lie in the box.
+     */
+    public int countInBox(KDPoint lo, KDPoint hi, int currDim, int dims){
+        int[] cellLo = new int[dims], cellHi = new int[dims];
+        Arrays.fill(cellLo, Integer.MIN_VALUE);
+        Arrays.fill(cellHi, Integer.MAX_VALUE);
+        return countInBox(lo.coords, hi.coords, currDim, dims, cellLo, cellHi);
+    }
+
+    /**
+     * <p>Builds a height-balanced <em>K</em>-D tree over {@code pts[lo..hi)}. At every level, the median of the range
+     * along dimension {@code currDim % dims} is selected in expected linear time and becomes the subtree root; the
+     * smaller half goes left and the rest goes right. The total cost is therefore <em>O(n log n)</em>, and the height
+     * of the tree is <em>floor(log2(n))</em>.</p>
+     *
+     * <p>The median is taken at the <b>middle index</b> of the range even when its coordinate is shared by a run of
+     * {@link KDPoint}s, so such a run is split between both subtrees. This is why the left subtree of a node only holds
+     * coordinates that are <b>smaller than or equal to</b> the node's on the splitting dimension, and why
+     * {@link #find(KDPoint, int, int)} and {@link #delete(KDPoint, int, int)} look on both sides of equal coordinates.</p>
+     *
+     * @param pts The {@link KDPoint}s to index. The array is permuted in place and the {@link KDPoint}s are stored
+     *            <b>without</b> defensive copies, so the caller must not mutate them afterwards.
+     * @param lo The first index of the range to build over, inclusive.
+     * @param hi The last index of the range to build over, exclusive.
+     * @param currDim The dimension that the root of the built subtree splits on.
+     * @param dims The total number of dimensions that the space considers.
+     * @return The root of the built subtree, or {@code null} if the range is empty.
+     */
+    public static KDTreeNode build(KDPoint[] pts, int lo, int hi, int currDim, int dims){
+        return build(pts, null, lo, hi, currDim, dims);
+    }
+
+    /**
+     * Builds a height-balanced <em>K</em>-D tree over {@code pts[lo..hi)} like
+     * {@link #build(KDPoint[], int, int, int, int)}, storing {@code values[i]} with {@code pts[i]}.
+     * @param pts The {@link KDPoint}s to index. Permuted in place and stored without defensive copies.
+     * @param values The values of the {@link KDPoint}s, index for index, permuted along with them; or null.
+     * @param lo The first index of the range to build over, inclusive.
+     * @param hi The last index of the range to build over, exclusive.
+     * @param currDim The dimension that the root of the built subtree splits on.
+     * @param dims The total number of dimensions that the space considers.
+     * @return The root of the built subtree, or {@code null} if the range is empty.
+     */
+    public static KDTreeNode build(KDPoint[] pts, Object[] values, int lo, int hi, int currDim, int dims){
+        if (lo >= hi){
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        KDPointSelection.select(pts, values, lo, hi, mid, currDim % dims);
+        return new KDTreeNode(pts[mid], values == null ? null : values[mid],
+                build(pts, values, lo, mid, currDim + 1, dims), build(pts, values, mid + 1, hi, currDim + 1, dims));
+    }
 
+    /**
+     * <p>Parallel version of {@link #build(KDPoint[], int, int, int, int)}. After the median of a range has been
+     * selected, its left and right halves occupy <b>disjoint</b> slices of {@code pts}, so they are built as
+     * separate {@link ForkJoinPool} tasks. Ranges of at most {@code cutoff} {@link KDPoint}s are built sequentially,
+     * to keep task overhead bounded.</p>
+     *
+     * <p>Since median selection is deterministic and every task only ever touches its own slice, the returned tree
+     * is <b>identical</b>, node for node, to the one returned by the sequential builder.</p>
+     *
+     * @param pts The {@link KDPoint}s to index. Permuted in place and stored without defensive copies.
+     * @param lo The first index of the range to build over, inclusive.
+     * @param hi The last index of the range to build over, exclusive.
+     * @param currDim The dimension that the root of the built subtree splits on.
+     * @param dims The total number of dimensions that the space considers.
+     * @param pool The {@link ForkJoinPool} to run the build in.
+     * @param cutoff The range size at or below which a subtree is built sequentially. Has to be positive.
+     * @return The root of the built subtree, or {@code null} if the range is empty.
+     * @see #build(KDPoint[], int, int, int, int)
+     */
+    public static KDTreeNode build(KDPoint[] pts, int lo, int hi, int currDim, int dims, ForkJoinPool pool, int cutoff){
+        return pool.invoke(new BuildTask(pts, lo, hi, currDim, dims, cutoff));
+    }
+
+    /**
+     * A {@link RecursiveTask} that builds the subtree over one slice of the input array.
+     */
+    private static final class BuildTask extends RecursiveTask<KDTreeNode> {
+        private static final long serialVersionUID = 1L;
+
+        private final KDPoint[] pts;
+        private final int lo, hi, currDim, dims, cutoff;
+
+        BuildTask(KDPoint[] pts, int lo, int hi, int currDim, int dims, int cutoff){
+            this.pts = pts;
+            this.lo = lo;
+            this.hi = hi;
+            this.currDim = currDim;
+            this.dims = dims;
+            this.cutoff = cutoff;
+        }
+
+        @Override
+        protected KDTreeNode compute(){
+            if (hi - lo <= cutoff){
+                return build(pts, lo, hi, currDim, dims);
+            }
+            int mid = (lo + hi) >>> 1;
+            KDPointSelection.select(pts, lo, hi, mid, currDim % dims);
+            BuildTask leftTask = new BuildTask(pts, lo, mid, currDim + 1, dims, cutoff);
+            leftTask.fork();
+            KDTreeNode rightSubtree = new BuildTask(pts, mid + 1, hi, currDim + 1, dims, cutoff).compute();
+            return new KDTreeNode(pts[mid], null, leftTask.join(), rightSubtree);
+        }
+    }
 
 
     /* *********************************************************************** */
@@ -46,14 +353,23 @@ public class KDTreeNode {
      *          <b>mutable!!!</b>.
      */
     public KDTreeNode(KDPoint p){
+        this(p, null);
+    }
+
+    /**
+     * Creates a node that stores a copy of the provided {@link KDPoint}, along with a value.
+     * @param p The {@link KDPoint} to store inside this.
+     * @param value The value to store with {@code p}, or null.
+     * @see #insert(KDPoint, Object, int, int)
+     */
+    public KDTreeNode(KDPoint p, Object value){
         this.p = new KDPoint(p);
-        this.p.coords = new int[p.coords.length];
-        for (int i = 0; i< p.coords.length; i++){
-            this.p.coords[i] = p.coords[i];
-        }
+        this.value = value;
 
         left = null;
         right = null;
+        size = 1;
+        height = 0;
     }
 
     /**
@@ -67,29 +383,34 @@ public class KDTreeNode {
      * @see #delete(KDPoint, int, int)
      */
     public void insert(KDPoint pIn, int currDim, int dims){
-        KDTreeNode newNode = new KDTreeNode(pIn);
+        insert(pIn, null, currDim, dims);
+    }
 
+    /**
+     * Inserts the provided {@link KDPoint} like {@link #insert(KDPoint, int, int)}, along with a value.
+     * @param pIn The {@link KDPoint} to insert into the node.
+     * @param valueIn The value to store with {@code pIn}, or null.
+     * @param currDim The current dimension to consider
+     * @param dims The total number of dimensions that the space considers.
+     */
+    public void insert(KDPoint pIn, Object valueIn, int currDim, int dims){
         if (pIn.coords[currDim%dims] < this.p.coords[currDim%dims]){//new nodes relevant dimensional value is less, go left
             if (this.left == null){//has no left child, just insert
-                this.left = newNode;
+                this.left = new KDTreeNode(pIn, valueIn);
             }
             else{//has left child
-                this.left.insert(pIn, currDim+1, dims);
-
+                this.left.insert(pIn, valueIn, currDim+1, dims);
             }
-
         }
         else{//new nodes relevant dimensional value is greater or equal, go right
             if (this.right == null){//has no right child
-                this.right = newNode;
+                this.right = new KDTreeNode(pIn, valueIn);
             }
             else{
-                this.right.insert(pIn, currDim+1, dims);
+                this.right.insert(pIn, valueIn, currDim+1, dims);
             }
-
         }
-
-
+        update();
     }
 
 
@@ -109,6 +430,10 @@ public class KDTreeNode {
      *
      * <p>You should consult the class slides, your notes, and the textbook about what you need to do in those two
      * special cases.</p>
+     *
+     * <p>Since {@link #build(KDPoint[], int, int, int, int) rebuilt} subtrees split runs of equal coordinates, a
+     * {@link KDPoint} whose coordinate equals that of the current node is looked for in the right subtree first, and in
+     * the left one if it was not found there.</p>
      * @param currDim The current dimension to consider.
      * @param dims The total number of dimensions that the space considers.
      * @param pIn The {@link KDPoint} to insert into the node.
@@ -116,54 +441,71 @@ public class KDTreeNode {
      * @return A reference to this after the deletion takes place.
      */
     public KDTreeNode delete(KDPoint pIn, int currDim, int dims){
-        KDTreeNode toReturn = new KDTreeNode(pIn);//placeholder
-
-
+        int d = currDim%dims;
 
         if (this.p.equals(pIn)){//found, time to delete
-            if (this.left == null && this.right == null){//no children, just delete the node
-                return null;
-
+            if (this.right != null){//non-null right subtree: replace with the minimum of the right subtree on d
+                KDTreeNode min = this.right.findMin(d, currDim+1, dims);
+                this.p = min.p;
+                this.value = min.value;
+                this.right = this.right.delete(min.p, currDim+1, dims);
             }
-            else if (this.right != null){//non-null right subtree
-
-
-
+            else if (this.left != null){//only a left subtree: replace with its minimum on d and move it to the right
+                KDTreeNode min = this.left.findMin(d, currDim+1, dims);
+                this.p = min.p;
+                this.value = min.value;
+                this.right = this.left.delete(min.p, currDim+1, dims);
+                this.left = null;
+            }
+            else{//no children, just delete the node
+                return null;
             }
-
         }
-        else if (pIn.coords[currDim%dims] < this.p.coords[currDim%dims]){//check left
-            this.left = this.left.delete(pIn, currDim, dims);
-
+        else if (pIn.coords[d] < this.p.coords[d]){//check left
+            if (this.left != null){
+                this.left = this.left.delete(pIn, currDim+1, dims);
+            }
         }
         else{//check right
-            this.right = this.right.delete(pIn, currDim, dims);
-
+            int before = sizeOf(this.right);
+            if (this.right != null){
+                this.right = this.right.delete(pIn, currDim+1, dims);
+            }
+            if (sizeOf(this.right) == before && pIn.coords[d] == this.p.coords[d] && this.left != null){//not on the right, but equal coordinates may be on the left too
+                this.left = this.left.delete(pIn, currDim+1, dims);
+            }
         }
 
-
-
-        return toReturn;//placeholder, should actually return current node
+        update();
+        return this;
     }
 
-    public KDTreeNode findMin(KDTreeNode curr, int currDim, int numDims){
-        KDTreeNode toReturn = null;
-
-
-
-
-
-
+    /**
+     * Finds the node that holds the minimum value of dimension {@code dim} in the subtree rooted at this. When this
+     * node splits on {@code dim}, the minimum cannot be in its right subtree, which is therefore pruned.
+     * @param dim The dimension whose minimum we are looking for.
+     * @param currDim The current dimension considered.
+     * @param dims The total number of dimensions considered.
+     * @return The node of the subtree rooted at this whose {@link KDPoint} has the smallest value at {@code dim}.
+     */
+    public KDTreeNode findMin(int dim, int currDim, int dims){
+        KDTreeNode min = this;
 
-            return toReturn;
+        if (this.left != null){
+            KDTreeNode leftMin = this.left.findMin(dim, currDim+1, dims);
+            if (leftMin.p.coords[dim] < min.p.coords[dim]){
+                min = leftMin;
+            }
+        }
+        if (this.right != null && currDim%dims != dim){//right subtree only matters if we don't split on dim
+            KDTreeNode rightMin = this.right.findMin(dim, currDim+1, dims);
+            if (rightMin.p.coords[dim] < min.p.coords[dim]){
+                min = rightMin;
+            }
         }
 
-
-
-
-
-
-
+        return min;
+    }
 
 
 
@@ -176,37 +518,33 @@ public class KDTreeNode {
      * @return true iff pIn was found in the subtree rooted at this, false otherwise.
      */
     public  boolean search(KDPoint pIn, int currDim, int dims){
-        boolean found = false;
-
-        if (this == null){
-            return false;
-        }
-
-        if (this.p.equals(pIn)){//equal coords, found
-            return true;
-        }
-
-        if (pIn.coords[currDim%dims] < this.p.coords[currDim%dims]){//less, check left
-            if (this.left != null) {
-                found = this.left.search(pIn, currDim+1, dims);
-            }
-            else{
-                return false;
-            }
+        return find(pIn, currDim, dims) != null;
+    }
 
-        }
-        else{
-            if (this.right != null) {
-                found = this.right.search(pIn, currDim+1, dims);
-            }
-            else{
-                return false;
+    /**
+     * Finds the node of the subtree rooted at this that holds the provided {@link KDPoint}, following the same path
+     * as {@link #insert(KDPoint, int, int)}. Where the coordinate of pIn equals that of a node, pIn may also lie in
+     * the node's left subtree, which is then searched as well.
+     * @param pIn The {@link KDPoint} to search for.
+     * @param currDim The current dimension considered.
+     * @param dims The total number of dimensions considered.
+     * @return A node that holds a {@link KDPoint} equal to pIn, or null if there is none.
+     * @see #search(KDPoint, int, int)
+     */
+    public KDTreeNode find(KDPoint pIn, int currDim, int dims){
+        KDTreeNode n = this;
+        while (n != null && !n.p.equals(pIn)){
+            int d = currDim%dims;
+            if (pIn.coords[d] == n.p.coords[d] && n.left != null){//equal coordinates may lie on both sides
+                KDTreeNode found = n.left.find(pIn, currDim+1, dims);
+                if (found != null){
+                    return found;
+                }
             }
+            n = pIn.coords[d] < n.p.coords[d] ? n.left : n.right;
+            currDim++;
         }
-
-
-
-        return found;
+        return n;
     }
 
     /**
@@ -229,26 +567,69 @@ public class KDTreeNode {
      */
     public void range(KDPoint anchor, Collection<KDPoint> results,
                       double range, int currDim , int dims){
+        range(anchor, results, range, currDim, dims, (QueryCost) null);
+    }
 
+    /**
+     * <p>Range query that also accounts for the nodes it visits. The subtree on the anchor's side of the current
+     * splitting hyperplane is always searched; the other subtree is searched <b>only</b> if the hyperplane lies within
+     * {@code range} of the anchor, since otherwise all of its {@link KDPoint}s are too far away.</p>
+     *
+     * <p>Distances are compared squared, against {@link KDPoint#squaredRangeBound(double) the largest squared
+     * distance within range}, so no square root is taken.</p>
+     *
+     * @param anchor The centroid of the hypersphere that the range query implicitly creates.
+     * @param results A {@link Collection} that accumulates all the {@link KDPoint}s within range of the anchor.
+     * @param range The <b>INCLUSIVE</b> range from the &quot;anchor&quot; {@link KDPoint}.
+     * @param currDim The current dimension examined by the {@link KDTreeNode}.
+     * @param dims The total number of dimensions of our {@link KDPoint}s.
+     * @param cost A {@link QueryCost} that is charged one visit per node visited, or {@code null}.
+     * @see #range(KDPoint, Collection, double, int, int)
+     */
+    public void range(KDPoint anchor, Collection<KDPoint> results,
+                      double range, int currDim, int dims, QueryCost cost){
+        range(anchor, results, null, range, KDPoint.squaredRangeBound(range), currDim, dims, cost);
+    }
 
-        if ( this != null && p.euclideanDistance(anchor) <= range){
-
-                if (p.coords != anchor.coords) {
-                    results.add(p);
-                }
+    /**
+     * Range query like {@link #range(KDPoint, Collection, double, int, int)}, which also adds the value of every
+     * {@link KDPoint} reported to {@code resultValues}, in the same order.
+     * @param anchor The centroid of the hypersphere that the range query implicitly creates.
+     * @param results A {@link Collection} that accumulates all the {@link KDPoint}s within range of the anchor.
+     * @param resultValues A {@link Collection} that accumulates their values.
+     * @param range The <b>INCLUSIVE</b> range from the &quot;anchor&quot; {@link KDPoint}.
+     * @param currDim The current dimension examined by the {@link KDTreeNode}.
+     * @param dims The total number of dimensions of our {@link KDPoint}s.
+     */
+    public void range(KDPoint anchor, Collection<KDPoint> results, Collection<Object> resultValues,
+                      double range, int currDim, int dims){
+        range(anchor, results, resultValues, range, KDPoint.squaredRangeBound(range), currDim, dims, null);
+    }
 
+    private void range(KDPoint anchor, Collection<KDPoint> results, Collection<Object> resultValues,
+                       double range, long rangeSq, int currDim, int dims, QueryCost cost){
+        if (cost != null){
+            cost.visit();
         }
 
-            if (right != null) {
-                    right.range(anchor, results, range, currDim+1, dims);
-            }
-
-            if (left != null){
-                    left.range(anchor, results, range, currDim+1, dims);
+        long sq = p.squaredDistance(anchor);
+        if (sq != 0 && sq <= rangeSq){//never report the anchor itself
+            results.add(p);
+            if (resultValues != null){
+                resultValues.add(value);
             }
+        }
 
+        double diff = (double) anchor.coords[currDim % dims] - p.coords[currDim % dims];
+        KDTreeNode near = diff < 0 ? left : right;
+        KDTreeNode far = diff < 0 ? right : left;
 
-
+        if (near != null){
+            near.range(anchor, results, resultValues, range, rangeSq, currDim + 1, dims, cost);
+        }
+        if (far != null && Math.abs(diff) <= range){//the hyperplane cuts through the query hypersphere
+            far.range(anchor, results, resultValues, range, rangeSq, currDim + 1, dims, cost);
+        }
     }
 
 
@@ -279,38 +660,67 @@ public class KDTreeNode {
      */
     public  NNData<KDPoint> nearestNeighbor(KDPoint anchor, int currDim,
                                             NNData<KDPoint> n, int dims){
+        return nearestNeighbor(anchor, currDim, n, dims, (QueryCost) null);
+    }
 
-        if (this.p.euclideanDistance(anchor) < n.getBestDist()){//closer than current best distance
-            boolean isAnchor = true;
-
-            for (int i = 0; i<p.coords.length; i++){
-                if (p.coords[i] != anchor.coords[i]){
-                    isAnchor = false;
-                    break;
-                }
-            }
+    /**
+     * <p>Branch-and-bound nearest neighbor search that also accounts for the nodes it visits. The search descends
+     * first into the subtree on the anchor's side of the current splitting hyperplane. On the way back up, the
+     * other subtree is visited <b>only</b> if the anchor's distance to the hyperplane is smaller than the best distance
+     * found so far; otherwise, no {@link KDPoint} in it can improve on the current best.</p>
+     *
+     * <p>A negative best distance in {@code n} (such as {@link spatial.trees.KDTree#INFTY}) stands for infinity.
+     * Distances are compared squared, and a square root is only taken when {@code n} is updated.</p>
+     *
+     * @param anchor The &quot;anchor&quot; {@link KDPoint} of the nearest neighbor query.
+     * @param currDim The current dimension considered.
+     * @param n The best (distance, neighbor) pair found so far.
+     * @param dims The total number of dimensions considered.
+     * @param cost A {@link QueryCost} that is charged one visit per node visited, or {@code null}.
+     * @return {@code n}, updated with the nearest neighbor found in the subtree rooted at this.
+     * @see #nearestNeighbor(KDPoint, int, NNData, int)
+     */
+    public NNData<KDPoint> nearestNeighbor(KDPoint anchor, int currDim,
+                                           NNData<KDPoint> n, int dims, QueryCost cost){
+        if (cost != null){
+            cost.visit();
+        }
 
-            if (isAnchor == false) {
-                n.update(this.p, this.p.euclideanDistance(anchor));
+        long sq = p.squaredDistance(anchor);
+        if (sq != 0){//never report the anchor itself
+            long best = bestSquaredDistance(n, anchor);
+            if (best < 0 || sq < best){
+                n.update(p, p.euclideanDistance(anchor));
             }
-
-
-
         }
 
-        if (right != null){
-            right.nearestNeighbor(anchor, currDim++, n, dims);
-        }
+        long diff = (long) anchor.coords[currDim % dims] - p.coords[currDim % dims];
+        KDTreeNode near = diff < 0 ? left : right;
+        KDTreeNode far = diff < 0 ? right : left;
 
-        if (left != null){
-            left.nearestNeighbor(anchor, currDim++, n, dims);
+        if (near != null){
+            near.nearestNeighbor(anchor, currDim + 1, n, dims, cost);
+        }
+        if (far != null){
+            long best = bestSquaredDistance(n, anchor);
+            if (best < 0 || KDPoint.saturatedSquare(diff) < best){//the hyperplane is closer than our best guess
+                far.nearestNeighbor(anchor, currDim + 1, n, dims, cost);
+            }
         }
-
-
 
         return n;
     }
 
+    /**
+     * The squared distance of the best guess in n from the anchor, or -1 for infinity.
+     */
+    private static long bestSquaredDistance(NNData<KDPoint> n, KDPoint anchor){
+        if (n.getBestGuess() != null){
+            return n.getBestGuess().squaredDistance(anchor);
+        }
+        return n.getBestDist() < 0 ? -1 : KDPoint.squaredRangeBound(n.getBestDist()) + 1;
+    }
+
     /**
      * <p>Executes a nearest neighbor query, which returns the nearest neighbor, in terms of
      * {@link KDPoint#euclideanDistance(KDPoint)}, from the &quot;anchor&quot; point.</p>
@@ -339,62 +749,268 @@ public class KDTreeNode {
      * @see BoundedPriorityQueue
      */
     public  void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue, int currDim, int dims){
+        kNearestNeighbors(k, anchor, queue, currDim, dims, (QueryCost) null);
+    }
 
-        boolean isAnchor = true;
-
-        for (int i = 0; i<p.coords.length; i++){
-            if (p.coords[i] != anchor.coords[i]){
-                isAnchor = false;
-                break;
-            }
+    /**
+     * <p>Branch-and-bound k-nearest neighbor search that also accounts for the nodes it visits. The search descends
+     * first into the subtree on the anchor's side of the current splitting hyperplane. Once {@code queue} is full, the
+     * other subtree is skipped whenever the anchor's distance to the hyperplane is at least
+     * {@link BoundedPriorityQueue#lastPriority() the priority of the queue's last element}, since none of its
+     * {@link KDPoint}s could then be admitted into the queue. That distance is compared squared, against the squared
+     * distance of the queue's last element, and a square root is only taken for the {@link KDPoint}s enqueued.</p>
+     *
+     * @param k The total number of neighbors to retrieve.
+     * @param anchor The &quot;anchor&quot; {@link KDPoint} of the nearest neighbor query.
+     * @param queue A {@link BoundedPriorityQueue} of capacity k that maintains the nearest neighbors found so far.
+     * @param currDim The current dimension considered.
+     * @param dims The total number of dimensions considered.
+     * @param cost A {@link QueryCost} that is charged one visit per node visited, or {@code null}.
+     * @see #kNearestNeighbors(int, KDPoint, BoundedPriorityQueue, int, int)
+     */
+    public void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue, int currDim, int dims,
+                                  QueryCost cost){
+        if (cost != null){
+            cost.visit();
         }
 
-        if (isAnchor == false) {
+        long sq = p.squaredDistance(anchor);
+        if (sq != 0 && (!queue.isFull() || sq < queue.last().squaredDistance(anchor))){//never report the anchor itself
             queue.enqueue(p, p.euclideanDistance(anchor));
         }
 
-        if (right != null){
-            right.kNearestNeighbors(k, anchor, queue, currDim++, dims);
+        long diff = (long) anchor.coords[currDim % dims] - p.coords[currDim % dims];
+        KDTreeNode near = diff < 0 ? left : right;
+        KDTreeNode far = diff < 0 ? right : left;
+
+        if (near != null){
+            near.kNearestNeighbors(k, anchor, queue, currDim + 1, dims, cost);
+        }
+        if (far != null && (!queue.isFull() || KDPoint.saturatedSquare(diff) < queue.last().squaredDistance(anchor))){//the hyperplane is closer than our worst neighbor
+            far.kNearestNeighbors(k, anchor, queue, currDim + 1, dims, cost);
         }
+    }
 
-        if (left != null){
-            left.kNearestNeighbors(k, anchor, queue, currDim++, dims);
+    /**
+     * <p>Iterative, allocation-free version of {@link #kNearestNeighbors(int, KDPoint, BoundedPriorityQueue, int, int)},
+     * which writes its results into a caller-owned {@link KNNQueryContext}. The search follows the near side of every
+     * node down to a leaf and pushes the far sides on the context's stack, together with a lower bound on their distance
+     * from the anchor; a far side is then skipped when it is popped if that bound is no smaller than the worst neighbor
+     * found by then. It returns the same results as the recursive search, but since the bound of a far side also
+     * accounts for the planes crossed above it, it may skip subtrees that the recursive search visits. Bounds and
+     * distances are all squared. Every {@link KDPoint} is offered along with its value.</p>
+     *
+     * @param root The root of the tree to search.
+     * @param anchor The &quot;anchor&quot; {@link KDPoint} of the query.
+     * @param context The context to write the results into, already {@link KNNQueryContext#reset(int, KDPoint) reset} to k.
+     * @param dims The total number of dimensions that the space considers.
+     */
+    public static void kNearestNeighbors(KDTreeNode root, KDPoint anchor, KNNQueryContext context, int dims){
+        if (root != null){
+            context.push(root, 0, 0);
+        }
+        while (context.hasPending()){
+            KDTreeNode node = (KDTreeNode) context.pop();
+            if (context.canPrunePopped()){
+                continue;
+            }
+            int currDim = context.poppedDepth();
+            long bound = context.poppedBound();
+            while (node != null){
+                long sq = node.p.squaredDistance(anchor);
+                if (sq != 0 && (!context.isFull() || sq < context.worstSquaredDistance())){
+                    context.offer(node.p, node.value, sq);
+                }
+                long diff = (long) anchor.coords[currDim % dims] - node.p.coords[currDim % dims];
+                KDTreeNode far = diff < 0 ? node.right : node.left;
+                if (far != null){
+                    context.push(far, currDim + 1, Math.max(bound, KDPoint.saturatedSquare(diff)));
+                }
+                node = diff < 0 ? node.left : node.right;
+                currDim++;
+            }
         }
+        context.finish();
+    }
+
+    /* *********************************************************************************************** */
+    /* ********************************* METRIC-AWARE QUERIES **************************************** */
+    /* *********************************************************************************************** */
 
+    /**
+     * <p>Range query under an arbitrary {@link DistanceMetric}: all {@link KDPoint}s whose distance from the anchor is
+     * at most range, <b>INCLUSIVE</b>, except for the anchor itself, are added to {@code results}.</p>
+     *
+     * <p>The search keeps track of the box that the current subtree spans, which narrows with every splitting
+     * hyperplane crossed. A far subtree is searched only if both the hyperplane and its box lie within range,
+     * according to the metric's {@link DistanceMetric#distanceToHyperplane(KDPoint, int, double) hyperplane} and
+     * {@link DistanceMetric#distanceToBox(KDPoint, double[], double[]) box} bounds; the box bound accounts for every
+     * dimension at once, so it prunes more than the hyperplane alone.</p>
+     *
+     * @param anchor The centroid of the range that the query implicitly creates.
+     * @param results A {@link Collection} that accumulates all the {@link KDPoint}s within range of the anchor.
+     * @param range The <b>INCLUSIVE</b> range from the &quot;anchor&quot; {@link KDPoint}.
+     * @param currDim The current dimension examined by the {@link KDTreeNode}.
+     * @param dims The total number of dimensions of our {@link KDPoint}s.
+     * @param metric The {@link DistanceMetric} to measure distances with.
+     * @see #range(KDPoint, Collection, double, int, int)
+     */
+    public void range(KDPoint anchor, Collection<KDPoint> results, double range, int currDim, int dims,
+                      DistanceMetric metric){
+        range(anchor, results, range, currDim, dims, metric, unboundedBox(dims, -1), unboundedBox(dims, 1));
+    }
 
+    private static double[] unboundedBox(int dims, int sign){
+        double[] box = new double[dims];
+        Arrays.fill(box, sign * Double.POSITIVE_INFINITY);
+        return box;
+    }
 
+    private void range(KDPoint anchor, Collection<KDPoint> results, double range, int currDim, int dims,
+                       DistanceMetric metric, double[] lo, double[] hi){
+        if (!p.equals(anchor) && metric.distance(p, anchor) <= range){//never report the anchor itself
+            results.add(p);
+        }
 
+        int d = currDim % dims;
+        boolean nearLeft = anchor.coords[d] < p.coords[d];
+        KDTreeNode near = nearLeft ? left : right;
+        KDTreeNode far = nearLeft ? right : left;
+        double[] bound = nearLeft ? hi : lo, farBound = nearLeft ? lo : hi;
+
+        if (near != null){
+            double saved = bound[d];
+            bound[d] = p.coords[d];
+            near.range(anchor, results, range, currDim + 1, dims, metric, lo, hi);
+            bound[d] = saved;
+        }
+        if (far != null && metric.distanceToHyperplane(anchor, d, p.coords[d]) <= range){
+            double saved = farBound[d];
+            farBound[d] = p.coords[d];
+            if (metric.distanceToBox(anchor, lo, hi) <= range){//the box of the far side intersects the range
+                far.range(anchor, results, range, currDim + 1, dims, metric, lo, hi);
+            }
+            farBound[d] = saved;
+        }
     }
 
     /**
-     * Returns the height of the subtree rooted at the current node. Recall our definition of height for binary trees:
-     * <ol>
-     *     <li>A null tree has a height of -1.</li>
-     *     <li>A non-null tree has a height equal to max(height(left_subtree), height(right_subtree))+1</li>
-     * </ol>
-     * @return the height of the subtree rooted at the current node.
+     * <p>Branch-and-bound nearest neighbor search under an arbitrary {@link DistanceMetric}. Like
+     * {@link #range(KDPoint, Collection, double, int, int, DistanceMetric)}, it tracks the box spanned by the current
+     * subtree, and visits a far subtree only if both the splitting hyperplane and the box of that subtree are closer
+     * than the best distance found so far. A negative best distance in {@code n} stands for infinity.</p>
+     *
+     * @param anchor The &quot;anchor&quot; {@link KDPoint} of the nearest neighbor query.
+     * @param currDim The current dimension considered.
+     * @param n The best (distance, neighbor) pair found so far, in terms of the metric.
+     * @param dims The total number of dimensions considered.
+     * @param metric The {@link DistanceMetric} to measure distances with.
+     * @return {@code n}, updated with the nearest neighbor found in the subtree rooted at this.
+     * @see #nearestNeighbor(KDPoint, int, NNData, int)
      */
-    public int height(){
-        int height = 0;
+    public NNData<KDPoint> nearestNeighbor(KDPoint anchor, int currDim, NNData<KDPoint> n, int dims,
+                                           DistanceMetric metric){
+        nearestNeighbor(anchor, currDim, n, dims, metric, unboundedBox(dims, -1), unboundedBox(dims, 1));
+        return n;
+    }
 
-        if (this == null){
-            return -1;
+    private void nearestNeighbor(KDPoint anchor, int currDim, NNData<KDPoint> n, int dims,
+                                 DistanceMetric metric, double[] lo, double[] hi){
+        if (!p.equals(anchor)){//never report the anchor itself
+            double dist = metric.distance(p, anchor);
+            if (n.getBestDist() < 0 || dist < n.getBestDist()){
+                n.update(p, dist);
+            }
         }
 
+        int d = currDim % dims;
+        boolean nearLeft = anchor.coords[d] < p.coords[d];
+        KDTreeNode near = nearLeft ? left : right;
+        KDTreeNode far = nearLeft ? right : left;
+        double[] bound = nearLeft ? hi : lo, farBound = nearLeft ? lo : hi;
+
+        if (near != null){
+            double saved = bound[d];
+            bound[d] = p.coords[d];
+            near.nearestNeighbor(anchor, currDim + 1, n, dims, metric, lo, hi);
+            bound[d] = saved;
+        }
+        if (far != null && (n.getBestDist() < 0 || metric.distanceToHyperplane(anchor, d, p.coords[d]) < n.getBestDist())){
+            double saved = farBound[d];
+            farBound[d] = p.coords[d];
+            if (n.getBestDist() < 0 || metric.distanceToBox(anchor, lo, hi) < n.getBestDist()){//the far box is closer than our best guess
+                far.nearestNeighbor(anchor, currDim + 1, n, dims, metric, lo, hi);
+            }
+            farBound[d] = saved;
+        }
+    }
 
-        if (this.left == null && this.right == null && this != null){//stub tree
-            return 0;
+    /**
+     * <p>Branch-and-bound k-nearest neighbor search under an arbitrary {@link DistanceMetric}. Like
+     * {@link #nearestNeighbor(KDPoint, int, NNData, int, DistanceMetric)}, it tracks the box spanned by the current
+     * subtree, and, once {@code queue} is full, visits a far subtree only if both the splitting hyperplane and the box
+     * of that subtree are closer than {@link BoundedPriorityQueue#lastPriority() the queue's worst neighbor}.</p>
+     *
+     * @param k The total number of neighbors to retrieve.
+     * @param anchor The &quot;anchor&quot; {@link KDPoint} of the nearest neighbor query.
+     * @param queue A {@link BoundedPriorityQueue} of capacity k that maintains the nearest neighbors found so far,
+     *              prioritized by their distance from the anchor in terms of the metric.
+     * @param currDim The current dimension considered.
+     * @param dims The total number of dimensions considered.
+     * @param metric The {@link DistanceMetric} to measure distances with.
+     * @see #kNearestNeighbors(int, KDPoint, BoundedPriorityQueue, int, int)
+     */
+    public void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue, int currDim, int dims,
+                                  DistanceMetric metric){
+        kNearestNeighbors(anchor, queue, currDim, dims, metric, unboundedBox(dims, -1), unboundedBox(dims, 1));
+    }
 
+    private void kNearestNeighbors(KDPoint anchor, BoundedPriorityQueue<KDPoint> queue, int currDim, int dims,
+                                   DistanceMetric metric, double[] lo, double[] hi){
+        if (!p.equals(anchor)){//never report the anchor itself
+            queue.enqueue(p, metric.distance(p, anchor));
         }
-        else{
-            height = heightHelp(this);
 
+        int d = currDim % dims;
+        boolean nearLeft = anchor.coords[d] < p.coords[d];
+        KDTreeNode near = nearLeft ? left : right;
+        KDTreeNode far = nearLeft ? right : left;
+        double[] bound = nearLeft ? hi : lo, farBound = nearLeft ? lo : hi;
+
+        if (near != null){
+            double saved = bound[d];
+            bound[d] = p.coords[d];
+            near.kNearestNeighbors(anchor, queue, currDim + 1, dims, metric, lo, hi);
+            bound[d] = saved;
+        }
+        if (far != null && (!queue.isFull() || metric.distanceToHyperplane(anchor, d, p.coords[d]) < queue.lastPriority())){
+            double saved = farBound[d];
+            farBound[d] = p.coords[d];
+            if (!queue.isFull() || metric.distanceToBox(anchor, lo, hi) < queue.lastPriority()){//the far box is closer than our worst neighbor
+                far.kNearestNeighbors(anchor, queue, currDim + 1, dims, metric, lo, hi);
+            }
+            farBound[d] = saved;
         }
-        this.height = height;
+    }
 
-        return height;
+    /**
+     * Returns the height of the subtree rooted at the current node. Recall our definition of height for binary trees:
+     * <ol>
+     *     <li>A null tree has a height of -1.</li>
+     *     <li>A non-null tree has a height equal to max(height(left_subtree), height(right_subtree))+1</li>
+     * </ol>
+     * @return the height of the subtree rooted at the current node.
+     */
+    public int height(){
+        return height; // Maintained by insert, delete and the builders, so this is a constant-time operation.
     }
 
+    /**
+     * Recomputes the height of the subtree rooted at {@code curr} by traversing it. Linear in the size of the subtree;
+     * {@link #height()} should be preferred.
+     * @param curr The root of the subtree, possibly null.
+     * @return The height of the subtree rooted at {@code curr}.
+     */
     public int heightHelp(KDTreeNode curr){
 
 
@@ -441,4 +1057,20 @@ public class KDTreeNode {
     public KDTreeNode getRight(){
         return this.right;
     }
+
+    /**
+     * A simple getter for the value stored with the {@link KDPoint} of this.
+     * @return The value stored with {@link #getPoint()}, or null if there is none.
+     */
+    public Object getValue(){
+        return value;
+    }
+
+    /**
+     * Replaces the value stored with the {@link KDPoint} of this.
+     * @param value The new value, or null.
+     */
+    public void setValue(Object value){
+        this.value = value;
+    }
 }
@@ -2,12 +2,16 @@ package spatial.nodes;
 
 import spatial.exceptions.UnimplementedMethodException;
 import spatial.kdpoint.KDPoint;
+import spatial.kdpoint.Point2i;
 import spatial.knnutils.BoundedPriorityQueue;
 import spatial.knnutils.NNData;
+import spatial.knnutils.QueryCost;
+import spatial.metrics.DistanceMetric;
 import spatial.trees.CentroidAccuracyException;
 import spatial.trees.PRQuadTree;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 
 
@@ -18,6 +22,12 @@ import java.util.Collection;
  *  <li><b>Once created</b>, it will contain at least one {@link KDPoint}. </li>
  * </ul>
  *
+ * <p>The {@link KDPoint}s of the bucket are stored {@link Point2i packed} into a {@code long[]}, and only turned back
+ * into {@link KDPoint}s when they are handed out, by queries or {@link #getPoints()}. The {@link KDPoint}s returned are
+ * therefore equal to, but not the same objects as, the ones that were inserted. The values that a
+ * {@link spatial.trees.PRQuadTreeMap} stores with its {@link KDPoint}s are kept in a parallel {@code Object[]}, which
+ * is only allocated once a bucket receives its first value, so buckets of a {@link PRQuadTree} carry none.</p>
+ *
  * <p><b>YOU ***** MUST ***** IMPLEMENT THIS CLASS!</b></p>
  *
  * @author --- Isaac Solomon ---
@@ -31,14 +41,24 @@ public class PRQuadBlackNode extends PRQuadNode {
      */
     public static final int DEFAULT_BUCKETSIZE = 1;
 
+    /**
+     * Buckets that hold more {@link KDPoint}s than this are indexed by a {@link PointHashIndex}, so that duplicate
+     * checks, {@link #search(KDPoint)} and {@link #delete(KDPoint)} no longer scan the bucket. The index is dropped
+     * again once the bucket shrinks to half of this, so that a bucket whose size hovers around the threshold does
+     * not rebuild it over and over.
+     */
+    static final int HASH_INDEX_THRESHOLD = 16;
+
     /* ******************************************************************** */
     /* *************  PLACE ANY  PRIVATE FIELDS AND METHODS HERE: ************ */
     /* ********************************************************************** */
-    public ArrayList<KDPoint> data;
+    long[] points; // The bucket, packed by Point2i; only the first count entries are used.
+    Object[] values; // The values of the points, index for index; null while the bucket holds no value.
     int count;
     int sideLength;
     int nodeCap;
     KDPoint centroid;
+    PointHashIndex index; // null while the bucket is small enough to scan.
 
     /* *********************************************************************** */
     /* ***************  IMPLEMENT THE FOLLOWING PUBLIC METHODS:  ************ */
@@ -56,11 +76,11 @@ public class PRQuadBlackNode extends PRQuadNode {
      */
     public PRQuadBlackNode(KDPoint centroid, int k, int bucketingParam){
         super(centroid, k, bucketingParam); // Call to the super class' protected constructor to properly initialize the object is necessary, even for a constructor that just throws!
-        sideLength = (int) Math.pow(2, k);
+        sideLength = k >= Integer.SIZE - 1 ? Integer.MAX_VALUE : 1 << k;
         count = 0;
         nodeCap = bucketingParam;
         this.centroid = centroid;
-        data = new ArrayList<>();
+        points = new long[Math.min(bucketingParam, 4)];
 
     }
 
@@ -78,8 +98,7 @@ public class PRQuadBlackNode extends PRQuadNode {
      */
     public PRQuadBlackNode(KDPoint centroid, int k, int bucketingParam, KDPoint p){
         this(centroid, k, bucketingParam); // Call to the current class' other constructor, which takes care of the base class' initialization itself.
-        data.add(p);
-        count++;
+        add(Point2i.pack(p), null);
     }
 
 
@@ -101,44 +120,92 @@ public class PRQuadBlackNode extends PRQuadNode {
      *     the subtrees through which those subplanes will be modeled will be &quot;unnecessarily&quot; tall.</li>
      * </ol>
      *
+     * <p>If p is already in the bucket, only its value is replaced.</p>
+     *
      * @param p A {@link KDPoint} to insert into the subtree rooted at the current node.
+     * @param value The value to store with p, or null.
      * @param k The side length of the quadrant spanned by the <b>current</b> {@link PRQuadGrayNode}. It will need to be updated
      *           per recursive call to help guide the input {@link KDPoint} to the appropriate subtree.
      * @return The subtree rooted at the current node, potentially adjusted after insertion.
      */
     @Override
-    public PRQuadNode insert(KDPoint p, int k) {
-        int newK = k-1;
-
+    public PRQuadNode insert(KDPoint p, Object value, int k) {
+        long key = Point2i.pack(p);
 
-        if (data.contains(p)){//duplicate, just return
+        int i = indexOf(key);
+        if (i >= 0){//duplicate, just replace its value
+            setValue(i, value);
             return this;
 
         }
 
+        if (count < nodeCap){//still fits
+            add(key, value);
+            return this;
+        }
 
-        count++;//increment first to check if we go over
-
-        if (count <= nodeCap){
-            data.add(p);
+        //need to split
+        if (k < 1){
+            throw new CentroidAccuracyException("too small k in black");
         }
+        PRQuadGrayNode gray = new PRQuadGrayNode(centroid, k, nodeCap);
+        for (int j = 0; j < count; j++){
+            gray.insert(Point2i.toKDPoint(points[j]), valueAt(j), k);
+        }
+        return gray.insert(p, value, k);
+    }
 
-        if (count > nodeCap){//need to split
-            if (k < 1){
-                throw new CentroidAccuracyException("too small k in black");
-            }
-            PRQuadGrayNode gray = new PRQuadGrayNode(centroid, k, nodeCap);
-            for (int i = 0; i<data.size(); i++){
-                gray.insert(data.get(i), k);
+    /**
+     * Appends a packed point, which must not already be in the bucket, along with its value, growing the arrays up to
+     * the bucketing parameter and building the {@link PointHashIndex} once the bucket is large enough.
+     */
+    private void add(long key, Object value){
+        if (count == points.length){
+            points = Arrays.copyOf(points, Math.min(nodeCap, 2 * count));
+            if (values != null){
+                values = Arrays.copyOf(values, points.length);
             }
-           return gray.insert(p, k);
-
-
+        }
+        points[count] = key;
+        setValue(count, value);
+        if (index != null){
+            index.add(key, count);
+        }
+        count++;
+        if (index == null && count > HASH_INDEX_THRESHOLD){
+            index = new PointHashIndex(points, count);
+        }
+    }
 
+    /**
+     * Adds every point of another {@link PRQuadBlackNode}, whose quadrant lies inside the quadrant of this, without
+     * unpacking them. Used when a {@link PRQuadGrayNode} collapses back into a {@link PRQuadBlackNode}.
+     * @param other The {@link PRQuadBlackNode} whose points to add.
+     */
+    void addAll(PRQuadBlackNode other){
+        for (int i = 0; i < other.count; i++){
+            add(other.points[i], other.valueAt(i));
         }
+    }
 
+    /**
+     * Returns the value of the i-th point of the bucket, or null if the bucket holds no values.
+     */
+    Object valueAt(int i){
+        return values == null ? null : values[i];
+    }
 
-        return this;
+    /**
+     * Stores the value of the i-th point of the bucket, allocating the array of values for the first non-null one.
+     */
+    private void setValue(int i, Object value){
+        if (values == null){
+            if (value == null){
+                return;
+            }
+            values = new Object[points.length];
+        }
+        values[i] = value;
     }
 
 
@@ -153,14 +220,37 @@ public class PRQuadBlackNode extends PRQuadNode {
      *
      * <p>If the provided {@link KDPoint} is <b>not</b> contained by this, no changes should be made to the internal
      * structure of this, which should be returned as is.</p>
+     *
+     * <p>Buckets larger than {@link #HASH_INDEX_THRESHOLD} fill the position of the deleted {@link KDPoint} with their
+     * last one, so the order of the bucket is only preserved for small buckets.</p>
      * @param p The {@link KDPoint} to delete from this.
      * @return Either this or null, depending on whether the node underflows.
      */
     @Override
     public PRQuadNode delete(KDPoint p) {
-        if (data.contains(p)){
-            data.remove(p);
+        long key = Point2i.pack(p);
+        int i = index != null ? index.remove(key) : indexOf(key);
+        if (i >= 0){
             count--;
+            if (index != null && i != count){ // Fill the hole with the last point, so that no other position changes.
+                points[i] = points[count];
+                index.move(points[i], i);
+                if (values != null){
+                    values[i] = values[count];
+                }
+            }
+            else {
+                System.arraycopy(points, i + 1, points, i, count - i);
+                if (values != null){
+                    System.arraycopy(values, i + 1, values, i, count - i);
+                }
+            }
+            if (values != null){
+                values[count] = null; // Let the value be collected.
+            }
+            if (index != null && count <= HASH_INDEX_THRESHOLD / 2){
+                index = null;
+            }
             if (count >= 1){
                 return this;
             }
@@ -175,14 +265,34 @@ public class PRQuadBlackNode extends PRQuadNode {
     }
 
     @Override
-    public boolean search(KDPoint p){
-        boolean found = false;
-
-        if (data.contains(p)){
-            found = true;
+    public boolean search(KDPoint p, QueryCost cost){
+        if (cost != null){
+            cost.visit();
         }
+        return indexOf(Point2i.pack(p)) >= 0;
+    }
+
+    @Override
+    public Object getValue(KDPoint p){
+        int i = indexOf(Point2i.pack(p));
+        return i < 0 ? null : valueAt(i);
+    }
 
-        return found;
+    /**
+     * Finds a packed point in the bucket, through the {@link PointHashIndex} if the bucket has one.
+     * @param key The packed point to look for.
+     * @return The position of {@code key} in the bucket, or -1 if it is not in the bucket.
+     */
+    private int indexOf(long key){
+        if (index != null){
+            return index.indexOf(key);
+        }
+        for (int i = 0; i < count; i++){
+            if (points[i] == key){
+                return i;
+            }
+        }
+        return -1;
     }
 
     @Override
@@ -205,19 +315,27 @@ public class PRQuadBlackNode extends PRQuadNode {
      *
      * @return A {@link Collection} that contains all the {@link KDPoint}s that are contained by the node. It is
      * guaranteed, by the invariants, that the {@link Collection} will not be empty, and it will also <b>not</b> be
-     * a null reference.
+     * a null reference. The {@link KDPoint}s are unpacked into fresh objects on every call.
      */
     public Collection<KDPoint> getPoints()  {
-        return data;
+        ArrayList<KDPoint> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            result.add(Point2i.toKDPoint(points[i]));
+        }
+        return result;
     }
 
     @Override
-    public void range(KDPoint anchor, Collection<KDPoint> results,
-                      double range) {
-
-        for (int i = 0; i< data.size(); i++){
-            if (data.get(i).euclideanDistance(anchor) <= range){//within range, inclusive
-                results.add(data.get(i));
+    void range(KDPoint anchor, Collection<KDPoint> results, Collection<Object> resultValues, double range, int edges) {
+
+        long rangeSq = KDPoint.squaredRangeBound(range);
+        int x = anchor.coords[0], y = anchor.coords[1];
+        for (int i = 0; i < count; i++){
+            if (Point2i.squaredDistance(points[i], x, y) <= rangeSq){//within range, inclusive
+                results.add(Point2i.toKDPoint(points[i]));
+                if (resultValues != null){
+                    resultValues.add(valueAt(i));
+                }
 
             }
         }
@@ -232,34 +350,38 @@ public class PRQuadBlackNode extends PRQuadNode {
 
 
     @Override
-    public NNData<KDPoint> nearestNeighbor(KDPoint anchor, NNData<KDPoint> n) {
+    NNData<KDPoint> nearestNeighbor(KDPoint anchor, NNData<KDPoint> n, int edges) {
 
 
-        for (int i = 0; i <data.size(); i++){
-            if ((data.get(i).coords[0] != anchor.coords[0] && data.get(i).coords[1] != anchor.coords[1]) ||
-                    (data.get(i).coords[0] != anchor.coords[0] && data.get(i).coords[1] == anchor.coords[1]) ||
-                    (data.get(i).coords[0] == anchor.coords[0] && data.get(i).coords[1] != anchor.coords[1]))  {
-                if (data.get(i).euclideanDistance(anchor) < n.getBestDist()) {
-                    n.update(data.get(i), data.get(i).euclideanDistance(anchor));
-                }
+        long best = bestSquaredDistance(n, anchor);
+        int x = anchor.coords[0], y = anchor.coords[1], bestIndex = -1;
+        for (int i = 0; i < count; i++){
+            long sq = Point2i.squaredDistance(points[i], x, y);
+            if (sq != 0 && (best < 0 || sq < best)) {//never report the anchor itself
+                bestIndex = i;
+                best = sq;
             }
 
         }
+        if (bestIndex >= 0){ // Only unpack the winner.
+            KDPoint p = Point2i.toKDPoint(points[bestIndex]);
+            n.update(p, p.euclideanDistance(anchor));
+        }
 
         return n;
     }
 
     @Override
-    public void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue){
+    void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue, int edges){
 
 
 
-        for (int i = 0; i <data.size(); i++){
-            double distance = data.get(i).euclideanDistance(anchor);
-            if ((data.get(i).coords[0] != anchor.coords[0] && data.get(i).coords[1] != anchor.coords[1]) ||
-                    (data.get(i).coords[0] != anchor.coords[0] && data.get(i).coords[1] == anchor.coords[1]) ||
-                    (data.get(i).coords[0] == anchor.coords[0] && data.get(i).coords[1] != anchor.coords[1])) {
-                queue.enqueue(data.get(i), distance);
+        int x = anchor.coords[0], y = anchor.coords[1];
+        for (int i = 0; i < count; i++){
+            long sq = Point2i.squaredDistance(points[i], x, y);
+            if (sq != 0 && (!queue.isFull() || sq < queue.last().squaredDistance(anchor))) {//never report the anchor itself
+                KDPoint p = Point2i.toKDPoint(points[i]);
+                queue.enqueue(p, p.euclideanDistance(anchor));
             }
 
         }
@@ -268,5 +390,59 @@ public class PRQuadBlackNode extends PRQuadNode {
 
 
 
+    }
+
+    @Override
+    void range(KDPoint anchor, Collection<KDPoint> results, double range, DistanceMetric metric, int edges){
+        KDPoint scratch = new KDPoint(0, 0); // Reused to measure every point; only the results are unpacked.
+        for (int i = 0; i < count; i++){
+            if (metric.distance(unpack(points[i], scratch), anchor) <= range){//within range, inclusive, like the Euclidean range query
+                results.add(Point2i.toKDPoint(points[i]));
+            }
+        }
+    }
+
+    @Override
+    NNData<KDPoint> nearestNeighbor(KDPoint anchor, NNData<KDPoint> n, DistanceMetric metric, int edges){
+        long anchorKey = Point2i.pack(anchor);
+        KDPoint scratch = new KDPoint(0, 0);
+        double best = n.getBestDist();
+        int bestIndex = -1;
+        for (int i = 0; i < count; i++){
+            if (points[i] != anchorKey){//never report the anchor itself
+                double dist = metric.distance(unpack(points[i], scratch), anchor);
+                if (best < 0 || dist < best){
+                    bestIndex = i;
+                    best = dist;
+                }
+            }
+        }
+        if (bestIndex >= 0){
+            n.update(Point2i.toKDPoint(points[bestIndex]), best);
+        }
+        return n;
+    }
+
+    @Override
+    void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue, DistanceMetric metric, int edges){
+        long anchorKey = Point2i.pack(anchor);
+        KDPoint scratch = new KDPoint(0, 0);
+        for (int i = 0; i < count; i++){
+            if (points[i] != anchorKey){//never report the anchor itself
+                double dist = metric.distance(unpack(points[i], scratch), anchor);
+                if (!queue.isFull() || dist < queue.lastPriority()){ // A tie with the last neighbor would be dropped anyway.
+                    queue.enqueue(Point2i.toKDPoint(points[i]), dist);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the coordinates of a packed point into a scratch {@link KDPoint}, which is returned for convenience.
+     */
+    private static KDPoint unpack(long key, KDPoint scratch){
+        scratch.coords[0] = Point2i.x(key);
+        scratch.coords[1] = Point2i.y(key);
+        return scratch;
     }
 }
@@ -5,10 +5,11 @@ import spatial.exceptions.UnimplementedMethodException;
 import spatial.kdpoint.KDPoint;
 import spatial.knnutils.BoundedPriorityQueue;
 import spatial.knnutils.NNData;
+import spatial.knnutils.QueryCost;
+import spatial.metrics.DistanceMetric;
 import spatial.trees.CentroidAccuracyException;
 import spatial.trees.PRQuadTree;
 
-import java.util.ArrayList;
 import java.util.Collection;
 
 
@@ -32,11 +33,13 @@ public class PRQuadGrayNode extends PRQuadNode{
     /* *************  PLACE ANY  PRIVATE FIELDS AND METHODS HERE: ************ */
     /* ********************************************************************** */
 
-    PRQuadNode childOne;
-    PRQuadNode childTwo;
-    PRQuadNode childThree;
-    PRQuadNode childFour;
+    /**
+     * The children, in Z (Morton) order: NW, NE, SW, SE. The index of the child that a {@link KDPoint} belongs to is
+     * computed by {@link #quadrant(KDPoint)}.
+     */
+    final PRQuadNode[] children;
     int nodeCap;
+    int count; // The number of KDPoints in the subtree rooted at this, kept up to date by insert and delete.
 
     /* *********************************************************************** */
     /* ***************  IMPLEMENT THE FOLLOWING PUBLIC METHODS:  ************ */
@@ -52,11 +55,9 @@ public class PRQuadGrayNode extends PRQuadNode{
      */
     public PRQuadGrayNode(KDPoint centroid, int k, int bucketingParam){
         super(centroid, k, bucketingParam); // Call to the super class' protected constructor to properly initialize the object!
-        childOne = null;
-        childTwo = null;
-        childThree = null;
-        childFour = null;
+        children = new PRQuadNode[4];
         nodeCap = bucketingParam;
+        count = 0;
 
     }
 
@@ -65,99 +66,31 @@ public class PRQuadGrayNode extends PRQuadNode{
      * <p>Insertion into a {@link PRQuadGrayNode} consists of navigating to the appropriate child
      * and recursively inserting elements into it. If the child is a white node, memory should be allocated for a
      * {@link PRQuadBlackNode} which will contain the provided {@link KDPoint} If it's a {@link PRQuadBlackNode},
-     * refer to {@link PRQuadBlackNode#insert(KDPoint, int)} for details on how the insertion is performed. If it's a {@link PRQuadGrayNode},
+     * refer to {@link PRQuadBlackNode#insert(KDPoint, Object, int)} for details on how the insertion is performed. If it's a {@link PRQuadGrayNode},
      * the current method would be called recursively. Polymorphism will allow for the appropriate insert to be called
      * based on the child object's runtime object.</p>
+     *
+     * <p>The centroid of a child is only computed when the child is allocated. The count of the subtree is updated by
+     * the change in the count of the child, so that it is also correct when p was already in the child.</p>
      * @param p A {@link KDPoint} to insert into the subtree rooted at the current {@link PRQuadGrayNode}.
+     * @param value The value to store with p, or null.
      * @param k The side length of the quadrant spanned by the <b>current</b> {@link PRQuadGrayNode}. It will need to be updated
      *          per recursive call to help guide the input {@link KDPoint}  to the appropriate subtree.
      * @return The subtree rooted at the current node, potentially adjusted after insertion.
-     * @see PRQuadBlackNode#insert(KDPoint, int)
+     * @see PRQuadBlackNode#insert(KDPoint, Object, int)
      */
     @Override
-    public PRQuadNode insert(KDPoint p, int k) {
-        KDPoint newCentroid = new KDPoint();
-        int newK = k-1;
-
-
-
-        if (p.coords[0] >= centroid.coords[0] && p.coords[1] >= centroid.coords[1]){//both greater, NE quadrant, child 2
-
-
-            newCentroid.coords[0] = (int) (centroid.coords[0] + Math.pow(2, k-2));
-            newCentroid.coords[1] = (int) (centroid.coords[1] + Math.pow(2, k-2));
-
-
-            if (childTwo == null){//white node, allocate new
-
-                childTwo = new PRQuadBlackNode(newCentroid, newK, nodeCap);
-                childTwo = childTwo.insert(p, newK);
-
-            }
-            else {//black or grey node, insert
-                childTwo = childTwo.insert(p, newK);
-            }
-
-
-
-        }
-        else if (p.coords[0] >= centroid.coords[0] && p.coords[1] < centroid.coords[1]){//x greater, y less, SE quadrant, child 4
-
-            newCentroid.coords[0] = (int) (centroid.coords[0] + Math.pow(2, k-2));
-            newCentroid.coords[1] = (int) (centroid.coords[1] - Math.pow(2, k-2));
-
-            if (childFour == null){//white node, allocate new
-
-                childFour = new PRQuadBlackNode(newCentroid, newK, nodeCap);
-               childFour = childFour.insert(p, newK);
-
-            }
-            else {//black or grey node, insert
-                childFour = childFour.insert(p, newK);
-            }
-
+    public PRQuadNode insert(KDPoint p, Object value, int k) {
+        int quadrant = quadrant(p);
+        PRQuadNode child = children[quadrant];
+        int before = countOf(child);
 
+        if (child == null){//white node, allocate new
+            child = new PRQuadBlackNode(childCentroid(quadrant, k), k - 1, nodeCap);
         }
-        else if (p.coords[0] < centroid.coords[0] && p.coords[1] >= centroid.coords[1]){//x less, y greater, NW quadrant, child 1
-
-
-            newCentroid.coords[0] = (int) (centroid.coords[0] - Math.pow(2, k-2));
-            newCentroid.coords[1] = (int) (centroid.coords[1] + Math.pow(2, k-2));
-
-            if (childOne == null){//white node, allocate new
-
-                childOne = new PRQuadBlackNode(newCentroid, newK, nodeCap);
-                childOne = childOne.insert(p, newK);
-
-            }
-            else {//black or grey node, insert
-                childOne = childOne.insert(p, newK);
-            }
-
-
-
-        }
-        else if (p.coords[0] < centroid.coords[0] && p.coords[1] < centroid.coords[1]){//both less, SW quadrant, child 3
-
-            newCentroid.coords[0] = (int) (centroid.coords[0] - Math.pow(2, k-2));
-            newCentroid.coords[1] = (int) (centroid.coords[1] - Math.pow(2, k-2));
-
-            if (childThree == null){//white node, allocate new
-
-                childThree = new PRQuadBlackNode(newCentroid, newK, nodeCap);
-                childThree = childThree.insert(p, newK);
-
-            }
-            else {//black or grey node, insert
-                childThree = childThree.insert(p, newK);
-            }
-
-        }
-
-
-
-
+        children[quadrant] = child.insert(p, value, k - 1);//black or grey node, insert
 
+        count += children[quadrant].count() - before;
 
         return this;
     }
@@ -181,59 +114,36 @@ public class PRQuadGrayNode extends PRQuadNode{
      *     {@link PRQuadBlackNode} over the {@link KDPoint}s contained by the black children.</li>
      *  </ol>
      *
+     * <p>Both conditions are checked against the count cached in the current node, so deletion only touches the nodes
+     * on the path to p.</p>
+     *
      * @param p A {@link KDPoint} to delete from the tree rooted at the current node.
      * @return The subtree rooted at the current node, potentially adjusted after deletion.
      */
     @Override
     public PRQuadNode delete(KDPoint p) {
 
-        if (search(p) == false){//not in any of children
+        int quadrant = quadrant(p);
+        PRQuadNode target = children[quadrant];
+        if (target == null){//white child, p is not in the subtree
             return this;
         }
+        int before = target.count();
 
-        if (p.coords[0] >= centroid.coords[0] && p.coords[1] >= centroid.coords[1]){//both greater, NE quadrant, child 2
-            childTwo = childTwo.delete(p);
-
-        }
-
-        else if (p.coords[0] >= centroid.coords[0] && p.coords[1] < centroid.coords[1]){//x greater, y less, SE quadrant, child 4
-            childFour = childFour.delete(p);
-
-        }
-
-        else if (p.coords[0] < centroid.coords[0] && p.coords[1] >= centroid.coords[1]){//x less, y greater, NW quadrant, child 1
-            childOne = childOne.delete(p);
-        }
-
-        else if (p.coords[0] < centroid.coords[0] && p.coords[1] < centroid.coords[1]){//both less, SW quadrant, child 3
-            childThree = childThree.delete(p);
+        children[quadrant] = target.delete(p);
 
+        if (countOf(children[quadrant]) == before){//p was not in the child, nothing changed
+            return this;
         }
+        count--;
 
-        if (count() <= bucketingParam){//can collapse grey into a black node
+        if (count <= bucketingParam){//can collapse grey into a black node
             PRQuadBlackNode black = new PRQuadBlackNode(centroid, k, nodeCap);
 
-            ArrayList<KDPoint> stuff = new ArrayList<>();
-
-            if (childOne != null && childOne.height() == 0){
-                PRQuadBlackNode blackOne = (PRQuadBlackNode) childOne;
-                stuff.addAll(blackOne.data);
-            }
-            if (childTwo != null && childTwo.height() == 0){
-                PRQuadBlackNode blackTwo = (PRQuadBlackNode) childTwo;
-                stuff.addAll(blackTwo.data);
-            }
-            if (childThree != null && childThree.height() == 0){
-                PRQuadBlackNode blackThree = (PRQuadBlackNode) childThree;
-                stuff.addAll(blackThree.data);
-            }
-            if (childFour != null && childFour.height() == 0){
-                PRQuadBlackNode blackFour = (PRQuadBlackNode) childFour;
-                stuff.addAll(blackFour.data);
-            }
-
-            for (int i = 0; i<stuff.size(); i++){
-                black.insert(stuff.get(i), k);
+            for (PRQuadNode child : children){
+                if (child != null){ // Every child is black, since the subtree holds no more than a bucket's worth.
+                    black.addAll((PRQuadBlackNode) child);
+                }
             }
 
 
@@ -254,86 +164,90 @@ public class PRQuadGrayNode extends PRQuadNode{
 
 
 
+    /**
+     * Searches for a {@link KDPoint} by descending only into the child whose quadrant contains it, which is the only
+     * one {@link #insert(KDPoint, int)} could have put it in. A lookup therefore takes time proportional to the depth of
+     * the tree, plus the size of a single bucket.
+     * @param p The {@link KDPoint} to search for.
+     * @param cost A {@link QueryCost} that accumulates the number of nodes visited, or {@code null}.
+     * @return true if p was found in the subtree rooted at the current node, false otherwise.
+     */
     @Override
-    public boolean search(KDPoint p){
-        boolean found = false;
-
-        if (childOne != null){
-            if (childOne.search(p) == true){
-                found = true;
-            }
-        }
-
-        if (childTwo != null){
-            if (childTwo.search(p) == true){
-                found = true;
-            }
-        }
-
-        if (childThree != null){
-            if (childThree.search(p) == true){
-                found = true;
-            }
+    public boolean search(KDPoint p, QueryCost cost){
+        if (cost != null){
+            cost.visit();
         }
+        PRQuadNode child = children[quadrant(p)];
+        return child != null && child.search(p, cost);
+    }
 
-        if (childFour != null){
-            if (childFour.search(p) == true){
-                found = true;
-            }
-        }
+    /**
+     * Looks up the value of a {@link KDPoint} in the single child whose quadrant contains it, like
+     * {@link #search(KDPoint, QueryCost)}.
+     */
+    @Override
+    public Object getValue(KDPoint p){
+        PRQuadNode child = children[quadrant(p)];
+        return child == null ? null : child.getValue(p);
+    }
 
+    /**
+     * Returns the index of the child whose quadrant contains p, in the order of {@link #children}: bit 0 is set iff p
+     * lies east of the centroid, and bit 1 iff it lies south of it. A {@link KDPoint} that lies on a side of a quadrant
+     * belongs to the quadrant above or to the right of it. The differences are taken in {@code long} arithmetic, so they
+     * cannot overflow, and their sign bits give the index without any branches.
+     * @param p A {@link KDPoint} in the quadrant spanned by this.
+     * @return The index of the child that p belongs to, between 0 and 3.
+     */
+    int quadrant(KDPoint p){
+        int east = (int) (((long) p.coords[0] - centroid.coords[0]) >>> 63) ^ 1;
+        int south = (int) (((long) p.coords[1] - centroid.coords[1]) >>> 63);
+        return east | south << 1;
+    }
 
+    /**
+     * Computes the centroid of a child, which lies a quarter of the side of the current quadrant, 2<sup>k-2</sup>, away
+     * from the centroid of this along both axes, and is computed with a shift. When k=1, the children span a single
+     * cell each, so the centroids of the eastern and northern halves stay on the centroid of this, and those of the
+     * western and southern halves move one unit away. The coordinates saturate at the bounds of {@code int}.
+     * @param quadrant The index of the child, as given by {@link #quadrant(KDPoint)}.
+     * @param k The exponent of the side of the quadrant spanned by this.
+     * @return A new {@link KDPoint} for the centroid of the child.
+     */
+    private KDPoint childCentroid(int quadrant, int k){
+        long quarter = k < 2 ? 0 : 1L << Math.min(k - 2, Integer.SIZE);
+        long below = k < 2 ? 1 : quarter; // The offset towards the smaller coordinates.
+        long x = centroid.coords[0] + ((quadrant & 1) != 0 ? quarter : -below);
+        long y = centroid.coords[1] + ((quadrant & 2) != 0 ? -below : quarter);
+        return new KDPoint(saturate(x), saturate(y));
+    }
 
-        return found;
+    private static int saturate(long v){
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, v));
     }
 
     @Override
     public int height(){
-        int oneHeight;
-        int twoHeight;
-        int threeHeight;
-        int fourHeight;
-
-        oneHeight = childOne != null ? childOne.height() : -1;
-        twoHeight = childTwo != null ? childTwo.height() : -1;
-        threeHeight = childThree != null ? childThree.height() : -1;
-        fourHeight = childFour != null ? childFour.height() : -1;
-
-
-        int firstPair = Math.max(oneHeight, twoHeight);
-        int secondPair = Math.max(threeHeight, fourHeight);
-
-
-        return 1 + Math.max(firstPair, secondPair);
+        int height = -1;
+        for (PRQuadNode child : children){
+            if (child != null){
+                height = Math.max(height, child.height());
+            }
+        }
+        return 1 + height;
     }
 
+    /**
+     * Returns the number of {@link KDPoint}s in the subtree rooted at this, which is cached rather than recounted.
+     * @return The number of {@link KDPoint}s in the subtree rooted at this.
+     */
     @Override
     public int count(){
-        int total = 0;
-        int one = 0;
-        int two = 0;
-        int three = 0;
-        int four = 0;
-
-        if (childOne != null){
-            one = childOne.count();
-
-        }
-        if (childTwo != null){
-            two = childTwo.count();
-        }
-        if (childThree != null){
-            three = childThree.count();
-        }
-        if (childFour != null){
-            four = childFour.count();
-        }
-
-
-
-        total += one + two + three + four;
+        return count;
+    }
 
-        return total;
+    private static int countOf(PRQuadNode node){
+        return node == null ? 0 : node.count();
     }
 
     /**
@@ -347,295 +261,177 @@ public class PRQuadGrayNode extends PRQuadNode{
      * </ol>
      */
     public PRQuadNode[] getChildren(){
-        PRQuadNode[] array = new PRQuadNode[4];
-
-        array[0] = childOne;
-        array[1] = childTwo;
-        array[2] = childThree;
-        array[3] = childFour;
-
-
-        return array;
+        return children.clone();
     }
 
 
 
     @Override
-    public void range(KDPoint anchor, Collection<KDPoint> results,
-                      double range) {
-
-    ArrayList<Double> quadDistances = new ArrayList<>();
+    void range(KDPoint anchor, Collection<KDPoint> results, Collection<Object> resultValues, double range, int edges) {
 
-    double oneDistance = childOne != null ? childOne.centroid.euclideanDistance(anchor) : 0;
-    double twoDistance = childTwo != null ? childTwo.centroid.euclideanDistance(anchor) : 0;
-    double threeDistance = childThree != null ? childThree.centroid.euclideanDistance(anchor) : 0;
-    double fourDistance = childFour != null ? childFour.centroid.euclideanDistance(anchor) : 0;
-
-    quadDistances.add(oneDistance);
-    quadDistances.add(twoDistance);
-    quadDistances.add(threeDistance);
-    quadDistances.add(fourDistance);
-
-    double min = 500;
-    for (int i = 0; i<quadDistances.size(); i++){
-        if (quadDistances.get(i) < min ){
-            min = quadDistances.get(i);
-        }
-    }
-
-    if (min == oneDistance ){//anchor closest to NW, child 1
-        if (childOne != null && childOne.doesQuadIntersectAnchorRange(anchor, range)) {
-            childOne.range(anchor, results, range);
-        }
-        if (childTwo != null && childTwo.doesQuadIntersectAnchorRange(anchor, range)) {
-            childTwo.range(anchor, results, range);
-        }
-        if (childThree != null && childThree.doesQuadIntersectAnchorRange(anchor, range)) {
-            childThree.range(anchor, results, range);
+        int first = closestChild(anchor);
+        if (first < 0){
+            return;
         }
-        if (childFour != null && childFour.doesQuadIntersectAnchorRange(anchor, range)) {
-            childFour.range(anchor, results, range);
-        }
-
-    }
-    else if (min == twoDistance){//closest to NE, child 2
-        if (childTwo != null && childTwo.doesQuadIntersectAnchorRange(anchor, range)) {
-            childTwo.range(anchor, results, range);
-        }
-        if (childOne != null && childOne.doesQuadIntersectAnchorRange(anchor, range)) {
-            childOne.range(anchor, results, range);
-        }
-        if (childThree != null && childThree.doesQuadIntersectAnchorRange(anchor, range)) {
-            childThree.range(anchor, results, range);
-        }
-        if (childFour != null && childFour.doesQuadIntersectAnchorRange(anchor, range)) {
-            childFour.range(anchor, results, range);
+        visitRange(first, anchor, results, resultValues, range, edges);
+        for (int i = 0; i < children.length; i++){
+            if (i != first){
+                visitRange(i, anchor, results, resultValues, range, edges);
+            }
         }
     }
-    else if (min == threeDistance){//closest to SW, child 3
-        if (childThree != null && childThree.doesQuadIntersectAnchorRange(anchor, range)) {
-            childThree.range(anchor, results, range);
-        }
-        if (childOne != null && childOne.doesQuadIntersectAnchorRange(anchor, range)) {
-            childOne.range(anchor, results, range);
-        }
-        if (childTwo != null && childTwo.doesQuadIntersectAnchorRange(anchor, range)) {
-            childTwo.range(anchor, results, range);
-        }
-        if (childFour != null && childFour.doesQuadIntersectAnchorRange(anchor, range)) {
-            childFour.range(anchor, results, range);
-        }
 
-
-    }
-    else if (min == fourDistance){//closest to SE, child 4
-        if (childFour != null && childFour.doesQuadIntersectAnchorRange(anchor, range)) {
-            childFour.range(anchor, results, range);
-        }
-        if (childOne != null && childOne.doesQuadIntersectAnchorRange(anchor, range)) {
-            childOne.range(anchor, results, range);
+    private void visitRange(int quadrant, KDPoint anchor, Collection<KDPoint> results, Collection<Object> resultValues,
+                            double range, int edges){
+        PRQuadNode child = children[quadrant];
+        int childEdges = childEdges(edges, quadrant);
+        if (child != null && child.doesQuadIntersectAnchorRange(anchor, range, childEdges)){
+            child.range(anchor, results, resultValues, range, childEdges);
         }
-        if (childTwo != null && childTwo.doesQuadIntersectAnchorRange(anchor, range)) {
-            childTwo.range(anchor, results, range);
-        }
-        if (childThree != null && childThree.doesQuadIntersectAnchorRange(anchor, range)) {
-            childThree.range(anchor, results, range);
-        }
-
-
     }
 
-
-
-
-
+    /**
+     * Returns the index of the child whose centroid is closest to the anchor, which Euclidean range queries visit first,
+     * before the other children in order. Ties go to the child that comes first.
+     * @return The index of the closest child, or -1 if this has no children.
+     */
+    private int closestChild(KDPoint anchor){
+        // Squared distances order the children just like distances do.
+        int closest = -1;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < children.length; i++){
+            if (children[i] != null){
+                long dist = children[i].centroid.squaredDistance(anchor);
+                if (closest < 0 || dist < min){
+                    closest = i;
+                    min = dist;
+                }
+            }
+        }
+        return closest;
     }
 
-
+    /**
+     * Orders the children of this by increasing {@link #squaredDistanceToQuadrant(KDPoint, int) squared distance} of
+     * their quadrants from the anchor, like {@link #childrenByDistance(KDPoint, DistanceMetric, int, double[], int[])}
+     * does for metrics.
+     * @return The children, closest first, followed by nulls for the missing ones; their squared distances are written
+     * into {@code distances}, and the {@link #OUTER_EDGES outer sides} that they hold into {@code childEdges}.
+     */
+    private PRQuadNode[] childrenBySquaredDistance(KDPoint anchor, int edges, long[] distances, int[] childEdges){
+        PRQuadNode[] sorted = new PRQuadNode[4];
+        int n = 0;
+        for (int quadrant = 0; quadrant < children.length; quadrant++){
+            PRQuadNode child = children[quadrant];
+            if (child == null){
+                continue;
+            }
+            int sides = childEdges(edges, quadrant);
+            long dist = child.squaredDistanceToQuadrant(anchor, sides);
+            int j = n++;
+            for (; j > 0 && distances[j - 1] > dist; j--){ // Insertion sort: stable, so ties keep the child order.
+                sorted[j] = sorted[j - 1];
+                distances[j] = distances[j - 1];
+                childEdges[j] = childEdges[j - 1];
+            }
+            sorted[j] = child;
+            distances[j] = dist;
+            childEdges[j] = sides;
+        }
+        return sorted;
+    }
 
     @Override
-    public NNData<KDPoint> nearestNeighbor(KDPoint anchor, NNData<KDPoint> n)  {
-
-
-        ArrayList<Double> quadDistances = new ArrayList<>();
-
-        double oneDistance = childOne != null ? childOne.centroid.euclideanDistance(anchor) : 10000;
-        double twoDistance = childTwo != null ? childTwo.centroid.euclideanDistance(anchor) : 10000;
-        double threeDistance = childThree != null ? childThree.centroid.euclideanDistance(anchor) : 10000;
-        double fourDistance = childFour != null ? childFour.centroid.euclideanDistance(anchor) : 10000;
-
-        quadDistances.add(oneDistance);
-        quadDistances.add(twoDistance);
-        quadDistances.add(threeDistance);
-        quadDistances.add(fourDistance);
-
-        double min = 500;
-        for (int i = 0; i<quadDistances.size(); i++){
-            if (quadDistances.get(i) < min ){
-                min = quadDistances.get(i);
+    NNData<KDPoint> nearestNeighbor(KDPoint anchor, NNData<KDPoint> n, int edges){
+        long[] distances = new long[4];
+        int[] childEdges = new int[4];
+        PRQuadNode[] children = childrenBySquaredDistance(anchor, edges, distances, childEdges);
+        for (int i = 0; i < 4 && children[i] != null; i++){
+            long best = bestSquaredDistance(n, anchor);
+            if (best >= 0 && distances[i] >= best){
+                break; // Farther quadrants cannot hold anything closer either.
             }
+            children[i].nearestNeighbor(anchor, n, childEdges[i]);
         }
+        return n;
+    }
 
-        if (min == oneDistance){//anchor closest to NW, child 1
-            if (childOne != null){
-                childOne.nearestNeighbor(anchor, n);
-            }
-            if (childTwo != null ) {
-                childTwo.nearestNeighbor(anchor, n);
-            }
-            if (childThree != null ) {
-                childThree.nearestNeighbor(anchor, n);
-            }
-            if (childFour != null ) {
-                childFour.nearestNeighbor(anchor, n);
+    @Override
+    void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue, int edges){
+        long[] distances = new long[4];
+        int[] childEdges = new int[4];
+        PRQuadNode[] children = childrenBySquaredDistance(anchor, edges, distances, childEdges);
+        for (int i = 0; i < 4 && children[i] != null; i++){
+            if (queue.isFull() && distances[i] >= queue.last().squaredDistance(anchor)){
+                break; // Farther quadrants cannot hold anything closer either.
             }
-
+            children[i].kNearestNeighbors(k, anchor, queue, childEdges[i]);
         }
-        else if (min == twoDistance){//NE, child 2
-            if (childTwo != null){
-                childTwo.nearestNeighbor(anchor, n);
-            }
-            if (childOne != null){
-                childOne.nearestNeighbor(anchor, n);
-            }
-            if (childThree != null ) {
-                childThree.nearestNeighbor(anchor, n);
-            }
-            if (childFour != null ) {
-                childFour.nearestNeighbor(anchor, n);
-            }
+    }
 
+    /**
+     * Orders the children of this by increasing distance of their quadrants from the anchor, according to the metric.
+     * @return The children, closest first, followed by nulls for the missing ones; their distances are written into
+     * {@code distances}, and the {@link #OUTER_EDGES outer sides} that they hold into {@code childEdges}.
+     */
+    private PRQuadNode[] childrenByDistance(KDPoint anchor, DistanceMetric metric, int edges, double[] distances,
+                                            int[] childEdges){
+        PRQuadNode[] sorted = new PRQuadNode[4];
+        int n = 0;
+        for (int quadrant = 0; quadrant < children.length; quadrant++){
+            PRQuadNode child = children[quadrant];
+            if (child == null){
+                continue;
+            }
+            int sides = childEdges(edges, quadrant);
+            double dist = child.distanceToQuadrant(anchor, metric, sides);
+            int j = n++;
+            for (; j > 0 && distances[j - 1] > dist; j--){ // Insertion sort: stable, so ties keep the child order.
+                sorted[j] = sorted[j - 1];
+                distances[j] = distances[j - 1];
+                childEdges[j] = childEdges[j - 1];
+            }
+            sorted[j] = child;
+            distances[j] = dist;
+            childEdges[j] = sides;
+        }
+        return sorted;
+    }
 
+    @Override
+    void range(KDPoint anchor, Collection<KDPoint> results, double range, DistanceMetric metric, int edges){
+        double[] distances = new double[4];
+        int[] childEdges = new int[4];
+        PRQuadNode[] children = childrenByDistance(anchor, metric, edges, distances, childEdges);
+        for (int i = 0; i < 4 && children[i] != null && distances[i] <= range; i++){
+            children[i].range(anchor, results, range, metric, childEdges[i]);
         }
-        else if (min == threeDistance){
-            if (childThree != null ) {
-                childThree.nearestNeighbor(anchor, n);
-            }
-            if (childOne != null){
-                childOne.nearestNeighbor(anchor, n);
-            }
-            if (childTwo != null ) {
-                childTwo.nearestNeighbor(anchor, n);
-            }
-            if (childFour != null ) {
-                childFour.nearestNeighbor(anchor, n);
-            }
+    }
 
-        }
-        else if (min == fourDistance){
-            if (childFour != null ) {
-                childFour.nearestNeighbor(anchor, n);
-            }
-            if (childOne != null){
-                childOne.nearestNeighbor(anchor, n);
-            }
-            if (childTwo != null ) {
-                childTwo.nearestNeighbor(anchor, n);
-            }
-            if (childThree != null ) {
-                childThree.nearestNeighbor(anchor, n);
+    @Override
+    NNData<KDPoint> nearestNeighbor(KDPoint anchor, NNData<KDPoint> n, DistanceMetric metric, int edges){
+        double[] distances = new double[4];
+        int[] childEdges = new int[4];
+        PRQuadNode[] children = childrenByDistance(anchor, metric, edges, distances, childEdges);
+        for (int i = 0; i < 4 && children[i] != null; i++){
+            if (n.getBestDist() >= 0 && distances[i] >= n.getBestDist()){
+                break; // Farther quadrants cannot hold anything closer either.
             }
+            children[i].nearestNeighbor(anchor, n, metric, childEdges[i]);
         }
-
-
-
-
-
-
-
         return n;
     }
 
     @Override
-    public void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue) {
-        //queue = new BoundedPriorityQueue<>(k);
-
-        ArrayList<Double> quadDistances = new ArrayList<>();
-
-        double oneDistance = childOne != null ? childOne.centroid.euclideanDistance(anchor) : 10000;
-        double twoDistance = childTwo != null ? childTwo.centroid.euclideanDistance(anchor) : 10000;
-        double threeDistance = childThree != null ? childThree.centroid.euclideanDistance(anchor) : 10000;
-        double fourDistance = childFour != null ? childFour.centroid.euclideanDistance(anchor) : 10000;
-
-        quadDistances.add(oneDistance);
-        quadDistances.add(twoDistance);
-        quadDistances.add(threeDistance);
-        quadDistances.add(fourDistance);
-
-        double min = 500;
-        for (int i = 0; i<quadDistances.size(); i++){
-            if (quadDistances.get(i) < min ){
-                min = quadDistances.get(i);
+    void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue, DistanceMetric metric, int edges){
+        double[] distances = new double[4];
+        int[] childEdges = new int[4];
+        PRQuadNode[] children = childrenByDistance(anchor, metric, edges, distances, childEdges);
+        for (int i = 0; i < 4 && children[i] != null; i++){
+            if (queue.isFull() && distances[i] >= queue.lastPriority()){
+                break; // Farther quadrants cannot hold anything closer either.
             }
+            children[i].kNearestNeighbors(k, anchor, queue, metric, childEdges[i]);
         }
-
-        if (min == oneDistance){//anchor closest to NW, child 1
-            if (childOne != null){
-                childOne.kNearestNeighbors(k, anchor, queue);
-            }
-            if (childTwo != null ) {
-                childTwo.kNearestNeighbors(k, anchor, queue);
-            }
-            if (childThree != null ) {
-                childThree.kNearestNeighbors(k, anchor, queue);
-            }
-            if (childFour != null ) {
-                childFour.kNearestNeighbors(k, anchor, queue);
-            }
-
-        }
-        else if (min == twoDistance){//NE, child 2
-            if (childTwo != null){
-                childTwo.kNearestNeighbors(k, anchor, queue);
-            }
-            if (childOne != null){
-                childOne.kNearestNeighbors(k, anchor, queue);
-            }
-            if (childThree != null ) {
-                childThree.kNearestNeighbors(k, anchor, queue);
-            }
-            if (childFour != null ) {
-                childFour.kNearestNeighbors(k, anchor, queue);
-            }
-
-
-        }
-        else if (min == threeDistance){
-            if (childThree != null ) {
-                childThree.kNearestNeighbors(k, anchor, queue);
-            }
-            if (childOne != null){
-                childOne.kNearestNeighbors(k, anchor, queue);
-            }
-            if (childTwo != null ) {
-                childTwo.kNearestNeighbors(k, anchor, queue);
-            }
-            if (childFour != null ) {
-                childFour.kNearestNeighbors(k, anchor, queue);
-            }
-
-        }
-        else if (min == fourDistance){
-            if (childFour != null ) {
-                childFour.kNearestNeighbors(k, anchor, queue);
-            }
-            if (childOne != null){
-                childOne.kNearestNeighbors(k, anchor, queue);
-            }
-            if (childTwo != null ) {
-                childTwo.kNearestNeighbors(k, anchor, queue);
-            }
-            if (childThree != null ) {
-                childThree.kNearestNeighbors(k, anchor, queue);
-            }
-        }
-
-
-
-
-
-
-
     }
 }
-
@@ -1,8 +1,12 @@
 package spatial.nodes;
 
 import spatial.kdpoint.KDPoint;
+import spatial.kdpoint.Point2i;
 import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNQueryContext;
 import spatial.knnutils.NNData;
+import spatial.knnutils.QueryCost;
+import spatial.metrics.DistanceMetric;
 import spatial.trees.CentroidAccuracyException;
 import spatial.trees.PRQuadTree;
 
@@ -92,7 +96,24 @@ public abstract class PRQuadNode {
      * @throws CentroidAccuracyException if the insertion causes a decomposition of the
      *      subtree that is too &quot; fine &quot; for {@code int} coordinate {@link KDPoint}s can handle.
      */
-    public abstract PRQuadNode insert(KDPoint p, int k) throws CentroidAccuracyException;
+    public PRQuadNode insert(KDPoint p, int k) throws CentroidAccuracyException{
+        return insert(p, null, k);
+    }
+
+    /**
+     * Inserts the given point in the subtree rooted at the current node like {@link #insert(KDPoint, int)}, along with
+     * a value that moves with it when quadrants split and merge. If the point is already in the subtree, its value is
+     * replaced.
+     *
+     * @param p A {@link KDPoint} to insert into the subtree rooted at the current node.
+     * @param value The value to store with p, or null.
+     * @param k The exponent of the side of the quadrant spanned by the current {@link PRQuadNode}.
+     * @return The subtree rooted at the current node, potentially adjusted after insertion.
+     * @throws CentroidAccuracyException if the insertion causes a decomposition of the
+     *      subtree that is too &quot; fine &quot; for {@code int} coordinate {@link KDPoint}s can handle.
+     * @see #getValue(KDPoint)
+     */
+    public abstract PRQuadNode insert(KDPoint p, Object value, int k) throws CentroidAccuracyException;
 
     /**
      * Deletes the given point from the subtree rooted at the current node. If the
@@ -109,7 +130,27 @@ public abstract class PRQuadNode {
      * @param p The {@link KDPoint} to search for.
      * @return true if p was found in the subtree rooted at the current nodes, false otherwise.
      */
-    public abstract boolean search(KDPoint p);
+    public boolean search(KDPoint p){
+        return search(p, null);
+    }
+
+    /**
+     * Searches the subtree rooted at the current node for the provided {@link KDPoint} like {@link #search(KDPoint)},
+     * additionally charging every visited node to {@code cost}.
+     *
+     * @param p The {@link KDPoint} to search for.
+     * @param cost A {@link QueryCost} that accumulates the number of nodes visited, or {@code null}.
+     * @return true if p was found in the subtree rooted at the current nodes, false otherwise.
+     */
+    public abstract boolean search(KDPoint p, QueryCost cost);
+
+    /**
+     * Returns the value stored with the provided {@link KDPoint} by {@link #insert(KDPoint, Object, int)}.
+     *
+     * @param p The {@link KDPoint} to search for.
+     * @return The value of p, or null if p is not in the subtree rooted at the current node or has no value.
+     */
+    public abstract Object getValue(KDPoint p);
 
     /**
      * Return the height of the subtree rooted at the current nodes. The height is defined similarly to
@@ -146,50 +187,211 @@ public abstract class PRQuadNode {
         return centroid.toString();
     }
 
+    /**
+     * <p>The sides of the square spanned by the root that quadrants can hold {@link KDPoint}s on, as a bit mask: bit 0
+     * stands for its right side and bit 1 for its top side.</p>
+     *
+     * <p>A {@link KDPoint} that lies on a side of a quadrant belongs to the quadrant above or to the right of it, so a
+     * quadrant holds its bottom and left sides, but not its top and right ones, which belong to its neighbors. The
+     * exception is the root, whose top and right sides have no neighbors, and the quadrants along them. Queries that
+     * prune quadrants therefore pass every child the sides of its parent that it shares, starting from this mask at
+     * the root, and measure distances to the cell that the child actually spans.</p>
+     */
+    static final int OUTER_EDGES = 3;
+
+    /**
+     * Returns the mask of the {@link #OUTER_EDGES outer sides} that a child shares with its parent: the right side if
+     * it is an eastern child, and the top side if it is a northern one.
+     * @param edges The outer sides of the parent.
+     * @param quadrant The index of the child, in Z (Morton) order.
+     * @return The outer sides of the child.
+     */
+    static int childEdges(int edges, int quadrant){
+        return edges & ((quadrant & 1) | (~quadrant & 2));
+    }
+
+    /**
+     * Returns the smallest coordinate along the given axis of a {@link KDPoint} that the quadrant spanned by this can
+     * hold: 2<sup>k-1</sup> below the centroid, or the centroid itself for a quadrant of side 1.
+     */
+    private long lowerBound(int dim){
+        return k == 0 ? centroid.coords[dim] : centroid.coords[dim] - (1L << Math.min(k - 1, Integer.SIZE));
+    }
+
+    /**
+     * Returns the largest coordinate along the given axis of a {@link KDPoint} that the quadrant spanned by this can
+     * hold, which is one more than that of its top or right side unless the quadrant also holds that side.
+     */
+    private long upperBound(int dim, int edges){
+        long half = k == 0 ? 0 : (1L << Math.min(k - 1, Integer.SIZE)) - 1;
+        return centroid.coords[dim] + half + (edges >> dim & 1);
+    }
+
+    /**
+     * Returns how far the coordinate a lies outside of [lo, hi].
+     */
+    private static long gap(long a, long lo, long hi){
+        return a < lo ? lo - a : (a > hi ? a - hi : 0);
+    }
+
     /**
      * Credits: <a href="https://stackoverflow.com/questions/401847/circle-rectangle-collision-detection-intersection">
      *     https://stackoverflow.com/questions/401847/circle-rectangle-collision-detection-intersection</a>
      * Accurate square &amp; rectangle intersection. I made modifications to the code. This method is made {@code protected}
-     * so that subclasses can see it. DO NOT EDIT THIS METHOD!
+     * so that subclasses can see it.
+     *
+     * <p>The circle intersects the quadrant exactly when the distance between the anchor and the quadrant is at most
+     * range. That distance is {@link #squaredDistanceToQuadrant(KDPoint, int) computed squared} in integer arithmetic and
+     * compared against {@link KDPoint#squaredRangeBound(double)}, so that no {@code Math.pow} or {@code Math.sqrt} is
+     * needed.</p>
      * @param anchor The centroid of the range.
      * @param range The radius of the range query.
+     * @param edges The {@link #OUTER_EDGES outer sides} of the square spanned by the root that this holds.
      * @return true if the circle generated by the range query
      */
-    protected boolean doesQuadIntersectAnchorRange(KDPoint anchor,double range)
+    protected boolean doesQuadIntersectAnchorRange(KDPoint anchor, double range, int edges)
     {
-        double circleDistanceX = Math.abs(anchor.coords[0] - centroid.coords[0]);
-        double circleDistanceY = Math.abs(anchor.coords[1] - centroid.coords[1]);
+        return squaredDistanceToQuadrant(anchor, edges) <= KDPoint.squaredRangeBound(range);
+    }
 
-        double quad_size = Math.pow(2,k-1); // equivalent to width/2, height/2
-        if (circleDistanceX > (quad_size + range)) { return false; }
-        if (circleDistanceY > (quad_size + range)) { return false; }
+    /**
+     * Returns the squared distance between the anchor and the closest {@link KDPoint} that the quadrant spanned by this
+     * can hold, which is 0 if the anchor lies inside it. No {@link KDPoint} of the subtree rooted at this can be closer
+     * to the anchor.
+     * @param anchor The {@link KDPoint} to measure the distance from.
+     * @param edges The {@link #OUTER_EDGES outer sides} of the square spanned by the root that this holds.
+     * @return The squared distance between the anchor and the quadrant spanned by this, saturated at
+     * {@link Long#MAX_VALUE}.
+     * @see KDPoint#squaredDistance(KDPoint)
+     */
+    protected long squaredDistanceToQuadrant(KDPoint anchor, int edges){
+        long dx = gap(anchor.coords[0], lowerBound(0), upperBound(0, edges));
+        long dy = gap(anchor.coords[1], lowerBound(1), upperBound(1, edges));
+        long sq = KDPoint.saturatedSquare(dx) + KDPoint.saturatedSquare(dy);
+        return sq < 0 ? Long.MAX_VALUE : sq;
+    }
 
-        if (circleDistanceX <= (quad_size)) { return true; }
-        if (circleDistanceY <= (quad_size)) { return true; }
+    /**
+     * Returns the distance between the anchor and the closest {@link KDPoint} that the quadrant spanned by this can
+     * hold, according to the given {@link DistanceMetric}. No {@link KDPoint} of the subtree rooted at this can be
+     * closer to the anchor.
+     * @param anchor The {@link KDPoint} to measure the distance from.
+     * @param metric The {@link DistanceMetric} to measure the distance with.
+     * @param edges The {@link #OUTER_EDGES outer sides} of the square spanned by the root that this holds.
+     * @return The distance between the anchor and the quadrant spanned by this.
+     * @see DistanceMetric#distanceToBox(KDPoint, double[], double[])
+     */
+    protected double distanceToQuadrant(KDPoint anchor, DistanceMetric metric, int edges){
+        double[] lo = {lowerBound(0), lowerBound(1)};
+        double[] hi = {upperBound(0, edges), upperBound(1, edges)};
+        return metric.distanceToBox(anchor, lo, hi);
+    }
 
-        double cornerDistanceSq = Math.pow(circleDistanceX - quad_size,2) + Math.pow(circleDistanceY - quad_size,2);
+    /**
+     * Returns the squared distance between the anchor and the best guess of a nearest neighbor query, for comparisons
+     * against {@link KDPoint#squaredDistance(KDPoint)}.
+     * @param n The best (distance, neighbor) pair found so far.
+     * @param anchor The &quot;anchor&quot; {@link KDPoint} of the query.
+     * @return The squared distance of the best guess from the anchor, or -1 if the best distance is still infinite.
+     */
+    protected static long bestSquaredDistance(NNData<KDPoint> n, KDPoint anchor){
+        if (n.getBestGuess() != null){
+            return n.getBestGuess().squaredDistance(anchor);
+        }
+        return n.getBestDist() < 0 ? -1 : KDPoint.squaredRangeBound(n.getBestDist()) + 1;
+    }
+
+    /**
+     * <p>Iterative, allocation-free k-nearest neighbors query, which writes its results into a caller-owned
+     * {@link KNNQueryContext}. Gray nodes push their children on the context's stack, closest quadrant on top, along
+     * with the {@link #squaredDistanceToQuadrant(KDPoint, int) squared distance} of their quadrants from the anchor, and
+     * the {@link #OUTER_EDGES outer sides} that those hold in place of a depth. A quadrant is skipped when it is popped if
+     * it is no closer than the worst neighbor found by then. Black nodes offer their points still
+     * {@link KNNQueryContext#offerPacked(long, Object, long) packed}, along with their values, except for the anchor
+     * itself, so that only the neighbors the caller reads are ever unpacked into {@link KDPoint}s.</p>
+     *
+     * @param root The root of the tree to search.
+     * @param anchor The &quot;anchor&quot; {@link KDPoint} of the query.
+     * @param context The context to write the results into, already {@link KNNQueryContext#reset(int, KDPoint) reset} to k.
+     * @see #kNearestNeighbors(int, KDPoint, BoundedPriorityQueue)
+     */
+    public static void kNearestNeighbors(PRQuadNode root, KDPoint anchor, KNNQueryContext context){
+        if (root != null){
+            context.push(root, OUTER_EDGES, 0);
+        }
+        while (context.hasPending()){
+            PRQuadNode node = (PRQuadNode) context.pop();
+            int edges = context.poppedDepth();
+            if (context.canPrunePopped()){
+                continue;
+            }
+            if (node instanceof PRQuadBlackNode){
+                PRQuadBlackNode black = (PRQuadBlackNode) node;
+                for (int i = 0; i < black.count; i++){
+                    long sq = Point2i.squaredDistance(black.points[i], anchor.coords[0], anchor.coords[1]);
+                    if (sq != 0 && (!context.isFull() || sq < context.worstSquaredDistance())){
+                        context.offerPacked(black.points[i], black.valueAt(i), sq); // Unpacked only when read.
+                    }
+                }
+            } else {
+                PRQuadGrayNode gray = (PRQuadGrayNode) node;
+                int pushed = 0;
+                for (int i = 0; i < gray.children.length; i++){
+                    pushed += push(gray.children[i], childEdges(edges, i), anchor, context);
+                }
+                context.sortPending(pushed);
+            }
+        }
+        context.finish();
+    }
 
-        return (cornerDistanceSq <= Math.pow(range,2));
+    private static int push(PRQuadNode child, int edges, KDPoint anchor, KNNQueryContext context){
+        if (child == null){
+            return 0;
+        }
+        context.push(child, edges, child.squaredDistanceToQuadrant(anchor, edges));
+        return 1;
     }
 
     /**
      * <p>Executes a range query in the given {@link PRQuadNode}. Given an &quot;anchor&quot; {@link KDPoint},
      * all {@link KDPoint}s that have a {@link KDPoint#euclideanDistance(KDPoint) euclideanDistance} of <b>at most</b> range
-     * <b>INCLUSIVE</b> from the anchor point <b>except</b> for the anchor itself should be inserted into the {@link Collection}
-     * that is passed.</p>
+     * <b>INCLUSIVE</b> from the anchor point should be inserted into the {@link Collection} that is passed. Unlike
+     * nearest neighbor queries, a range query <b>does</b> report a {@link KDPoint} equal to the anchor, if the tree holds
+     * one.</p>
      *
      * <p>Remember: range queries behave <em>greedily</em> as we go down (approaching the anchor as &quot;fast&quot;
      * as our currDim allows and <em>prune subtrees</em> that we <b>don't</b> have to visit as we backtrack. Consult
      * all of our resources if you need a reminder of how these should work.</p>
      *
      * @param anchor The centroid of the hypersphere that the range query implicitly creates.
-     * @param results A {@link Collection} that accumulates all the {@link }
+     * @param results A {@link Collection} that accumulates all the {@link KDPoint}s within range of the anchor.
      * @param range The <b>INCLUSIVE</b> range from the &quot;anchor&quot; {@link KDPoint}, within which all the
  *              {@link KDPoint}s that satisfy our query will fall. The euclideanDistance metric used} is defined by
  *              {@link KDPoint#euclideanDistance(KDPoint)}.
      */
-    public abstract void range(KDPoint anchor, Collection<KDPoint> results,
-                               double range);
+    public void range(KDPoint anchor, Collection<KDPoint> results, double range){
+        range(anchor, results, null, range, OUTER_EDGES);
+    }
+
+    /**
+     * Executes a range query like {@link #range(KDPoint, Collection, double)}, which also adds the value of every
+     * {@link KDPoint} reported to {@code resultValues}, in the same order.
+     * @param anchor The centroid of the range that the query implicitly creates.
+     * @param results A {@link Collection} that accumulates all the {@link KDPoint}s within range of the anchor.
+     * @param resultValues A {@link Collection} that accumulates their values.
+     * @param range The <b>INCLUSIVE</b> range from the &quot;anchor&quot; {@link KDPoint}.
+     */
+    public void range(KDPoint anchor, Collection<KDPoint> results, Collection<Object> resultValues, double range){
+        range(anchor, results, resultValues, range, OUTER_EDGES);
+    }
+
+    /**
+     * Executes a range query like {@link #range(KDPoint, Collection, Collection, double)} in a quadrant that holds the
+     * given {@link #OUTER_EDGES outer sides} of the square spanned by the root. {@code resultValues} may be null.
+     */
+    abstract void range(KDPoint anchor, Collection<KDPoint> results, Collection<Object> resultValues, double range,
+                        int edges);
 
     /**
      * <p>Executes a nearest neighbor query, which returns the nearest neighbor, in terms of
@@ -214,7 +416,17 @@ public abstract class PRQuadNode {
      * @see NNData
      * @see #kNearestNeighbors(int, KDPoint, BoundedPriorityQueue)
      */
-    public abstract NNData<KDPoint> nearestNeighbor(KDPoint anchor, NNData<KDPoint> n);
+    public NNData<KDPoint> nearestNeighbor(KDPoint anchor, NNData<KDPoint> n){
+        return nearestNeighbor(anchor, n, OUTER_EDGES);
+    }
+
+    /**
+     * Executes a nearest neighbor query like {@link #nearestNeighbor(KDPoint, NNData)} in a quadrant that holds the
+     * given {@link #OUTER_EDGES outer sides} of the square spanned by the root. Gray nodes visit their children closest
+     * quadrant first, and skip the quadrants whose {@link #squaredDistanceToQuadrant(KDPoint, int) squared distance}
+     * from the anchor is no smaller than that of the best guess.
+     */
+    abstract NNData<KDPoint> nearestNeighbor(KDPoint anchor, NNData<KDPoint> n, int edges);
 
     /**
      * <p>Executes a nearest neighbor query, which returns the nearest neighbor, in terms of
@@ -241,7 +453,79 @@ public abstract class PRQuadNode {
      *
      * @see BoundedPriorityQueue
      */
-    public abstract void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue);
+    public void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue){
+        kNearestNeighbors(k, anchor, queue, OUTER_EDGES);
+    }
+
+    /**
+     * Executes a k-nearest neighbors query like {@link #kNearestNeighbors(int, KDPoint, BoundedPriorityQueue)} in a
+     * quadrant that holds the given {@link #OUTER_EDGES outer sides} of the square spanned by the root. Once the queue
+     * is full, gray nodes skip the quadrants whose {@link #squaredDistanceToQuadrant(KDPoint, int) squared distance}
+     * from the anchor is no smaller than that of the queue's last element.
+     */
+    abstract void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue, int edges);
+
+    /**
+     * Executes a range query like {@link #range(KDPoint, Collection, double)}, measuring distances with the given
+     * {@link DistanceMetric}. Quadrants farther than range from the anchor, according to the metric, are skipped. Like
+     * the Euclidean query, it reports a {@link KDPoint} equal to the anchor, so the same range under
+     * {@link DistanceMetric#EUCLIDEAN} returns the same {@link KDPoint}s.
+     * @param anchor The centroid of the range that the query implicitly creates.
+     * @param results A {@link Collection} that accumulates all the {@link KDPoint}s within range of the anchor,
+     *                including a {@link KDPoint} equal to the anchor.
+     * @param range The <b>INCLUSIVE</b> range from the &quot;anchor&quot; {@link KDPoint}.
+     * @param metric The {@link DistanceMetric} to measure distances with.
+     */
+    public void range(KDPoint anchor, Collection<KDPoint> results, double range, DistanceMetric metric){
+        range(anchor, results, range, metric, OUTER_EDGES);
+    }
+
+    /**
+     * Executes a range query like {@link #range(KDPoint, Collection, double, DistanceMetric)} in a quadrant that holds
+     * the given {@link #OUTER_EDGES outer sides} of the square spanned by the root.
+     */
+    abstract void range(KDPoint anchor, Collection<KDPoint> results, double range, DistanceMetric metric, int edges);
+
+    /**
+     * Executes a nearest neighbor query like {@link #nearestNeighbor(KDPoint, NNData)}, measuring distances with the
+     * given {@link DistanceMetric}. Quadrants are visited closest first, and skipped if they are no closer than the best
+     * distance found so far. A negative best distance in {@code n} stands for infinity.
+     * @param anchor The &quot;anchor&quot; {@link KDPoint} of the nearest neighbor query.
+     * @param n The best (distance, neighbor) pair found so far, in terms of the metric.
+     * @param metric The {@link DistanceMetric} to measure distances with.
+     * @return {@code n}, updated with the nearest neighbor found in the subtree rooted at this.
+     */
+    public NNData<KDPoint> nearestNeighbor(KDPoint anchor, NNData<KDPoint> n, DistanceMetric metric){
+        return nearestNeighbor(anchor, n, metric, OUTER_EDGES);
+    }
+
+    /**
+     * Executes a nearest neighbor query like {@link #nearestNeighbor(KDPoint, NNData, DistanceMetric)} in a quadrant
+     * that holds the given {@link #OUTER_EDGES outer sides} of the square spanned by the root.
+     */
+    abstract NNData<KDPoint> nearestNeighbor(KDPoint anchor, NNData<KDPoint> n, DistanceMetric metric, int edges);
+
+    /**
+     * Executes a k-nearest neighbors query like {@link #kNearestNeighbors(int, KDPoint, BoundedPriorityQueue)},
+     * measuring distances with the given {@link DistanceMetric}. Quadrants are visited closest first, and skipped once
+     * the queue is full if they are no closer than its worst neighbor.
+     * @param k The total number of neighbors to retrieve.
+     * @param anchor The &quot;anchor&quot; {@link KDPoint} of the nearest neighbor query.
+     * @param queue A {@link BoundedPriorityQueue} of capacity k that maintains the nearest neighbors found so far,
+     *              prioritized by their distance from the anchor in terms of the metric.
+     * @param metric The {@link DistanceMetric} to measure distances with.
+     */
+    public void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue, DistanceMetric metric){
+        kNearestNeighbors(k, anchor, queue, metric, OUTER_EDGES);
+    }
+
+    /**
+     * Executes a k-nearest neighbors query like
+     * {@link #kNearestNeighbors(int, KDPoint, BoundedPriorityQueue, DistanceMetric)} in a quadrant that holds the given
+     * {@link #OUTER_EDGES outer sides} of the square spanned by the root.
+     */
+    abstract void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue, DistanceMetric metric,
+                                    int edges);
 }
 
 
@@ -0,0 +1,128 @@
+package spatial.nodes;
+
+import spatial.kdpoint.Point2i;
+
+/**
+ * <p>{@link PointHashIndex} is an open-addressing hash table from {@link Point2i packed points} to their positions
+ * in a bucket. It lets a {@link PRQuadBlackNode} with a large bucket answer membership queries in expected
+ * <em>O(1)</em> time, where a scan would visit the whole bucket.</p>
+ *
+ * <p>The table is a pair of primitive arrays probed linearly: {@code keys} holds the packed points and
+ * {@code positions} holds their position in the bucket plus one, zero marking an empty slot. Removals shift the
+ * following entries back instead of leaving tombstones, so that the table never degrades. The table is kept at most
+ * half full.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see PRQuadBlackNode
+ */
+class PointHashIndex {
+
+    private long[] keys;
+    private int[] positions;
+    private int size;
+
+    /**
+     * Builds an index over the first {@code count} entries of {@code points}, which are assumed to be distinct.
+     * @param points The packed points of a bucket.
+     * @param count The number of points in the bucket.
+     */
+    PointHashIndex(long[] points, int count){
+        int capacity = 16;
+        while (capacity < 2 * count)
+            capacity <<= 1;
+        keys = new long[capacity];
+        positions = new int[capacity];
+        for (int i = 0; i < count; i++)
+            add(points[i], i);
+    }
+
+    /**
+     * Finds the position of a packed point in the bucket.
+     * @param key The packed point to look for.
+     * @return The position of {@code key} in the bucket, or -1 if it is not in it.
+     */
+    int indexOf(long key){
+        int slot = find(key);
+        return slot < 0 ? -1 : positions[slot] - 1;
+    }
+
+    /**
+     * Indexes a packed point that is not already indexed.
+     * @param key The packed point.
+     * @param i Its position in the bucket.
+     */
+    void add(long key, int i){
+        if (2 * (size + 1) > keys.length)
+            grow();
+        int mask = keys.length - 1;
+        int slot = Point2i.hash(key) & mask;
+        while (positions[slot] != 0)
+            slot = (slot + 1) & mask;
+        keys[slot] = key;
+        positions[slot] = i + 1;
+        size++;
+    }
+
+    /**
+     * Removes a packed point from the index.
+     * @param key The packed point to remove.
+     * @return The position {@code key} was indexed at, or -1 if it was not indexed.
+     */
+    int remove(long key){
+        int slot = find(key);
+        if (slot < 0)
+            return -1;
+        int i = positions[slot] - 1;
+        int mask = keys.length - 1;
+
+        // Backward-shift deletion: pull back every entry of the probe run that could have used the emptied slot.
+        int next = (slot + 1) & mask;
+        while (positions[next] != 0){
+            int home = Point2i.hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask)){
+                keys[slot] = keys[next];
+                positions[slot] = positions[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        positions[slot] = 0;
+        size--;
+        return i;
+    }
+
+    /**
+     * Records that an indexed point has moved to another position of the bucket.
+     * @param key The packed point that moved.
+     * @param to Its new position.
+     */
+    void move(long key, int to){
+        positions[find(key)] = to + 1;
+    }
+
+    private int find(long key){
+        int mask = keys.length - 1;
+        for (int slot = Point2i.hash(key) & mask; positions[slot] != 0; slot = (slot + 1) & mask)
+            if (keys[slot] == key)
+                return slot;
+        return -1;
+    }
+
+    private void grow(){
+        long[] oldKeys = keys;
+        int[] oldPositions = positions;
+        keys = new long[oldKeys.length << 1];
+        positions = new int[oldKeys.length << 1];
+        int mask = keys.length - 1;
+        for (int s = 0; s < oldKeys.length; s++){
+            if (oldPositions[s] != 0){
+                int slot = Point2i.hash(oldKeys[s]) & mask;
+                while (positions[slot] != 0)
+                    slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[s];
+                positions[slot] = oldPositions[s];
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package spatial.trees;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.NNData;
+import spatial.nodes.KDBucketNode;
+
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * <p>{@link BucketKDTree} is a <em>K</em>-D tree that stores its {@link KDPoint}s in <b>buckets</b> at its leaves, much
+ * like {@link PRQuadTree} does with its bucketing parameter. A leaf holds up to <em>B</em> {@link KDPoint}s in a flat
+ * {@code int[]} of coordinates and is only split when it overflows, so that a tree of <em>n</em> {@link KDPoint}s has
+ * about <em>2n/B</em> nodes instead of <em>n</em>, and about <em>log2(B)</em> fewer levels. Queries descend to the
+ * relevant leaves and scan them linearly.</p>
+ *
+ * <p>A leaf of a <em>k</em>-D tree occupies about <em>4kB</em> bytes, and the best value of <em>B</em> is the one that
+ * makes a leaf scan cheap compared to the cache misses saved on the way down; see
+ * {@link spatial.benchmarks.BucketKDTreeBenchmark} for a way to measure it.</p>
+ *
+ * <p>Like {@link KDTree}, the tree is a multiset: inserting a {@link KDPoint} twice stores it twice, and deleting it
+ * removes a single copy. {@link KDPoint}s returned by queries are freshly allocated copies.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see KDBucketNode
+ * @see KDTree
+ */
+public class BucketKDTree implements SpatialDictionary, SpatialQuerySolver {
+
+    /**
+     * The default maximum number of {@link KDPoint}s per leaf.
+     */
+    public static final int DEFAULT_BUCKETSIZE = 16;
+
+    /**
+     * The root of the tree, or null if the tree is empty.
+     */
+    private KDBucketNode root;
+
+    /**
+     * The dimensionality of the space considered.
+     */
+    private final int dims;
+
+    /**
+     * The maximum number of {@link KDPoint}s a leaf holds before it splits.
+     */
+    private final int bucketSize;
+
+    /**
+     * The total number of {@link KDPoint}s held by the tree.
+     */
+    private int count;
+
+    /**
+     * Default constructor constructs this with <em>k=2</em> and a bucket size of {@link #DEFAULT_BUCKETSIZE}.
+     */
+    public BucketKDTree(){
+        this(KDTree.DEFAULT_DIMS, DEFAULT_BUCKETSIZE);
+    }
+
+    /**
+     * Constructs a tree of dimensionality k and a bucket size of {@link #DEFAULT_BUCKETSIZE}.
+     * @param k The dimensionality of this.
+     * @throws RuntimeException if k&lt;=0.
+     */
+    public BucketKDTree(int k){
+        this(k, DEFAULT_BUCKETSIZE);
+    }
+
+    /**
+     * Constructs a tree of dimensionality k whose leaves hold up to {@code bucketSize} {@link KDPoint}s.
+     * @param k The dimensionality of this.
+     * @param bucketSize The maximum number of {@link KDPoint}s per leaf.
+     * @throws RuntimeException if k&lt;=0 or bucketSize&lt;=0.
+     */
+    public BucketKDTree(int k, int bucketSize){
+        if(k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        if(bucketSize <= 0)
+            throw new RuntimeException("The bucket size provided, " + bucketSize + ", is invalid: Please provide a positive integer.");
+        dims = k;
+        this.bucketSize = bucketSize;
+    }
+
+    @Override
+    public void insert(KDPoint p){
+        if(root == null)
+            root = new KDBucketNode(dims, bucketSize);
+        root = root.insert(p, 0, dims, bucketSize);
+        count++;
+    }
+
+    @Override
+    public void delete(KDPoint p){
+        if(search(p)) {
+            root = root.delete(p, dims, bucketSize);
+            count--;
+        }
+    }
+
+    @Override
+    public boolean search(KDPoint p){
+        return root != null && root.search(p, dims);
+    }
+
+    @Override
+    public Collection<KDPoint> range(KDPoint p, double range){
+        LinkedList<KDPoint> pts = new LinkedList<>();
+        if(root != null)
+            root.range(p, pts, range, dims);
+        return pts;
+    }
+
+    @Override
+    public KDPoint nearestNeighbor(KDPoint p){
+        NNData<KDPoint> n = new NNData<>(null, KDTree.INFTY);
+        if(root != null)
+            root.nearestNeighbor(p, n, dims);
+        return n.getBestGuess();
+    }
+
+    @Override
+    public BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p){
+        if(k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        BoundedPriorityQueue<KDPoint> queue = new BoundedPriorityQueue<>(k);
+        if(root != null)
+            root.kNearestNeighbors(p, queue, dims);
+        return queue;
+    }
+
+    /**
+     * Returns the height of the tree. Leaves have height 0, no matter how many {@link KDPoint}s they hold.
+     * @return The height of the tree, or -1 if it is empty.
+     */
+    @Override
+    public int height(){
+        return root == null ? -1 : root.height();
+    }
+
+    @Override
+    public boolean isEmpty(){
+        return count == 0;
+    }
+
+    @Override
+    public int count(){
+        return count;
+    }
+
+    /**
+     * Returns the number of leaves, that is, of buckets, in the tree.
+     * @return The number of leaves in the tree.
+     */
+    public int leafCount(){
+        return root == null ? 0 : root.leafCount();
+    }
+
+    /**
+     * A simple accessor for the bucket size of the tree.
+     * @return The maximum number of {@link KDPoint}s per leaf.
+     */
+    public int getBucketSize(){
+        return bucketSize;
+    }
+
+    /**
+     * A simple accessor for the dimensionality of the tree.
+     * @return The dimensionality of the tree.
+     */
+    public int getDimensionality(){
+        return dims;
+    }
+}
@@ -0,0 +1,139 @@
+package spatial.trees;
+
+import spatial.kdpoint.DoubleKDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+
+import java.util.Collection;
+
+/**
+ * <p>{@link DoubleKDTree} is a <em>K</em>-D tree over {@link DoubleKDPoint}s, for data with real-valued coordinates.
+ * It follows the same rules as {@link KDTree}: the node at depth <em>i</em> splits on dimension <em>i mod k</em>,
+ * insertions send coordinates that are <b>smaller</b> than the splitting coordinate left and all others right,
+ * deletions replace a node with the minimum of one of its subtrees, and queries never report the anchor itself.</p>
+ *
+ * <p>It is specialized for {@code double}s rather than built over boxed coordinates, so that every comparison and
+ * distance computation runs over the primitive {@code double[]} held by a node. The traversals live in a package-private
+ * tree that {@link FloatKDTree} shares over {@code float[]} nodes. The tree keeps its own copies of inserted coordinates,
+ * and queries return freshly allocated {@link DoubleKDPoint}s.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see KDTree
+ * @see FloatKDTree
+ * @see DoublePRQuadTree
+ */
+public class DoubleKDTree {
+
+    private final RealKDTree<double[], DoubleKDPoint> tree;
+
+    /**
+     * Creates an empty 2-D {@link DoubleKDTree}.
+     */
+    public DoubleKDTree(){
+        this(KDTree.DEFAULT_DIMS);
+    }
+
+    /**
+     * Creates an empty {@link DoubleKDTree} of dimensionality k.
+     * @param k The dimensionality of the tree.
+     * @throws RuntimeException if k&lt;=0.
+     */
+    public DoubleKDTree(int k){
+        tree = new RealKDTree.Doubles<>(k, DoubleKDPoint::new);
+    }
+
+    /**
+     * Inserts a copy of {@code p} into the tree. Like {@link KDTree}, the tree may hold several equal points.
+     * @param p The {@link DoubleKDPoint} to insert.
+     * @throws RuntimeException if {@code p} is not k-dimensional or has a {@code NaN} coordinate.
+     */
+    public void insert(DoubleKDPoint p){
+        tree.insert(check(p).clone());
+    }
+
+    /**
+     * Deletes one occurrence of {@code p} from the tree, if any.
+     * @param p The {@link DoubleKDPoint} to delete.
+     * @throws RuntimeException if {@code p} is not k-dimensional or has a {@code NaN} coordinate.
+     */
+    public void delete(DoubleKDPoint p){
+        tree.delete(check(p));
+    }
+
+    /**
+     * Searches the tree for {@code p}.
+     * @param p The {@link DoubleKDPoint} to search for.
+     * @return true if {@code p} is in the tree, false otherwise.
+     * @throws RuntimeException if {@code p} is not k-dimensional or has a {@code NaN} coordinate.
+     */
+    public boolean search(DoubleKDPoint p){
+        return tree.search(check(p));
+    }
+
+    /**
+     * Returns all the points of the tree within {@code range}, <b>inclusive</b>, of {@code p}, except for {@code p}
+     * itself.
+     * @param p The anchor of the query.
+     * @param range The radius of the query.
+     * @return A {@link Collection} of fresh {@link DoubleKDPoint}s.
+     * @throws RuntimeException if {@code p} is not k-dimensional or has a {@code NaN} coordinate.
+     */
+    public Collection<DoubleKDPoint> range(DoubleKDPoint p, double range){
+        return tree.range(check(p), range);
+    }
+
+    /**
+     * Returns the nearest neighbor of {@code p} in the tree, other than {@code p} itself.
+     * @param p The anchor of the query.
+     * @return A fresh {@link DoubleKDPoint}, or null if the tree holds no point other than {@code p}.
+     * @throws RuntimeException if {@code p} is not k-dimensional or has a {@code NaN} coordinate.
+     */
+    public DoubleKDPoint nearestNeighbor(DoubleKDPoint p){
+        return tree.nearestNeighbor(check(p));
+    }
+
+    /**
+     * Returns the k nearest neighbors of {@code p} in the tree, other than {@code p} itself, prioritized by their
+     * Euclidean distance from {@code p}.
+     * @param k The number of neighbors to retrieve.
+     * @param p The anchor of the query.
+     * @return A {@link BoundedPriorityQueue} of at most k fresh {@link DoubleKDPoint}s.
+     * @throws RuntimeException if k&lt;=0, or if {@code p} is not k-dimensional or has a {@code NaN} coordinate.
+     */
+    public BoundedPriorityQueue<DoubleKDPoint> kNearestNeighbors(int k, DoubleKDPoint p){
+        if (k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        return tree.kNearestNeighbors(k, check(p));
+    }
+
+    /**
+     * Returns the height of the tree: -1 if it is empty, and 0 if it holds a single point.
+     * @return The height of the tree.
+     */
+    public int height(){
+        return tree.height();
+    }
+
+    /**
+     * Returns the number of points in the tree.
+     * @return The number of points in the tree.
+     */
+    public int count(){
+        return tree.count();
+    }
+
+    /**
+     * Checks whether the tree is empty.
+     * @return true if the tree holds no point, false otherwise.
+     */
+    public boolean isEmpty(){
+        return tree.count() == 0;
+    }
+
+    private double[] check(DoubleKDPoint p){
+        if (p.coords.length != tree.getDimensionality())
+            throw new RuntimeException("The DoubleKDPoint provided, " + p + ", is invalid: Please provide a " + tree.getDimensionality() + "-dimensional point.");
+        p.checkNotNaN();
+        return p.coords;
+    }
+}
@@ -0,0 +1,148 @@
+package spatial.trees;
+
+import spatial.kdpoint.DoubleKDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+
+import java.util.Collection;
+
+/**
+ * <p>{@link DoublePRQuadTree} is a PR-QuadTree over 2-dimensional {@link DoubleKDPoint}s. Where {@link PRQuadTree}
+ * spans a square of side 2<sup>k</sup> around the origin, this tree spans an arbitrary real-valued rectangle, such as
+ * a range of longitudes and latitudes, and subdivides it at the midpoints of its sides. Like in {@link PRQuadTree}, a
+ * point whose coordinate equals the midpoint goes to the <b>upper</b> half of that axis, every black node holds up to
+ * bucketing parameter points, and a gray node collapses back into a black node once its subtree holds no more than
+ * that.</p>
+ *
+ * <p>Black nodes store their bucket in two primitive {@code double[]}s, one per axis, so that scans never touch a
+ * point object. Queries return freshly allocated {@link DoubleKDPoint}s, and never report the anchor itself.
+ * Subdivision stops at the precision of {@code double}s: an insertion that would need to split a quadrant whose
+ * midpoint cannot be told apart from its sides throws a {@link CentroidAccuracyException}. The implementation is
+ * shared with {@link FloatPRQuadTree}.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see PRQuadTree
+ * @see FloatPRQuadTree
+ * @see DoubleKDTree
+ */
+public class DoublePRQuadTree {
+
+    private final RealPRQuadTree<double[], DoubleKDPoint> tree;
+
+    /**
+     * Creates an empty {@link DoublePRQuadTree} that spans the rectangle [minX, maxX] &times; [minY, maxY].
+     * @param minX The smallest x coordinate the tree accepts.
+     * @param minY The smallest y coordinate the tree accepts.
+     * @param maxX The largest x coordinate the tree accepts.
+     * @param maxY The largest y coordinate the tree accepts.
+     * @param bucketingParam The maximum number of points a black node holds.
+     * @throws RuntimeException if the rectangle is empty or not finite, or if bucketingParam&lt;=0.
+     */
+    public DoublePRQuadTree(double minX, double minY, double maxX, double maxY, int bucketingParam){
+        tree = new RealPRQuadTree.Doubles<>(minX, minY, maxX, maxY, bucketingParam, DoubleKDPoint::new);
+    }
+
+    /**
+     * Inserts {@code p} into the tree. If {@code p} is <b>already</b> in the tree, this method has no effect.
+     * @param p The {@link DoubleKDPoint} to insert.
+     * @throws RuntimeException if {@code p} is not 2-dimensional, has a {@code NaN} coordinate or lies outside of the
+     * rectangle spanned by the tree.
+     * @throws CentroidAccuracyException if the insertion would split a quadrant beyond the precision of {@code double}s.
+     */
+    public void insert(DoubleKDPoint p) throws CentroidAccuracyException{
+        check(p);
+        tree.insert(p.coords[0], p.coords[1], p);
+    }
+
+    /**
+     * Deletes {@code p} from the tree, if it is in it.
+     * @param p The {@link DoubleKDPoint} to delete.
+     * @throws RuntimeException if {@code p} is not 2-dimensional or has a {@code NaN} coordinate.
+     */
+    public void delete(DoubleKDPoint p){
+        check(p);
+        tree.delete(p.coords[0], p.coords[1]);
+    }
+
+    /**
+     * Searches the tree for {@code p}.
+     * @param p The {@link DoubleKDPoint} to search for.
+     * @return true if {@code p} is in the tree, false otherwise.
+     * @throws RuntimeException if {@code p} is not 2-dimensional or has a {@code NaN} coordinate.
+     */
+    public boolean search(DoubleKDPoint p){
+        check(p);
+        return tree.search(p.coords[0], p.coords[1]);
+    }
+
+    /**
+     * Returns all the points of the tree within {@code range}, <b>inclusive</b>, of {@code p}, except for {@code p}
+     * itself. Quadrants farther than range from {@code p} are skipped.
+     * @param p The anchor of the query.
+     * @param range The radius of the query.
+     * @return A {@link Collection} of fresh {@link DoubleKDPoint}s.
+     * @throws RuntimeException if {@code p} is not 2-dimensional or has a {@code NaN} coordinate.
+     */
+    public Collection<DoubleKDPoint> range(DoubleKDPoint p, double range){
+        check(p);
+        return tree.range(p.coords[0], p.coords[1], range);
+    }
+
+    /**
+     * Returns the nearest neighbor of {@code p} in the tree, other than {@code p} itself. Quadrants are visited
+     * closest first, and skipped if they are no closer than the best point found so far.
+     * @param p The anchor of the query.
+     * @return A fresh {@link DoubleKDPoint}, or null if the tree holds no point other than {@code p}.
+     * @throws RuntimeException if {@code p} is not 2-dimensional or has a {@code NaN} coordinate.
+     */
+    public DoubleKDPoint nearestNeighbor(DoubleKDPoint p){
+        check(p);
+        return tree.nearestNeighbor(p.coords[0], p.coords[1]);
+    }
+
+    /**
+     * Returns the k nearest neighbors of {@code p} in the tree, other than {@code p} itself, prioritized by their
+     * Euclidean distance from {@code p}. Quadrants are visited closest first, and skipped once the queue is full if
+     * they are no closer than its worst neighbor.
+     * @param k The number of neighbors to retrieve.
+     * @param p The anchor of the query.
+     * @return A {@link BoundedPriorityQueue} of at most k fresh {@link DoubleKDPoint}s.
+     * @throws RuntimeException if k&lt;=0, or if {@code p} is not 2-dimensional or has a {@code NaN} coordinate.
+     */
+    public BoundedPriorityQueue<DoubleKDPoint> kNearestNeighbors(int k, DoubleKDPoint p){
+        if (k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        check(p);
+        return tree.kNearestNeighbors(k, p.coords[0], p.coords[1]);
+    }
+
+    /**
+     * Returns the height of the tree: -1 if it is empty, and 0 if it consists of a single black node.
+     * @return The height of the tree.
+     */
+    public int height(){
+        return tree.height();
+    }
+
+    /**
+     * Returns the number of points in the tree.
+     * @return The number of points in the tree.
+     */
+    public int count(){
+        return tree.count();
+    }
+
+    /**
+     * Checks whether the tree is empty.
+     * @return true if the tree holds no point, false otherwise.
+     */
+    public boolean isEmpty(){
+        return tree.count() == 0;
+    }
+
+    private static void check(DoubleKDPoint p){
+        if (p.coords.length != 2)
+            throw new RuntimeException("The DoubleKDPoint provided, " + p + ", is invalid: Please provide a 2-dimensional point.");
+        p.checkNotNaN();
+    }
+}
@@ -0,0 +1,374 @@
+package spatial.trees;
+
+import spatial.kdpoint.KDPoint;
+import spatial.kdpoint.KDPointSelection;
+import spatial.kdpoint.SquaredDistanceKernel;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.NNData;
+
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * <p>{@link FlatKDTree} is a <b>static</b>, <b>immutable</b> <em>K</em>-D tree for read-mostly workloads. It is built
+ * once, over a known set of {@link KDPoint}s, and supports the same range and nearest-neighbor queries as
+ * {@link KDTree}.</p>
+ *
+ * <p>Unlike {@link KDTree}, it has no per-node objects. All coordinates live in a <b>single</b> {@code int[]}, laid out in
+ * tree order: the tree is left-complete, its root is stored in slot 0, and the children of the node in slot <em>i</em>
+ * are implicitly stored in slots <em>2i+1</em> and <em>2i+2</em> (the so-called Eytzinger layout). The node in slot
+ * <em>i</em> splits on dimension <em>floor(log2(i+1)) mod k</em>. A 2-D point therefore costs 8 bytes, compared to a
+ * {@link spatial.nodes.KDTreeNode}, a {@link KDPoint} and its coordinate array in a {@link KDTree}, and the top levels
+ * of the tree, which every query visits, are packed next to each other in memory.</p>
+ *
+ * <p>The price is that the tree cannot be modified, other than by a {@link LogarithmicKDTree} that marks some of its
+ * {@link KDPoint}s as deleted, with a bit per slot that queries skip. Also, since every split is taken at the exact median position,
+ * {@link KDPoint}s that share the splitting coordinate of a node may lie in <b>either</b> of its subtrees: the left
+ * subtree holds coordinates smaller than or equal to the split and the right subtree holds coordinates larger than or
+ * equal to it. All queries account for this. {@link KDPoint}s returned by queries are freshly allocated copies.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see KDTree
+ * @see SpatialQuerySolver
+ */
+public class FlatKDTree implements SpatialQuerySolver {
+
+    /**
+     * The dimensionality of the space considered.
+     */
+    private final int dims;
+
+    /**
+     * The number of slots of the tree, deleted or not.
+     */
+    private final int count;
+
+    /**
+     * One bit per slot, set if the {@link KDPoint} in that slot has been deleted; null until one is.
+     * @see #delete(KDPoint)
+     */
+    private long[] deleted;
+
+    /**
+     * The number of slots whose {@link KDPoint} has been deleted.
+     */
+    private int deletions;
+
+    /**
+     * The coordinates of all {@link KDPoint}s, in tree order: node <em>i</em> occupies
+     * {@code coords[i * dims .. (i + 1) * dims)}.
+     */
+    private final int[] coords;
+
+    /**
+     * Builds a 2-D {@link FlatKDTree} over the provided {@link KDPoint}s.
+     * @param points The {@link KDPoint}s to index. Only their coordinates are read; the {@link KDPoint}s are not retained.
+     * @see #FlatKDTree(int, Collection)
+     */
+    public FlatKDTree(Collection<KDPoint> points){
+        this(KDTree.DEFAULT_DIMS, points);
+    }
+
+    /**
+     * Builds a {@link FlatKDTree} of dimensionality k over the provided {@link KDPoint}s, in <em>O(n log n)</em> time.
+     * @param k The dimensionality of the tree.
+     * @param points The {@link KDPoint}s to index. Only their coordinates are read; the {@link KDPoint}s are not retained.
+     * @throws RuntimeException if k&lt;=0.
+     */
+    public FlatKDTree(int k, Collection<KDPoint> points){
+        this(k, flatten(k, points), points.size());
+    }
+
+    /**
+     * Builds a {@link FlatKDTree} directly over a flat array of coordinates.
+     * @param k The dimensionality of the tree.
+     * @param rows The coordinates of the {@link KDPoint}s to index, {@code k} per point. Rearranged in place and not retained.
+     * @param n The number of points in {@code rows}.
+     * @throws RuntimeException if k&lt;=0.
+     */
+    FlatKDTree(int k, int[] rows, int n){
+        if(k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        dims = k;
+        count = n;
+        coords = new int[n * k];
+        arrange(rows, 0, n, 0, 0);
+    }
+
+    private static int[] flatten(int k, Collection<KDPoint> points){
+        int[] rows = new int[points.size() * k];
+        int i = 0;
+        for(KDPoint p : points){
+            System.arraycopy(p.coords, 0, rows, i, k);
+            i += k;
+        }
+        return rows;
+    }
+
+    /**
+     * Places the median of {@code rows[lo..hi)} in slot {@code node} and recursively arranges the rest below it.
+     */
+    private void arrange(int[] rows, int lo, int hi, int node, int depth){
+        if(lo >= hi)
+            return;
+        int mid = lo + leftSubtreeSize(hi - lo);
+        KDPointSelection.select(rows, dims, lo, hi, mid, depth % dims);
+        System.arraycopy(rows, mid * dims, coords, node * dims, dims);
+        arrange(rows, lo, mid, 2 * node + 1, depth + 1);
+        arrange(rows, mid + 1, hi, 2 * node + 2, depth + 1);
+    }
+
+    /**
+     * Returns the size of the left subtree of a left-complete binary tree with n nodes.
+     */
+    private static int leftSubtreeSize(int n){
+        if(n <= 1)
+            return 0;
+        int h = 31 - Integer.numberOfLeadingZeros(n); // index of the last level
+        int lastLevelCapacity = 1 << (h - 1);       // of the left subtree
+        int lastLevel = n - ((1 << h) - 1);         // of the whole tree
+        return (lastLevelCapacity - 1) + Math.min(lastLevel, lastLevelCapacity);
+    }
+
+    /**
+     * Returns the squared Euclidean distance between the node in the provided slot and the anchor, computed by the
+     * vector kernel if it is available.
+     * @see SquaredDistanceKernel#DEFAULT
+     */
+    private long squaredDistance(int node, KDPoint anchor){
+        return SquaredDistanceKernel.DEFAULT.squaredDistance(coords, node * dims, anchor.coords, 0, dims);
+    }
+
+    /**
+     * Turns the squared distance of the node in the provided slot into a distance, recomputing it in floating point
+     * if it saturated.
+     */
+    private double distance(long sq, int node, KDPoint anchor){
+        return sq != Long.MAX_VALUE ? Math.sqrt(sq) : pointAt(node).euclideanDistance(anchor);
+    }
+
+    private boolean isDeleted(int node){
+        return deleted != null && (deleted[node >>> 6] & 1L << node) != 0;
+    }
+
+    private KDPoint pointAt(int node){
+        int[] pt = new int[dims];
+        System.arraycopy(coords, node * dims, pt, 0, dims);
+        return new KDPoint(pt);
+    }
+
+    /* *********************************************************************************************** */
+    /* ************************************* QUERIES ************************************************* */
+    /* *********************************************************************************************** */
+
+    /**
+     * Searches the tree for p.
+     * @param p The {@link KDPoint} to look for.
+     * @return true iff p is in the tree.
+     */
+    public boolean search(KDPoint p){
+        return find(p, 0, 0) >= 0;
+    }
+
+    /**
+     * Returns the slot of a copy of p that has not been deleted, or -1 if there is none.
+     */
+    private int find(KDPoint p, int node, int depth){
+        if(node >= count)
+            return -1;
+        if(squaredDistance(node, p) == 0 && !isDeleted(node))
+            return node;
+        int d = depth % dims;
+        int split = coords[node * dims + d];
+        // Points that share the split coordinate can be on either side.
+        int found = p.coords[d] <= split ? find(p, 2 * node + 1, depth + 1) : -1;
+        return found < 0 && p.coords[d] >= split ? find(p, 2 * node + 2, depth + 1) : found;
+    }
+
+    /**
+     * Deletes a single copy of p, by marking its slot as deleted rather than rebuilding the tree. The slot keeps
+     * guiding queries, which no longer report it.
+     * @param p The {@link KDPoint} to delete.
+     * @return true iff a copy of p was found and deleted.
+     */
+    boolean delete(KDPoint p){
+        int node = find(p, 0, 0);
+        if(node < 0)
+            return false;
+        if(deleted == null)
+            deleted = new long[(count + 63) >>> 6];
+        deleted[node >>> 6] |= 1L << node;
+        deletions++;
+        return true;
+    }
+
+    @Override
+    public Collection<KDPoint> range(KDPoint p, double range){
+        LinkedList<KDPoint> pts = new LinkedList<>();
+        range(p, range, pts);
+        return pts;
+    }
+
+    /**
+     * Performs a range query, accumulating all {@link KDPoint}s within range of p, other than p itself,
+     * into {@code results}.
+     * @param p The query {@link KDPoint}.
+     * @param range The maximum distance from p, <b>INCLUSIVE</b>.
+     * @param results A {@link Collection} that accumulates the {@link KDPoint}s found.
+     * @see #range(KDPoint, double)
+     */
+    public void range(KDPoint p, double range, Collection<KDPoint> results){
+        range(p, range, KDPoint.squaredRangeBound(range), results, 0, 0);
+    }
+
+    private void range(KDPoint anchor, double range, long rangeSq, Collection<KDPoint> results, int node, int depth){
+        if(node >= count)
+            return;
+        long sq = squaredDistance(node, anchor);
+        if(sq != 0 && sq <= rangeSq && !isDeleted(node))
+            results.add(pointAt(node));
+
+        double diff = (double) anchor.coords[depth % dims] - coords[node * dims + depth % dims];
+        int near = diff < 0 ? 2 * node + 1 : 2 * node + 2;
+        int far = diff < 0 ? 2 * node + 2 : 2 * node + 1;
+        range(anchor, range, rangeSq, results, near, depth + 1);
+        if(Math.abs(diff) <= range)
+            range(anchor, range, rangeSq, results, far, depth + 1);
+    }
+
+    @Override
+    public KDPoint nearestNeighbor(KDPoint p){
+        NNData<KDPoint> n = new NNData<>(null, KDTree.INFTY);
+        nearestNeighbor(p, n);
+        return n.getBestGuess();
+    }
+
+    /**
+     * Performs a nearest neighbor query that starts from, and updates, the provided best guess. A negative best
+     * distance stands for infinity.
+     * @param p The query {@link KDPoint}.
+     * @param n The best (distance, neighbor) pair found so far, possibly from other structures.
+     * @see #nearestNeighbor(KDPoint)
+     */
+    public void nearestNeighbor(KDPoint p, NNData<KDPoint> n){
+        nearestNeighbor(p, n, 0, 0);
+    }
+
+    private void nearestNeighbor(KDPoint anchor, NNData<KDPoint> n, int node, int depth){
+        if(node >= count)
+            return;
+        long sq = squaredDistance(node, anchor);
+        double best = n.getBestDist();
+        if(sq != 0 && (best < 0 || sq < best * best) && !isDeleted(node))
+            n.update(pointAt(node), distance(sq, node, anchor));
+
+        double diff = (double) anchor.coords[depth % dims] - coords[node * dims + depth % dims];
+        int near = diff < 0 ? 2 * node + 1 : 2 * node + 2;
+        int far = diff < 0 ? 2 * node + 2 : 2 * node + 1;
+        nearestNeighbor(anchor, n, near, depth + 1);
+        if(n.getBestDist() < 0 || Math.abs(diff) < n.getBestDist())
+            nearestNeighbor(anchor, n, far, depth + 1);
+    }
+
+    @Override
+    public BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p){
+        if(k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        BoundedPriorityQueue<KDPoint> queue = new BoundedPriorityQueue<>(k);
+        kNearestNeighbors(p, queue);
+        return queue;
+    }
+
+    /**
+     * Performs a k-nearest neighbors query that offers its candidates to the provided queue, which may already
+     * hold candidates from other structures. k is given by the capacity of the queue.
+     * @param p The query {@link KDPoint}.
+     * @param queue A {@link BoundedPriorityQueue} that maintains the nearest neighbors found so far.
+     * @see #kNearestNeighbors(int, KDPoint)
+     */
+    public void kNearestNeighbors(KDPoint p, BoundedPriorityQueue<KDPoint> queue){
+        kNearestNeighbors(p, queue, 0, 0);
+    }
+
+    private void kNearestNeighbors(KDPoint anchor, BoundedPriorityQueue<KDPoint> queue, int node, int depth){
+        if(node >= count)
+            return;
+        long sq = squaredDistance(node, anchor);
+        if(sq != 0 && !isDeleted(node)){
+            double worst = queue.lastPriority();
+            if(!queue.isFull() || sq < worst * worst) // Only materialize candidates that the queue will admit.
+                queue.enqueue(pointAt(node), distance(sq, node, anchor));
+        }
+
+        double diff = (double) anchor.coords[depth % dims] - coords[node * dims + depth % dims];
+        int near = diff < 0 ? 2 * node + 1 : 2 * node + 2;
+        int far = diff < 0 ? 2 * node + 2 : 2 * node + 1;
+        kNearestNeighbors(anchor, queue, near, depth + 1);
+        if(!queue.isFull() || Math.abs(diff) < queue.lastPriority())
+            kNearestNeighbors(anchor, queue, far, depth + 1);
+    }
+
+    /* *********************************************************************************************** */
+    /* ************************************* ACCESSORS *********************************************** */
+    /* *********************************************************************************************** */
+
+    /**
+     * Returns the height of the tree, which, since the tree is left-complete, is <em>floor(log2(n))</em>. Deleted
+     * {@link KDPoint}s keep their slots, so they count towards n.
+     * @return The height of the tree, or -1 if it has no slots.
+     */
+    public int height(){
+        return 31 - Integer.numberOfLeadingZeros(count);
+    }
+
+    /**
+     * Reports whether the tree is empty.
+     * @return true iff the tree contains no {@link KDPoint}s that have not been deleted.
+     */
+    public boolean isEmpty(){
+        return count() == 0;
+    }
+
+    /**
+     * Returns the number of {@link KDPoint}s in the tree.
+     * @return The number of {@link KDPoint}s in the tree that have not been deleted.
+     */
+    public int count(){
+        return count - deletions;
+    }
+
+    /**
+     * Returns the number of slots of the tree that hold deleted {@link KDPoint}s.
+     */
+    int deletions(){
+        return deletions;
+    }
+
+    /**
+     * A simple accessor for the dimensionality of the tree.
+     * @return The dimensionality of the tree.
+     */
+    public int getDimensionality(){
+        return dims;
+    }
+
+    /**
+     * Copies the coordinates of all {@link KDPoint}s in the tree that have not been deleted, in tree order, into
+     * {@code dest}.
+     * @param dest The array to copy into. Needs room for {@code count() * getDimensionality()} coordinates.
+     * @param offset The index of {@code dest} at which to start copying.
+     */
+    void copyCoordinates(int[] dest, int offset){
+        if(deletions == 0){
+            System.arraycopy(coords, 0, dest, offset, coords.length);
+            return;
+        }
+        for(int node = 0; node < count; node++){
+            if(!isDeleted(node)){
+                System.arraycopy(coords, node * dims, dest, offset, dims);
+                offset += dims;
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package spatial.trees;
+
+import spatial.kdpoint.FloatKDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+
+import java.util.Collection;
+
+/**
+ * <p>{@link FloatPRQuadTree} is a PR-QuadTree over 2-dimensional {@link FloatKDPoint}s. It shares the implementation
+ * of {@link DoublePRQuadTree}, and follows the same rules: it spans an arbitrary real-valued rectangle, subdivides it
+ * at the midpoints of its sides, and sends a point whose coordinate equals the midpoint to the <b>upper</b> half of
+ * that axis.</p>
+ *
+ * <p>Its buckets hold {@code float[]}s, so a {@link FloatPRQuadTree} takes half the memory per coordinate of a
+ * {@link DoublePRQuadTree}. Coordinates are widened to {@code double}s as they are compared, which is exact, and the
+ * quadrants are split at midpoints computed in {@code double}s. Subdivision therefore stops at the precision of
+ * {@code double}s, not {@code float}s: two distinct {@code float}s are always told apart, and an insertion only
+ * throws a {@link CentroidAccuracyException} if a {@link DoublePRQuadTree} would. Queries return freshly allocated
+ * {@link FloatKDPoint}s, and never report the anchor itself.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see PRQuadTree
+ * @see DoublePRQuadTree
+ * @see FloatKDTree
+ */
+public class FloatPRQuadTree {
+
+    private final RealPRQuadTree<float[], FloatKDPoint> tree;
+
+    /**
+     * Creates an empty {@link FloatPRQuadTree} that spans the rectangle [minX, maxX] &times; [minY, maxY].
+     * @param minX The smallest x coordinate the tree accepts.
+     * @param minY The smallest y coordinate the tree accepts.
+     * @param maxX The largest x coordinate the tree accepts.
+     * @param maxY The largest y coordinate the tree accepts.
+     * @param bucketingParam The maximum number of points a black node holds.
+     * @throws RuntimeException if the rectangle is empty or not finite, or if bucketingParam&lt;=0.
+     */
+    public FloatPRQuadTree(float minX, float minY, float maxX, float maxY, int bucketingParam){
+        tree = new RealPRQuadTree.Floats<>(minX, minY, maxX, maxY, bucketingParam, (x, y) -> new FloatKDPoint((float) x, (float) y));
+    }
+
+    /**
+     * Inserts {@code p} into the tree. If {@code p} is <b>already</b> in the tree, this method has no effect.
+     * @param p The {@link FloatKDPoint} to insert.
+     * @throws RuntimeException if {@code p} is not 2-dimensional, has a {@code NaN} coordinate or lies outside of the
+     * rectangle spanned by the tree.
+     * @throws CentroidAccuracyException if the insertion would split a quadrant beyond the precision of {@code double}s.
+     */
+    public void insert(FloatKDPoint p) throws CentroidAccuracyException{
+        check(p);
+        tree.insert(p.coords[0], p.coords[1], p);
+    }
+
+    /**
+     * Deletes {@code p} from the tree, if it is in it.
+     * @param p The {@link FloatKDPoint} to delete.
+     * @throws RuntimeException if {@code p} is not 2-dimensional or has a {@code NaN} coordinate.
+     */
+    public void delete(FloatKDPoint p){
+        check(p);
+        tree.delete(p.coords[0], p.coords[1]);
+    }
+
+    /**
+     * Searches the tree for {@code p}.
+     * @param p The {@link FloatKDPoint} to search for.
+     * @return true if {@code p} is in the tree, false otherwise.
+     * @throws RuntimeException if {@code p} is not 2-dimensional or has a {@code NaN} coordinate.
+     */
+    public boolean search(FloatKDPoint p){
+        check(p);
+        return tree.search(p.coords[0], p.coords[1]);
+    }
+
+    /**
+     * Returns all the points of the tree within {@code range}, <b>inclusive</b>, of {@code p}, except for {@code p}
+     * itself. Quadrants farther than range from {@code p} are skipped.
+     * @param p The anchor of the query.
+     * @param range The radius of the query.
+     * @return A {@link Collection} of fresh {@link FloatKDPoint}s.
+     * @throws RuntimeException if {@code p} is not 2-dimensional or has a {@code NaN} coordinate.
+     */
+    public Collection<FloatKDPoint> range(FloatKDPoint p, double range){
+        check(p);
+        return tree.range(p.coords[0], p.coords[1], range);
+    }
+
+    /**
+     * Returns the nearest neighbor of {@code p} in the tree, other than {@code p} itself. Quadrants are visited
+     * closest first, and skipped if they are no closer than the best point found so far.
+     * @param p The anchor of the query.
+     * @return A fresh {@link FloatKDPoint}, or null if the tree holds no point other than {@code p}.
+     * @throws RuntimeException if {@code p} is not 2-dimensional or has a {@code NaN} coordinate.
+     */
+    public FloatKDPoint nearestNeighbor(FloatKDPoint p){
+        check(p);
+        return tree.nearestNeighbor(p.coords[0], p.coords[1]);
+    }
+
+    /**
+     * Returns the k nearest neighbors of {@code p} in the tree, other than {@code p} itself, prioritized by their
+     * Euclidean distance from {@code p}. Quadrants are visited closest first, and skipped once the queue is full if
+     * they are no closer than its worst neighbor.
+     * @param k The number of neighbors to retrieve.
+     * @param p The anchor of the query.
+     * @return A {@link BoundedPriorityQueue} of at most k fresh {@link FloatKDPoint}s.
+     * @throws RuntimeException if k&lt;=0, or if {@code p} is not 2-dimensional or has a {@code NaN} coordinate.
+     */
+    public BoundedPriorityQueue<FloatKDPoint> kNearestNeighbors(int k, FloatKDPoint p){
+        if (k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        check(p);
+        return tree.kNearestNeighbors(k, p.coords[0], p.coords[1]);
+    }
+
+    /**
+     * Returns the height of the tree: -1 if it is empty, and 0 if it consists of a single black node.
+     * @return The height of the tree.
+     */
+    public int height(){
+        return tree.height();
+    }
+
+    /**
+     * Returns the number of points in the tree.
+     * @return The number of points in the tree.
+     */
+    public int count(){
+        return tree.count();
+    }
+
+    /**
+     * Checks whether the tree is empty.
+     * @return true if the tree holds no point, false otherwise.
+     */
+    public boolean isEmpty(){
+        return tree.count() == 0;
+    }
+
+    private static void check(FloatKDPoint p){
+        if (p.coords.length != 2)
+            throw new RuntimeException("The FloatKDPoint provided, " + p + ", is invalid: Please provide a 2-dimensional point.");
+        p.checkNotNaN();
+    }
+}
@@ -2,12 +2,17 @@ package spatial.trees;
 
 import spatial.kdpoint.KDPoint;
 import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNQueryContext;
 import spatial.knnutils.NNData;
+import spatial.knnutils.QueryCost;
+import spatial.metrics.DistanceMetric;
 import spatial.nodes.KDTreeNode;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * <p>{@link KDTree} implements <em>K</em>-D Trees, where  <em>K</em> is a positive integer
@@ -48,6 +53,12 @@ public class KDTree implements SpatialDictionary, SpatialQuerySolver {
 	 */
 	public static final double INFTY = -1.0;
 
+	/**
+	 * The default subtree size at or below which {@link #parallelBulkLoad(int, Collection)} stops forking
+	 * and builds sequentially.
+	 */
+	public static final int DEFAULT_PARALLEL_CUTOFF = 1 << 13;
+
 	/* ************************************************************************** */
 	/* ************************* PRIVATE FIELDS ********************************* */
 	/* *********  JAVADOC STILL GENERATABLE, FOR EDUCATIONAL PURPOSES ************* */
@@ -74,6 +85,18 @@ public class KDTree implements SpatialDictionary, SpatialQuerySolver {
 	 */
 	private int count;
 
+	/**
+	 * The weight-balance threshold of a self-balancing tree, or 0 if the tree does not balance itself.
+	 * @see #KDTree(int, double)
+	 */
+	private double alpha;
+
+	/**
+	 * The largest value that {@link #count} has reached since the last time the entire tree was rebuilt. Only
+	 * maintained by self-balancing trees.
+	 */
+	private int maxCount;
+
 
 	/* *********************************************************************************************** */
 	/* *************************** PUBLIC METHOD IMPLEMENTATION ************************************* */
@@ -101,13 +124,128 @@ public class KDTree implements SpatialDictionary, SpatialQuerySolver {
 		count = 0;
 	}
 
+	/**
+	 * <p>This constructor creates a <b>self-balancing</b> <em>k</em>-d tree, which stays balanced under any order of
+	 * insertions, including sorted or drifting ones. Every node keeps the size of its subtree, and after every insertion,
+	 * the topmost node on the insertion path in which one subtree holds more than a fraction alpha of the node's
+	 * {@link KDPoint}s is rebuilt into a perfectly balanced subtree (a scapegoat-tree-style partial rebuild). The height of
+	 * the tree therefore stays within <em>log<sub>1/alpha</sub>(n)</em>. Rebuilding a subtree of m {@link KDPoint}s by
+	 * median selection takes <em>O(m log m)</em> time, so the amortized rebuilding cost is <em>O(log<sup>2</sup> n)</em>
+	 * per insertion. When deletions shrink the tree below a fraction alpha of its historical maximum size, the entire
+	 * tree is rebuilt.</p>
+	 *
+	 * <p>Smaller values of alpha give shorter trees at the expense of more frequent rebuilds; 0.7 is a reasonable
+	 * default. Insertions send equal coordinates to the right, but rebuilds split runs of equal coordinates at their
+	 * median, so the bounds hold for {@link KDPoint}s that share coordinates, and for copies of the same
+	 * {@link KDPoint}, too. {@link #insert(KDPoint, QueryCost)} reports the work that the rebuilds do.</p>
+	 * @param k The dimensionality of this.
+	 * @param alpha The weight-balance threshold, strictly between 0.5 and 1.
+	 * @throws RuntimeException if k&lt;=0 or alpha is not strictly between 0.5 and 1.
+	 * @see KDTreeNode#rebalance(KDPoint, int, int, double)
+	 */
+	public KDTree(int k, double alpha){
+		this(k);
+		if(!(alpha > 0.5 && alpha < 1))
+			throw new RuntimeException("The value of alpha provided, " + alpha + ", is invalid: Please provide a value strictly between 0.5 and 1.");
+		this.alpha = alpha;
+	}
+
+	/**
+	 * <p>Static factory that builds a <b>height-balanced</b> 2-D tree over the provided {@link KDPoint}s in
+	 * <em>O(n log n)</em> time.</p>
+	 * @param points The {@link KDPoint}s to index. They are <b>not</b> copied; see {@link #bulkLoad(int, Collection)}.
+	 * @return A freshly built {@link KDTree} containing all of {@code points}.
+	 * @see #bulkLoad(int, Collection)
+	 */
+	public static KDTree bulkLoad(Collection<KDPoint> points){
+		return bulkLoad(DEFAULT_DIMS, points);
+	}
+
+	/**
+	 * <p>Static factory that builds a <b>height-balanced</b> <em>k</em>-d tree over the provided {@link KDPoint}s by
+	 * recursive median selection on the cycling splitting dimension. This takes <em>O(n log n)</em> time and guarantees
+	 * a height of <em>floor(log2(n))</em>, regardless of the order in which the {@link KDPoint}s are provided. Successive
+	 * calls to {@link #insert(KDPoint)} on sorted or clustered input, by contrast, can degenerate the tree into a linked
+	 * list.</p>
+	 *
+	 * <p>Every node splits at the true median, even when a run of {@link KDPoint}s shares the median coordinate, so
+	 * clustered input and copies of the same {@link KDPoint} stay balanced too. Such runs end up on both sides of the
+	 * node, which {@link #search(KDPoint)} and {@link #delete(KDPoint)} account for.</p>
+	 *
+	 * <p>To keep loading tens of millions of {@link KDPoint}s cheap, the {@link KDPoint}s are stored <b>by reference</b>.
+	 * The caller must not mutate them after handing them to the tree.</p>
+	 *
+	 * @param k The dimensionality of the tree.
+	 * @param points The {@link KDPoint}s to index.
+	 * @return A freshly built {@link KDTree} containing all of {@code points}.
+	 * @throws RuntimeException if k&lt;=0.
+	 * @see KDTreeNode#build(KDPoint[], int, int, int, int)
+	 */
+	public static KDTree bulkLoad(int k, Collection<KDPoint> points){
+		KDTree tree = new KDTree(k);
+		KDPoint[] pts = points.toArray(new KDPoint[0]);
+		tree.root = KDTreeNode.build(pts, 0, pts.length, 0, k);
+		tree.count = pts.length;
+		return tree;
+	}
+
+	/**
+	 * Parallel version of {@link #bulkLoad(int, Collection)} that runs in the common {@link ForkJoinPool},
+	 * with a cutoff of {@link #DEFAULT_PARALLEL_CUTOFF}.
+	 * @param k The dimensionality of the tree.
+	 * @param points The {@link KDPoint}s to index. They are <b>not</b> copied.
+	 * @return A freshly built {@link KDTree} containing all of {@code points}.
+	 * @throws RuntimeException if k&lt;=0.
+	 * @see #parallelBulkLoad(int, Collection, ForkJoinPool, int)
+	 */
+	public static KDTree parallelBulkLoad(int k, Collection<KDPoint> points){
+		return parallelBulkLoad(k, points, ForkJoinPool.commonPool(), DEFAULT_PARALLEL_CUTOFF);
+	}
+
+	/**
+	 * <p>Parallel version of {@link #bulkLoad(int, Collection)}. The two halves around every median are built as
+	 * separate tasks of {@code pool}, until they shrink to {@code cutoff} {@link KDPoint}s or fewer. The resulting tree
+	 * is <b>structurally identical</b> to the one that {@link #bulkLoad(int, Collection)} builds over the same input.</p>
+	 * @param k The dimensionality of the tree.
+	 * @param points The {@link KDPoint}s to index. They are <b>not</b> copied.
+	 * @param pool The {@link ForkJoinPool} in which to run the build.
+	 * @param cutoff The subtree size at or below which building continues sequentially.
+	 * @return A freshly built {@link KDTree} containing all of {@code points}.
+	 * @throws RuntimeException if k&lt;=0 or cutoff&lt;=0.
+	 * @see KDTreeNode#build(KDPoint[], int, int, int, int, ForkJoinPool, int)
+	 */
+	public static KDTree parallelBulkLoad(int k, Collection<KDPoint> points, ForkJoinPool pool, int cutoff){
+		if(cutoff <= 0)
+			throw new RuntimeException("The cutoff provided, " + cutoff + ", is invalid: Please provide a positive integer.");
+		KDTree tree = new KDTree(k);
+		KDPoint[] pts = points.toArray(new KDPoint[0]);
+		tree.root = KDTreeNode.build(pts, 0, pts.length, 0, k, pool, cutoff);
+		tree.count = pts.length;
+		return tree;
+	}
+
 	@Override
 	public void insert(KDPoint p){
+		insert(p, null);
+	}
+
+	/**
+	 * Inserts a {@link KDPoint} like {@link #insert(KDPoint)}, additionally charging {@code cost} one visit for every
+	 * node that a rebuild moves, if this is a self-balancing tree.
+	 * @param p The {@link KDPoint} to insert.
+	 * @param cost A {@link QueryCost} that accumulates the number of nodes rebuilt, or {@code null}.
+	 * @see KDTreeNode#rebalance(KDPoint, int, int, double, QueryCost)
+	 */
+	public void insert(KDPoint p, QueryCost cost){
 		if(root == null)
 			root = new KDTreeNode(p);
 		else
 			root.insert(p, 0, dims);
 		count++;
+		if(alpha > 0) {
+			root = root.rebalance(p, 0, dims, alpha, cost);
+			maxCount = Math.max(maxCount, count);
+		}
 	}
 
 	@Override
@@ -116,6 +254,10 @@ public class KDTree implements SpatialDictionary, SpatialQuerySolver {
 			if(search(p)) {
 				root = root.delete(p, 0, dims);
 				count--; // Guaranteed successful deletion.
+				if(alpha > 0 && count < alpha * maxCount) {
+					root = (root == null) ? null : root.rebuild(0, dims);
+					maxCount = count;
+				}
 			}
 		}
 	}
@@ -128,31 +270,150 @@ public class KDTree implements SpatialDictionary, SpatialQuerySolver {
 
 	@Override
 	public Collection<KDPoint> range(KDPoint p, double range){
+		return range(p, range, (QueryCost) null);
+	}
+
+	/**
+	 * Performs a range query like {@link #range(KDPoint, double)}, additionally charging every visited node
+	 * to {@code cost}.
+	 * @param p The query {@link KDPoint}.
+	 * @param range The maximum distance from p, <b>INCLUSIVE</b>, of the {@link KDPoint}s to report.
+	 * @param cost A {@link QueryCost} that accumulates the number of nodes visited, or {@code null}.
+	 * @return A {@link Collection} over all {@link KDPoint}s which satisfy our query.
+	 * @see KDTreeNode#range(KDPoint, Collection, double, int, int, QueryCost)
+	 */
+	public Collection<KDPoint> range(KDPoint p, double range, QueryCost cost){
 		LinkedList<KDPoint> pts = new LinkedList<>();
 		if(root == null)
 			return pts; // empty
 		else
-			root.range(p, pts, range, 0, dims);
+			root.range(p, pts, range, 0, dims, cost);
 		return pts;
 	}
 
 	@Override
 	public KDPoint nearestNeighbor(KDPoint p){
-		NNData<KDPoint> n = new NNData<>(null, 10000);
+		return nearestNeighbor(p, (QueryCost) null);
+	}
+
+	/**
+	 * Performs a nearest neighbor query like {@link #nearestNeighbor(KDPoint)}, additionally charging every
+	 * visited node to {@code cost}.
+	 * @param p The query {@link KDPoint}.
+	 * @param cost A {@link QueryCost} that accumulates the number of nodes visited, or {@code null}.
+	 * @return The {@link KDPoint} closest to p other than p itself, or null if there is no such {@link KDPoint}.
+	 * @see KDTreeNode#nearestNeighbor(KDPoint, int, NNData, int, QueryCost)
+	 */
+	public KDPoint nearestNeighbor(KDPoint p, QueryCost cost){
+		NNData<KDPoint> n = new NNData<>(null, INFTY);
 		if(root != null)
-			n = root.nearestNeighbor(p, 0, n, dims);
+			n = root.nearestNeighbor(p, 0, n, dims, cost);
 		return n.getBestGuess();
 	}
 
 	@Override
 	public BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p){
+		return kNearestNeighbors(k, p, (QueryCost) null);
+	}
+
+	/**
+	 * Performs a k-nearest neighbors query like {@link #kNearestNeighbors(int, KDPoint)}, additionally charging
+	 * every visited node to {@code cost}.
+	 * @param k A positive integer denoting the amount of neighbors to return.
+	 * @param p The query point.
+	 * @param cost A {@link QueryCost} that accumulates the number of nodes visited, or {@code null}.
+	 * @return A {@link BoundedPriorityQueue} containing the k-nearest neighbors of p.
+	 * @throws RuntimeException If k&lt;=0.
+	 * @see KDTreeNode#kNearestNeighbors(int, KDPoint, BoundedPriorityQueue, int, int, QueryCost)
+	 */
+	public BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p, QueryCost cost){
 		if(k <= 0)
 			throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
 		BoundedPriorityQueue<KDPoint> queue = new BoundedPriorityQueue<>(k);
 		if(root != null)
-			root.kNearestNeighbors(k, p, queue, 0, dims);
+			root.kNearestNeighbors(k, p, queue, 0, dims, cost);
 		return queue; // Might be empty; that's not a problem.
 	}
+	/**
+	 * Performs a k-nearest neighbors query that writes its results into a caller-owned {@link KNNQueryContext} instead of
+	 * a freshly allocated {@link BoundedPriorityQueue}. Reusing the same context for every query makes queries allocate
+	 * nothing once the context has warmed up.
+	 * @param k A positive integer denoting the amount of neighbors to return.
+	 * @param p The query point.
+	 * @param context The context to write the results into. Its previous contents are discarded.
+	 * @throws RuntimeException If k&lt;=0.
+	 * @see KDTreeNode#kNearestNeighbors(KDTreeNode, KDPoint, KNNQueryContext, int)
+	 */
+	public void kNearestNeighbors(int k, KDPoint p, KNNQueryContext context){
+		context.reset(k, p);
+		KDTreeNode.kNearestNeighbors(root, p, context, dims);
+	}
+
+	/**
+	 * Performs a nearest neighbor query like {@link #nearestNeighbor(KDPoint)}, using a caller-owned
+	 * {@link KNNQueryContext} instead of allocating an {@link NNData}.
+	 * @param p The query {@link KDPoint}.
+	 * @param context The context to search with. Its previous contents are discarded.
+	 * @return The {@link KDPoint} closest to p other than p itself, or null if there is no such {@link KDPoint}. It is
+	 * the tree's own {@link KDPoint}, not a copy.
+	 * @see #kNearestNeighbors(int, KDPoint, KNNQueryContext)
+	 */
+	public KDPoint nearestNeighbor(KDPoint p, KNNQueryContext context){
+		kNearestNeighbors(1, p, context);
+		return context.size() == 0 ? null : context.getPoint(0);
+	}
+
+	/**
+	 * Performs a range query like {@link #range(KDPoint, double)}, measuring distances with the given
+	 * {@link DistanceMetric} instead of the Euclidean distance.
+	 * @param p The query {@link KDPoint}.
+	 * @param range The maximum distance from p, according to the metric, <b>INCLUSIVE</b>.
+	 * @param metric The {@link DistanceMetric} to measure distances with.
+	 * @return A {@link Collection} over all {@link KDPoint}s within range of p, other than p itself.
+	 * @see KDTreeNode#range(KDPoint, Collection, double, int, int, DistanceMetric)
+	 */
+	public Collection<KDPoint> range(KDPoint p, double range, DistanceMetric metric){
+		LinkedList<KDPoint> pts = new LinkedList<>();
+		if(root != null)
+			root.range(p, pts, range, 0, dims, metric);
+		return pts;
+	}
+
+	/**
+	 * Performs a nearest neighbor query like {@link #nearestNeighbor(KDPoint)}, measuring distances with the given
+	 * {@link DistanceMetric} instead of the Euclidean distance.
+	 * @param p The query {@link KDPoint}.
+	 * @param metric The {@link DistanceMetric} to measure distances with.
+	 * @return The {@link KDPoint} closest to p other than p itself, or null if there is no such {@link KDPoint}.
+	 * @see KDTreeNode#nearestNeighbor(KDPoint, int, NNData, int, DistanceMetric)
+	 */
+	public KDPoint nearestNeighbor(KDPoint p, DistanceMetric metric){
+		NNData<KDPoint> n = new NNData<>(null, INFTY);
+		if(root != null)
+			root.nearestNeighbor(p, 0, n, dims, metric);
+		return n.getBestGuess();
+	}
+
+	/**
+	 * Performs a k-nearest neighbors query like {@link #kNearestNeighbors(int, KDPoint)}, measuring distances with the
+	 * given {@link DistanceMetric} instead of the Euclidean distance.
+	 * @param k A positive integer denoting the amount of neighbors to return.
+	 * @param p The query point.
+	 * @param metric The {@link DistanceMetric} to measure distances with.
+	 * @return A {@link BoundedPriorityQueue} containing the k-nearest neighbors of p, prioritized by their distance
+	 * from p according to the metric.
+	 * @throws RuntimeException If k&lt;=0.
+	 * @see KDTreeNode#kNearestNeighbors(int, KDPoint, BoundedPriorityQueue, int, int, DistanceMetric)
+	 */
+	public BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p, DistanceMetric metric){
+		if(k <= 0)
+			throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+		BoundedPriorityQueue<KDPoint> queue = new BoundedPriorityQueue<>(k);
+		if(root != null)
+			root.kNearestNeighbors(k, p, queue, 0, dims, metric);
+		return queue;
+	}
+
 	@Override
 	public int height(){
 		return root == null ? -1 : root.height();
@@ -160,7 +421,7 @@ public class KDTree implements SpatialDictionary, SpatialQuerySolver {
 
 	@Override
 	public boolean isEmpty(){
-		return height() == -1;
+		return root == null;
 	}
 
 	@Override
@@ -168,6 +429,38 @@ public class KDTree implements SpatialDictionary, SpatialQuerySolver {
 		return count;
 	}
 
+	/**
+	 * Counts the {@link KDPoint}s that lie in the axis-aligned box {@code [lo, hi]}, bounds <b>inclusive</b>. Thanks to
+	 * the subtree sizes maintained by the nodes, only nodes whose cells straddle the boundary of the box are visited.
+	 * @param lo The lower corner of the box.
+	 * @param hi The upper corner of the box.
+	 * @return The number of {@link KDPoint}s in the box, counting duplicates.
+	 * @see KDTreeNode#countInBox(KDPoint, KDPoint, int, int)
+	 */
+	public int countInBox(KDPoint lo, KDPoint hi){
+		return root == null ? 0 : root.countInBox(lo, hi, 0, dims);
+	}
+
+	/**
+	 * Returns the <b>rank</b> of {@code value} along dimension {@code dim}: the number of {@link KDPoint}s whose
+	 * coordinate on {@code dim} is <b>strictly smaller</b> than {@code value}.
+	 * @param dim The dimension to rank on, between 0 and k-1.
+	 * @param value The value to rank.
+	 * @return The number of {@link KDPoint}s whose coordinate on {@code dim} is smaller than {@code value}.
+	 * @throws RuntimeException if dim is not a dimension of this.
+	 */
+	public int rank(int dim, int value){
+		if(dim < 0 || dim >= dims)
+			throw new RuntimeException("The dimension provided, " + dim + ", is invalid: Please provide an integer between 0 and " + (dims - 1) + ".");
+		if(value == Integer.MIN_VALUE)
+			return 0;
+		int[] lo = new int[dims], hi = new int[dims];
+		Arrays.fill(lo, Integer.MIN_VALUE);
+		Arrays.fill(hi, Integer.MAX_VALUE);
+		hi[dim] = value - 1;
+		return countInBox(new KDPoint(lo), new KDPoint(hi));
+	}
+
 	/**
 	 * Returns the {@link KDPoint} located at the <b>root</b>of the KDTree.
 	 * Only non-interface method! Added primarily for debugging purposes.
@@ -0,0 +1,213 @@
+package spatial.trees;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNQueryContext;
+import spatial.knnutils.SpatialEntry;
+import spatial.nodes.KDTreeNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>{@link KDTreeMap} is a {@link SpatialMap} backed by the same {@link KDTreeNode}s as a {@link KDTree}, each of which
+ * also holds the value of its {@link KDPoint}. It therefore follows the same rules as {@link KDTree}, and offers the
+ * same bulk-loading, self-balancing and pruned queries; the only difference is that it holds every {@link KDPoint} at
+ * most once. Queries read the values straight off the nodes they visit, so no second lookup is needed per result.</p>
+ *
+ * <p>The map keeps its own copies of the {@link KDPoint}s it is given, except when bulk-loaded, and the
+ * {@link KDPoint}s of the entries it returns are fresh copies.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @param <V> The type of the values stored with the {@link KDPoint}s.
+ *
+ * @see KDTree
+ * @see KDTreeNode
+ * @see PRQuadTreeMap
+ */
+public class KDTreeMap<V> implements SpatialMap<V> {
+
+    private final int dims;
+    private KDTreeNode root;
+    private int count;
+
+    /**
+     * The weight-balance threshold of a self-balancing map, or 0 if the map does not balance itself.
+     * @see KDTree#KDTree(int, double)
+     */
+    private double alpha;
+
+    /**
+     * The largest value that {@link #count} has reached since the last time the entire tree was rebuilt. Only
+     * maintained by self-balancing maps.
+     */
+    private int maxCount;
+
+    /**
+     * Creates an empty 2-D {@link KDTreeMap}.
+     */
+    public KDTreeMap(){
+        this(KDTree.DEFAULT_DIMS);
+    }
+
+    /**
+     * Creates an empty {@link KDTreeMap} over {@link KDPoint}s of dimensionality k.
+     * @param k The dimensionality of the {@link KDPoint}s.
+     * @throws RuntimeException if k&lt;=0.
+     */
+    public KDTreeMap(int k){
+        if (k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        dims = k;
+    }
+
+    /**
+     * Creates an empty <b>self-balancing</b> {@link KDTreeMap}, which rebuilds its subtrees exactly like the
+     * self-balancing {@link KDTree#KDTree(int, double) KDTree}, and therefore stays balanced under any order of
+     * insertions, including sorted ones.
+     * @param k The dimensionality of the {@link KDPoint}s.
+     * @param alpha The weight-balance threshold, strictly between 0.5 and 1.
+     * @throws RuntimeException if k&lt;=0 or alpha is not strictly between 0.5 and 1.
+     */
+    public KDTreeMap(int k, double alpha){
+        this(k);
+        if (!(alpha > 0.5 && alpha < 1))
+            throw new RuntimeException("The value of alpha provided, " + alpha + ", is invalid: Please provide a value strictly between 0.5 and 1.");
+        this.alpha = alpha;
+    }
+
+    /**
+     * Static factory that builds a <b>height-balanced</b> {@link KDTreeMap} over the provided entries in
+     * <em>O(n log n)</em> time, like {@link KDTree#bulkLoad(int, Collection)}.
+     * @param k The dimensionality of the {@link KDPoint}s.
+     * @param entries The entries to index. Their {@link KDPoint}s are stored <b>by reference</b>, so the caller must not
+     *                mutate them afterwards.
+     * @param <V> The type of the values.
+     * @return A freshly built {@link KDTreeMap} containing all of {@code entries}.
+     * @throws RuntimeException if k&lt;=0, or if some {@link KDPoint} is not k-dimensional.
+     */
+    public static <V> KDTreeMap<V> bulkLoad(int k, Map<KDPoint, ? extends V> entries){
+        KDTreeMap<V> map = new KDTreeMap<>(k);
+        KDPoint[] pts = new KDPoint[entries.size()];
+        Object[] values = new Object[pts.length];
+        int i = 0;
+        for (Map.Entry<KDPoint, ? extends V> e : entries.entrySet()){
+            pts[i] = map.check(e.getKey());
+            values[i++] = e.getValue();
+        }
+        map.root = KDTreeNode.build(pts, values, 0, pts.length, 0, k);
+        map.count = pts.length;
+        return map;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws RuntimeException if {@code p} is not k-dimensional.
+     */
+    @Override
+    public V put(KDPoint p, V value){
+        KDTreeNode n = find(check(p));
+        if (n != null){
+            V old = SpatialEntries.cast(n.getValue());
+            n.setValue(value);
+            return old;
+        }
+        if (root == null)
+            root = new KDTreeNode(p, value);
+        else
+            root.insert(p, value, 0, dims);
+        count++;
+        if (alpha > 0){
+            root = root.rebalance(p, 0, dims, alpha);
+            maxCount = Math.max(maxCount, count);
+        }
+        return null;
+    }
+
+    @Override
+    public V get(KDPoint p){
+        KDTreeNode n = find(check(p));
+        return n == null ? null : SpatialEntries.cast(n.getValue());
+    }
+
+    @Override
+    public boolean containsKey(KDPoint p){
+        return find(check(p)) != null;
+    }
+
+    private KDTreeNode find(KDPoint p){
+        return root == null ? null : root.find(p, 0, dims);
+    }
+
+    @Override
+    public V remove(KDPoint p){
+        KDTreeNode n = find(check(p));
+        if (n == null)
+            return null;
+        V old = SpatialEntries.cast(n.getValue());
+        root = root.delete(p, 0, dims);
+        count--;
+        if (alpha > 0 && count < alpha * maxCount){
+            root = (root == null) ? null : root.rebuild(0, dims);
+            maxCount = count;
+        }
+        return old;
+    }
+
+    @Override
+    public Collection<SpatialEntry<V>> range(KDPoint p, double range){
+        check(p);
+        if (root == null)
+            return new LinkedList<>();
+        List<KDPoint> points = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        root.range(p, points, values, range, 0, dims);
+        return SpatialEntries.ofRange(p, points, values);
+    }
+
+    @Override
+    public SpatialEntry<V> nearestNeighbor(KDPoint p){
+        KNNQueryContext context = kNearestNeighbors(1, check(p), new KNNQueryContext());
+        return context.size() == 0 ? null : SpatialEntries.ofNeighbor(context, 0);
+    }
+
+    @Override
+    public BoundedPriorityQueue<SpatialEntry<V>> kNearestNeighbors(int k, KDPoint p){
+        return SpatialEntries.ofNeighbors(k, kNearestNeighbors(k, check(p), new KNNQueryContext()));
+    }
+
+    /**
+     * Runs the pruned, iterative k-nearest neighbors query of the nodes, which reports every neighbor with its value.
+     * @see KDTreeNode#kNearestNeighbors(KDTreeNode, KDPoint, KNNQueryContext, int)
+     */
+    private KNNQueryContext kNearestNeighbors(int k, KDPoint p, KNNQueryContext context){
+        context.reset(k, p);
+        KDTreeNode.kNearestNeighbors(root, p, context, dims);
+        return context;
+    }
+
+    @Override
+    public int height(){
+        return root == null ? -1 : root.height();
+    }
+
+    @Override
+    public boolean isEmpty(){
+        return count == 0;
+    }
+
+    @Override
+    public int count(){
+        return count;
+    }
+
+    private KDPoint check(KDPoint p){
+        if (p.coords.length != dims)
+            throw new RuntimeException("The KDPoint provided, " + p + ", is invalid: Please provide a " + dims + "-dimensional KDPoint.");
+        return p;
+    }
+}
@@ -0,0 +1,477 @@
+package spatial.trees;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * <p>{@link LinearQuadTree} is a <b>pointerless</b> (&quot;linear&quot;) PR-QuadTree. It decomposes the same
+ * 2<sup>k</sup> &#42; 2<sup>k</sup> square as a {@link PRQuadTree} with the same k and bucketing parameter, centered at
+ * (0, 0), into the same quadrants, but it stores no nodes at all: every {@link KDPoint} is kept as its Z-order (Morton)
+ * code, in a <b>single</b> sorted {@code long[]}.</p>
+ *
+ * <p>The Morton code of a {@link KDPoint} interleaves the bits of its coordinates, offset by 2<sup>k-1</sup> so that
+ * they are non-negative, with the bits of y in the odd positions. Every quadrant of the decomposition is then the set of
+ * codes that share a prefix, which is an <b>interval</b> of the sorted array, and the four children of a quadrant split
+ * its interval into four consecutive ones. Queries walk the quadrants like {@link PRQuadTree} walks its nodes, finding
+ * the interval of every quadrant they visit with a binary search inside the interval of its parent. A quadrant that
+ * holds at most as many {@link KDPoint}s as the bucketing parameter plays the role of a {@link spatial.nodes.PRQuadBlackNode}:
+ * it is scanned sequentially. Codes take up to 64 bits, so they are stored with their sign bit flipped, which makes
+ * their signed order equal to their unsigned order.</p>
+ *
+ * <p>Like a {@link PRQuadTree}, the square is closed: the {@link KDPoint}s on its top and right sides, whose offset
+ * coordinate is 2<sup>k</sup>, belong to the last cell along that axis. When k&lt;32, every code is therefore followed
+ * by two more bits, set for the coordinates that lie on the top or right side, so that the {@link KDPoint}s folded into
+ * a cell get distinct keys that still sort inside the interval of the cell. Such a cell can hold up to four
+ * {@link KDPoint}s and, since it cannot be split, {@link #insert(KDPoint)} throws a {@link CentroidAccuracyException}
+ * when it would exceed the bucketing parameter, exactly like a {@link PRQuadTree}. When k=32, no {@code int}
+ * coordinate reaches the top or right side, and the codes take all 64 bits.</p>
+ *
+ * <p>A {@link KDPoint} costs 8 bytes and no object, and every scan is sequential in memory. In exchange, insertions and
+ * deletions shift the array, which makes them take linear time, so {@link LinearQuadTree} is meant for read-mostly
+ * workloads, ideally built at once with {@link #LinearQuadTree(int, int, Collection)}. Like {@link PRQuadTree}, it holds
+ * every {@link KDPoint} at most once, its range queries report a {@link KDPoint} equal to the anchor, and its nearest
+ * neighbor queries do not. Queries return fresh {@link KDPoint}s.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see PRQuadTree
+ * @see FlatKDTree
+ */
+public class LinearQuadTree implements SpatialDictionary, SpatialQuerySolver {
+
+    /**
+     * The exponent of the side of the square spanned by the tree. See {@link PRQuadTree#PRQuadTree(int, int)}.
+     */
+    private final int k;
+
+    /**
+     * The maximum number of {@link KDPoint}s that a quadrant can hold before it is split.
+     */
+    private final int bucketingParam;
+
+    /**
+     * 2<sup>k-1</sup>, the offset that maps the coordinates of the square to [0, 2<sup>k</sup>).
+     */
+    private final long half;
+
+    /**
+     * The number of bits that follow the code of the cell in a key: 2 when k&lt;32, for the {@link KDPoint}s folded
+     * into the last cell along either axis, and 0 when k=32, where none can be.
+     */
+    private final int foldBits;
+
+    /**
+     * The Morton codes of the {@link KDPoint}s, with their sign bits flipped, in increasing order. Only the first
+     * {@link #count} entries are used.
+     */
+    private long[] keys;
+
+    /**
+     * The number of {@link KDPoint}s held by the tree.
+     */
+    private int count;
+
+    /**
+     * Creates an empty {@link LinearQuadTree}.
+     * @param k The exponent of 2 that defines the side of the square spanned by the tree, as in
+     *          {@link PRQuadTree#PRQuadTree(int, int)}. Since Morton codes are {@code long}s, it can be at most 32, which
+     *          covers every {@code int} coordinate.
+     * @param bucketingParam The maximum number of {@link KDPoint}s in a quadrant that is not split.
+     * @throws RuntimeException if {@code bucketingParam} &lt; 1, {@code k} &lt; 1 or {@code k} &gt; 32.
+     */
+    public LinearQuadTree(int k, int bucketingParam){
+        if(k < 1 || k > Integer.SIZE || bucketingParam < 1)
+            throw new RuntimeException("k should be between 1 and 32, and bucketingParam 1 and above. " +
+                    "Provided: k=" + k + ", bucketingParam=" + bucketingParam + ".");
+        this.k = k;
+        this.bucketingParam = bucketingParam;
+        half = 1L << (k - 1);
+        foldBits = k < Integer.SIZE ? 2 : 0;
+        keys = new long[16];
+        count = 0;
+    }
+
+    /**
+     * Builds a {@link LinearQuadTree} over the provided {@link KDPoint}s at once, in <em>O(n log n)</em> time, by sorting
+     * their codes instead of inserting them one by one. Duplicates are stored once.
+     * @param k The exponent of 2 that defines the side of the square spanned by the tree.
+     * @param bucketingParam The maximum number of {@link KDPoint}s in a quadrant that is not split.
+     * @param points The {@link KDPoint}s to index. Only their coordinates are read; the {@link KDPoint}s are not retained.
+     * @throws RuntimeException if the parameters are invalid, or if a {@link KDPoint} is not 2-dimensional or lies
+     * outside the square spanned by the tree.
+     * @throws CentroidAccuracyException if a cell of side 1 would hold more {@link KDPoint}s than the bucketing
+     * parameter, like it would when inserting them into a {@link PRQuadTree}.
+     * @see #LinearQuadTree(int, int)
+     */
+    public LinearQuadTree(int k, int bucketingParam, Collection<KDPoint> points){
+        this(k, bucketingParam);
+        keys = new long[Math.max(points.size(), 16)];
+        for(KDPoint p : points)
+            keys[count++] = keyOf(p);
+        Arrays.sort(keys, 0, count);
+        int distinct = 0;
+        for(int i = 0; i < count; i++)
+            if(distinct == 0 || keys[i] != keys[distinct - 1])
+                keys[distinct++] = keys[i];
+        count = distinct;
+        for(int i = 0; i + bucketingParam < count; i++)
+            if(sameCell(keys[i], keys[i + bucketingParam]))
+                throw new CentroidAccuracyException("The cell of " + pointAt(i) + " would hold more than " +
+                        bucketingParam + " KDPoints, but cannot be split.");
+    }
+
+    /* ******************************************************************** */
+    /* ************************** MORTON CODES ***************************** */
+    /* ******************************************************************** */
+
+    /**
+     * Spreads the low 32 bits of v into the even bit positions of a {@code long}.
+     */
+    private static long spread(long v){
+        v &= 0xFFFFFFFFL;
+        v = (v | v << 16) & 0x0000FFFF0000FFFFL;
+        v = (v | v << 8) & 0x00FF00FF00FF00FFL;
+        v = (v | v << 4) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | v << 2) & 0x3333333333333333L;
+        return (v | v << 1) & 0x5555555555555555L;
+    }
+
+    /**
+     * Gathers the even bit positions of v into its low 32 bits; the inverse of {@link #spread(long)}.
+     */
+    private static long compact(long v){
+        v &= 0x5555555555555555L;
+        v = (v | v >>> 1) & 0x3333333333333333L;
+        v = (v | v >>> 2) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | v >>> 4) & 0x00FF00FF00FF00FFL;
+        v = (v | v >>> 8) & 0x0000FFFF0000FFFFL;
+        return (v | v >>> 16) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Reports whether p lies in the square spanned by the tree, [-2<sup>k-1</sup>, 2<sup>k-1</sup>] along both axes.
+     * @throws RuntimeException if p is not 2-dimensional.
+     */
+    private boolean inSquare(KDPoint p){
+        if(p.coords.length != 2)
+            throw new RuntimeException("The KDPoint provided, " + p + ", is invalid: Please provide a 2-dimensional KDPoint.");
+        return p.coords[0] >= -half && p.coords[0] <= half && p.coords[1] >= -half && p.coords[1] <= half;
+    }
+
+    /**
+     * Returns the key of p. An offset coordinate of 2<sup>k</sup> is folded into the last cell, and flagged in the
+     * bits that follow the code of the cell.
+     * @throws RuntimeException if p is not 2-dimensional, or lies outside the square spanned by the tree.
+     */
+    private long keyOf(KDPoint p){
+        if(!inSquare(p))
+            throw new RuntimeException("The KDPoint provided, " + p + ", is invalid: Please provide a KDPoint with " +
+                    "coordinates in [" + (-half) + ", " + half + "].");
+        long x = p.coords[0] + half, y = p.coords[1] + half, foldX = x >>> k, foldY = y >>> k;
+        return keyAt(spread(x - foldX) | spread(y - foldY) << 1) | foldY << 1 | foldX;
+    }
+
+    /**
+     * Returns the key of the {@link KDPoint} that is not folded in the cell with the given code, which is the first key
+     * of that cell, and of any quadrant whose codes start there.
+     */
+    private long keyAt(long code){
+        return (code << foldBits) ^ Long.MIN_VALUE;
+    }
+
+    private long x(long key){
+        long bits = key ^ Long.MIN_VALUE;
+        return compact(bits >>> foldBits) + (foldBits == 0 ? 0 : bits & 1) - half;
+    }
+
+    private long y(long key){
+        long bits = key ^ Long.MIN_VALUE;
+        return compact(bits >>> foldBits >>> 1) + (foldBits == 0 ? 0 : bits >>> 1 & 1) - half;
+    }
+
+    /**
+     * Reports whether two keys lie in the same cell of side 1.
+     */
+    private boolean sameCell(long key1, long key2){
+        return (key1 ^ key2) >>> foldBits == 0;
+    }
+
+    private KDPoint pointAt(int i){
+        return new KDPoint((int) x(keys[i]), (int) y(keys[i]));
+    }
+
+    /**
+     * Returns the first position in [from, to) whose key is at least key, or to if there is none.
+     */
+    private int lowerBound(int from, int to, long key){
+        while(from < to){
+            int mid = (from + to) >>> 1;
+            if(keys[mid] < key)
+                from = mid + 1;
+            else
+                to = mid;
+        }
+        return from;
+    }
+
+    /* ******************************************************************** */
+    /* *************************** DICTIONARY ****************************** */
+    /* ******************************************************************** */
+
+    /**
+     * Inserts {@code p} into the tree, by shifting the keys that follow it. If {@code p} is <b>already</b> in the tree,
+     * this method has no effect.
+     * @param p The {@link KDPoint} to insert into the tree.
+     * @throws RuntimeException if {@code p} is not 2-dimensional, or lies outside the square spanned by the tree.
+     * @throws CentroidAccuracyException if the cell of side 1 of {@code p} would hold more {@link KDPoint}s than the
+     * bucketing parameter, which only the cells on the top and right sides of the square can.
+     */
+    @Override
+    public void insert(KDPoint p) throws CentroidAccuracyException{
+        long key = keyOf(p);
+        int i = lowerBound(0, count, key);
+        if(i < count && keys[i] == key)
+            return;
+        int from = i, to = i;
+        while(from > 0 && sameCell(keys[from - 1], key))
+            from--;
+        while(to < count && sameCell(keys[to], key))
+            to++;
+        if(to - from >= bucketingParam)
+            throw new CentroidAccuracyException("The cell of " + p + " would hold more than " + bucketingParam +
+                    " KDPoints, but cannot be split.");
+        if(count == keys.length)
+            keys = Arrays.copyOf(keys, 2 * count);
+        System.arraycopy(keys, i, keys, i + 1, count - i);
+        keys[i] = key;
+        count++;
+    }
+
+    @Override
+    public void delete(KDPoint p){
+        int i = indexOf(p);
+        if(i >= 0){
+            System.arraycopy(keys, i + 1, keys, i, count - i - 1);
+            count--;
+        }
+    }
+
+    @Override
+    public boolean search(KDPoint p){
+        return indexOf(p) >= 0;
+    }
+
+    /**
+     * Returns the position of the key of p, or -1 if p is not in the tree.
+     */
+    private int indexOf(KDPoint p){
+        if(!inSquare(p))
+            return -1;
+        long key = keyOf(p);
+        int i = lowerBound(0, count, key);
+        return i < count && keys[i] == key ? i : -1;
+    }
+
+    /**
+     * Returns the height of the equivalent {@link PRQuadTree}: one more than the depth of the deepest quadrant that
+     * holds more {@link KDPoint}s than the bucketing parameter. Such a quadrant contains bucketingParam + 1 consecutive
+     * keys, and the deepest quadrant that contains a run of consecutive keys is given by the common prefix of its first
+     * and last key, so a single pass over the array suffices.
+     * @return The height of the equivalent {@link PRQuadTree}, which is -1 if the tree is empty.
+     */
+    @Override
+    public int height(){
+        if(count == 0)
+            return -1;
+        int deepest = -1;
+        for(int i = 0; i + bucketingParam < count; i++){
+            int sharedBits = Long.numberOfLeadingZeros(keys[i] ^ keys[i + bucketingParam]) - (Long.SIZE - 2 * k - foldBits);
+            deepest = Math.max(deepest, sharedBits / 2);
+        }
+        return deepest + 1;
+    }
+
+    @Override
+    public boolean isEmpty(){
+        return count == 0;
+    }
+
+    @Override
+    public int count(){
+        return count;
+    }
+
+    /**
+     * A simple accessor for the dimension parameter k of the current {@link LinearQuadTree}.
+     * @return The exponent of the side of the square spanned by the tree.
+     */
+    public int getK(){
+        return k;
+    }
+
+    /**
+     * A simple accessor for the bucket size of the current {@link LinearQuadTree}.
+     * @return The bucket size of the current {@link LinearQuadTree}.
+     */
+    public int getBucketSize(){
+        return bucketingParam;
+    }
+
+    /* ******************************************************************** */
+    /* ***************************** QUERIES ******************************* */
+    /* ******************************************************************** */
+
+    /**
+     * The last integer coordinate of a quadrant along one axis: a quadrant that reaches the top or right side of the
+     * square also holds the {@link KDPoint}s on that side.
+     * @param lo The first coordinate of the quadrant along that axis.
+     * @param level The exponent of the side of the quadrant.
+     */
+    private long last(long lo, int level){
+        long side = 1L << level;
+        return lo + side == half ? lo + side : lo + side - 1;
+    }
+
+    /**
+     * The squared distance of the anchor from the closest integer point of a quadrant, saturated at
+     * {@link Long#MAX_VALUE}.
+     * @param x0 The x coordinate of the bottom left corner of the quadrant.
+     * @param y0 The y coordinate of the bottom left corner of the quadrant.
+     * @param level The exponent of the side of the quadrant.
+     */
+    private long squaredDistanceToQuadrant(long x0, long y0, int level, long ax, long ay){
+        return squaredSum(gap(ax, x0, last(x0, level)), gap(ay, y0, last(y0, level)));
+    }
+
+    /**
+     * The squared distance of the anchor from the farthest integer point of a quadrant, saturated at
+     * {@link Long#MAX_VALUE}.
+     */
+    private long squaredDistanceToFarCorner(long x0, long y0, int level, long ax, long ay){
+        return squaredSum(Math.max(Math.abs(ax - x0), Math.abs(ax - last(x0, level))),
+                Math.max(Math.abs(ay - y0), Math.abs(ay - last(y0, level))));
+    }
+
+    private static long gap(long a, long lo, long hi){
+        return a < lo ? lo - a : a > hi ? a - hi : 0;
+    }
+
+    private static long squaredSum(long dx, long dy){
+        long sq = KDPoint.saturatedSquare(dx) + KDPoint.saturatedSquare(dy);
+        return sq < 0 ? Long.MAX_VALUE : sq;
+    }
+
+    /**
+     * Returns the position of the first key of the child of a quadrant, searching inside the interval [from, to) of
+     * the quadrant. The first child starts where the quadrant starts.
+     */
+    private int childStart(long code, long childSize, int child, int from, int to){
+        return child == 0 ? from : lowerBound(from, to, keyAt(code + child * childSize));
+    }
+
+    @Override
+    public Collection<KDPoint> range(KDPoint p, double range){
+        LinkedList<KDPoint> pts = new LinkedList<>();
+        long rangeSq = KDPoint.squaredRangeBound(range), ax = p.coords[0], ay = p.coords[1];
+        if(count > 0 && squaredDistanceToQuadrant(-half, -half, k, ax, ay) <= rangeSq)
+            range(0, k, -half, -half, 0, count, ax, ay, rangeSq, pts);
+        return pts;
+    }
+
+    /**
+     * Reports the {@link KDPoint}s of a quadrant that intersects the range and holds at least one {@link KDPoint}. Its
+     * codes start at {@code code}, its bottom left corner is (x0, y0), and its keys occupy [from, to). Quadrants that
+     * lie entirely within range are copied without measuring every {@link KDPoint}, and quadrants that are not split
+     * are scanned. Only the children that intersect the range are looked up in the array.
+     */
+    private void range(long code, int level, long x0, long y0, int from, int to, long ax, long ay, long rangeSq,
+                       Collection<KDPoint> results){
+        if(squaredDistanceToFarCorner(x0, y0, level, ax, ay) <= rangeSq){
+            for(int i = from; i < to; i++)
+                results.add(pointAt(i));
+            return;
+        }
+        if(to - from <= bucketingParam){
+            for(int i = from; i < to; i++){
+                long x = x(keys[i]), y = y(keys[i]);
+                if(squaredSum(x - ax, y - ay) <= rangeSq) // within range, inclusive
+                    results.add(new KDPoint((int) x, (int) y));
+            }
+            return;
+        }
+        long childSize = 1L << (2 * (level - 1)), side = 1L << (level - 1);
+        for(int child = 0; child < 4; child++){
+            long cx = x0 + (child & 1) * side, cy = y0 + (child >> 1) * side;
+            if(squaredDistanceToQuadrant(cx, cy, level - 1, ax, ay) > rangeSq)
+                continue;
+            int childFrom = childStart(code, childSize, child, from, to);
+            int childTo = child == 3 ? to : childStart(code, childSize, child + 1, childFrom, to);
+            if(childFrom < childTo)
+                range(code + child * childSize, level - 1, cx, cy, childFrom, childTo, ax, ay, rangeSq, results);
+            from = childTo;
+        }
+    }
+
+    @Override
+    public KDPoint nearestNeighbor(KDPoint p){
+        BoundedPriorityQueue<KDPoint> queue = kNearestNeighbors(1, p);
+        return queue.isEmpty() ? null : queue.first();
+    }
+
+    @Override
+    public BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p){
+        if(k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        BoundedPriorityQueue<KDPoint> queue = new BoundedPriorityQueue<>(k);
+        if(count > 0)
+            kNearestNeighbors(0, this.k, -half, -half, 0, count, p, queue);
+        return queue; // Might be empty; that's not a problem.
+    }
+
+    /**
+     * Offers the {@link KDPoint}s of a quadrant to the queue. Its codes start at {@code code}, its bottom left corner
+     * is (x0, y0), and its keys occupy [from, to). Its children are visited closest first, and skipped if they are no
+     * closer than the worst neighbor found by then.
+     */
+    private void kNearestNeighbors(long code, int level, long x0, long y0, int from, int to, KDPoint anchor,
+                                   BoundedPriorityQueue<KDPoint> queue){
+        long ax = anchor.coords[0], ay = anchor.coords[1];
+        if(to - from <= bucketingParam){
+            for(int i = from; i < to; i++){
+                long x = x(keys[i]), y = y(keys[i]), sq = squaredSum(x - ax, y - ay);
+                if(sq != 0 && (!queue.isFull() || sq < queue.last().squaredDistance(anchor))){ // never report the anchor itself
+                    KDPoint p = new KDPoint((int) x, (int) y);
+                    queue.enqueue(p, p.euclideanDistance(anchor));
+                }
+            }
+            return;
+        }
+        long childSize = 1L << (2 * (level - 1)), side = 1L << (level - 1);
+        long[] distances = new long[4];
+        int[] order = new int[4];
+        for(int child = 0; child < 4; child++){
+            long dist = squaredDistanceToQuadrant(x0 + (child & 1) * side, y0 + (child >> 1) * side, level - 1, ax, ay);
+            int j = child;
+            for(; j > 0 && distances[j - 1] > dist; j--){ // Insertion sort: stable, so ties keep the Z order.
+                distances[j] = distances[j - 1];
+                order[j] = order[j - 1];
+            }
+            distances[j] = dist;
+            order[j] = child;
+        }
+        for(int i = 0; i < 4; i++){
+            if(queue.isFull() && distances[i] >= queue.last().squaredDistance(anchor))
+                break; // Farther quadrants cannot hold anything closer either.
+            int child = order[i];
+            int childFrom = childStart(code, childSize, child, from, to);
+            int childTo = child == 3 ? to : childStart(code, childSize, child + 1, childFrom, to);
+            if(childFrom < childTo)
+                kNearestNeighbors(code + child * childSize, level - 1, x0 + (child & 1) * side, y0 + (child >> 1) * side,
+                        childFrom, childTo, anchor, queue);
+        }
+    }
+}
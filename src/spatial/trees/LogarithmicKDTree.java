@@ -0,0 +1,231 @@
+package spatial.trees;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.NNData;
+
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * <p>{@link LogarithmicKDTree} is a <b>dynamic</b> <em>K</em>-D index for insert-heavy workloads, built with the
+ * <em>logarithmic method</em> of Bentley and Saxe. Instead of one mutable tree that must be kept in balance, it holds
+ * a list of <b>static</b>, perfectly balanced {@link FlatKDTree} <em>blocks</em>, where block <em>i</em> is either
+ * absent or holds at most <em>2<sup>i</sup></em> {@link KDPoint}s.</p>
+ *
+ * <p>Insertions behave like incrementing a binary counter: the new {@link KDPoint} and the contents of blocks
+ * <em>0, 1, ..., j-1</em> are merged into a freshly built block <em>j</em>, where <em>j</em> is the first absent block.
+ * Every {@link KDPoint} takes part in at most <em>log2(n)</em> such rebuilds, each of which costs
+ * <em>O(log n)</em> per {@link KDPoint}, for an amortized insertion cost of <em>O(log<sup>2</sup> n)</em>. Queries fan
+ * out over the <em>O(log n)</em> blocks and share a single result: the same {@link Collection} for range queries,
+ * the same {@link NNData} for nearest neighbor queries and the same {@link BoundedPriorityQueue} for
+ * k-nearest neighbor queries, so that candidates found in one block prune the search in the others.</p>
+ *
+ * <p>Deleting a {@link KDPoint} does not rebuild anything: the block that contains it marks its slot as deleted, and
+ * queries skip it from then on. Once more than half of the slots of the index hold deleted {@link KDPoint}s, all
+ * blocks are rebuilt over the remaining ones, which costs <em>O(n log n)</em> after <em>Omega(n)</em> deletions, for
+ * an amortized deletion cost of <em>O(log<sup>2</sup> n)</em>, dominated by finding the {@link KDPoint} in the
+ * blocks. Insertions compact the blocks that they merge as well. Like {@link KDTree}, the index is a multiset:
+ * inserting a {@link KDPoint} twice stores it twice, and deleting it removes a single copy. {@link KDPoint}s returned
+ * by queries are freshly allocated copies.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see FlatKDTree
+ * @see KDTree
+ */
+public class LogarithmicKDTree implements SpatialDictionary, SpatialQuerySolver {
+
+    /**
+     * The dimensionality of the space considered.
+     */
+    private final int dims;
+
+    /**
+     * The total number of {@link KDPoint}s held by the index.
+     */
+    private int count;
+
+    /**
+     * The number of slots of the blocks that hold deleted {@link KDPoint}s.
+     */
+    private int tombstones;
+
+    /**
+     * The blocks of the index. Block i is either null or has at most 2^i slots, at least one of which holds a
+     * {@link KDPoint} that has not been deleted.
+     */
+    private FlatKDTree[] blocks;
+
+    /**
+     * Default constructor constructs this with <em>k=2</em>.
+     * @see KDTree#DEFAULT_DIMS
+     */
+    public LogarithmicKDTree(){
+        this(KDTree.DEFAULT_DIMS);
+    }
+
+    /**
+     * This constructor requires that the user provide the value for <em>k</em>.
+     * @param k The dimensionality of this.
+     * @throws RuntimeException if k&lt;=0.
+     */
+    public LogarithmicKDTree(int k){
+        if(k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        dims = k;
+        blocks = new FlatKDTree[1];
+    }
+
+    @Override
+    public void insert(KDPoint p){
+        int j = 0, size = 1;
+        while(j < blocks.length && blocks[j] != null)
+            size += blocks[j++].count();
+        if(j == blocks.length){
+            FlatKDTree[] grown = new FlatKDTree[blocks.length + 1];
+            System.arraycopy(blocks, 0, grown, 0, blocks.length);
+            blocks = grown;
+        }
+
+        int[] rows = new int[size * dims];
+        System.arraycopy(p.coords, 0, rows, 0, dims);
+        int offset = dims;
+        for(int i = 0; i < j; i++){
+            blocks[i].copyCoordinates(rows, offset);
+            offset += blocks[i].count() * dims;
+            tombstones -= blocks[i].deletions();
+            blocks[i] = null;
+        }
+        blocks[j] = new FlatKDTree(dims, rows, size);
+        count++;
+    }
+
+    @Override
+    public void delete(KDPoint p){
+        for(int i = 0; i < blocks.length; i++){
+            if(blocks[i] != null && blocks[i].delete(p)){
+                count--;
+                tombstones++;
+                if(blocks[i].isEmpty()){
+                    tombstones -= blocks[i].deletions();
+                    blocks[i] = null;
+                }
+                if(tombstones > count)
+                    rebuild();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the index over the {@link KDPoint}s that have not been deleted, with a block of 2<sup>j</sup>
+     * {@link KDPoint}s for every bit j that is set in the binary representation of {@link #count()}, exactly as if they
+     * had been inserted one by one.
+     */
+    private void rebuild(){
+        int[] rows = new int[count * dims];
+        int offset = 0;
+        for(FlatKDTree block : blocks){
+            if(block != null){
+                block.copyCoordinates(rows, offset);
+                offset += block.count() * dims;
+            }
+        }
+        blocks = new FlatKDTree[Math.max(1, 32 - Integer.numberOfLeadingZeros(count))];
+        offset = 0;
+        for(int j = 0; j < blocks.length; j++){
+            if((count >>> j & 1) != 0){
+                int size = 1 << j;
+                int[] block = new int[size * dims];
+                System.arraycopy(rows, offset, block, 0, block.length);
+                blocks[j] = new FlatKDTree(dims, block, size);
+                offset += block.length;
+            }
+        }
+        tombstones = 0;
+    }
+
+    @Override
+    public boolean search(KDPoint p){
+        for(FlatKDTree block : blocks)
+            if(block != null && block.search(p))
+                return true;
+        return false;
+    }
+
+    @Override
+    public Collection<KDPoint> range(KDPoint p, double range){
+        LinkedList<KDPoint> pts = new LinkedList<>();
+        for(FlatKDTree block : blocks)
+            if(block != null)
+                block.range(p, range, pts);
+        return pts;
+    }
+
+    @Override
+    public KDPoint nearestNeighbor(KDPoint p){
+        NNData<KDPoint> n = new NNData<>(null, KDTree.INFTY);
+        for(int i = blocks.length - 1; i >= 0; i--) // Largest blocks first, for the tightest early bound.
+            if(blocks[i] != null)
+                blocks[i].nearestNeighbor(p, n);
+        return n.getBestGuess();
+    }
+
+    @Override
+    public BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p){
+        if(k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        BoundedPriorityQueue<KDPoint> queue = new BoundedPriorityQueue<>(k);
+        for(int i = blocks.length - 1; i >= 0; i--)
+            if(blocks[i] != null)
+                blocks[i].kNearestNeighbors(p, queue);
+        return queue;
+    }
+
+    /**
+     * Returns the height of the tallest block. Since every block is perfectly balanced, this is at most
+     * <em>floor(log2(n))</em> without deletions. Deleted {@link KDPoint}s keep their slots until the next rebuild, and
+     * never outnumber the others, so it is at most <em>floor(log2(n)) + 1</em> with them.
+     * @return The height of the tallest block, or -1 if the index is empty.
+     */
+    @Override
+    public int height(){
+        int h = -1;
+        for(FlatKDTree block : blocks)
+            if(block != null)
+                h = Math.max(h, block.height());
+        return h;
+    }
+
+    @Override
+    public boolean isEmpty(){
+        return count == 0;
+    }
+
+    @Override
+    public int count(){
+        return count;
+    }
+
+    /**
+     * Returns the number of blocks currently in use. Right after the index is built by insertions alone, or rebuilt
+     * after deletions, this is the number of ones in the binary representation of {@link #count()}.
+     * @return The number of non-empty blocks.
+     */
+    public int blockCount(){
+        int b = 0;
+        for(FlatKDTree block : blocks)
+            if(block != null)
+                b++;
+        return b;
+    }
+
+    /**
+     * A simple accessor for the dimensionality of the index.
+     * @return The dimensionality of the index.
+     */
+    public int getDimensionality(){
+        return dims;
+    }
+}
@@ -1,8 +1,12 @@
 package spatial.trees;
 
 import spatial.kdpoint.KDPoint;
+import spatial.kdpoint.Point2i;
 import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNQueryContext;
 import spatial.knnutils.NNData;
+import spatial.knnutils.QueryCost;
+import spatial.metrics.DistanceMetric;
 import spatial.nodes.PRQuadBlackNode;
 import spatial.nodes.PRQuadGrayNode;
 import spatial.nodes.PRQuadNode;
@@ -25,6 +29,10 @@ import java.util.LinkedList;
  * subtrees per nodes. The course staff has come around some papers with applications of oct-trees, which are extensions of PR-QuadTrees) in 3 *
  * dimensions. Beyond 3, it seems that the idea of such exponential fanout trie-based quadtrees fades.</p>
  *
+ * <p>Since a {@link PRQuadTree} only indexes the plane, it only accepts 2-dimensional {@link KDPoint}s, which its
+ * {@link PRQuadBlackNode}s store {@link Point2i packed} into {@code long}s. Queries return fresh {@link KDPoint}s,
+ * equal to the ones that were inserted.</p>
+ *
  * <p><b>YOU SHOULD ***NOT*** EDIT THIS CLASS!</b> If you do, you risk <b>not passing our tests!</b> All the functionality
  * of the P-R QuadTree will be implemented by the various {@link PRQuadNode}s.</p>
  *
@@ -100,19 +108,38 @@ public class PRQuadTree implements SpatialDictionary,SpatialQuerySolver {
      * @param p The {@link KDPoint} to insert into the tree.
      * @throws CentroidAccuracyException if the insertion causes a decomposition of the
      * tree that is too &quot; fine &quot; for {@code int} coordinate {@link KDPoint}s can handle.
+     * @throws RuntimeException if {@code p} is not 2-dimensional.
      */
     @Override
     public void insert(KDPoint p) throws CentroidAccuracyException{
+        insertIfAbsent(p);
+    }
+
+    /**
+     * Inserts {@code p} into the tree unless it is already there, in a single descent: the nodes keep count of the
+     * {@link KDPoint}s below them, so whether {@code p} was new is read off the count of the root instead of being
+     * searched for beforehand.
+     * @param p The {@link KDPoint} to insert into the tree.
+     * @return true if {@code p} was inserted, false if it was already in the tree.
+     * @throws CentroidAccuracyException if the insertion causes a decomposition of the
+     * tree that is too &quot; fine &quot; for {@code int} coordinate {@link KDPoint}s can handle.
+     * @throws RuntimeException if {@code p} is not 2-dimensional.
+     * @see #insert(KDPoint)
+     */
+    public boolean insertIfAbsent(KDPoint p) throws CentroidAccuracyException{
         if(root == null) {  // white nodes, first point stored
             // Notice that we are calling the second constructor of PRQuadBlackNode here!
             root = new PRQuadBlackNode(new KDPoint(0, 0), k, bucketingParam, p); // Initial centroid assumed at (0, 0).
             count++;
-        } else {// black or gray nodes
-            if(!root.search(p)) {
-                root = root.insert(p, k); // will adjust height accordingly.
-                count++;
-            }
+            return true;
         }
+        // black or gray nodes
+        int before = root.count();
+        root = root.insert(p, k); // will adjust height accordingly.
+        if(root.count() == before)
+            return false;
+        count++;
+        return true;
     }
 
     @Override
@@ -125,7 +152,19 @@ public class PRQuadTree implements SpatialDictionary,SpatialQuerySolver {
 
     @Override
     public boolean search(KDPoint p) {
-        return (root != null) && root.search(p);
+        return search(p, null);
+    }
+
+    /**
+     * Searches for a {@link KDPoint} like {@link #search(KDPoint)}, additionally charging every visited node to
+     * {@code cost}. A search only descends into the quadrant that contains p, so it visits a single path.
+     * @param p The {@link KDPoint} to search for.
+     * @param cost A {@link QueryCost} that accumulates the number of nodes visited, or {@code null}.
+     * @return true if p is in the tree, false otherwise.
+     * @see PRQuadNode#search(KDPoint, QueryCost)
+     */
+    public boolean search(KDPoint p, QueryCost cost) {
+        return (root != null) && root.search(p, cost);
     }
 
     @Override
@@ -179,7 +218,7 @@ public class PRQuadTree implements SpatialDictionary,SpatialQuerySolver {
 
     @Override
     public KDPoint nearestNeighbor(KDPoint p) {
-        NNData<KDPoint> n = new NNData<>(null, 10000);
+        NNData<KDPoint> n = new NNData<>(null, INFTY);
         if(root != null)
             n = root.nearestNeighbor(p, n);
         return n.getBestGuess();
@@ -195,6 +234,87 @@ public class PRQuadTree implements SpatialDictionary,SpatialQuerySolver {
         return queue; // Might be empty; that's not a problem.
     }
 
+    /**
+     * Performs a k-nearest neighbors query that writes its results into a caller-owned {@link KNNQueryContext} instead of
+     * a freshly allocated {@link BoundedPriorityQueue}. Reusing the same context for every query makes queries allocate
+     * nothing once the context has warmed up: the neighbors stay packed until they are read with
+     * {@link KNNQueryContext#getPoint(int)}.
+     * @param k A positive integer denoting the amount of neighbors to return.
+     * @param p The query point.
+     * @param context The context to write the results into. Its previous contents are discarded.
+     * @throws RuntimeException If k&lt;=0.
+     * @see PRQuadNode#kNearestNeighbors(PRQuadNode, KDPoint, KNNQueryContext)
+     */
+    public void kNearestNeighbors(int k, KDPoint p, KNNQueryContext context) {
+        context.reset(k, p);
+        PRQuadNode.kNearestNeighbors(root, p, context);
+    }
+
+    /**
+     * Performs a nearest neighbor query like {@link #nearestNeighbor(KDPoint)}, using a caller-owned
+     * {@link KNNQueryContext} instead of allocating an {@link NNData}.
+     * @param p The query {@link KDPoint}.
+     * @param context The context to search with. Its previous contents are discarded.
+     * @return The {@link KDPoint} closest to p other than p itself, or null if the tree holds no such {@link KDPoint}.
+     * @see #kNearestNeighbors(int, KDPoint, KNNQueryContext)
+     */
+    public KDPoint nearestNeighbor(KDPoint p, KNNQueryContext context) {
+        kNearestNeighbors(1, p, context);
+        return context.size() == 0 ? null : context.getPoint(0);
+    }
+
+    /**
+     * Performs a range query like {@link #range(KDPoint, double)}, measuring distances with the given
+     * {@link DistanceMetric} instead of the Euclidean distance.
+     * @param p The query {@link KDPoint}.
+     * @param range The maximum distance from p, according to the metric, <b>INCLUSIVE</b>.
+     * @param metric The {@link DistanceMetric} to measure distances with.
+     * @return A {@link Collection} over all {@link KDPoint}s within range of p, including p itself if the tree holds it,
+     * like {@link #range(KDPoint, double)}.
+     * @see PRQuadNode#range(KDPoint, Collection, double, DistanceMetric)
+     */
+    public Collection<KDPoint> range(KDPoint p, double range, DistanceMetric metric) {
+        LinkedList<KDPoint> pts = new LinkedList<>();
+        if(root != null)
+            root.range(p, pts, range, metric);
+        return pts;
+    }
+
+    /**
+     * Performs a nearest neighbor query like {@link #nearestNeighbor(KDPoint)}, measuring distances with the given
+     * {@link DistanceMetric} instead of the Euclidean distance.
+     * @param p The query {@link KDPoint}.
+     * @param metric The {@link DistanceMetric} to measure distances with.
+     * @return The {@link KDPoint} closest to p other than p itself, or null if there is no such {@link KDPoint}.
+     * @see PRQuadNode#nearestNeighbor(KDPoint, NNData, DistanceMetric)
+     */
+    public KDPoint nearestNeighbor(KDPoint p, DistanceMetric metric) {
+        NNData<KDPoint> n = new NNData<>(null, INFTY);
+        if(root != null)
+            root.nearestNeighbor(p, n, metric);
+        return n.getBestGuess();
+    }
+
+    /**
+     * Performs a k-nearest neighbors query like {@link #kNearestNeighbors(int, KDPoint)}, measuring distances with the
+     * given {@link DistanceMetric} instead of the Euclidean distance.
+     * @param k A positive integer denoting the amount of neighbors to return.
+     * @param p The query point.
+     * @param metric The {@link DistanceMetric} to measure distances with.
+     * @return A {@link BoundedPriorityQueue} containing the k-nearest neighbors of p, prioritized by their distance
+     * from p according to the metric.
+     * @throws RuntimeException If k&lt;=0.
+     * @see PRQuadNode#kNearestNeighbors(int, KDPoint, BoundedPriorityQueue, DistanceMetric)
+     */
+    public BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p, DistanceMetric metric) {
+        if(k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        BoundedPriorityQueue<KDPoint> queue = new BoundedPriorityQueue<>(k);
+        if(root != null)
+            root.kNearestNeighbors(k, p, queue, metric);
+        return queue;
+    }
+
     /**
      * A simple tree description generator for VizTree/CompactVizTree. It returns a string representation for the QuadTree
      * This tree representation follows jimblackler style (http://jimblackler.net/treefun/index.html).
@@ -0,0 +1,138 @@
+package spatial.trees;
+
+import spatial.kdpoint.KDPoint;
+import spatial.kdpoint.Point2i;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNQueryContext;
+import spatial.knnutils.SpatialEntry;
+import spatial.nodes.PRQuadBlackNode;
+import spatial.nodes.PRQuadNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * <p>{@link PRQuadTreeMap} is a {@link SpatialMap} backed by the same {@link PRQuadNode}s as a {@link PRQuadTree} with
+ * the same k and bucketing parameter, whose {@link PRQuadBlackNode}s also hold the values of their {@link KDPoint}s in
+ * an array parallel to their packed {@link KDPoint}s. It spans the same square, side 2<sup>k</sup> centered at the
+ * origin, splits and collapses its quadrants exactly like a {@link PRQuadTree} does, down to quadrants of side 1, and
+ * prunes its queries the same way. Queries read the values straight off the buckets they scan, so no second lookup is
+ * needed per result.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @param <V> The type of the values stored with the {@link KDPoint}s.
+ *
+ * @see PRQuadTree
+ * @see PRQuadBlackNode
+ * @see KDTreeMap
+ */
+public class PRQuadTreeMap<V> implements SpatialMap<V> {
+
+    private final int k;
+    private final int bucketingParam;
+    private PRQuadNode root;
+
+    /**
+     * Creates an empty {@link PRQuadTreeMap} that spans the square of side 2<sup>k</sup> centered at the origin.
+     * @param k The exponent of the side of the square. Refer to {@link PRQuadTree#PRQuadTree(int, int)} for details.
+     * @param bucketingParam The maximum number of entries a black node holds.
+     * @throws RuntimeException if k is not between 1 and 62, or if bucketingParam&lt;=0.
+     */
+    public PRQuadTreeMap(int k, int bucketingParam){
+        if (k < 1 || k > 62)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide an integer between 1 and 62.");
+        if (bucketingParam <= 0)
+            throw new RuntimeException("The bucketing parameter provided, " + bucketingParam + ", is invalid: Please provide a positive integer.");
+        this.k = k;
+        this.bucketingParam = bucketingParam;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws RuntimeException if {@code p} is not 2-dimensional or lies outside of the square spanned by the map.
+     * @throws CentroidAccuracyException if the insertion would split a quadrant of side 1, exactly like in {@link PRQuadTree}.
+     */
+    @Override
+    public V put(KDPoint p, V value) throws CentroidAccuracyException{
+        Point2i.pack(p); // Checks the dimensionality of p.
+        long half = 1L << (k - 1);
+        if (Math.abs((long) p.coords[0]) > half || Math.abs((long) p.coords[1]) > half)
+            throw new RuntimeException("The KDPoint provided, " + p + ", is invalid: Please provide a KDPoint within [" +
+                    -half + ", " + half + "] x [" + -half + ", " + half + "].");
+        if (root == null)
+            root = new PRQuadBlackNode(new KDPoint(0, 0), k, bucketingParam); // Initial centroid assumed at (0, 0).
+        V old = SpatialEntries.cast(root.getValue(p));
+        root = root.insert(p, value, k); // Only replaces the value of p if it is already in the map.
+        return old;
+    }
+
+    @Override
+    public V get(KDPoint p){
+        return root == null ? null : SpatialEntries.cast(root.getValue(p));
+    }
+
+    @Override
+    public boolean containsKey(KDPoint p){
+        return root != null && root.search(p);
+    }
+
+    @Override
+    public V remove(KDPoint p){
+        if (root == null)
+            return null;
+        V old = SpatialEntries.cast(root.getValue(p));
+        root = root.delete(p);
+        return old;
+    }
+
+    @Override
+    public Collection<SpatialEntry<V>> range(KDPoint p, double range){
+        Point2i.pack(p); // Checks the dimensionality of the anchor.
+        if (root == null)
+            return new LinkedList<>();
+        List<KDPoint> points = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        root.range(p, points, values, range);
+        return SpatialEntries.ofRange(p, points, values);
+    }
+
+    @Override
+    public SpatialEntry<V> nearestNeighbor(KDPoint p){
+        KNNQueryContext context = kNearestNeighbors(1, p, new KNNQueryContext());
+        return context.size() == 0 ? null : SpatialEntries.ofNeighbor(context, 0);
+    }
+
+    @Override
+    public BoundedPriorityQueue<SpatialEntry<V>> kNearestNeighbors(int k, KDPoint p){
+        return SpatialEntries.ofNeighbors(k, kNearestNeighbors(k, p, new KNNQueryContext()));
+    }
+
+    /**
+     * Runs the pruned, iterative k-nearest neighbors query of the nodes, which reports every neighbor with its value.
+     * @see PRQuadNode#kNearestNeighbors(PRQuadNode, KDPoint, KNNQueryContext)
+     */
+    private KNNQueryContext kNearestNeighbors(int k, KDPoint p, KNNQueryContext context){
+        context.reset(k, p);
+        Point2i.pack(p); // Checks the dimensionality of the anchor.
+        PRQuadNode.kNearestNeighbors(root, p, context);
+        return context;
+    }
+
+    @Override
+    public int height(){
+        return root == null ? -1 : root.height();
+    }
+
+    @Override
+    public boolean isEmpty(){
+        return count() == 0;
+    }
+
+    @Override
+    public int count(){
+        return root == null ? 0 : root.count();
+    }
+}
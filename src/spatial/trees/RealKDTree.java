@@ -0,0 +1,323 @@
+package spatial.trees;
+
+import spatial.kdpoint.DoubleKDPoint;
+import spatial.kdpoint.FloatKDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.function.Function;
+
+/**
+ * <p>{@link RealKDTree} is the <em>K</em>-D tree behind {@link DoubleKDTree} and {@link FloatKDTree}. Its nodes hold
+ * raw coordinate arrays of type C, {@code double[]} in {@link Doubles} and {@code float[]} in {@link Floats}, which the
+ * public trees unwrap from their points after validating them; results are wrapped back into points by the factory
+ * that the public tree provides. The traversals are shared, and only read the arrays through the accessors of the
+ * subclass, which widen single coordinates to {@code double}s on the fly. Since every {@code float} is exactly
+ * representable as a {@code double}, and {@link FloatKDPoint} computes its distances in {@code double}s anyway, the
+ * {@code float} tree compares and measures exactly like one written over {@code float[]}s, and it stores
+ * {@code float[]}s, so it takes half the memory per coordinate.</p>
+ *
+ * <p>It follows the same rules as {@link KDTree}: the node at depth <em>i</em> splits on dimension <em>i mod k</em>,
+ * insertions send coordinates that are <b>smaller</b> than the splitting coordinate left and all others right,
+ * deletions replace a node with the minimum of one of its subtrees, and queries never report the anchor itself.</p>
+ *
+ * @param <C> The type of the coordinate arrays that the nodes hold.
+ * @param <P> The type of the points that queries return.
+ *
+ * @author Isaac Solomon
+ *
+ * @see DoubleKDTree
+ * @see FloatKDTree
+ */
+abstract class RealKDTree<C, P> {
+
+    /**
+     * A {@link RealKDTree} whose nodes hold {@code double[]}s.
+     * @param <P> The type of the points that queries return.
+     */
+    static final class Doubles<P> extends RealKDTree<double[], P> {
+
+        private final Function<double[], P> toPoint;
+
+        /**
+         * @param toPoint Creates the point that queries return for a node, from coordinates that it must not retain.
+         */
+        Doubles(int k, Function<double[], P> toPoint){
+            super(k);
+            this.toPoint = toPoint;
+        }
+
+        @Override
+        double coord(double[] c, int d){
+            return c[d];
+        }
+
+        @Override
+        double squaredDistance(double[] a, double[] b){
+            return DoubleKDPoint.squaredDistance(a, b);
+        }
+
+        @Override
+        boolean sameCoords(double[] a, double[] b){
+            for (int i = 0; i < a.length; i++)
+                if (a[i] != b[i])
+                    return false;
+            return true;
+        }
+
+        @Override
+        P toPoint(double[] c){
+            return toPoint.apply(c);
+        }
+    }
+
+    /**
+     * A {@link RealKDTree} whose nodes hold {@code float[]}s.
+     * @param <P> The type of the points that queries return.
+     */
+    static final class Floats<P> extends RealKDTree<float[], P> {
+
+        private final Function<float[], P> toPoint;
+
+        /**
+         * @param toPoint Creates the point that queries return for a node, from coordinates that it must not retain.
+         */
+        Floats(int k, Function<float[], P> toPoint){
+            super(k);
+            this.toPoint = toPoint;
+        }
+
+        @Override
+        double coord(float[] c, int d){
+            return c[d];
+        }
+
+        @Override
+        double squaredDistance(float[] a, float[] b){
+            return FloatKDPoint.squaredDistance(a, b);
+        }
+
+        @Override
+        boolean sameCoords(float[] a, float[] b){
+            for (int i = 0; i < a.length; i++)
+                if (a[i] != b[i])
+                    return false;
+            return true;
+        }
+
+        @Override
+        P toPoint(float[] c){
+            return toPoint.apply(c);
+        }
+    }
+
+    private static final class Node<C> {
+        C coords;
+        Node<C> left, right;
+
+        Node(C coords){
+            this.coords = coords;
+        }
+    }
+
+    /**
+     * The nearest neighbor found so far by {@link #nearestNeighbor(Object)}.
+     */
+    private static final class Nearest<C> {
+        Node<C> node;
+        double squaredDistance = Double.POSITIVE_INFINITY;
+    }
+
+    private final int dims;
+    private Node<C> root;
+    private int count;
+
+    /**
+     * Creates an empty {@link RealKDTree} of dimensionality k.
+     * @param k The dimensionality of the tree.
+     * @throws RuntimeException if k&lt;=0.
+     */
+    RealKDTree(int k){
+        if (k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        dims = k;
+    }
+
+    /**
+     * Returns the coordinate of c along dimension d, widened to a {@code double}.
+     */
+    abstract double coord(C c, int d);
+
+    abstract double squaredDistance(C a, C b);
+
+    abstract boolean sameCoords(C a, C b);
+
+    abstract P toPoint(C c);
+
+    int getDimensionality(){
+        return dims;
+    }
+
+    /**
+     * Inserts a point. Like {@link KDTree}, the tree may hold several equal points.
+     * @param c The coordinates of the point, which the tree keeps, so they must not be shared.
+     */
+    void insert(C c){
+        Node<C> fresh = new Node<>(c);
+        if (root == null){
+            root = fresh;
+        } else {
+            Node<C> n = root;
+            for (int d = 0; ; d = (d + 1) % dims){
+                if (coord(c, d) < coord(n.coords, d)){
+                    if (n.left == null){
+                        n.left = fresh;
+                        break;
+                    }
+                    n = n.left;
+                } else {
+                    if (n.right == null){
+                        n.right = fresh;
+                        break;
+                    }
+                    n = n.right;
+                }
+            }
+        }
+        count++;
+    }
+
+    /**
+     * Deletes one occurrence of a point from the tree, if any.
+     * @param c The coordinates of the point.
+     */
+    void delete(C c){
+        if (search(c)){
+            root = delete(root, c, 0);
+            count--; // Guaranteed successful deletion.
+        }
+    }
+
+    private Node<C> delete(Node<C> n, C c, int depth){
+        int d = depth % dims;
+        if (sameCoords(n.coords, c)){
+            if (n.right != null){ // Replace with the minimum of the right subtree on d.
+                C min = findMin(n.right, d, depth + 1).coords;
+                n.coords = min;
+                n.right = delete(n.right, min, depth + 1);
+            } else if (n.left != null){ // Replace with the minimum of the left subtree on d, and move it to the right.
+                C min = findMin(n.left, d, depth + 1).coords;
+                n.coords = min;
+                n.right = delete(n.left, min, depth + 1);
+                n.left = null;
+            } else {
+                return null;
+            }
+        } else if (coord(c, d) < coord(n.coords, d)){
+            n.left = delete(n.left, c, depth + 1);
+        } else {
+            n.right = delete(n.right, c, depth + 1);
+        }
+        return n;
+    }
+
+    private Node<C> findMin(Node<C> n, int dim, int depth){
+        Node<C> min = n;
+        if (n.left != null){
+            Node<C> leftMin = findMin(n.left, dim, depth + 1);
+            if (coord(leftMin.coords, dim) < coord(min.coords, dim))
+                min = leftMin;
+        }
+        if (n.right != null && depth % dims != dim){ // The right subtree only matters if n does not split on dim.
+            Node<C> rightMin = findMin(n.right, dim, depth + 1);
+            if (coord(rightMin.coords, dim) < coord(min.coords, dim))
+                min = rightMin;
+        }
+        return min;
+    }
+
+    boolean search(C c){
+        Node<C> n = root;
+        for (int d = 0; n != null; d = (d + 1) % dims){
+            if (sameCoords(n.coords, c))
+                return true;
+            n = coord(c, d) < coord(n.coords, d) ? n.left : n.right;
+        }
+        return false;
+    }
+
+    Collection<P> range(C c, double range){
+        Collection<P> results = new LinkedList<>();
+        range(root, c, 0, DoubleKDPoint.squaredRangeBound(range), results);
+        return results;
+    }
+
+    private void range(Node<C> n, C c, int d, double rangeSq, Collection<P> results){
+        if (n == null)
+            return;
+        if (squaredDistance(n.coords, c) <= rangeSq && !sameCoords(n.coords, c))
+            results.add(toPoint(n.coords));
+        double diff = coord(c, d) - coord(n.coords, d);
+        Node<C> near = diff < 0 ? n.left : n.right, far = diff < 0 ? n.right : n.left;
+        int next = (d + 1) % dims;
+        range(near, c, next, rangeSq, results);
+        if (diff * diff <= rangeSq)
+            range(far, c, next, rangeSq, results);
+    }
+
+    P nearestNeighbor(C c){
+        Nearest<C> best = new Nearest<>();
+        nearestNeighbor(root, c, 0, best);
+        return best.node == null ? null : toPoint(best.node.coords);
+    }
+
+    private void nearestNeighbor(Node<C> n, C c, int d, Nearest<C> best){
+        if (n == null)
+            return;
+        double sq = squaredDistance(n.coords, c);
+        if (sq < best.squaredDistance && !sameCoords(n.coords, c)){
+            best.node = n;
+            best.squaredDistance = sq;
+        }
+        double diff = coord(c, d) - coord(n.coords, d);
+        int next = (d + 1) % dims;
+        nearestNeighbor(diff < 0 ? n.left : n.right, c, next, best);
+        if (diff * diff < best.squaredDistance)
+            nearestNeighbor(diff < 0 ? n.right : n.left, c, next, best);
+    }
+
+    /**
+     * Returns the k nearest neighbors of a point, other than itself. k must be positive.
+     */
+    BoundedPriorityQueue<P> kNearestNeighbors(int k, C c){
+        BoundedPriorityQueue<P> queue = new BoundedPriorityQueue<>(k);
+        kNearestNeighbors(root, c, 0, queue);
+        return queue;
+    }
+
+    private void kNearestNeighbors(Node<C> n, C c, int d, BoundedPriorityQueue<P> queue){
+        if (n == null)
+            return;
+        double dist = Math.sqrt(squaredDistance(n.coords, c));
+        if ((!queue.isFull() || dist < queue.lastPriority()) && !sameCoords(n.coords, c))
+            queue.enqueue(toPoint(n.coords), dist);
+        double diff = coord(c, d) - coord(n.coords, d);
+        int next = (d + 1) % dims;
+        kNearestNeighbors(diff < 0 ? n.left : n.right, c, next, queue);
+        if (!queue.isFull() || Math.abs(diff) <= queue.lastPriority())
+            kNearestNeighbors(diff < 0 ? n.right : n.left, c, next, queue);
+    }
+
+    int height(){
+        return height(root);
+    }
+
+    private static int height(Node<?> n){
+        return n == null ? -1 : 1 + Math.max(height(n.left), height(n.right));
+    }
+
+    int count(){
+        return count;
+    }
+}
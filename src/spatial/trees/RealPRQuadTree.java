@@ -0,0 +1,417 @@
+package spatial.trees;
+
+import spatial.kdpoint.DoubleKDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * <p>{@link RealPRQuadTree} is the PR-QuadTree behind {@link DoublePRQuadTree} and {@link FloatPRQuadTree}. It works on
+ * raw coordinates, which the public trees unwrap from their points after validating them, and passes single
+ * coordinates around as {@code double}s, which every {@code float} is exactly representable as; results are wrapped
+ * back into points by the factory that the public tree provides.</p>
+ *
+ * <p>It spans an arbitrary real-valued rectangle and subdivides it at the midpoints of its sides. Like in
+ * {@link PRQuadTree}, a point whose coordinate equals the midpoint goes to the <b>upper</b> half of that axis, every
+ * black node holds up to bucketing parameter points, and a gray node collapses back into a black node once its
+ * subtree holds no more than that. Black nodes store their bucket in two primitive arrays of type B, one per axis:
+ * {@code double[]}s in {@link Doubles}, and {@code float[]}s in {@link Floats}, which take half the memory. The
+ * quadrants are always split in {@code double}s.</p>
+ *
+ * @param <B> The type of the arrays that hold the coordinates of a bucket.
+ * @param <P> The type of the points that queries return.
+ *
+ * @author Isaac Solomon
+ *
+ * @see DoublePRQuadTree
+ * @see FloatPRQuadTree
+ */
+abstract class RealPRQuadTree<B, P> {
+
+    /**
+     * Creates the point that queries return for the coordinates (x, y).
+     * @param <P> The type of the points.
+     */
+    interface PointFactory<P> {
+        P create(double x, double y);
+    }
+
+    /**
+     * A {@link RealPRQuadTree} whose buckets are {@code double[]}s.
+     * @param <P> The type of the points that queries return.
+     */
+    static final class Doubles<P> extends RealPRQuadTree<double[], P> {
+
+        private static final double[] EMPTY = {};
+
+        Doubles(double minX, double minY, double maxX, double maxY, int bucketingParam, PointFactory<P> toPoint){
+            super(minX, minY, maxX, maxY, bucketingParam, toPoint);
+        }
+
+        @Override
+        double[] newBucket(int length){
+            return length == 0 ? EMPTY : new double[length];
+        }
+
+        @Override
+        int length(double[] bucket){
+            return bucket.length;
+        }
+
+        @Override
+        double get(double[] bucket, int i){
+            return bucket[i];
+        }
+
+        @Override
+        void set(double[] bucket, int i, double v){
+            bucket[i] = v;
+        }
+    }
+
+    /**
+     * A {@link RealPRQuadTree} whose buckets are {@code float[]}s. Its coordinates must be {@code float}s, so that
+     * storing them is exact.
+     * @param <P> The type of the points that queries return.
+     */
+    static final class Floats<P> extends RealPRQuadTree<float[], P> {
+
+        private static final float[] EMPTY = {};
+
+        Floats(float minX, float minY, float maxX, float maxY, int bucketingParam, PointFactory<P> toPoint){
+            super(minX, minY, maxX, maxY, bucketingParam, toPoint);
+        }
+
+        @Override
+        float[] newBucket(int length){
+            return length == 0 ? EMPTY : new float[length];
+        }
+
+        @Override
+        int length(float[] bucket){
+            return bucket.length;
+        }
+
+        @Override
+        double get(float[] bucket, int i){
+            return bucket[i];
+        }
+
+        @Override
+        void set(float[] bucket, int i, double v){
+            bucket[i] = (float) v;
+        }
+    }
+
+    /**
+     * A gray node if it has children, and a black node otherwise.
+     */
+    private static final class Node<B> {
+        final double minX, minY, maxX, maxY, midX, midY;
+        Node<B>[] children; // Indexed by quadrant(x, y); null for a black node.
+        B xs, ys; // The bucket of a black node; only the first count entries are used.
+        int count; // The number of points in the subtree rooted at this.
+
+        Node(double minX, double minY, double maxX, double maxY, B empty){
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            midX = midpoint(minX, maxX);
+            midY = midpoint(minY, maxY);
+            xs = ys = empty; // Allocated on the first insertion, since many quadrants stay empty.
+        }
+
+        int quadrant(double x, double y){
+            return (x >= midX ? 1 : 0) | (y >= midY ? 2 : 0);
+        }
+
+        /**
+         * The squared distance between (x, y) and the closest point of the quadrant spanned by this.
+         */
+        double squaredDistanceTo(double x, double y){
+            double dx = Math.max(0, Math.max(minX - x, x - maxX));
+            double dy = Math.max(0, Math.max(minY - y, y - maxY));
+            return dx * dx + dy * dy;
+        }
+    }
+
+    /**
+     * The nearest neighbor found so far by {@link #nearestNeighbor(double, double)}.
+     */
+    private static final class Nearest {
+        double x, y;
+        double squaredDistance = Double.POSITIVE_INFINITY;
+    }
+
+    private final int bucketingParam;
+    private final PointFactory<P> toPoint;
+    private final Node<B> root;
+
+    /**
+     * Creates an empty {@link RealPRQuadTree} that spans the rectangle [minX, maxX] &times; [minY, maxY].
+     * @param minX The smallest x coordinate the tree accepts.
+     * @param minY The smallest y coordinate the tree accepts.
+     * @param maxX The largest x coordinate the tree accepts.
+     * @param maxY The largest y coordinate the tree accepts.
+     * @param bucketingParam The maximum number of points a black node holds.
+     * @param toPoint Creates the points that queries return.
+     * @throws RuntimeException if the rectangle is empty or not finite, or if bucketingParam&lt;=0.
+     */
+    RealPRQuadTree(double minX, double minY, double maxX, double maxY, int bucketingParam, PointFactory<P> toPoint){
+        if (!(minX < maxX && minY < maxY) || Double.isInfinite(minX) || Double.isInfinite(minY)
+                || Double.isInfinite(maxX) || Double.isInfinite(maxY))
+            throw new RuntimeException("The bounds provided, [" + minX + ", " + maxX + "] x [" + minY + ", " + maxY +
+                    "], are invalid: Please provide a finite rectangle of positive area.");
+        if (bucketingParam <= 0)
+            throw new RuntimeException("The bucketing parameter provided, " + bucketingParam + ", is invalid: Please provide a positive integer.");
+        this.bucketingParam = bucketingParam;
+        this.toPoint = toPoint;
+        root = new Node<>(minX, minY, maxX, maxY, newBucket(0));
+    }
+
+    /**
+     * Allocates the array of a bucket.
+     * @param length The length of the array; the array of length 0 may be shared.
+     */
+    abstract B newBucket(int length);
+
+    abstract int length(B bucket);
+
+    /**
+     * Returns the i-th coordinate of a bucket array, widened to a {@code double}.
+     */
+    abstract double get(B bucket, int i);
+
+    /**
+     * Stores a coordinate into the i-th entry of a bucket array.
+     */
+    abstract void set(B bucket, int i, double v);
+
+    private static double midpoint(double lo, double hi){
+        double mid = (lo + hi) / 2;
+        return Double.isInfinite(mid) ? lo / 2 + hi / 2 : mid; // The sum can overflow even if both ends are finite.
+    }
+
+    /**
+     * Inserts the point (x, y) into the tree. If it is <b>already</b> in the tree, this method has no effect.
+     * @param p The point that (x, y) came from, for error messages.
+     * @throws RuntimeException if the point lies outside of the rectangle spanned by the tree.
+     * @throws CentroidAccuracyException if the insertion would split a quadrant beyond the precision of {@code double}s.
+     */
+    void insert(double x, double y, Object p) throws CentroidAccuracyException{
+        if (!(x >= root.minX && x <= root.maxX && y >= root.minY && y <= root.maxY))
+            throw new RuntimeException("The " + p.getClass().getSimpleName() + " provided, " + p + ", is invalid: " +
+                    "Please provide a point within [" + root.minX + ", " + root.maxX + "] x [" + root.minY + ", " +
+                    root.maxY + "].");
+        if (!search(x, y))
+            insert(root, x, y);
+    }
+
+    private void insert(Node<B> n, double x, double y){
+        if (n.children == null){
+            if (n.count < bucketingParam){
+                append(n, x, y);
+                return;
+            }
+            split(n);
+        }
+        insert(n.children[n.quadrant(x, y)], x, y);
+        n.count++; // Only counted once the insertion below has succeeded.
+    }
+
+    private void append(Node<B> n, double x, double y){
+        if (n.count == length(n.xs)){
+            int capacity = Math.min(bucketingParam, Math.max(4, 2 * n.count));
+            n.xs = grow(n.xs, n.count, capacity);
+            n.ys = grow(n.ys, n.count, capacity);
+        }
+        set(n.xs, n.count, x);
+        set(n.ys, n.count, y);
+        n.count++;
+    }
+
+    /**
+     * Copies the first count entries of a bucket array into a new one of the given length.
+     */
+    private B grow(B bucket, int count, int length){
+        B grown = newBucket(length);
+        System.arraycopy(bucket, 0, grown, 0, count);
+        return grown;
+    }
+
+    /**
+     * Turns a full black node into a gray node with four black children, which share its points.
+     */
+    @SuppressWarnings("unchecked")
+    private void split(Node<B> n){
+        if (!(n.minX < n.midX && n.midX < n.maxX && n.minY < n.midY && n.midY < n.maxY))
+            throw new CentroidAccuracyException("The quadrant [" + n.minX + ", " + n.maxX + "] x [" + n.minY + ", " +
+                    n.maxY + "] cannot be split any further in double precision.");
+        B empty = newBucket(0);
+        n.children = new Node[]{new Node<>(n.minX, n.minY, n.midX, n.midY, empty), new Node<>(n.midX, n.minY, n.maxX, n.midY, empty),
+                new Node<>(n.minX, n.midY, n.midX, n.maxY, empty), new Node<>(n.midX, n.midY, n.maxX, n.maxY, empty)};
+        for (int i = 0; i < n.count; i++){
+            double x = get(n.xs, i), y = get(n.ys, i);
+            append(n.children[n.quadrant(x, y)], x, y);
+        }
+        n.xs = n.ys = null;
+    }
+
+    void delete(double x, double y){
+        delete(root, x, y);
+    }
+
+    private boolean delete(Node<B> n, double x, double y){
+        if (n.children == null){
+            int i = indexOf(n, x, y);
+            if (i < 0)
+                return false;
+            n.count--;
+            System.arraycopy(n.xs, i + 1, n.xs, i, n.count - i);
+            System.arraycopy(n.ys, i + 1, n.ys, i, n.count - i);
+            return true;
+        }
+        if (!delete(n.children[n.quadrant(x, y)], x, y))
+            return false;
+        n.count--;
+        if (n.count <= bucketingParam){ // Collapse back into a black node.
+            B xs = newBucket(n.count), ys = newBucket(n.count);
+            collect(n, xs, ys, 0);
+            n.children = null;
+            n.xs = xs;
+            n.ys = ys;
+        }
+        return true;
+    }
+
+    private static <B> int collect(Node<B> n, B xs, B ys, int at){
+        if (n.children == null){
+            System.arraycopy(n.xs, 0, xs, at, n.count);
+            System.arraycopy(n.ys, 0, ys, at, n.count);
+            return at + n.count;
+        }
+        for (Node<B> child : n.children)
+            at = collect(child, xs, ys, at);
+        return at;
+    }
+
+    boolean search(double x, double y){
+        Node<B> n = root;
+        while (n.children != null)
+            n = n.children[n.quadrant(x, y)];
+        return indexOf(n, x, y) >= 0;
+    }
+
+    private int indexOf(Node<B> n, double x, double y){
+        for (int i = 0; i < n.count; i++)
+            if (get(n.xs, i) == x && get(n.ys, i) == y)
+                return i;
+        return -1;
+    }
+
+    Collection<P> range(double x, double y, double range){
+        Collection<P> results = new LinkedList<>();
+        range(root, x, y, DoubleKDPoint.squaredRangeBound(range), results);
+        return results;
+    }
+
+    private void range(Node<B> n, double x, double y, double rangeSq, Collection<P> results){
+        if (n.squaredDistanceTo(x, y) > rangeSq)
+            return;
+        if (n.children != null){
+            for (Node<B> child : n.children)
+                range(child, x, y, rangeSq, results);
+            return;
+        }
+        for (int i = 0; i < n.count; i++){
+            double px = get(n.xs, i), py = get(n.ys, i), dx = px - x, dy = py - y;
+            if (dx * dx + dy * dy <= rangeSq && (dx != 0 || dy != 0))
+                results.add(toPoint.create(px, py));
+        }
+    }
+
+    P nearestNeighbor(double x, double y){
+        Nearest best = new Nearest();
+        nearestNeighbor(root, x, y, best);
+        return best.squaredDistance == Double.POSITIVE_INFINITY ? null : toPoint.create(best.x, best.y);
+    }
+
+    private void nearestNeighbor(Node<B> n, double x, double y, Nearest best){
+        if (n.children == null){
+            for (int i = 0; i < n.count; i++){
+                double px = get(n.xs, i), py = get(n.ys, i), dx = px - x, dy = py - y, sq = dx * dx + dy * dy;
+                if (sq < best.squaredDistance && (dx != 0 || dy != 0)){
+                    best.x = px;
+                    best.y = py;
+                    best.squaredDistance = sq;
+                }
+            }
+            return;
+        }
+        for (Node<B> child : byDistance(n, x, y))
+            if (child.count > 0 && child.squaredDistanceTo(x, y) < best.squaredDistance)
+                nearestNeighbor(child, x, y, best);
+    }
+
+    /**
+     * Returns the k nearest neighbors of (x, y), other than itself. k must be positive.
+     */
+    BoundedPriorityQueue<P> kNearestNeighbors(int k, double x, double y){
+        BoundedPriorityQueue<P> queue = new BoundedPriorityQueue<>(k);
+        kNearestNeighbors(root, x, y, queue);
+        return queue;
+    }
+
+    private void kNearestNeighbors(Node<B> n, double x, double y, BoundedPriorityQueue<P> queue){
+        if (n.children == null){
+            for (int i = 0; i < n.count; i++){
+                double px = get(n.xs, i), py = get(n.ys, i), dx = px - x, dy = py - y, dist = Math.sqrt(dx * dx + dy * dy);
+                if ((!queue.isFull() || dist < queue.lastPriority()) && (dx != 0 || dy != 0))
+                    queue.enqueue(toPoint.create(px, py), dist);
+            }
+            return;
+        }
+        for (Node<B> child : byDistance(n, x, y))
+            if (child.count > 0 && (!queue.isFull() || Math.sqrt(child.squaredDistanceTo(x, y)) < queue.lastPriority()))
+                kNearestNeighbors(child, x, y, queue);
+    }
+
+    /**
+     * Returns the children of a gray node, sorted by the distance of their quadrants from (x, y).
+     */
+    private static <B> Node<B>[] byDistance(Node<B> n, double x, double y){
+        Node<B>[] sorted = n.children.clone();
+        double[] keys = new double[4];
+        for (int i = 0; i < 4; i++){
+            Node<B> child = sorted[i];
+            double key = child.squaredDistanceTo(x, y);
+            int j = i;
+            for (; j > 0 && keys[j - 1] > key; j--){
+                sorted[j] = sorted[j - 1];
+                keys[j] = keys[j - 1];
+            }
+            sorted[j] = child;
+            keys[j] = key;
+        }
+        return sorted;
+    }
+
+    int height(){
+        return root.count == 0 ? -1 : height(root);
+    }
+
+    private static int height(Node<?> n){
+        if (n.children == null)
+            return 0;
+        int max = 0;
+        for (Node<?> child : n.children)
+            max = Math.max(max, height(child));
+        return 1 + max;
+    }
+
+    int count(){
+        return root.count;
+    }
+}
@@ -0,0 +1,77 @@
+package spatial.trees;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNQueryContext;
+import spatial.knnutils.SpatialEntry;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * <p>{@link SpatialEntries} turns the results of the queries of the nodes, which report {@link KDPoint}s along with
+ * their values, into the {@link SpatialEntry SpatialEntries} that {@link SpatialMap}s return. It is shared by
+ * {@link KDTreeMap} and {@link PRQuadTreeMap}, whose queries only differ in the nodes that they run on.</p>
+ *
+ * <p>The {@link KDPoint}s of the entries are always fresh copies, since some trees report their own.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @see SpatialMap
+ */
+final class SpatialEntries {
+
+    private SpatialEntries(){
+        // Static helpers only.
+    }
+
+    /**
+     * Pairs the results of a range query with their values, except for the anchor itself.
+     * @param anchor The anchor of the query.
+     * @param points The {@link KDPoint}s that the query reported.
+     * @param values Their values, in the same order.
+     * @param <V> The type of the values.
+     * @return A {@link Collection} of entries.
+     */
+    static <V> Collection<SpatialEntry<V>> ofRange(KDPoint anchor, Collection<KDPoint> points, Collection<Object> values){
+        Collection<SpatialEntry<V>> entries = new LinkedList<>();
+        Iterator<Object> value = values.iterator();
+        for (KDPoint p : points){
+            V v = cast(value.next());
+            if (!p.equals(anchor)) // Never report the anchor itself.
+                entries.add(new SpatialEntry<>(new KDPoint(p), v, p.euclideanDistance(anchor)));
+        }
+        return entries;
+    }
+
+    /**
+     * Turns the results of a k-nearest neighbor query into a {@link BoundedPriorityQueue} of entries.
+     * @param k The capacity of the queue.
+     * @param context The context that the query wrote its results into.
+     * @param <V> The type of the values.
+     * @return A {@link BoundedPriorityQueue} of at most k entries.
+     */
+    static <V> BoundedPriorityQueue<SpatialEntry<V>> ofNeighbors(int k, KNNQueryContext context){
+        BoundedPriorityQueue<SpatialEntry<V>> queue = new BoundedPriorityQueue<>(k);
+        for (int i = 0; i < context.size(); i++) // Already sorted, so ties stay in the order the query found them.
+            queue.enqueue(ofNeighbor(context, i), context.getDistance(i));
+        return queue;
+    }
+
+    /**
+     * Returns the i-th nearest neighbor found by a query as an entry.
+     * @param context The context that the query wrote its results into.
+     * @param i The rank of the neighbor.
+     * @param <V> The type of the values.
+     * @return The entry of the i-th nearest neighbor.
+     */
+    static <V> SpatialEntry<V> ofNeighbor(KNNQueryContext context, int i){
+        return new SpatialEntry<>(new KDPoint(context.getPoint(i)), cast(context.getValue(i)), context.getDistance(i));
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> V cast(Object value){
+        return (V) value; // Maps only ever store values of type V.
+    }
+}
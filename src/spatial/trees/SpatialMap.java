@@ -0,0 +1,97 @@
+package spatial.trees;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.SpatialEntry;
+
+import java.util.Collection;
+
+/**
+ * <p>{@link SpatialMap} is the counterpart of {@link SpatialDictionary} and {@link SpatialQuerySolver} for data
+ * structures that store a <b>value</b> with every {@link KDPoint}, such as the gas station found at some location.
+ * Every {@link KDPoint} maps to at most one value, and queries return {@link SpatialEntry SpatialEntries}, which carry
+ * the {@link KDPoint}, its value and its distance from the anchor, so that no second lookup is needed per result.</p>
+ *
+ * <p>Like the queries of the trees, those of a {@link SpatialMap} never report an entry at the anchor itself.</p>
+ *
+ * @author Isaac Solomon
+ *
+ * @param <V> The type of the values stored with the {@link KDPoint}s.
+ *
+ * @see SpatialDictionary
+ * @see SpatialQuerySolver
+ * @see SpatialEntry
+ */
+public interface SpatialMap<V> {
+
+    /**
+     * Associates {@code value} with {@code p}, replacing any value that {@code p} was already associated with.
+     * @param p The {@link KDPoint} to associate the value with.
+     * @param value The value to store.
+     * @return The value {@code p} was previously associated with, or null if it was not in the map.
+     */
+    V put(KDPoint p, V value);
+
+    /**
+     * Returns the value associated with {@code p}.
+     * @param p The {@link KDPoint} to look for.
+     * @return The value {@code p} is associated with, or null if it is not in the map.
+     */
+    V get(KDPoint p);
+
+    /**
+     * Removes {@code p}, and its value, from the map. If {@code p} is not in the map, the map is not changed.
+     * @param p The {@link KDPoint} to remove.
+     * @return The value {@code p} was associated with, or null if it was not in the map.
+     */
+    V remove(KDPoint p);
+
+    /**
+     * Reports whether {@code p} is in the map.
+     * @param p The {@link KDPoint} to look for.
+     * @return true if {@code p} is associated with a value, false otherwise.
+     */
+    boolean containsKey(KDPoint p);
+
+    /**
+     * Returns the entries whose {@link KDPoint}s lie within {@code range}, <b>INCLUSIVE</b>, of {@code p}.
+     * @param p The anchor of the query.
+     * @param range The radius of the query.
+     * @return A {@link Collection} of the entries within range, empty if there are none.
+     */
+    Collection<SpatialEntry<V>> range(KDPoint p, double range);
+
+    /**
+     * Returns the entry whose {@link KDPoint} is nearest to {@code p}.
+     * @param p The anchor of the query.
+     * @return The nearest entry, or null if the map holds no entry other than the one at {@code p}.
+     */
+    SpatialEntry<V> nearestNeighbor(KDPoint p);
+
+    /**
+     * Returns the k entries whose {@link KDPoint}s are nearest to {@code p}, prioritized by their distance from it.
+     * @param k A positive integer denoting the amount of neighbors to return.
+     * @param p The anchor of the query.
+     * @return A {@link BoundedPriorityQueue} of at most k entries.
+     * @throws RuntimeException If k&lt;=0.
+     */
+    BoundedPriorityQueue<SpatialEntry<V>> kNearestNeighbors(int k, KDPoint p);
+
+    /**
+     * Returns the height of the underlying tree, as defined by {@link SpatialDictionary#height()}.
+     * @return The height of the underlying tree.
+     */
+    int height();
+
+    /**
+     * Reports whether the map is empty.
+     * @return true iff {@link #count()} == 0, false otherwise.
+     */
+    boolean isEmpty();
+
+    /**
+     * Returns the number of entries in the map.
+     * @return The number of entries in the map.
+     */
+    int count();
+}